@@ -6,11 +6,17 @@ import org.eclipse.lsp4j.*;
 import org.eclipse.lsp4j.jsonrpc.Launcher;
 import org.eclipse.lsp4j.services.*;
 import server.commands.AllCommands;
+import server.progress.IndexingProgress;
+import server.progress.SyncProgress;
+import server.progress.WorkDoneProgress;
+import server.utils.Nullability;
 import server.workspace.ProjectFolder;
+import server.workspace.SyncScheduler;
 import server.workspace.Workspace;
 import server.bazel.cli.BazelServerException;
 
 import java.util.Arrays;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 
 public class BazelLanguageServer implements LanguageServer, LanguageClientAware {
@@ -28,27 +34,46 @@ public class BazelLanguageServer implements LanguageServer, LanguageClientAware
     }
 
     private BazelServices bazelServices;
+    private boolean clientSupportsProgress;
 
     public BazelLanguageServer() {
         bazelServices = new BazelServices();
+        clientSupportsProgress = false;
     }
 
     @Override
     public CompletableFuture<InitializeResult> initialize(InitializeParams params) {
         logger.info(String.format("Starting up bazel language server with params:\n\"%s\"", params));
         initializeWorkspaceRoot(params);
+        clientSupportsProgress = Nullability.nullableOr(
+                false,
+                () -> params.getCapabilities().getWindow().getWorkDoneProgress()
+        );
+        initializeSyncScheduler();
         return CompletableFuture.completedFuture(specifyServerCapabilities());
     }
 
+    /**
+     * Indexing a large workspace can take minutes, so it happens on the sync thread once the
+     * client has finished initializing. Requests are served against an empty tree until the first
+     * snapshot is published.
+     */
+    @Override
+    public void initialized(InitializedParams params) {
+        indexWorkspace();
+    }
+
     private InitializeResult specifyServerCapabilities() {
         ServerCapabilities serverCapabilities = new ServerCapabilities();
 
-        serverCapabilities.setTextDocumentSync(TextDocumentSyncKind.Full);
+        serverCapabilities.setTextDocumentSync(TextDocumentSyncKind.Incremental);
         serverCapabilities.setCompletionProvider(new CompletionOptions(true, Arrays.asList(":", "/", "\"")));
         serverCapabilities.setDocumentFormattingProvider(true);
         serverCapabilities.setCodeLensProvider(new CodeLensOptions(true));
         serverCapabilities.setExecuteCommandProvider(new ExecuteCommandOptions(AllCommands.allCommands()));
         serverCapabilities.setDocumentLinkProvider(new DocumentLinkOptions(true));
+        serverCapabilities.setWorkspaceSymbolProvider(true);
+        serverCapabilities.setDefinitionProvider(true);
 
         logger.info(String.format("Declared server capabilities: \"%s\"", serverCapabilities));
 
@@ -59,21 +84,50 @@ public class BazelLanguageServer implements LanguageServer, LanguageClientAware
         final ProjectFolder folder = ProjectFolder.fromURI(params.getRootUri());
         Workspace.getInstance().setRootFolder(folder);
 
-        try {
-            Workspace.getInstance().syncWorkspace();
-            logger.info("workspace syned");
-        } catch (BazelServerException e) {
-            logger.info("workspace error");
-            String message = "Bazel Extension Failed to parse due to BUILD Parsing errors:\n";
-            String fix = "Please fix the Bazel Syntax error then restart the Extension\n";
-            bazelServices.sendMessageToClient(MessageType.Error, message + fix + e.getMessage());
-        }
-
         logger.info(String.format("Declared root folder: \"%s\"", Workspace.getInstance().getRootFolder()));
     }
 
+    private void initializeSyncScheduler() {
+        final SyncScheduler scheduler = SyncScheduler.getInstance();
+        scheduler.addListener(new SyncProgress(bazelServices.getLanguageClient(), clientSupportsProgress));
+        scheduler.addListener(new SyncScheduler.Listener() {
+            @Override
+            public void onSyncCompleted(boolean fullSync) {
+                bazelServices.refreshDiagnostics();
+            }
+        });
+    }
+
+    private void indexWorkspace() {
+        final IndexingProgress progress = new IndexingProgress(
+                new WorkDoneProgress(bazelServices.getLanguageClient(), clientSupportsProgress));
+        progress.begin();
+
+        SyncScheduler.getInstance().requestInitialLoad(progress).whenComplete((ignored, error) -> {
+            String result = "Workspace indexed";
+            if (error == null) {
+                logger.info("workspace loaded");
+            } else if (error instanceof CancellationException) {
+                logger.info("workspace load superseded by a full sync");
+                result = "Workspace indexing cancelled";
+            } else if (error instanceof BazelServerException) {
+                logger.info("workspace error");
+                result = "Workspace indexing failed";
+                String message = "Bazel Extension Failed to parse due to BUILD Parsing errors:\n";
+                String fix = "Please fix the Bazel Syntax error then restart the Extension\n";
+                bazelServices.sendMessageToClient(MessageType.Error, message + fix + error.getMessage());
+            } else {
+                result = "Workspace indexing failed";
+            }
+            progress.end(result);
+
+            bazelServices.refreshDiagnostics();
+        });
+    }
+
     @Override
     public CompletableFuture<Object> shutdown() {
+        SyncScheduler.getInstance().shutdown();
         return CompletableFuture.completedFuture(new Object());
     }
 
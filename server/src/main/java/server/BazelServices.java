@@ -1,5 +1,6 @@
 package server;
 
+import com.google.common.collect.Sets;
 import com.google.gson.Gson;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -10,16 +11,19 @@ import org.eclipse.lsp4j.services.LanguageClientAware;
 import org.eclipse.lsp4j.services.TextDocumentService;
 import org.eclipse.lsp4j.services.WorkspaceService;
 
+import server.bazel.cli.QueryError;
 import server.buildifier.Buildifier;
 import server.codelens.CodeLensProvider;
 import server.codelens.CodeLensResolver;
 import server.commands.CommandProvider;
 import server.completion.CompletionProvider;
+import server.definition.DefinitionProvider;
 import server.diagnostics.DiagnosticParams;
 import server.diagnostics.DiagnosticsProvider;
 import server.doclink.DocLinkProvider;
 import server.doclink.DocLinkResolver;
 import server.formatting.FormattingProvider;
+import server.symbols.WorkspaceSymbolProvider;
 import server.utils.DocumentTracker;
 import server.utils.Nullability;
 import server.utils.StarlarkWizard;
@@ -28,8 +32,14 @@ import server.workspace.ProjectFolder;
 import server.workspace.Workspace;
 
 import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 import java.util.ArrayList;
 import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
@@ -43,6 +53,7 @@ public class BazelServices implements TextDocumentService, WorkspaceService, Lan
     private CommandProvider commandProvider;
     private DocLinkProvider docLinkProvider;
     private DocLinkResolver docLinkResolver;
+    private Set<Path> filesWithQueryErrors;
 
     public BazelServices() {
         wizard = new StarlarkWizard();
@@ -51,6 +62,7 @@ public class BazelServices implements TextDocumentService, WorkspaceService, Lan
         commandProvider = new CommandProvider();
         docLinkProvider = new DocLinkProvider();
         docLinkResolver = new DocLinkResolver();
+        filesWithQueryErrors = new HashSet<>();
     }
 
     @Override
@@ -95,6 +107,10 @@ public class BazelServices implements TextDocumentService, WorkspaceService, Lan
 
         // Handle sync popups.
         commandProvider.tryRequestSyncServerCommand(languageClient);
+
+        // Handle incremental syncs.
+        final Path savedFile = Paths.get(URI.create(params.getTextDocument().getUri()));
+        commandProvider.tryIncrementalSync(Collections.singletonList(savedFile));
     }
 
     @Override
@@ -106,11 +122,25 @@ public class BazelServices implements TextDocumentService, WorkspaceService, Lan
         final String json = gson.toJson(params.getSettings());
         final ExtensionConfig config = gson.fromJson(json, ExtensionConfig.class);
         Workspace.getInstance().setExtensionConfig(config);
+
+        // Size the cache of closed files.
+        if (config.getBazel() != null && config.getBazel().getFileCacheMegabytes() != null) {
+            final long megabytes = Math.max(0, config.getBazel().getFileCacheMegabytes());
+            DocumentTracker.getInstance().getClosedFileCache().setByteBudget(megabytes * 1024 * 1024);
+        }
     }
 
     @Override
     public void didChangeWatchedFiles(DidChangeWatchedFilesParams params) {
         logger.info("Did Change Watched Files");
+
+        // Handle incremental syncs. Files changed outside of the editor, e.g. by a checkout or a
+        // code generator, never produce a save notification, so they are picked up here instead.
+        // A save reported both ways is coalesced by the scheduler.
+        final List<Path> changedFiles = params.getChanges().stream()
+                .map(e -> Paths.get(URI.create(e.getUri())))
+                .collect(Collectors.toList());
+        commandProvider.tryIncrementalSync(changedFiles);
     }
 
     @Override
@@ -133,6 +163,7 @@ public class BazelServices implements TextDocumentService, WorkspaceService, Lan
     @Override
     public void connect(LanguageClient client) {
         languageClient = client;
+        commandProvider.connect(client);
     }
 
     @Override
@@ -145,6 +176,11 @@ public class BazelServices implements TextDocumentService, WorkspaceService, Lan
         return CompletableFuture.completedFuture(unresolved);
     }
 
+    @Override
+    public CompletableFuture<Either<List<? extends Location>, List<? extends LocationLink>>> definition(DefinitionParams params) {
+        return new DefinitionProvider().getDefinition(params);
+    }
+
     @Override
     public CompletableFuture<List<? extends TextEdit>> formatting(DocumentFormattingParams params) {
         logger.info("Formatting request received");
@@ -170,7 +206,7 @@ public class BazelServices implements TextDocumentService, WorkspaceService, Lan
         }
 
         logger.info("CodeLens request received");
-        CodeLensProvider codeLensProvider = new CodeLensProvider(DocumentTracker.getInstance());
+        CodeLensProvider codeLensProvider = new CodeLensProvider();
         return codeLensProvider.getCodeLens(params);
     }
 
@@ -194,6 +230,13 @@ public class BazelServices implements TextDocumentService, WorkspaceService, Lan
         return commandProvider.executeCommand(params, languageClient);
     }
 
+    @Override
+    public CompletableFuture<List<? extends SymbolInformation>> symbol(WorkspaceSymbolParams params) {
+        logger.info(String.format("Handling workspace symbol: %s", params));
+        WorkspaceSymbolProvider workspaceSymbolProvider = new WorkspaceSymbolProvider();
+        return workspaceSymbolProvider.getWorkspaceSymbols(params);
+    }
+
     @Override
     public CompletableFuture<List<DocumentLink>> documentLink(DocumentLinkParams params) {
         logger.info(String.format("Handling document link: %s", params));
@@ -211,4 +254,42 @@ public class BazelServices implements TextDocumentService, WorkspaceService, Lan
     public void sendMessageToClient(MessageType type, String message) {
         languageClient.showMessage(new MessageParams(type, message));
     }
+
+    /**
+     * Recomputes diagnostics for every open document. Used once the workspace index becomes
+     * available, since diagnostics computed before then could not check that targets exist.
+     * BUILD files which aren't open get the errors bazel reported for them during the sync, and
+     * files whose errors have been fixed have their diagnostics cleared.
+     */
+    public synchronized void refreshDiagnostics() {
+        final Set<URI> openURIs = DocumentTracker.getInstance().getOpenURIs();
+        for (final URI uri : openURIs) {
+            final DiagnosticParams diagnosticParams = new DiagnosticParams();
+            diagnosticParams.setWizard(wizard);
+            diagnosticParams.setClient(languageClient);
+            diagnosticParams.setTracker(DocumentTracker.getInstance());
+            diagnosticParams.setUri(uri);
+            diagnosticsProvider.handleDiagnostics(diagnosticParams);
+        }
+
+        final Set<Path> filesWithErrors = Workspace.getInstance().getQueryErrors().stream()
+                .map(QueryError::getFile)
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .collect(Collectors.toSet());
+        final Set<Path> staleFiles = new HashSet<>(filesWithQueryErrors);
+        staleFiles.removeAll(filesWithErrors);
+
+        for (final Path file : Sets.union(filesWithErrors, staleFiles)) {
+            if (!openURIs.contains(file.toUri())) {
+                languageClient.publishDiagnostics(new PublishDiagnosticsParams(
+                        file.toUri().toString(), DiagnosticsProvider.getQueryErrorDiagnostics(file)));
+            }
+        }
+        filesWithQueryErrors = filesWithErrors;
+    }
+
+    public LanguageClient getLanguageClient() {
+        return languageClient;
+    }
 }
\ No newline at end of file
@@ -1,29 +1,64 @@
 package server.bazel.bazelWorkspaceAPI;
 
 import server.bazel.tree.BuildTarget;
+import server.bazel.tree.CompletionIndex;
+import server.bazel.tree.DependencyGraph;
+import server.bazel.tree.LabelIndex;
+import server.bazel.tree.LocationIndex;
 import server.bazel.tree.Package;
 import com.google.common.base.Preconditions;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import server.bazel.tree.SourceFile;
+import server.bazel.tree.SourceIndex;
+import server.bazel.tree.SourceLocation;
+import server.bazel.tree.SymbolIndex;
+import server.bazel.tree.WorkspaceSnapshot;
 import server.bazel.tree.WorkspaceTree;
 import server.bazel.tree.WorkspaceTree.Node;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
+/**
+ * Answers questions about a workspace tree. Every method only reads, so an API over a published
+ * snapshot can be used from any thread without locking while syncs publish newer snapshots. It
+ * keeps answering from the snapshot it was created with, so create one per request to see the
+ * latest sync.
+ */
 public class WorkspaceAPI {
     private static final Logger logger = LogManager.getLogger(WorkspaceAPI.class);
 
     private WorkspaceTree workspaceTree;
+    private LabelIndex labelIndex;
+    private SourceIndex sourceIndex;
+    private DependencyGraph dependencyGraph;
+    private CompletionIndex completionIndex;
+    private SymbolIndex symbolIndex;
+    private LocationIndex locationIndex;
+    private WorkspaceSnapshot snapshot;
 
     public WorkspaceAPI(WorkspaceTree workspaceTree) {
         setWorkspace(workspaceTree);
     }
 
+    /**
+     * Uses the indexes of the snapshot rather than indexing the tree again.
+     *
+     * @param snapshot a published workspace snapshot
+     */
+    public WorkspaceAPI(WorkspaceSnapshot snapshot) {
+        Preconditions.checkNotNull(snapshot);
+        this.workspaceTree = snapshot.getTree();
+        this.labelIndex = snapshot.getLabels();
+        this.sourceIndex = snapshot.getSources();
+        this.snapshot = snapshot;
+    }
+
     /**
      *
      * @param workspaceTree an initialized workspace Tree object
@@ -32,6 +67,13 @@ public class WorkspaceAPI {
     public WorkspaceAPI setWorkspace(WorkspaceTree workspaceTree) {
         Preconditions.checkNotNull(workspaceTree);
         this.workspaceTree = workspaceTree;
+        this.labelIndex = null;
+        this.sourceIndex = null;
+        this.dependencyGraph = null;
+        this.completionIndex = null;
+        this.symbolIndex = null;
+        this.locationIndex = null;
+        this.snapshot = null;
         return this;
     }
 
@@ -80,25 +122,17 @@ public class WorkspaceAPI {
      * @return true if the build target is stored in the workspace tree
      */
     public boolean isValidTarget(BuildTarget targetToCheck){
-        logger.info(String.format("Checking if '%s' target is valid.", targetToCheck.toString()));
-        Package packageFromPath;
-        try {
-            packageFromPath =  findNodeOfGivenPackagePath(targetToCheck.getPath()).getValue();
-        } catch (WorkspaceAPIException e) {
-            logger.info(String.format("Package for target '%s' not present.", targetToCheck.toString()));
-            return false;
-        }
-        List<BuildTarget> buildTargets = packageFromPath.getBuildTargets();
-        for(BuildTarget target: buildTargets){
-            String buildTargetPath = target.getPathWithTarget();
-            if(buildTargetPath.equals(targetToCheck.getPathWithTarget())){
-                logger.info(String.format("Package for target '%s' found in package '%s.",
-                        targetToCheck.toString(), target.toString()));
-                return true;
-            }
-        }
-        logger.info(String.format("Target '%s' is not valid.", targetToCheck.toString()));
-        return false;
+        return getLabelIndex().contains(targetToCheck);
+    }
+
+    /**
+     *
+     * @param targetsToCheck The build targets to check
+     *          expected format: list = {BuildTarget(Paths.get(//path/to), "targetA", "kindValue"), ...}
+     * @return the build targets which are not stored in the workspace tree, in the order they were given
+     */
+    public List<BuildTarget> findInvalidTargets(Collection<BuildTarget> targetsToCheck) {
+        return getLabelIndex().findMissing(targetsToCheck);
     }
 
     /**
@@ -144,8 +178,194 @@ public class WorkspaceAPI {
 
     }
 
+    /**
+     *
+     * @param file The path to a source file
+     *          expected format: Paths.get("//path/to/file.java")
+     * @return the path of the package which owns the file
+     *          expected output: Paths.get("//path/to")
+     */
+    public Optional<Path> findPackageOwningFile(Path file) {
+        return getSourceIndex().findSourceFile(file).map(SourceFile::getPath);
+    }
+
+    /**
+     *
+     * @param file The path to a source file
+     *          expected format: Paths.get("//path/to/file.java")
+     * @return the build targets which list the file among their inputs, e.g. in srcs
+     *          expected output: list = {BuildTarget(Paths.get(//path/to), "targetName", "kindValue"), ...}
+     */
+    public List<BuildTarget> findTargetsConsumingFile(Path file) {
+        return getSourceIndex().findConsumers(file);
+    }
+
+    /**
+     *
+     * @param label The absolute label of a target
+     *          expected format: "//path/to:targetName"
+     * @param depth How many edges to follow, 1 for the direct dependencies or DependencyGraph.UNBOUNDED for all of them
+     * @return the labels the target depends on, nearest first
+     *          expected output: list = {"//path/to:file.java", "//path/to/other:targetName", ...}
+     */
+    public List<String> findDependencies(String label, int depth) {
+        return getDependencyGraph().deps(label, depth);
+    }
+
+    /**
+     *
+     * @param label The absolute label of a target or source file
+     *          expected format: "//path/to:targetName" or "//path/to:file.java"
+     * @param depth How many edges to follow, 1 for the direct dependents or DependencyGraph.UNBOUNDED for all of them
+     * @return the labels of the targets which depend on the label, nearest first
+     *          expected output: list = {"//path/to:targetName", ...}
+     */
+    public List<String> findReverseDependencies(String label, int depth) {
+        return getDependencyGraph().rdeps(label, depth);
+    }
+
+    /**
+     *
+     * @param from The absolute label the path starts at
+     * @param to The absolute label the path ends at
+     * @return a shortest chain of dependencies leading from one label to the other, including both ends
+     *          expected output: list = {"//a:a", "//b:b", "//c:c"}
+     */
+    public Optional<List<String>> findSomePath(String from, String to) {
+        return getDependencyGraph().somePath(from, to);
+    }
+
+    /**
+     *
+     * @param partialLabel The label typed so far, anywhere in the workspace
+     *          expected format: "//serv/ap", "//server/api:" or "//server/api:ap"
+     * @param limit The maximum number of matches to return
+     * @return the packages and build targets matching the label, best first
+     *          expected output: list = {Match("//server/api"), Match("//server/api:api"), ...}
+     */
+    public List<CompletionIndex.Match> findCompletions(String partialLabel, int limit) {
+        return getCompletionIndex().complete(partialLabel, limit);
+    }
+
+    /**
+     *
+     * @param query Part of a build target name, anywhere in the workspace
+     *          expected format: "parser_test"
+     * @param limit The maximum number of build targets to return
+     * @return the build targets whose names best match the query, best first
+     *          expected output: list = {BuildTarget("parser_test"), BuildTarget("json_parser_test"), ...}
+     */
+    public List<BuildTarget> findSymbols(String query, int limit) {
+        return getSymbolIndex().find(query, limit);
+    }
+
+    /**
+     *
+     * @param buildFile The absolute path to a BUILD file on disk
+     *          expected format: Paths.get("/home/me/ws/path/to/package/BUILD")
+     * @return the build targets declared in the file, in the order they're declared
+     *          expected output: list = {BuildTarget("lib"), BuildTarget("lib_test"), ...}
+     */
+    public List<BuildTarget> findTargetsDeclaredIn(Path buildFile) {
+        return getLocationIndex().findDeclaredIn(buildFile);
+    }
+
+    /**
+     *
+     * @param label An absolute label within the main workspace
+     *          expected format: "//path/to/package:targetName"
+     * @return the build target, if the workspace declares it
+     *          expected output: BuildTarget("targetName")
+     */
+    public Optional<BuildTarget> findTarget(String label) {
+        return getLabelIndex().find(label);
+    }
+
+    /**
+     * Finds where a label is declared without touching the filesystem. A target resolves to the
+     * line declaring it. A source file resolves to the file itself, and anything else in a known
+     * package, or a target synced without a location, to the top of the package's BUILD file.
+     *
+     * @param label An absolute label within the main workspace
+     *          expected format: "//path/to/package:targetName", "//path/to/package:File.java" or
+     *          "//path/to/package", which is short for "//path/to/package:package"
+     * @return the location declaring the label, if its package is known
+     *          expected output: SourceLocation("/home/me/ws/path/to/package/BUILD", 12, 1)
+     */
+    public Optional<SourceLocation> findDeclaration(String label) {
+        if (!label.startsWith("//")) {
+            return Optional.empty();
+        }
+
+        final int colon = label.indexOf(':');
+        final String packagePath = colon < 0 ? label.substring(2) : label.substring(2, colon);
+        final String name = colon < 0 ? packagePath.substring(packagePath.lastIndexOf('/') + 1) : label.substring(colon + 1);
+        if (name.isEmpty()) {
+            return Optional.empty();
+        }
+
+        final Optional<BuildTarget> target = getLabelIndex().find("//" + packagePath + ":" + name);
+        if (target.isPresent() && target.get().getLocation().isPresent()) {
+            return target.get().getLocation();
+        }
+
+        final Optional<Path> buildFile = getLocationIndex().findBuildFile(packagePath);
+        if (!buildFile.isPresent()) {
+            return Optional.empty();
+        }
+        if (!target.isPresent() && getSourceIndex().findSourceFile(Paths.get("//" + packagePath + "/" + name)).isPresent()) {
+            return Optional.of(new SourceLocation(buildFile.get().resolveSibling(name), 1, 1));
+        }
+        return Optional.of(new SourceLocation(buildFile.get(), 1, 1));
+    }
+
     // Private methods to be used by the the API
 
+    /**
+     * The tree is indexed on first use when it didn't come with a snapshot.
+     */
+    private LabelIndex getLabelIndex() {
+        if (labelIndex == null) {
+            labelIndex = LabelIndex.of(workspaceTree);
+        }
+        return labelIndex;
+    }
+
+    private DependencyGraph getDependencyGraph() {
+        if (dependencyGraph == null) {
+            dependencyGraph = snapshot != null ? snapshot.getDependencies() : DependencyGraph.of(workspaceTree);
+        }
+        return dependencyGraph;
+    }
+
+    private CompletionIndex getCompletionIndex() {
+        if (completionIndex == null) {
+            completionIndex = snapshot != null ? snapshot.getCompletions() : CompletionIndex.of(workspaceTree);
+        }
+        return completionIndex;
+    }
+
+    private SymbolIndex getSymbolIndex() {
+        if (symbolIndex == null) {
+            symbolIndex = snapshot != null ? snapshot.getSymbols() : SymbolIndex.of(workspaceTree);
+        }
+        return symbolIndex;
+    }
+
+    private LocationIndex getLocationIndex() {
+        if (locationIndex == null) {
+            locationIndex = snapshot != null ? snapshot.getLocations() : LocationIndex.of(workspaceTree);
+        }
+        return locationIndex;
+    }
+
+    private SourceIndex getSourceIndex() {
+        if (sourceIndex == null) {
+            sourceIndex = SourceIndex.of(workspaceTree);
+        }
+        return sourceIndex;
+    }
+
     /**
      *
      * @param path Accepts a path in the given format Paths.get("//path/to/package")
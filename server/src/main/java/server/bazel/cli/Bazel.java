@@ -3,11 +3,15 @@ package server.bazel.cli;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.lang.StringBuilder;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import com.google.common.base.Stopwatch;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import server.bazel.tree.BuildTarget;
@@ -30,19 +34,260 @@ public final class Bazel {
 
     public static List<BuildTarget> getBuildTargets() throws BazelServerException {
         logger.info("Getting BuildTargets...");
+        List<BuildTarget> buildTargets = new ArrayList<>();
+        queryAllTargets("...", new TargetListener() {
+            @Override
+            public void onBuildTarget(BuildTarget target) {
+                buildTargets.add(target);
+            }
+
+            @Override
+            public void onSourceFile(SourceFile sourceFile) {
+            }
+        });
+        return buildTargets;
+    }
+
+    public static List<SourceFile> getSourceFiles() throws BazelServerException {
+        logger.info("Getting SourceFiles...");
+        List<SourceFile> sourceFiles = new ArrayList<>();
+        queryAllTargets("'kind(source, ...:*)'", new TargetListener() {
+            @Override
+            public void onBuildTarget(BuildTarget target) {
+            }
+
+            @Override
+            public void onSourceFile(SourceFile sourceFile) {
+                sourceFiles.add(sourceFile);
+            }
+        });
+        return sourceFiles;
+    }
+
+    /**
+     * Gets every build target and source file in the workspace using a single query. The results
+     * are handed to the listener as they are parsed, so a sync only pays for one bazel invocation
+     * rather than one for targets and another for source files.
+     *
+     * @param listener Receives each build target and source file.
+     * @throws BazelServerException If the query fails.
+     */
+    public static void getAllTargets(TargetListener listener) throws BazelServerException {
+        logger.info("Getting all targets...");
+        queryAllTargets("...:*", listener);
+    }
+
+    /**
+     * Gets every build target and source file in a single package using a single query. This is
+     * much cheaper than querying the entire workspace, so it should be preferred when only one
+     * BUILD file has changed.
+     *
+     * @param packagePath The workspace relative path to the package, e.g. "path/to/pkg". An empty
+     *                    string refers to the root package.
+     * @param listener    Receives each build target and source file.
+     * @throws BazelServerException If the query fails.
+     */
+    public static void getAllTargetsInPackage(String packagePath, TargetListener listener) throws BazelServerException {
+        logger.info(String.format("Getting all targets in package \"//%s\"...", packagePath));
+        queryAllTargets(String.format("//%s:*", packagePath), listener);
+    }
+
+    /**
+     * Gets every build target and source file in the workspace using a single streamed_proto
+     * query. Unlike {@link #getAllTargets(TargetListener)}, the build targets also carry their
+     * locations, explicitly specified attributes and rule inputs.
+     *
+     * @param listener Receives each build target and source file.
+     * @throws BazelServerException If the query fails.
+     */
+    public static void getAllTargetsAsProto(TargetListener listener) throws BazelServerException {
+        logger.info("Getting all targets as proto...");
+        queryAllTargetsAsProto("...:*", listener);
+    }
+
+    /**
+     * Gets every build target and source file in a single package using a single streamed_proto
+     * query. Unlike {@link #getAllTargetsInPackage(String, TargetListener)}, the build targets
+     * also carry their locations, explicitly specified attributes and rule inputs.
+     *
+     * @param packagePath The workspace relative path to the package, e.g. "path/to/pkg". An empty
+     *                    string refers to the root package.
+     * @param listener    Receives each build target and source file.
+     * @throws BazelServerException If the query fails.
+     */
+    public static void getAllTargetsInPackageAsProto(String packagePath, TargetListener listener)
+            throws BazelServerException {
+        logger.info(String.format("Getting all targets in package \"//%s\" as proto...", packagePath));
+        queryAllTargetsAsProto(String.format("//%s:*", packagePath), listener);
+    }
+
+    /**
+     * Gets every build target and source file matched by the given shard expressions. Each shard
+     * is queried separately with --keep_going, with up to {@code concurrency} queries in flight at
+     * once, so a broken BUILD file only costs the targets of its own shard. Results from every
+     * shard are handed to the same listener, which is never invoked concurrently.
+     *
+     * @param expressions The shard expressions, e.g. "//foo/...:*". Together they should cover
+     *                    the workspace without overlapping.
+     * @param concurrency The maximum number of shard queries to run at once.
+     * @param asProto     Whether to query with streamed_proto rather than label_kind output.
+     * @param listener    Receives each build target and source file.
+     * @return The errors reported by the shards which failed.
+     * @throws BazelServerException If every shard failed without producing any results, or if the
+     *                              sync was cancelled.
+     */
+    public static List<QueryError> getAllTargetsSharded(List<String> expressions, int concurrency,
+                                                        boolean asProto, TargetListener listener)
+            throws BazelServerException {
+        logger.info(String.format("Getting all targets across %d shards...", expressions.size()));
+        if (expressions.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        final Stopwatch stopwatch = Stopwatch.createStarted();
+        final Object listenerLock = new Object();
+        final ExecutorService pool = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(concurrency, expressions.size())), runnable -> {
+                    final Thread thread = new Thread(runnable, "bazel-query-shard");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
         try {
-            Optional<CommandOutput> output = dispatcher.dispatch(new QueryCommand("...", "label_kind"));
-            if (output.isPresent()) {
-                if (output.get().didError()) {
-                    throw new BazelServerException(parseError(output.get().getErrorOutput()));
-                } else {
-                    return parseBuildTargets(output.get().getStandardOutput());
+            final List<Future<ShardResult>> futures = new ArrayList<>();
+            for (String expression : expressions) {
+                futures.add(pool.submit(() -> queryShard(expression, asProto, listenerLock, listener)));
+            }
+
+            final List<QueryError> errors = new ArrayList<>();
+            int emptyFailures = 0;
+            for (Future<ShardResult> future : futures) {
+                final ShardResult result = future.get();
+                errors.addAll(result.errors);
+                if (!result.errors.isEmpty() && result.resultCount == 0) {
+                    emptyFailures++;
                 }
             }
+
+            if (emptyFailures == expressions.size()) {
+                final StringBuilder builder = new StringBuilder();
+                errors.forEach(error -> builder.append(error).append("\n"));
+                throw new BazelServerException(builder.toString());
+            }
+
+            logger.info(String.format("Sharded query took %s with %d errors.", stopwatch.stop(), errors.size()));
+            return errors;
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            throw cancelled("sharded query");
+        } catch (ExecutionException e) {
+            logger.error("A shard query failed unexpectedly", e.getCause());
+            throw new BazelServerException(String.format("Sharded query failed: %s", e.getCause().getMessage()));
+        } finally {
+            // Interrupts any shard still running, which kills its bazel process.
+            pool.shutdownNow();
         }
-        return new ArrayList<>();
+    }
+
+    private static ShardResult queryShard(String expression, boolean asProto, Object listenerLock,
+                                          TargetListener listener) throws InterruptedException {
+        final ShardResult result = new ShardResult();
+        final TargetListener counting = new TargetListener() {
+            @Override
+            public void onBuildTarget(BuildTarget target) {
+                synchronized (listenerLock) {
+                    listener.onBuildTarget(target);
+                }
+                result.resultCount++;
+            }
+
+            @Override
+            public void onSourceFile(SourceFile sourceFile) {
+                synchronized (listenerLock) {
+                    listener.onSourceFile(sourceFile);
+                }
+                result.resultCount++;
+            }
+        };
+
+        final Optional<CommandOutput> output = asProto
+                ? dispatcher.dispatchStream(new QueryCommand(expression, "streamed_proto", true),
+                        stream -> StreamedProtoParser.parse(stream, counting))
+                : dispatcher.dispatch(new QueryCommand(expression, "label_kind", true),
+                        line -> parseTarget(line, counting));
+
+        if (!output.isPresent()) {
+            result.errors.add(new QueryError(expression,
+                    "Unable to read the query output, see the server logs for details.", null));
+        } else if (output.get().didError()) {
+            result.errors.addAll(QueryError.parse(expression, output.get().getErrorOutput()));
+            if (result.errors.isEmpty()) {
+                result.errors.add(new QueryError(expression, parseError(output.get().getErrorOutput()), null));
+            }
+        }
+
+        logger.info(String.format("Shard \"%s\" returned %d results and %d errors.",
+                expression, result.resultCount, result.errors.size()));
+        return result;
+    }
+
+    private static class ShardResult {
+        private int resultCount = 0;
+        private final List<QueryError> errors = new ArrayList<>();
+    }
+
+    /**
+     * Runs a label_kind query and parses each line of output as bazel produces it, so the full
+     * output is never held in memory at once. The listener is invoked from the dispatcher's
+     * output thread.
+     */
+    private static void queryAllTargets(String expression, TargetListener listener) throws BazelServerException {
+        try {
+            final Stopwatch stopwatch = Stopwatch.createStarted();
+            Optional<CommandOutput> output = dispatcher.dispatch(
+                    new QueryCommand(expression, "label_kind"), line -> parseTarget(line, listener));
+
+            if (!output.isPresent()) {
+                throw new BazelServerException(String.format(
+                        "Unable to read the output of query \"%s\", see the server logs for details.", expression));
+            } else if (output.get().didError()) {
+                throw new BazelServerException(parseError(output.get().getErrorOutput()));
+            }
+
+            logger.info(String.format("Query \"%s\" and parsing took %s.", expression, stopwatch.stop()));
+        } catch (InterruptedException e) {
+            throw cancelled(expression);
+        }
+    }
+
+    private static void queryAllTargetsAsProto(String expression, TargetListener listener)
+            throws BazelServerException {
+        try {
+            final Stopwatch stopwatch = Stopwatch.createStarted();
+            Optional<CommandOutput> output = dispatcher.dispatchStream(
+                    new QueryCommand(expression, "streamed_proto"),
+                    stream -> StreamedProtoParser.parse(stream, listener));
+
+            if (!output.isPresent()) {
+                throw new BazelServerException(String.format(
+                        "Unable to read the output of query \"%s\", see the server logs for details.", expression));
+            } else if (output.get().didError()) {
+                throw new BazelServerException(parseError(output.get().getErrorOutput()));
+            }
+
+            logger.info(String.format("Query \"%s\" and decoding took %s.", expression, stopwatch.stop()));
+        } catch (InterruptedException e) {
+            throw cancelled(expression);
+        }
+    }
+
+    /**
+     * A query interrupted part way through has only delivered some of its results, so it must be
+     * reported as a failure rather than letting a partial tree be published. The interrupt flag is
+     * restored so callers can tell a cancelled query apart from a failed one.
+     */
+    private static BazelServerException cancelled(String expression) {
+        Thread.currentThread().interrupt();
+        return new BazelServerException(String.format("Query \"%s\" was cancelled.", expression));
     }
 
     private static String parseError(List<String> errorOutput) {
@@ -58,46 +303,41 @@ public final class Bazel {
         return builder.toString();
     }
 
-    private static List<BuildTarget> parseBuildTargets(List<String> standardOutput) {
-        logger.info("Parsing Build Targets");
-        List<BuildTarget> buildTargets = new ArrayList<>();
-        standardOutput.stream().forEach(line -> {
-            List<String> parts = Arrays.asList(line.split("\\s+"));
-            List<String> ruleSplit = parsePath(parts.get(2));
-            buildTargets.add(new BuildTarget(Paths.get(ruleSplit.get(0).substring(1)), ruleSplit.get(1), parts.get(0)));
-        });
-        return buildTargets;
-    }
+    /**
+     * Parses a single line of label_kind output. Each line looks like "<rule class> rule <label>",
+     * "source file <label>", "generated file <label>" or "package group <label>". Only rules and
+     * source files are tracked by the workspace tree, everything else is skipped.
+     */
+    static void parseTarget(String line, TargetListener listener) {
+        final int kindEnd = line.indexOf(' ');
+        final int labelStart = line.indexOf(' ', kindEnd + 1) + 1;
+        if (kindEnd <= 0 || labelStart <= kindEnd + 1) {
+            return;
+        }
 
-    private static List<String> parsePath(String s) {
-        return Arrays.asList(s.split(":"));
-    }
+        final int labelEnd = trimmedEnd(line);
+        final int colon = line.indexOf(':', labelStart);
+        if (colon < 0 || colon >= labelEnd) {
+            return;
+        }
 
-    public static List<SourceFile> getSourceFiles() throws BazelServerException {
-        logger.info("Getting SourceFiles...");
-        try {
-            Optional<CommandOutput> output = dispatcher.dispatch(new QueryCommand("'kind(source, ...:*)'", "label_kind"));
-            if (output.isPresent()) {
-                if (output.get().didError()) {
-                    throw new BazelServerException(parseError(output.get().getErrorOutput()));
-                } else {
-                    return parseSourceFiles(output.get().getStandardOutput());
-                }
-            }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        if (line.startsWith("rule", kindEnd + 1) && labelStart - kindEnd - 2 == "rule".length()) {
+            // Labels start with "//", only one slash is kept so the path is rooted.
+            final String path = line.substring(labelStart + 1, colon);
+            final String name = line.substring(colon + 1, labelEnd);
+            listener.onBuildTarget(new BuildTarget(Paths.get(path), name, line.substring(0, kindEnd)));
+        } else if (line.startsWith("source file ")) {
+            final String path = line.substring(labelStart, colon);
+            final String name = line.substring(colon + 1, labelEnd);
+            listener.onSourceFile(new SourceFile(name, Paths.get(path)));
         }
-        return new ArrayList<>();
     }
 
-    private static List<SourceFile> parseSourceFiles(List<String> standardOutput) {
-        logger.info("Parsing Source Files");
-        List<SourceFile> sourceFiles = new ArrayList<>();
-        standardOutput.stream().forEach(line -> {
-            List<String> parts = Arrays.asList(line.split("\\s+"));
-            List<String> ruleSplit = parsePath(parts.get(2));
-            sourceFiles.add(new SourceFile(ruleSplit.get(1), Paths.get(ruleSplit.get(0))));
-        });
-        return sourceFiles;
+    private static int trimmedEnd(String line) {
+        int end = line.length();
+        while (end > 0 && Character.isWhitespace(line.charAt(end - 1))) {
+            end--;
+        }
+        return end;
     }
-}
\ No newline at end of file
+}
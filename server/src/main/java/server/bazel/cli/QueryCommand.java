@@ -2,7 +2,15 @@ package server.bazel.cli;
 
 public class QueryCommand extends AbstractBazelCommand {
     protected QueryCommand(String target, String option) {
-        super(String.format("query %s --output %s", target, option));
+        this(target, option, false);
+    }
+
+    /**
+     * @param keepGoing Whether bazel should report partial results instead of stopping at the
+     *                  first error.
+     */
+    protected QueryCommand(String target, String option, boolean keepGoing) {
+        super(String.format("query %s --output %s%s", target, option, keepGoing ? " --keep_going" : ""));
     }
 
     protected QueryCommand(String target) {
@@ -0,0 +1,87 @@
+package server.bazel.cli;
+
+import server.bazel.tree.SourceLocation;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * An error reported by bazel while running a query, e.g. a syntax error in a BUILD file or a
+ * reference to a package that does not exist.
+ */
+public class QueryError {
+    private static final String ERROR_PREFIX = "ERROR: ";
+
+    private final String expression;
+    private final String message;
+    private final SourceLocation location;
+
+    public QueryError(String expression, String message, SourceLocation location) {
+        this.expression = expression;
+        this.message = message;
+        this.location = location;
+    }
+
+    /**
+     * Parses the errors out of bazel's error output. Bazel prefixes every error with "ERROR: ",
+     * followed by an optional "path:line:column: " location for errors in a particular file.
+     *
+     * @param expression  The query expression which produced the output.
+     * @param errorOutput The error output of the query, one line per entry.
+     * @return Every error found in the output, in order.
+     */
+    public static List<QueryError> parse(String expression, List<String> errorOutput) {
+        final List<QueryError> errors = new ArrayList<>();
+        for (String line : errorOutput) {
+            if (!line.startsWith(ERROR_PREFIX)) {
+                continue;
+            }
+
+            final String error = line.substring(ERROR_PREFIX.length());
+            SourceLocation location = null;
+            String message = error;
+
+            // The location is followed by ": ", which can't occur inside a path bazel reports.
+            final int separator = error.indexOf(": ");
+            if (separator > 0) {
+                final Optional<SourceLocation> parsed = SourceLocation.parse(error.substring(0, separator));
+                if (parsed.isPresent() && parsed.get().getFile().isAbsolute()) {
+                    location = parsed.get();
+                    message = error.substring(separator + 2);
+                }
+            }
+
+            errors.add(new QueryError(expression, message, location));
+        }
+        return errors;
+    }
+
+    /**
+     * @return The query expression which produced this error.
+     */
+    public String getExpression() {
+        return expression;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return The location of the error, if bazel attributed it to a file.
+     */
+    public Optional<SourceLocation> getLocation() {
+        return Optional.ofNullable(location);
+    }
+
+    public Optional<Path> getFile() {
+        return getLocation().map(SourceLocation::getFile);
+    }
+
+    @Override
+    public String toString() {
+        return location != null ? String.format("%s: %s", location, message) : message;
+    }
+}
@@ -0,0 +1,97 @@
+package server.bazel.cli;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build;
+import server.bazel.tree.BuildTarget;
+import server.bazel.tree.SourceFile;
+import server.bazel.tree.SourceLocation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Decodes the output of "bazel query --output=streamed_proto", which is a sequence of
+ * length-delimited Target messages. Each target is decoded and handed to the listener as soon as
+ * it is read, so the full output never needs to be held in memory.
+ */
+final class StreamedProtoParser {
+    private StreamedProtoParser() {
+    }
+
+    /**
+     * Reads every target from the stream. Rules and source files are handed to the listener while
+     * every other kind of target is skipped.
+     *
+     * @param stream   The output of the query.
+     * @param listener Receives each build target and source file.
+     * @throws IOException If the stream could not be read or is malformed.
+     */
+    static void parse(InputStream stream, TargetListener listener) throws IOException {
+        for (Build.Target target = Build.Target.parseDelimitedFrom(stream); target != null;
+             target = Build.Target.parseDelimitedFrom(stream)) {
+            if (target.hasRule()) {
+                listener.onBuildTarget(toBuildTarget(target.getRule()));
+            } else if (target.hasSourceFile()) {
+                listener.onSourceFile(toSourceFile(target.getSourceFile()));
+            }
+        }
+    }
+
+    private static BuildTarget toBuildTarget(Build.Rule rule) {
+        final String label = rule.getName();
+        final int colon = label.indexOf(':');
+
+        final ImmutableMap.Builder<String, List<String>> attributes = ImmutableMap.builder();
+        for (Build.Attribute attribute : rule.getAttributeList()) {
+            // Implicit attributes are numerous and rarely useful, so only what the user wrote is kept.
+            if (attribute.getExplicitlySpecified()) {
+                attributes.put(attribute.getName(), toValues(attribute));
+            }
+        }
+
+        // Labels start with "//", only one slash is kept so the path is rooted.
+        return new BuildTarget(
+                Paths.get(label.substring(1, colon)),
+                label.substring(colon + 1),
+                rule.getRuleClass(),
+                SourceLocation.parse(rule.getLocation()).orElse(null),
+                attributes.build(),
+                ImmutableList.copyOf(rule.getRuleInputList()));
+    }
+
+    private static SourceFile toSourceFile(Build.SourceFile sourceFile) {
+        final String label = sourceFile.getName();
+        final int colon = label.indexOf(':');
+        return new SourceFile(label.substring(colon + 1), Paths.get(label.substring(0, colon)));
+    }
+
+    /**
+     * Flattens the value of an attribute into a list of strings. Values inside of select()
+     * statements are merged across every branch.
+     */
+    private static List<String> toValues(Build.Attribute attribute) {
+        final ImmutableList.Builder<String> values = ImmutableList.builder();
+        if (attribute.hasStringValue()) {
+            values.add(attribute.getStringValue());
+        } else if (attribute.getStringListValueCount() > 0) {
+            values.addAll(attribute.getStringListValueList());
+        } else if (attribute.hasBooleanValue()) {
+            values.add(String.valueOf(attribute.getBooleanValue()));
+        } else if (attribute.hasIntValue()) {
+            values.add(String.valueOf(attribute.getIntValue()));
+        } else if (attribute.hasSelectorList()) {
+            for (Build.Attribute.Selector selector : attribute.getSelectorList().getElementsList()) {
+                for (Build.Attribute.SelectorEntry entry : selector.getEntriesList()) {
+                    if (entry.hasStringValue()) {
+                        values.add(entry.getStringValue());
+                    }
+                    values.addAll(entry.getStringListValueList());
+                }
+            }
+        }
+        return values.build();
+    }
+}
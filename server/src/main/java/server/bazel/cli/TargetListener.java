@@ -0,0 +1,24 @@
+package server.bazel.cli;
+
+import server.bazel.tree.BuildTarget;
+import server.bazel.tree.SourceFile;
+
+/**
+ * Receives the targets produced by a query as they are parsed. This allows callers to build their
+ * own structures from a single combined query instead of waiting on separate lists.
+ */
+public interface TargetListener {
+    /**
+     * Invoked for each rule the query returned.
+     *
+     * @param target The parsed build target.
+     */
+    void onBuildTarget(BuildTarget target);
+
+    /**
+     * Invoked for each source file the query returned.
+     *
+     * @param sourceFile The parsed source file.
+     */
+    void onSourceFile(SourceFile sourceFile);
+}
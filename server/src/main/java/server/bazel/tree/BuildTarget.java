@@ -1,17 +1,40 @@
 package server.bazel.tree;
 
 import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 
 public class BuildTarget {
     private Path path;
     private String label;
     private String kind;
+    private SourceLocation location;
+    private Map<String, List<String>> attributes;
+    private List<String> ruleInputs;
 
     public BuildTarget(Path path, String label, String kind) {
-        this.path = path;
+        this(path, label, kind, null, Collections.emptyMap(), Collections.emptyList());
+    }
+
+    /**
+     * @param path       The package path of the target.
+     * @param label      The name of the target within its package.
+     * @param kind       The rule class of the target, e.g. "java_library".
+     * @param location   Where the target is declared, or null if unknown.
+     * @param attributes The explicitly specified attributes of the target, keyed by attribute name.
+     * @param ruleInputs The labels of every input to the target.
+     */
+    public BuildTarget(Path path, String label, String kind, SourceLocation location,
+                       Map<String, List<String>> attributes, List<String> ruleInputs) {
+        this.path = Interning.intern(path);
         this.label = label;
-        this.kind = kind;
+        this.kind = Interning.intern(kind);
+        this.location = location;
+        this.attributes = Interning.internAll(attributes);
+        this.ruleInputs = Interning.internAll(ruleInputs);
     }
 
     public Path getPath() {
@@ -26,6 +49,30 @@ public class BuildTarget {
         return kind;
     }
 
+    /**
+     * @return Where the target is declared. This is only known when the target was synced with a
+     * backend that reports locations.
+     */
+    public Optional<SourceLocation> getLocation() {
+        return Optional.ofNullable(location);
+    }
+
+    /**
+     * @return The explicitly specified attributes of the target. Every value is represented as a
+     * list of strings, e.g. a label list attribute maps to its labels and a boolean attribute maps
+     * to a single "true" or "false".
+     */
+    public Map<String, List<String>> getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * @return The labels of every input to the target, i.e. its predecessors in the dependency graph.
+     */
+    public List<String> getRuleInputs() {
+        return ruleInputs;
+    }
+
     public String getPathWithTarget() {
         // Path truncates the first "/".
         return String.format("/%s:%s", path.toString(), label);
@@ -0,0 +1,471 @@
+package server.bazel.tree;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Completes partial labels against every package and build target in a workspace tree, e.g.
+ * "//serv/ap" finds "//server/api" and "//server/api:api".
+ *
+ * Labels which start with the query as typed rank first, in sorted order. After them come labels
+ * whose path segments start with the parts of the query, in the same order. Those rank shallower
+ * labels first, then by how closely the segments line up with the query: starting at the first
+ * segment with no segments skipped is best. Ties go to the shorter label. Case is ignored when
+ * matching segments.
+ *
+ * Every distinct segment is kept in a sorted array along with the labels containing it, so the
+ * labels a part of the query can match are found with a binary search and intersected with those
+ * of the other parts. Labels are numbered in
+ * rank order, so those candidates are checked best first and the search stops as soon as no
+ * remaining candidate could displace a match. A second, sorted order of the labels serves prefix
+ * matches. An index is immutable.
+ *
+ * Each part has to match a segment of its own. When the segments one part matches include those
+ * of another, e.g. "se" and "serv", intersecting can't tell, so labels are also required to have
+ * at least as many segments in the wider part's range as there are parts within it. Labels are
+ * listed once per occurrence of a segment for that reason.
+ */
+public final class CompletionIndex {
+    private static final CompletionIndex EMPTY = new CompletionIndex(new String[0], new String[0], new int[0], new String[0], new int[1], new int[0]);
+
+    private static final int TIER_ANCHORED = 1;
+    private static final int TIER_CONTIGUOUS = 2;
+    private static final int TIER_SCATTERED = 3;
+    private static final int MAX_SEGMENTS = 32;
+
+    // Indexed by id, in rank order.
+    private final String[] labels;
+    private final String[] kinds;
+    // The ids in label order.
+    private final int[] sorted;
+    private final String[] segments;
+    private final int[] postingOffsets;
+    private final int[] postings;
+
+    private CompletionIndex(String[] labels, String[] kinds, int[] sorted,
+                            String[] segments, int[] postingOffsets, int[] postings) {
+        this.labels = labels;
+        this.kinds = kinds;
+        this.sorted = sorted;
+        this.segments = segments;
+        this.postingOffsets = postingOffsets;
+        this.postings = postings;
+    }
+
+    public static CompletionIndex empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @param tree The tree to index.
+     * @return An index of every package and build target in the tree.
+     */
+    public static CompletionIndex of(WorkspaceTree tree) {
+        Preconditions.checkNotNull(tree);
+        final Map<String, String> kindsByLabel = new HashMap<>();
+        final Deque<WorkspaceTree.Node> pending = new ArrayDeque<>();
+        final Deque<String> pendingPaths = new ArrayDeque<>();
+        pending.push(tree.getRoot());
+        pendingPaths.push("");
+        while (!pending.isEmpty()) {
+            final WorkspaceTree.Node node = pending.pop();
+            final String path = pendingPaths.pop();
+            if (!node.isRoot()) {
+                kindsByLabel.putIfAbsent("//" + path, null);
+            }
+            for (BuildTarget target : node.getValue().getBuildTargets()) {
+                final String label = "//" + LabelIndex.stripRoot(target.getPath()) + ":" + target.getLabel();
+                // A label declared twice by a broken BUILD file keeps its first declaration.
+                if (!kindsByLabel.containsKey(label)) {
+                    kindsByLabel.put(label, target.getKind() != null ? target.getKind() : "");
+                }
+            }
+            for (WorkspaceTree.Node child : node.getChildren()) {
+                pending.push(child);
+                pendingPaths.push(path.isEmpty()
+                        ? child.getValue().getPackageName()
+                        : path + "/" + child.getValue().getPackageName());
+            }
+        }
+        if (kindsByLabel.isEmpty()) {
+            return EMPTY;
+        }
+
+        // Number the labels by depth, then length, then label.
+        final String[] byLabel = kindsByLabel.keySet().toArray(new String[0]);
+        Arrays.sort(byLabel);
+        final int[] bounds = new int[MAX_SEGMENTS * 2];
+        final long[] keys = new long[byLabel.length];
+        for (int i = 0; i < byLabel.length; i++) {
+            keys[i] = (long) splitSegments(byLabel[i], bounds) << 52
+                    | (long) Math.min(byLabel[i].length(), 0xfffff) << 32
+                    | i;
+        }
+        Arrays.sort(keys);
+        final String[] labels = new String[byLabel.length];
+        final String[] kinds = new String[byLabel.length];
+        final int[] sorted = new int[byLabel.length];
+        for (int id = 0; id < keys.length; id++) {
+            final int position = (int) keys[id];
+            labels[id] = byLabel[position];
+            kinds[id] = kindsByLabel.get(byLabel[position]);
+            sorted[position] = id;
+        }
+
+        // Count the labels containing each segment, then lay their ids out segment by segment.
+        // A label is listed once per occurrence, so "//server/api:server" is listed twice.
+        final Map<String, int[]> segmentCounts = new HashMap<>();
+        for (String label : labels) {
+            final int count = splitSegments(label, bounds);
+            for (int i = 0; i < count; i++) {
+                segmentCounts.computeIfAbsent(segmentAt(label, bounds, i), key -> new int[1])[0]++;
+            }
+        }
+        final String[] segments = segmentCounts.keySet().toArray(new String[0]);
+        Arrays.sort(segments);
+        final Map<String, Integer> segmentIds = new HashMap<>(segments.length * 2);
+        final int[] postingOffsets = new int[segments.length + 1];
+        for (int i = 0; i < segments.length; i++) {
+            segmentIds.put(segments[i], i);
+            postingOffsets[i + 1] = postingOffsets[i] + segmentCounts.get(segments[i])[0];
+        }
+        final int[] postings = new int[postingOffsets[segments.length]];
+        final int[] cursor = Arrays.copyOf(postingOffsets, segments.length);
+        for (int id = 0; id < labels.length; id++) {
+            final int count = splitSegments(labels[id], bounds);
+            for (int i = 0; i < count; i++) {
+                postings[cursor[segmentIds.get(segmentAt(labels[id], bounds, i))]++] = id;
+            }
+        }
+        return new CompletionIndex(labels, kinds, sorted, segments, postingOffsets, postings);
+    }
+
+    /**
+     * Finds the start and end of every segment of a label, e.g. "main", "java" and "lib" in
+     * "//main/java:lib". Segments past {@link #MAX_SEGMENTS} are ignored.
+     *
+     * @return The number of segments.
+     */
+    private static int splitSegments(String label, int[] bounds) {
+        int count = 0;
+        int start = label.startsWith("//") ? 2 : 0;
+        for (int i = start; i <= label.length() && count < MAX_SEGMENTS; i++) {
+            if (i == label.length() || label.charAt(i) == '/' || label.charAt(i) == ':') {
+                if (i > start) {
+                    bounds[count * 2] = start;
+                    bounds[count * 2 + 1] = i;
+                    count++;
+                }
+                start = i + 1;
+            }
+        }
+        return count;
+    }
+
+    private static String segmentAt(String label, int[] bounds, int segment) {
+        return label.substring(bounds[segment * 2], bounds[segment * 2 + 1]).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @param query The label typed so far, e.g. "//serv/ap" or "//server/api:".
+     * @param limit The maximum number of matches to return.
+     * @return The best matches, best first.
+     */
+    public List<Match> complete(String query, int limit) {
+        Preconditions.checkNotNull(query);
+        Preconditions.checkArgument(limit >= 0);
+        final List<Match> matches = new ArrayList<>(Math.min(limit, 64));
+        if (limit == 0) {
+            return matches;
+        }
+
+        // Labels which start with the query as typed.
+        int prefixStart = sorted.length;
+        int prefixEnd = sorted.length;
+        if (query.startsWith("//")) {
+            prefixStart = lowerBound(query);
+            prefixEnd = prefixStart;
+            while (prefixEnd < sorted.length && labels[sorted[prefixEnd]].startsWith(query) && matches.size() < limit) {
+                matches.add(toMatch(sorted[prefixEnd]));
+                prefixEnd++;
+            }
+        }
+        final String[] parts = splitQuery(query);
+        if (matches.size() == limit || parts.length == 0) {
+            return matches;
+        }
+
+        // Only the labels which contain a segment starting with every part can match. Parts are
+        // applied rarest first, so the candidates shrink as quickly as possible.
+        final long[] ranges = new long[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            final int first = postingOffsets[lowerBound(segments, parts[i])];
+            final int last = postingOffsets[lowerBound(segments, parts[i] + Character.MAX_VALUE)];
+            ranges[i] = (long) (last - first) << 32 | first;
+        }
+        Arrays.sort(ranges);
+        final BitSet candidates = postingsOf(ranges[0]);
+        for (int i = 1; i < ranges.length && !candidates.isEmpty(); i++) {
+            // The segments of a part like "se" include those of "ser", so it can't narrow them.
+            if (!containsEarlier(ranges, i)) {
+                candidates.and(postingsOf(ranges[i]));
+            }
+        }
+        // Parts within the range of a wider part, e.g. "serv" within "se", each need a segment too.
+        for (int i = 0; i < ranges.length && !candidates.isEmpty(); i++) {
+            final int needed = Math.min(countContained(ranges, i), MAX_SEGMENTS);
+            if (needed > 1 && (i == 0 || ranges[i - 1] != ranges[i])) {
+                retainRepeated(candidates, ranges[i], needed);
+            }
+        }
+        for (int i = prefixStart; i < prefixEnd; i++) {
+            candidates.clear(sorted[i]);
+        }
+
+        // Ranks are the depth, then the tier, then the id, which already orders by length.
+        final long[] best = new long[limit - matches.size()];
+        int bestCount = 0;
+        final int[] bounds = new int[MAX_SEGMENTS * 2];
+        for (int id = candidates.nextSetBit(0); id >= 0; id = candidates.nextSetBit(id + 1)) {
+            final int segmentCount = splitSegments(labels[id], bounds);
+            if (bestCount == best.length && rank(segmentCount, TIER_ANCHORED, id) > best[bestCount - 1]) {
+                // Every later id is at least as deep and as long.
+                break;
+            }
+
+            final int tier = tierOf(labels[id], bounds, segmentCount, parts);
+            if (tier == 0) {
+                continue;
+            }
+            final long rank = rank(segmentCount, tier, id);
+            if (bestCount < best.length) {
+                bestCount++;
+            } else if (rank > best[bestCount - 1]) {
+                continue;
+            }
+            int insert = bestCount - 1;
+            while (insert > 0 && best[insert - 1] > rank) {
+                best[insert] = best[insert - 1];
+                insert--;
+            }
+            best[insert] = rank;
+        }
+
+        for (int i = 0; i < bestCount; i++) {
+            matches.add(toMatch((int) best[i]));
+        }
+        return matches;
+    }
+
+    /**
+     * @param range The number of postings in the high half and the first posting in the low half.
+     */
+    private BitSet postingsOf(long range) {
+        final BitSet ids = new BitSet(labels.length);
+        final int first = (int) range;
+        final int last = first + (int) (range >>> 32);
+        for (int posting = first; posting < last; posting++) {
+            ids.set(postings[posting]);
+        }
+        return ids;
+    }
+
+    /**
+     * Drops the candidates with fewer than the needed number of segments in a range.
+     */
+    private void retainRepeated(BitSet candidates, long range, int needed) {
+        // Each level holds the candidates seen at least one more time than the level before.
+        final BitSet[] seen = new BitSet[needed];
+        for (int level = 0; level < needed; level++) {
+            seen[level] = new BitSet(labels.length);
+        }
+        final int first = (int) range;
+        final int last = first + (int) (range >>> 32);
+        for (int posting = first; posting < last; posting++) {
+            final int id = postings[posting];
+            if (candidates.get(id)) {
+                int level = 0;
+                while (level < needed - 1 && seen[level].get(id)) {
+                    level++;
+                }
+                seen[level].set(id);
+            }
+        }
+        candidates.and(seen[needed - 1]);
+    }
+
+    /**
+     * @return The number of ranges which lie within the given one, including itself.
+     */
+    private static int countContained(long[] ranges, int range) {
+        final int first = (int) ranges[range];
+        final int last = first + (int) (ranges[range] >>> 32);
+        int count = 0;
+        for (long other : ranges) {
+            if ((int) other >= first && (int) other + (int) (other >>> 32) <= last) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean containsEarlier(long[] ranges, int range) {
+        final int first = (int) ranges[range];
+        final int last = first + (int) (ranges[range] >>> 32);
+        for (int i = 0; i < range; i++) {
+            if ((int) ranges[i] >= first && (int) ranges[i] + (int) (ranges[i] >>> 32) <= last) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long rank(int segmentCount, int tier, int id) {
+        return (long) segmentCount << 36 | (long) tier << 32 | id;
+    }
+
+    /**
+     * Splits a query into the lower case parts its segments have to start with, e.g. "//Serv/ap:"
+     * gives "serv" and "ap".
+     */
+    private static String[] splitQuery(String query) {
+        final List<String> parts = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i <= query.length(); i++) {
+            if (i == query.length() || query.charAt(i) == '/' || query.charAt(i) == ':') {
+                if (i > start) {
+                    parts.add(query.substring(start, i).toLowerCase(Locale.ROOT));
+                }
+                start = i + 1;
+            }
+        }
+        return parts.toArray(new String[0]);
+    }
+
+    /**
+     * @return How closely the segments of the label line up with the parts of the query, or 0 if
+     * they don't match.
+     */
+    private static int tierOf(String label, int[] bounds, int segmentCount, String[] parts) {
+        if (parts.length > segmentCount) {
+            return 0;
+        }
+
+        boolean contiguous = false;
+        for (int start = 0; start + parts.length <= segmentCount && !contiguous; start++) {
+            contiguous = true;
+            for (int i = 0; i < parts.length && contiguous; i++) {
+                contiguous = startsWith(label, bounds, start + i, parts[i]);
+            }
+            if (contiguous) {
+                return start == 0 ? TIER_ANCHORED : TIER_CONTIGUOUS;
+            }
+        }
+
+        int part = 0;
+        for (int segment = 0; segment < segmentCount && part < parts.length; segment++) {
+            if (startsWith(label, bounds, segment, parts[part])) {
+                part++;
+            }
+        }
+        return part == parts.length ? TIER_SCATTERED : 0;
+    }
+
+    private static boolean startsWith(String label, int[] bounds, int segment, String part) {
+        return bounds[segment * 2 + 1] - bounds[segment * 2] >= part.length()
+                && label.regionMatches(true, bounds[segment * 2], part, 0, part.length());
+    }
+
+    private int lowerBound(String label) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (labels[sorted[middle]].compareTo(label) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static int lowerBound(String[] sorted, String key) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (sorted[middle].compareTo(key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private Match toMatch(int id) {
+        return new Match(labels[id], kinds[id]);
+    }
+
+    /**
+     * @return The number of packages and build targets in the index.
+     */
+    public int size() {
+        return labels.length;
+    }
+
+    @Override
+    public String toString() {
+        return "CompletionIndex{" +
+                "labels=" + labels.length +
+                ", segments=" + segments.length +
+                '}';
+    }
+
+    /**
+     * A package or build target which matched a query.
+     */
+    public static final class Match {
+        private final String label;
+        private final String kind;
+
+        Match(String label, String kind) {
+            this.label = label;
+            this.kind = kind;
+        }
+
+        /**
+         * @return The absolute label, e.g. "//main/java" for a package or "//main/java:lib" for a
+         * build target.
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * @return The rule class of the target, or null for a package.
+         */
+        public String getKind() {
+            return kind;
+        }
+
+        public boolean isPackage() {
+            return kind == null;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+}
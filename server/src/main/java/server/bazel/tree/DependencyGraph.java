@@ -0,0 +1,261 @@
+package server.bazel.tree;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The dependency graph of a workspace tree, built from the rule inputs of its build targets.
+ * Every target and every label a target depends on, including source files and external
+ * labels, is a node identified by a dense int. Edges are stored in compressed sparse row form in
+ * both directions, so deps and rdeps queries walk plain int arrays.
+ *
+ * Edges are only known for targets synced with a backend that reports rule inputs. A graph is
+ * immutable.
+ */
+public final class DependencyGraph {
+    /**
+     * Passed as a depth to follow edges until no new nodes are found.
+     */
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    private final String[] labels;
+    private final Map<String, Integer> ids;
+    private final int[] depOffsets;
+    private final int[] deps;
+    private final int[] rdepOffsets;
+    private final int[] rdeps;
+
+    private DependencyGraph(String[] labels, Map<String, Integer> ids,
+                            int[] depOffsets, int[] deps, int[] rdepOffsets, int[] rdeps) {
+        this.labels = labels;
+        this.ids = ids;
+        this.depOffsets = depOffsets;
+        this.deps = deps;
+        this.rdepOffsets = rdepOffsets;
+        this.rdeps = rdeps;
+    }
+
+    /**
+     * @param tree The tree to build the graph of.
+     * @return The dependency graph of every build target in the tree.
+     */
+    public static DependencyGraph of(WorkspaceTree tree) {
+        Preconditions.checkNotNull(tree);
+        // Targets take the first ids so their edges can be laid out in order. A label declared
+        // twice by a broken BUILD file keeps its first declaration.
+        final Map<String, Integer> ids = new HashMap<>();
+        final List<String> labels = new ArrayList<>();
+        final List<BuildTarget> targets = new ArrayList<>();
+        final Deque<WorkspaceTree.Node> pending = new ArrayDeque<>();
+        pending.push(tree.getRoot());
+        while (!pending.isEmpty()) {
+            final WorkspaceTree.Node node = pending.pop();
+            for (BuildTarget target : node.getValue().getBuildTargets()) {
+                final String label = toLabel(target);
+                if (!ids.containsKey(label)) {
+                    idOf(ids, labels, label);
+                    targets.add(target);
+                }
+            }
+            node.getChildren().forEach(pending::push);
+        }
+
+        int edgeCount = 0;
+        final int[][] targetDeps = new int[targets.size()][];
+        for (int i = 0; i < targets.size(); i++) {
+            final List<String> inputs = targets.get(i).getRuleInputs();
+            final int[] edges = new int[inputs.size()];
+            for (int j = 0; j < edges.length; j++) {
+                edges[j] = idOf(ids, labels, inputs.get(j));
+            }
+            targetDeps[i] = edges;
+            edgeCount += edges.length;
+        }
+
+        final int nodeCount = labels.size();
+        final int[] depOffsets = new int[nodeCount + 1];
+        final int[] deps = new int[edgeCount];
+        final int[] rdepOffsets = new int[nodeCount + 1];
+        for (int i = 0, edge = 0; i < nodeCount; i++) {
+            depOffsets[i] = edge;
+            if (i < targetDeps.length) {
+                System.arraycopy(targetDeps[i], 0, deps, edge, targetDeps[i].length);
+                edge += targetDeps[i].length;
+                for (int dep : targetDeps[i]) {
+                    rdepOffsets[dep + 1]++;
+                }
+            }
+        }
+        depOffsets[nodeCount] = edgeCount;
+
+        // Counting sort the edges by their head to get the reverse rows.
+        for (int i = 0; i < nodeCount; i++) {
+            rdepOffsets[i + 1] += rdepOffsets[i];
+        }
+        final int[] rdeps = new int[edgeCount];
+        final int[] cursor = Arrays.copyOf(rdepOffsets, nodeCount);
+        for (int i = 0; i < targetDeps.length; i++) {
+            for (int dep : targetDeps[i]) {
+                rdeps[cursor[dep]++] = i;
+            }
+        }
+
+        return new DependencyGraph(labels.toArray(new String[0]), ids, depOffsets, deps, rdepOffsets, rdeps);
+    }
+
+    private static int idOf(Map<String, Integer> ids, List<String> labels, String label) {
+        Integer id = ids.get(label);
+        if (id == null) {
+            id = labels.size();
+            ids.put(label, id);
+            labels.add(label);
+        }
+        return id;
+    }
+
+    /**
+     * @return The absolute label of the target, e.g. "//main/java:lib".
+     */
+    public static String toLabel(BuildTarget target) {
+        return String.format("//%s:%s", LabelIndex.stripRoot(target.getPath()), target.getLabel());
+    }
+
+    public boolean contains(String label) {
+        return ids.containsKey(label);
+    }
+
+    /**
+     * Finds the labels the given label depends on.
+     *
+     * @param label An absolute label, e.g. "//main/java:lib".
+     * @param depth How many edges to follow. 1 gives the direct dependencies, {@link #UNBOUNDED}
+     *              gives the transitive closure.
+     * @return The dependencies in breadth first order, excluding the label itself. Empty if the
+     * label isn't in the graph.
+     */
+    public List<String> deps(String label, int depth) {
+        return traverse(label, depth, depOffsets, deps);
+    }
+
+    /**
+     * Finds the labels which depend on the given label.
+     *
+     * @param label An absolute label, e.g. "//main/java:lib" or "//main/java:Main.java".
+     * @param depth How many edges to follow. 1 gives the direct dependents, {@link #UNBOUNDED}
+     *              gives every target the label affects.
+     * @return The reverse dependencies in breadth first order, excluding the label itself. Empty
+     * if the label isn't in the graph.
+     */
+    public List<String> rdeps(String label, int depth) {
+        return traverse(label, depth, rdepOffsets, rdeps);
+    }
+
+    /**
+     * Finds a shortest dependency path between two labels.
+     *
+     * @param from The label the path starts at.
+     * @param to   The label the path ends at, which from depends on transitively.
+     * @return The labels along the path, starting with from and ending with to. Empty if from
+     * doesn't depend on to.
+     */
+    public Optional<List<String>> somePath(String from, String to) {
+        final Integer start = ids.get(from);
+        final Integer end = ids.get(to);
+        if (start == null || end == null) {
+            return Optional.empty();
+        }
+
+        final int[] parents = new int[labels.length];
+        Arrays.fill(parents, -1);
+        parents[start] = start;
+        final int[] queue = new int[labels.length];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = start;
+        while (head < tail && parents[end] < 0) {
+            final int node = queue[head++];
+            for (int edge = depOffsets[node]; edge < depOffsets[node + 1]; edge++) {
+                final int dep = deps[edge];
+                if (parents[dep] < 0) {
+                    parents[dep] = node;
+                    queue[tail++] = dep;
+                }
+            }
+        }
+
+        if (parents[end] < 0) {
+            return Optional.empty();
+        }
+        final List<String> path = new ArrayList<>();
+        for (int node = end; node != start; node = parents[node]) {
+            path.add(labels[node]);
+        }
+        path.add(labels[start]);
+        Collections.reverse(path);
+        return Optional.of(path);
+    }
+
+    private List<String> traverse(String label, int depth, int[] offsets, int[] edges) {
+        Preconditions.checkArgument(depth >= 0);
+        final Integer start = ids.get(label);
+        if (start == null) {
+            return Collections.emptyList();
+        }
+
+        final BitSet visited = new BitSet(labels.length);
+        visited.set(start);
+        final List<String> result = new ArrayList<>();
+        int[] frontier = {start};
+        for (int level = 0; level < depth && frontier.length > 0; level++) {
+            int[] next = new int[Math.min(labels.length, 16)];
+            int count = 0;
+            for (int node : frontier) {
+                for (int edge = offsets[node]; edge < offsets[node + 1]; edge++) {
+                    final int neighbour = edges[edge];
+                    if (!visited.get(neighbour)) {
+                        visited.set(neighbour);
+                        result.add(labels[neighbour]);
+                        if (count == next.length) {
+                            next = Arrays.copyOf(next, Math.min(labels.length, count * 2));
+                        }
+                        next[count++] = neighbour;
+                    }
+                }
+            }
+            frontier = Arrays.copyOf(next, count);
+        }
+        return result;
+    }
+
+    /**
+     * @return The number of labels in the graph.
+     */
+    public int nodeCount() {
+        return labels.length;
+    }
+
+    /**
+     * @return The number of dependency edges in the graph.
+     */
+    public int edgeCount() {
+        return deps.length;
+    }
+
+    @Override
+    public String toString() {
+        return "DependencyGraph{" +
+                "nodes=" + nodeCount() +
+                ", edges=" + edgeCount() +
+                '}';
+    }
+}
@@ -0,0 +1,74 @@
+package server.bazel.tree;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Deduplicates the strings and paths held by the workspace tree. Package names, rule kinds,
+ * package paths and the labels targets depend on repeat across hundreds of thousands of targets,
+ * and every one parsed from bazel's output is otherwise a separate copy.
+ */
+public final class Interning {
+    private static final Interner<String> strings = Interners.newWeakInterner();
+    private static final Interner<Path> paths = Interners.newWeakInterner();
+
+    // Query results arrive grouped by package, so most paths equal the one interned just before.
+    // Equal paths are interchangeable, so racing on this field is harmless.
+    private static Path lastPath = null;
+
+    private Interning() {
+    }
+
+    public static String intern(String value) {
+        return value != null ? strings.intern(value) : null;
+    }
+
+    public static Path intern(Path value) {
+        if (value == null) {
+            return null;
+        }
+
+        final Path last = lastPath;
+        if (value.equals(last)) {
+            return last;
+        }
+        return lastPath = paths.intern(value);
+    }
+
+    /**
+     * @return An immutable copy of the list with every value interned. Lists are stored as a bare
+     * array rather than a growable list with spare capacity.
+     */
+    public static List<String> internAll(List<String> values) {
+        if (values.isEmpty()) {
+            return ImmutableList.of();
+        }
+
+        final ImmutableList.Builder<String> interned = ImmutableList.builderWithExpectedSize(values.size());
+        for (String value : values) {
+            interned.add(intern(value));
+        }
+        return interned.build();
+    }
+
+    /**
+     * @return An immutable copy of the attributes with every name and value interned.
+     */
+    public static Map<String, List<String>> internAll(Map<String, List<String>> attributes) {
+        if (attributes.isEmpty()) {
+            return ImmutableMap.of();
+        }
+
+        final ImmutableMap.Builder<String, List<String>> interned = ImmutableMap.builderWithExpectedSize(attributes.size());
+        for (Map.Entry<String, List<String>> entry : attributes.entrySet()) {
+            interned.put(intern(entry.getKey()), internAll(entry.getValue()));
+        }
+        return interned.build();
+    }
+}
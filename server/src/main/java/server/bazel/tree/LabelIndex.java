@@ -0,0 +1,196 @@
+package server.bazel.tree;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Maps every build target in a workspace tree to its label, so checking whether a label exists
+ * or looking up its kind doesn't require walking the tree. Targets are grouped by the rooted path
+ * of their package, e.g. "/main/java", or "/" for the root package. The keys are the paths the
+ * tree's targets already hold, so looking up a target by its own path hashes a path whose hash is
+ * already cached and allocates nothing.
+ *
+ * An index is immutable. Incremental syncs derive the index of the next snapshot with
+ * {@link #withPackages(Map)}, which shares every package that didn't change. The map of packages
+ * itself is copied, so deriving an index is still O(packages), though it copies a reference per
+ * package rather than re-indexing every target.
+ */
+public final class LabelIndex {
+    private static final LabelIndex EMPTY = new LabelIndex(Collections.emptyMap(), 0);
+    private static final Path ROOT = Paths.get("/");
+
+    private final Map<Path, Map<String, BuildTarget>> packages;
+    private final int size;
+
+    private LabelIndex(Map<Path, Map<String, BuildTarget>> packages, int size) {
+        this.packages = packages;
+        this.size = size;
+    }
+
+    public static LabelIndex empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @param tree The tree to index.
+     * @return An index of every build target in the tree.
+     */
+    public static LabelIndex of(WorkspaceTree tree) {
+        Preconditions.checkNotNull(tree);
+        final Map<Path, List<BuildTarget>> targets = new HashMap<>();
+        final Deque<WorkspaceTree.Node> pending = new ArrayDeque<>();
+        pending.push(tree.getRoot());
+        while (!pending.isEmpty()) {
+            final WorkspaceTree.Node node = pending.pop();
+            for (BuildTarget target : node.getValue().getBuildTargets()) {
+                targets.computeIfAbsent(toKey(target.getPath()), key -> new ArrayList<>()).add(target);
+            }
+            node.getChildren().forEach(pending::push);
+        }
+        return EMPTY.replace(targets);
+    }
+
+    /**
+     * Creates an index in which the targets of the given packages are replaced.
+     *
+     * @param replaced The new targets of each package, keyed by the workspace relative path of the
+     *                 package, e.g. "main/java". A package mapped to an empty collection is removed.
+     * @return The updated index. This index is left as it was.
+     */
+    public LabelIndex withPackages(Map<String, ? extends Collection<BuildTarget>> replaced) {
+        Preconditions.checkNotNull(replaced);
+        final Map<Path, Collection<BuildTarget>> byPath = new HashMap<>();
+        for (Map.Entry<String, ? extends Collection<BuildTarget>> entry : replaced.entrySet()) {
+            byPath.put(ROOT.resolve(entry.getKey()), entry.getValue());
+        }
+        return replace(byPath);
+    }
+
+    private LabelIndex replace(Map<Path, ? extends Collection<BuildTarget>> replaced) {
+        final Map<Path, Map<String, BuildTarget>> updated = new HashMap<>(packages);
+        int updatedSize = size;
+        for (Map.Entry<Path, ? extends Collection<BuildTarget>> entry : replaced.entrySet()) {
+            final Map<String, BuildTarget> previous = updated.remove(entry.getKey());
+            if (previous != null) {
+                updatedSize -= previous.size();
+            }
+
+            // Bazel doesn't allow two targets with the same name in a package. If a broken BUILD
+            // file declares one anyway, the first declaration wins.
+            final Map<String, BuildTarget> byName = new LinkedHashMap<>();
+            for (BuildTarget target : entry.getValue()) {
+                byName.putIfAbsent(target.getLabel(), target);
+            }
+            if (!byName.isEmpty()) {
+                updated.put(entry.getKey(), ImmutableMap.copyOf(byName));
+                updatedSize += byName.size();
+            }
+        }
+        return new LabelIndex(Collections.unmodifiableMap(updated), updatedSize);
+    }
+
+    /**
+     * @param packagePath The path of the package, e.g. Paths.get("//main/java").
+     * @param name        The name of the target within the package.
+     * @return The target, if the package declares it.
+     */
+    public Optional<BuildTarget> find(Path packagePath, String name) {
+        return Optional.ofNullable(get(packagePath, name));
+    }
+
+    /**
+     * @param label An absolute label within the main workspace, e.g. "//main/java:lib".
+     * @return The target, if the label refers to one. Relative, external and shorthand labels
+     * never match.
+     */
+    public Optional<BuildTarget> find(String label) {
+        final int colon = label.indexOf(':');
+        if (!label.startsWith("//") || colon < 0) {
+            return Optional.empty();
+        }
+
+        return find(ROOT.resolve(label.substring(2, colon)), label.substring(colon + 1));
+    }
+
+    private BuildTarget get(Path packagePath, String name) {
+        final Map<String, BuildTarget> targets = packages.get(toKey(packagePath));
+        return targets != null ? targets.get(name) : null;
+    }
+
+    /**
+     * Index keys are rooted. Paths from the tree already are, so they're used as they are. Any
+     * other path is rooted by its string form, e.g. "main/java" becomes "/main/java".
+     */
+    private static Path toKey(Path packagePath) {
+        return packagePath.isAbsolute() ? packagePath : ROOT.resolve(packagePath.toString());
+    }
+
+    /**
+     * Tree paths are rooted, e.g. "/main/java" or "/" for the root package. Index keys are not.
+     */
+    public static String stripRoot(Path rootedPath) {
+        final String path = rootedPath.toString();
+        int start = 0;
+        while (start < path.length() && path.charAt(start) == '/') {
+            start++;
+        }
+        return start == 0 ? path : path.substring(start);
+    }
+
+    /**
+     * @param packagePath The workspace relative path of the package, e.g. "main/java".
+     * @return Every target the package declares.
+     */
+    Collection<BuildTarget> targetsIn(String packagePath) {
+        final Map<String, BuildTarget> targets = packages.get(ROOT.resolve(packagePath));
+        return targets != null ? targets.values() : Collections.emptyList();
+    }
+
+    public boolean contains(BuildTarget target) {
+        return get(target.getPath(), target.getLabel()) != null;
+    }
+
+    /**
+     * Checks many targets at once.
+     *
+     * @param targets The targets to check. Only their paths and labels are compared.
+     * @return The targets which aren't in the index, in the order they were given.
+     */
+    public List<BuildTarget> findMissing(Collection<BuildTarget> targets) {
+        final List<BuildTarget> missing = new ArrayList<>();
+        for (BuildTarget target : targets) {
+            if (!contains(target)) {
+                missing.add(target);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * @return The number of targets in the index.
+     */
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "LabelIndex{" +
+                "packages=" + packages.size() +
+                ", targets=" + size +
+                '}';
+    }
+}
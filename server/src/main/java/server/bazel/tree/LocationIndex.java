@@ -0,0 +1,198 @@
+package server.bazel.tree;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Maps every BUILD file in a workspace tree to the build targets declared in it, using the
+ * locations reported when the targets were synced. Files are looked up by their absolute path on
+ * disk, e.g. "/home/me/ws/main/java/BUILD". Packages are mapped to the BUILD file recorded when
+ * they were synced too, so finding it never has to check which of "BUILD" or "BUILD.bazel" exists
+ * on disk.
+ *
+ * Targets synced without a location aren't indexed, but their packages' BUILD files are. An index
+ * is immutable. Incremental syncs derive the index of the next snapshot with
+ * {@link #withPackages(Map, Map, LabelIndex)}, which only re-sorts the files the replaced packages
+ * declare targets in. Like {@link LabelIndex}, the maps themselves are copied.
+ */
+public final class LocationIndex {
+    private static final LocationIndex EMPTY = new LocationIndex(Collections.emptyMap(), Collections.emptyMap(), 0);
+
+    private static final Comparator<BuildTarget> BY_POSITION = Comparator
+            .comparingInt((BuildTarget target) -> target.getLocation().get().getLine())
+            .thenComparingInt(target -> target.getLocation().get().getColumn());
+
+    private final Map<Path, List<BuildTarget>> files;
+    private final Map<String, Path> buildFiles;
+    private final int size;
+
+    private LocationIndex(Map<Path, List<BuildTarget>> files, Map<String, Path> buildFiles, int size) {
+        this.files = files;
+        this.buildFiles = buildFiles;
+        this.size = size;
+    }
+
+    public static LocationIndex empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @param tree The tree to index.
+     * @return An index of every build target in the tree which has a location.
+     */
+    public static LocationIndex of(WorkspaceTree tree) {
+        Preconditions.checkNotNull(tree);
+        final Map<String, List<BuildTarget>> targets = new HashMap<>();
+        final Map<String, Path> buildFiles = new HashMap<>();
+        final Deque<WorkspaceTree.Node> pending = new ArrayDeque<>();
+        pending.push(tree.getRoot());
+        while (!pending.isEmpty()) {
+            final WorkspaceTree.Node node = pending.pop();
+            final Package pkg = node.getValue();
+            if (pkg.getBuildFile().isPresent() && pkg.hasBuildFile()) {
+                buildFiles.put(LabelIndex.stripRoot(pkg.getBuildTargets().get(0).getPath()), pkg.getBuildFile().get());
+            }
+            for (BuildTarget target : pkg.getBuildTargets()) {
+                targets.computeIfAbsent(LabelIndex.stripRoot(target.getPath()), key -> new ArrayList<>()).add(target);
+            }
+            node.getChildren().forEach(pending::push);
+        }
+        return EMPTY.withPackages(targets, buildFiles, LabelIndex.empty());
+    }
+
+    /**
+     * Creates an index in which the build targets and BUILD files of the given packages are
+     * replaced.
+     *
+     * @param replacedTargets    The new targets of each replaced package, keyed by the workspace
+     *                           relative path of the package, e.g. "main/java".
+     * @param replacedBuildFiles The BUILD files recorded for the replaced packages. A package
+     *                           missing here falls back to the BUILD file its targets are
+     *                           located in, if any.
+     * @param previousLabels     The label index this index was built alongside, which knows the
+     *                           targets the replaced packages used to declare.
+     * @return The updated index. This index is left as it was.
+     */
+    public LocationIndex withPackages(Map<String, ? extends Collection<BuildTarget>> replacedTargets,
+                                      Map<String, Path> replacedBuildFiles,
+                                      LabelIndex previousLabels) {
+        Preconditions.checkNotNull(replacedTargets);
+        Preconditions.checkNotNull(replacedBuildFiles);
+        Preconditions.checkNotNull(previousLabels);
+
+        // Only the files the replaced packages declared targets in, before or now, change.
+        final Map<Path, List<BuildTarget>> added = new HashMap<>();
+        for (Collection<BuildTarget> targets : replacedTargets.values()) {
+            for (BuildTarget target : targets) {
+                if (target.getLocation().isPresent()) {
+                    added.computeIfAbsent(normalize(target.getLocation().get().getFile()), key -> new ArrayList<>())
+                            .add(target);
+                }
+            }
+        }
+        final Set<Path> affected = new HashSet<>(added.keySet());
+        for (String packagePath : replacedTargets.keySet()) {
+            for (BuildTarget target : previousLabels.targetsIn(packagePath)) {
+                target.getLocation().ifPresent(location -> affected.add(normalize(location.getFile())));
+            }
+        }
+
+        final Map<Path, List<BuildTarget>> updatedFiles = new HashMap<>(files);
+        int updatedSize = size;
+        for (Path file : affected) {
+            final List<BuildTarget> previous = updatedFiles.getOrDefault(file, Collections.emptyList());
+            final List<BuildTarget> targets = new ArrayList<>();
+            for (BuildTarget target : previous) {
+                if (!replacedTargets.containsKey(LabelIndex.stripRoot(target.getPath()))) {
+                    targets.add(target);
+                }
+            }
+            targets.addAll(added.getOrDefault(file, Collections.emptyList()));
+
+            updatedSize += targets.size() - previous.size();
+            if (targets.isEmpty()) {
+                updatedFiles.remove(file);
+            } else {
+                targets.sort(BY_POSITION);
+                updatedFiles.put(file, ImmutableList.copyOf(targets));
+            }
+        }
+
+        final Map<String, Path> updatedBuildFiles = new HashMap<>(buildFiles);
+        for (Map.Entry<String, ? extends Collection<BuildTarget>> entry : replacedTargets.entrySet()) {
+            updatedBuildFiles.remove(entry.getKey());
+            Path buildFile = replacedBuildFiles.get(entry.getKey());
+            if (buildFile == null) {
+                buildFile = entry.getValue().stream()
+                        .map(BuildTarget::getLocation)
+                        .filter(Optional::isPresent)
+                        .map(location -> location.get().getFile())
+                        .filter(LocationIndex::isBuildFile)
+                        .findFirst()
+                        .orElse(null);
+            }
+            if (buildFile != null) {
+                updatedBuildFiles.put(entry.getKey(), normalize(buildFile));
+            }
+        }
+        return new LocationIndex(Collections.unmodifiableMap(updatedFiles),
+                Collections.unmodifiableMap(updatedBuildFiles), updatedSize);
+    }
+
+    private static boolean isBuildFile(Path file) {
+        final String name = file.getFileName().toString();
+        return name.equals("BUILD") || name.equals("BUILD.bazel");
+    }
+
+    private static Path normalize(Path file) {
+        return file.toAbsolutePath().normalize();
+    }
+
+    /**
+     * @param file The BUILD file, e.g. Paths.get("/home/me/ws/main/java/BUILD").
+     * @return The targets declared in the file, in the order they're declared. Empty if the file
+     * declares none.
+     */
+    public List<BuildTarget> findDeclaredIn(Path file) {
+        Preconditions.checkNotNull(file);
+        return files.getOrDefault(normalize(file), Collections.emptyList());
+    }
+
+    /**
+     * @param packagePath The workspace relative path of the package, e.g. "main/java".
+     * @return The BUILD file of the package, if it has one.
+     */
+    public Optional<Path> findBuildFile(String packagePath) {
+        Preconditions.checkNotNull(packagePath);
+        return Optional.ofNullable(buildFiles.get(packagePath));
+    }
+
+    /**
+     * @return The number of build targets in the index.
+     */
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "LocationIndex{" +
+                "files=" + files.size() +
+                ", targets=" + size +
+                '}';
+    }
+}
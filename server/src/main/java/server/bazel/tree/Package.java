@@ -1,17 +1,22 @@
 package server.bazel.tree;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 
 public class Package {
     private String packageName;
     private List<BuildTarget> buildTargets;
     private List<SourceFile> sourceFiles;
+    private Path buildFile;
 
     public Package(String packageName) {
-        this.packageName = packageName;
+        this.packageName = Interning.intern(packageName);
         this.buildTargets = new ArrayList<>();
         this.sourceFiles = new ArrayList<>();
+        this.buildFile = null;
     }
 
     public void addBuildTarget(BuildTarget buildTarget) {
@@ -22,16 +27,58 @@ public class Package {
         this.sourceFiles.add(sourceFile);
     }
 
+    /**
+     * Removes all build targets and source files from this package. Packages nested below this
+     * one are left untouched.
+     */
+    public void clearContents() {
+        this.buildTargets.clear();
+        this.sourceFiles.clear();
+        this.buildFile = null;
+    }
+
+    /**
+     * @return A package with the same name and contents. The lists are copied, the build targets
+     * and source files themselves are shared.
+     */
+    public Package copy() {
+        Package copy = new Package(packageName);
+        copy.buildTargets.addAll(buildTargets);
+        copy.sourceFiles.addAll(sourceFiles);
+        copy.buildFile = buildFile;
+        return copy;
+    }
+
     public String getPackageName() {
         return packageName;
     }
 
+    /**
+     * @return A read only view of the build targets. Published packages are read from many
+     * threads at once, so contents may only change through this package's own methods, and only
+     * before it is published.
+     */
     public List<BuildTarget> getBuildTargets() {
-        return buildTargets;
+        return Collections.unmodifiableList(buildTargets);
     }
 
+    /**
+     * @return A read only view of the source files.
+     */
     public List<SourceFile> getSourceFiles() {
-        return sourceFiles;
+        return Collections.unmodifiableList(sourceFiles);
+    }
+
+    /**
+     * @return The BUILD or BUILD.bazel file declaring this package, as found when it was synced.
+     * Empty if the package has no build targets or the file couldn't be found.
+     */
+    public Optional<Path> getBuildFile() {
+        return Optional.ofNullable(buildFile);
+    }
+
+    public void setBuildFile(Path buildFile) {
+        this.buildFile = buildFile;
     }
 
     public boolean hasBuildFile() {
@@ -4,18 +4,16 @@ import java.nio.file.Path;
 
 public class SourceFile {
     private Path path;
-    private String fileName;
-    private String fileExtension;
+
+    // The name is kept whole so the indexes can share it. Everything after the first dot is the
+    // extension, so "a.pb.cc" has the extension "pb.cc".
+    private String name;
+    private int dot;
 
     public SourceFile(String fileName, Path path) {
-        String[] parts = fileName.split("\\.");
-        this.fileName = parts[0];
-        if(parts.length > 1) {
-            this.fileExtension = parts[1];
-        } else {
-            this.fileExtension = "";
-        }
-        this.path = path;
+        this.name = fileName;
+        this.dot = fileName.indexOf('.');
+        this.path = Interning.intern(path);
     }
 
     public Path getPath() {
@@ -23,26 +21,22 @@ public class SourceFile {
     }
 
     public String getFileName() {
-        return fileName;
+        return dot >= 0 ? name.substring(0, dot) : name;
     }
 
     public String getFileExtension() {
-        return fileExtension;
+        return dot >= 0 ? name.substring(dot + 1) : "";
     }
 
     public String getFileNameWithExtension() {
-        if(fileExtension == null) {
-            return getFileName();
-        }
-        return String.format("%s.%s", fileName, fileExtension);
+        return name;
     }
 
     @Override
     public String toString() {
         return "SourceFile{" +
                 "path=" + path +
-                ", fileName='" + fileName + '\'' +
-                ", fileExtension='" + fileExtension + '\'' +
+                ", name='" + name + '\'' +
                 '}';
     }
 }
@@ -0,0 +1,227 @@
+package server.bazel.tree;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Maps every source file in a workspace tree to the package which owns it and to the rules which
+ * list it among their inputs. Files are looked up by their workspace relative path, e.g.
+ * "main/java/Main.java".
+ *
+ * Consumers are only known for targets synced with a backend that reports rule inputs.
+ *
+ * An index is immutable. Incremental syncs derive the index of the next snapshot with
+ * {@link #withPackages(Map, Map, LabelIndex)}, which shares every package that didn't change. Like
+ * {@link LabelIndex}, the map of packages is copied, so deriving an index is O(packages).
+ */
+public final class SourceIndex {
+    private static final SourceIndex EMPTY = new SourceIndex(Collections.emptyMap(), 0);
+
+    private final Map<String, Map<String, Entry>> packages;
+    private final int size;
+
+    private SourceIndex(Map<String, Map<String, Entry>> packages, int size) {
+        this.packages = packages;
+        this.size = size;
+    }
+
+    public static SourceIndex empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @param tree The tree to index.
+     * @return An index of every source file in the tree.
+     */
+    public static SourceIndex of(WorkspaceTree tree) {
+        Preconditions.checkNotNull(tree);
+        final Map<String, List<BuildTarget>> targets = new HashMap<>();
+        final Map<String, List<SourceFile>> sources = new HashMap<>();
+        final Deque<WorkspaceTree.Node> pending = new ArrayDeque<>();
+        pending.push(tree.getRoot());
+        while (!pending.isEmpty()) {
+            final WorkspaceTree.Node node = pending.pop();
+            final Package pkg = node.getValue();
+            for (BuildTarget target : pkg.getBuildTargets()) {
+                targets.computeIfAbsent(LabelIndex.stripRoot(target.getPath()), key -> new ArrayList<>()).add(target);
+            }
+            for (SourceFile source : pkg.getSourceFiles()) {
+                sources.computeIfAbsent(LabelIndex.stripRoot(source.getPath()), key -> new ArrayList<>()).add(source);
+            }
+            node.getChildren().forEach(pending::push);
+        }
+        return EMPTY.withPackages(targets, sources, LabelIndex.empty());
+    }
+
+    /**
+     * Creates an index in which the source files and build targets of the given packages are
+     * replaced.
+     *
+     * @param replacedTargets The new targets of each replaced package, keyed by the workspace
+     *                        relative path of the package, e.g. "main/java".
+     * @param replacedSources The new source files of each replaced package. A replaced package
+     *                        which is missing here no longer has any source files.
+     * @param previousLabels  The label index this index was built alongside, which knows the
+     *                        targets the replaced packages used to declare.
+     * @return The updated index. This index is left as it was.
+     */
+    public SourceIndex withPackages(Map<String, ? extends Collection<BuildTarget>> replacedTargets,
+                                    Map<String, ? extends Collection<SourceFile>> replacedSources,
+                                    LabelIndex previousLabels) {
+        Preconditions.checkNotNull(replacedTargets);
+        Preconditions.checkNotNull(replacedSources);
+        Preconditions.checkNotNull(previousLabels);
+        final Set<String> replaced = new HashSet<>(replacedTargets.keySet());
+        replaced.addAll(replacedSources.keySet());
+
+        // Rules may consume files of other packages, so the packages the replaced rules used to
+        // consume from are affected as well as the ones they consume from now.
+        final Set<String> affected = new HashSet<>(replaced);
+        for (String packagePath : replaced) {
+            for (BuildTarget target : previousLabels.targetsIn(packagePath)) {
+                forEachInput(target, (pkg, name) -> affected.add(pkg));
+            }
+        }
+        final Map<String, Map<String, List<BuildTarget>>> addedConsumers = new HashMap<>();
+        for (Collection<BuildTarget> targets : replacedTargets.values()) {
+            for (BuildTarget target : targets) {
+                forEachInput(target, (pkg, name) -> {
+                    affected.add(pkg);
+                    addedConsumers.computeIfAbsent(pkg, key -> new HashMap<>())
+                            .computeIfAbsent(name, key -> new ArrayList<>())
+                            .add(target);
+                });
+            }
+        }
+
+        final Map<String, Map<String, Entry>> updated = new HashMap<>(packages);
+        int updatedSize = size;
+        for (String packagePath : affected) {
+            final Map<String, Entry> previous = updated.getOrDefault(packagePath, Collections.emptyMap());
+            final Collection<? extends SourceFile> files;
+            if (replaced.contains(packagePath)) {
+                files = replacedSources.containsKey(packagePath)
+                        ? replacedSources.get(packagePath)
+                        : Collections.emptyList();
+            } else {
+                files = previous.values().stream().map(entry -> entry.file).collect(ImmutableList.toImmutableList());
+            }
+            final Map<String, List<BuildTarget>> added = addedConsumers.getOrDefault(packagePath, Collections.emptyMap());
+
+            final Map<String, Entry> entries = new LinkedHashMap<>();
+            for (SourceFile file : files) {
+                final String name = file.getFileNameWithExtension();
+                final List<BuildTarget> consumers = new ArrayList<>();
+                final Entry previousEntry = previous.get(name);
+                if (previousEntry != null) {
+                    for (BuildTarget consumer : previousEntry.consumers) {
+                        if (!replaced.contains(LabelIndex.stripRoot(consumer.getPath()))) {
+                            consumers.add(consumer);
+                        }
+                    }
+                }
+                consumers.addAll(added.getOrDefault(name, Collections.emptyList()));
+                entries.putIfAbsent(name, new Entry(file, ImmutableList.copyOf(consumers)));
+            }
+
+            updatedSize -= previous.size();
+            updatedSize += entries.size();
+            if (entries.isEmpty()) {
+                updated.remove(packagePath);
+            } else {
+                updated.put(packagePath, ImmutableMap.copyOf(entries));
+            }
+        }
+        return new SourceIndex(Collections.unmodifiableMap(updated), updatedSize);
+    }
+
+    /**
+     * Calls the consumer with the package and name of every input of the target which is a
+     * label in the main workspace, e.g. "//main/java:Main.java" gives "main/java" and "Main.java".
+     */
+    private static void forEachInput(BuildTarget target, BiConsumer<String, String> consumer) {
+        for (String input : target.getRuleInputs()) {
+            final int colon = input.indexOf(':');
+            if (input.startsWith("//") && colon >= 0) {
+                consumer.accept(input.substring(2, colon), input.substring(colon + 1));
+            }
+        }
+    }
+
+    /**
+     * Finds the entry of a file. The owning package is the longest prefix of the path which is a
+     * package with source files, so nested packages are tried first.
+     */
+    private Optional<Entry> findEntry(String file) {
+        for (int slash = file.lastIndexOf('/'); ; slash = file.lastIndexOf('/', slash - 1)) {
+            final Map<String, Entry> entries = packages.get(slash >= 0 ? file.substring(0, slash) : "");
+            if (entries != null) {
+                final Entry entry = entries.get(file.substring(slash + 1));
+                if (entry != null) {
+                    return Optional.of(entry);
+                }
+            }
+            if (slash < 0) {
+                return Optional.empty();
+            }
+        }
+    }
+
+    /**
+     * @param file The path of the file, e.g. Paths.get("//main/java/Main.java").
+     * @return The source file, if a package owns it.
+     */
+    public Optional<SourceFile> findSourceFile(Path file) {
+        return findEntry(LabelIndex.stripRoot(file)).map(entry -> entry.file);
+    }
+
+    /**
+     * @param file The path of the file, e.g. Paths.get("//main/java/Main.java").
+     * @return The rules which list the file among their inputs, in no particular order. Empty if no
+     * package owns the file.
+     */
+    public List<BuildTarget> findConsumers(Path file) {
+        return findEntry(LabelIndex.stripRoot(file)).map(entry -> entry.consumers).orElse(Collections.emptyList());
+    }
+
+    /**
+     * @return The number of source files in the index.
+     */
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "SourceIndex{" +
+                "packages=" + packages.size() +
+                ", sourceFiles=" + size +
+                '}';
+    }
+
+    private static final class Entry {
+        private final SourceFile file;
+        private final List<BuildTarget> consumers;
+
+        Entry(SourceFile file, List<BuildTarget> consumers) {
+            this.file = file;
+            this.consumers = consumers;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package server.bazel.tree;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * A location in a file on disk, as reported by bazel. Lines and columns are 1-based, matching the
+ * "path:line:column" format used by bazel's query output.
+ */
+public class SourceLocation {
+    private Path file;
+    private int line;
+    private int column;
+
+    public SourceLocation(Path file, int line, int column) {
+        this.file = Interning.intern(file);
+        this.line = line;
+        this.column = column;
+    }
+
+    /**
+     * Parses a location formatted as "path:line:column" or "path:line".
+     *
+     * @param location The location to parse.
+     * @return The parsed location, or empty if the location is malformed.
+     */
+    public static Optional<SourceLocation> parse(String location) {
+        if (location == null || location.isEmpty()) {
+            return Optional.empty();
+        }
+
+        // Paths may contain colons on Windows, so the numbers are read from the end.
+        int end = location.length();
+        int[] numbers = new int[2];
+        int count = 0;
+        while (count < 2) {
+            final int colon = location.lastIndexOf(':', end - 1);
+            if (colon <= 0 || !isNumber(location, colon + 1, end)) {
+                break;
+            }
+
+            numbers[count++] = Integer.parseInt(location.substring(colon + 1, end));
+            end = colon;
+        }
+
+        if (count == 0) {
+            return Optional.empty();
+        }
+
+        final Path file = Paths.get(location.substring(0, end));
+        return count == 2
+                ? Optional.of(new SourceLocation(file, numbers[1], numbers[0]))
+                : Optional.of(new SourceLocation(file, numbers[0], 1));
+    }
+
+    private static boolean isNumber(String s, int start, int end) {
+        if (start >= end) {
+            return false;
+        }
+
+        for (int i = start; i < end; i++) {
+            if (!Character.isDigit(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(file, line, column);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        } else if (!(o instanceof SourceLocation)) {
+            return false;
+        }
+
+        SourceLocation c = (SourceLocation) o;
+        return getFile().equals(c.getFile())
+                && getLine() == c.getLine()
+                && getColumn() == c.getColumn();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s:%d:%d", file, line, column);
+    }
+}
@@ -0,0 +1,341 @@
+package server.bazel.tree;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Finds build targets by name anywhere in a workspace tree, e.g. "parser_test" finds
+ * "//lang/json:json_parser_test".
+ *
+ * Names which contain the query rank first: an exact match, then a name starting with the query,
+ * then one containing it right after a separator such as "_", then anywhere. When that leaves
+ * room, names sharing at least two thirds of the query's trigrams follow, so a typo like "parser_tset"
+ * still finds something. Ties go to the shorter name. Case is ignored.
+ *
+ * Every distinct name is broken into trigrams, and each trigram maps to the names containing it,
+ * so a query only looks at names sharing its trigrams. Queries shorter than a trigram match name
+ * prefixes instead. An index is immutable.
+ */
+public final class SymbolIndex {
+    private static final SymbolIndex EMPTY = new SymbolIndex(new BuildTarget[0], new String[0], new int[1],
+            new long[0], new int[1], new int[0]);
+
+    private static final int SCORE_EXACT = 0;
+    private static final int SCORE_PREFIX = 1;
+    private static final int SCORE_WORD = 2;
+    private static final int SCORE_SUBSTRING = 3;
+    private static final int SCORE_FUZZY = 4;
+
+    // The targets of each name are targets[targetOffsets[name], targetOffsets[name + 1]).
+    private final BuildTarget[] targets;
+    private final String[] names;
+    private final int[] targetOffsets;
+    // The names containing trigrams[i] are trigramPostings[trigramOffsets[i], trigramOffsets[i + 1]).
+    private final long[] trigrams;
+    private final int[] trigramOffsets;
+    private final int[] trigramPostings;
+
+    private SymbolIndex(BuildTarget[] targets, String[] names, int[] targetOffsets,
+                        long[] trigrams, int[] trigramOffsets, int[] trigramPostings) {
+        this.targets = targets;
+        this.names = names;
+        this.targetOffsets = targetOffsets;
+        this.trigrams = trigrams;
+        this.trigramOffsets = trigramOffsets;
+        this.trigramPostings = trigramPostings;
+    }
+
+    public static SymbolIndex empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @param tree The tree to index.
+     * @return An index of every build target in the tree.
+     */
+    public static SymbolIndex of(WorkspaceTree tree) {
+        Preconditions.checkNotNull(tree);
+        final Map<String, List<String>> labelsByName = new HashMap<>();
+        final Map<String, BuildTarget> targetsByLabel = new HashMap<>();
+        final Deque<WorkspaceTree.Node> pending = new ArrayDeque<>();
+        pending.push(tree.getRoot());
+        while (!pending.isEmpty()) {
+            final WorkspaceTree.Node node = pending.pop();
+            for (BuildTarget target : node.getValue().getBuildTargets()) {
+                // A label declared twice by a broken BUILD file keeps its first declaration.
+                final String label = DependencyGraph.toLabel(target);
+                if (targetsByLabel.putIfAbsent(label, target) == null) {
+                    labelsByName.computeIfAbsent(target.getLabel().toLowerCase(Locale.ROOT), key -> new ArrayList<>())
+                            .add(label);
+                }
+            }
+            node.getChildren().forEach(pending::push);
+        }
+        if (labelsByName.isEmpty()) {
+            return EMPTY;
+        }
+
+        final String[] names = labelsByName.keySet().toArray(new String[0]);
+        Arrays.sort(names);
+        final BuildTarget[] targets = new BuildTarget[targetsByLabel.size()];
+        final int[] targetOffsets = new int[names.length + 1];
+        final Map<Long, int[]> trigramCounts = new HashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            final List<String> labels = labelsByName.get(names[i]);
+            Collections.sort(labels);
+            targetOffsets[i + 1] = targetOffsets[i];
+            for (String label : labels) {
+                targets[targetOffsets[i + 1]++] = targetsByLabel.get(label);
+            }
+            for (long trigram : trigramsOf(names[i])) {
+                trigramCounts.computeIfAbsent(trigram, key -> new int[1])[0]++;
+            }
+        }
+
+        // Names are visited in order, so each trigram lists its names in ascending order.
+        final long[] trigrams = new long[trigramCounts.size()];
+        int count = 0;
+        for (Long trigram : trigramCounts.keySet()) {
+            trigrams[count++] = trigram;
+        }
+        Arrays.sort(trigrams);
+        final int[] trigramOffsets = new int[trigrams.length + 1];
+        for (int i = 0; i < trigrams.length; i++) {
+            trigramOffsets[i + 1] = trigramOffsets[i] + trigramCounts.get(trigrams[i])[0];
+        }
+        final int[] trigramPostings = new int[trigramOffsets[trigrams.length]];
+        final int[] cursor = Arrays.copyOf(trigramOffsets, trigrams.length);
+        for (int i = 0; i < names.length; i++) {
+            for (long trigram : trigramsOf(names[i])) {
+                trigramPostings[cursor[Arrays.binarySearch(trigrams, trigram)]++] = i;
+            }
+        }
+        return new SymbolIndex(targets, names, targetOffsets, trigrams, trigramOffsets, trigramPostings);
+    }
+
+    /**
+     * @return The distinct trigrams of a string, each packed into the low 48 bits of a long.
+     */
+    private static long[] trigramsOf(String value) {
+        if (value.length() < 3) {
+            return new long[0];
+        }
+
+        final long[] trigrams = new long[value.length() - 2];
+        for (int i = 0; i < trigrams.length; i++) {
+            trigrams[i] = (long) value.charAt(i) << 32 | (long) value.charAt(i + 1) << 16 | value.charAt(i + 2);
+        }
+        Arrays.sort(trigrams);
+        int distinct = 0;
+        for (int i = 0; i < trigrams.length; i++) {
+            if (i == 0 || trigrams[i] != trigrams[i - 1]) {
+                trigrams[distinct++] = trigrams[i];
+            }
+        }
+        return Arrays.copyOf(trigrams, distinct);
+    }
+
+    /**
+     * @param query Part of a target name, e.g. "parser_test".
+     * @param limit The maximum number of targets to return.
+     * @return The best matching targets, best first. Targets sharing a name are ordered by label.
+     */
+    public List<BuildTarget> find(String query, int limit) {
+        Preconditions.checkNotNull(query);
+        Preconditions.checkArgument(limit >= 0);
+        final String lowerQuery = query.trim().toLowerCase(Locale.ROOT);
+        if (lowerQuery.isEmpty() || limit == 0) {
+            return Collections.emptyList();
+        }
+
+        final Ranking ranking = new Ranking(limit);
+        final long[] queryTrigrams = trigramsOf(lowerQuery);
+        if (queryTrigrams.length == 0) {
+            final int first = lowerBound(names, lowerQuery);
+            final int last = lowerBound(names, lowerQuery + Character.MAX_VALUE);
+            for (int name = first; name < last; name++) {
+                ranking.offer(SCORE_PREFIX, 0, name, names[name].length());
+            }
+        } else {
+            for (int name : namesWithAll(queryTrigrams)) {
+                final int index = names[name].indexOf(lowerQuery);
+                if (index >= 0) {
+                    ranking.offer(scoreOf(names[name], lowerQuery, index), 0, name, names[name].length());
+                }
+            }
+            if (!ranking.isFull() && queryTrigrams.length >= 3) {
+                offerFuzzy(lowerQuery, queryTrigrams, ranking);
+            }
+        }
+
+        final List<BuildTarget> found = new ArrayList<>();
+        for (int name : ranking.names()) {
+            for (int target = targetOffsets[name]; target < targetOffsets[name + 1] && found.size() < limit; target++) {
+                found.add(targets[target]);
+            }
+        }
+        return found;
+    }
+
+    private static int scoreOf(String name, String query, int index) {
+        if (index == 0) {
+            return name.length() == query.length() ? SCORE_EXACT : SCORE_PREFIX;
+        }
+
+        final char before = name.charAt(index - 1);
+        return before == '_' || before == '-' || before == '.' || before == '/' ? SCORE_WORD : SCORE_SUBSTRING;
+    }
+
+    /**
+     * Intersects the names of every trigram, rarest first.
+     */
+    private int[] namesWithAll(long[] queryTrigrams) {
+        final int[] order = new int[queryTrigrams.length];
+        for (int i = 0; i < queryTrigrams.length; i++) {
+            final int trigram = Arrays.binarySearch(trigrams, queryTrigrams[i]);
+            if (trigram < 0) {
+                return new int[0];
+            }
+            order[i] = trigram;
+        }
+
+        final Integer[] rarestFirst = new Integer[order.length];
+        for (int i = 0; i < order.length; i++) {
+            rarestFirst[i] = order[i];
+        }
+        Arrays.sort(rarestFirst, Comparator.comparingInt(trigram -> trigramOffsets[trigram + 1] - trigramOffsets[trigram]));
+
+        int[] result = Arrays.copyOfRange(trigramPostings, trigramOffsets[rarestFirst[0]], trigramOffsets[rarestFirst[0] + 1]);
+        int size = result.length;
+        for (int i = 1; i < rarestFirst.length && size > 0; i++) {
+            final int start = trigramOffsets[rarestFirst[i]];
+            final int end = trigramOffsets[rarestFirst[i] + 1];
+            int kept = 0;
+            for (int r = 0, p = start; r < size && p < end; ) {
+                if (result[r] < trigramPostings[p]) {
+                    r++;
+                } else if (result[r] > trigramPostings[p]) {
+                    p++;
+                } else {
+                    result[kept++] = result[r];
+                    r++;
+                    p++;
+                }
+            }
+            size = kept;
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Offers every name which doesn't contain the query but shares at least two thirds of its trigrams.
+     */
+    private void offerFuzzy(String lowerQuery, long[] queryTrigrams, Ranking ranking) {
+        final int[] shared = new int[names.length];
+        final int[] sharing = new int[names.length];
+        int sharingCount = 0;
+        for (long queryTrigram : queryTrigrams) {
+            final int trigram = Arrays.binarySearch(trigrams, queryTrigram);
+            if (trigram < 0) {
+                continue;
+            }
+            for (int posting = trigramOffsets[trigram]; posting < trigramOffsets[trigram + 1]; posting++) {
+                if (shared[trigramPostings[posting]]++ == 0) {
+                    sharing[sharingCount++] = trigramPostings[posting];
+                }
+            }
+        }
+
+        for (int i = 0; i < sharingCount; i++) {
+            final int name = sharing[i];
+            final int missing = queryTrigrams.length - shared[name];
+            if (missing * 3 <= queryTrigrams.length && !names[name].contains(lowerQuery)) {
+                ranking.offer(SCORE_FUZZY, missing, name, names[name].length());
+            }
+        }
+    }
+
+    private static int lowerBound(String[] sorted, String key) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (sorted[middle].compareTo(key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return The number of targets in the index.
+     */
+    public int size() {
+        return targets.length;
+    }
+
+    @Override
+    public String toString() {
+        return "SymbolIndex{" +
+                "targets=" + targets.length +
+                ", names=" + names.length +
+                ", trigrams=" + trigrams.length +
+                '}';
+    }
+
+    /**
+     * Keeps the best few names seen so far. Every name has at least one target, so no more names
+     * than the target limit are ever needed.
+     */
+    private static final class Ranking {
+        private final long[] best;
+        private int count;
+
+        Ranking(int limit) {
+            this.best = new long[limit];
+            this.count = 0;
+        }
+
+        void offer(int score, int missing, int name, int length) {
+            final long rank = (long) score << 60
+                    | (long) Math.min(missing, 0xff) << 52
+                    | (long) Math.min(length, 0xfffff) << 32
+                    | name;
+            if (count < best.length) {
+                count++;
+            } else if (rank > best[count - 1]) {
+                return;
+            }
+            int insert = count - 1;
+            while (insert > 0 && best[insert - 1] > rank) {
+                best[insert] = best[insert - 1];
+                insert--;
+            }
+            best[insert] = rank;
+        }
+
+        boolean isFull() {
+            return count == best.length;
+        }
+
+        int[] names() {
+            final int[] names = new int[count];
+            for (int i = 0; i < count; i++) {
+                names[i] = (int) best[i];
+            }
+            return names;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package server.bazel.tree;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+
+/**
+ * A published generation of the workspace tree. Once a snapshot is published its tree is never
+ * modified again, so readers may hold on to it for as long as they like without locking. Syncs
+ * build a new tree off to the side and publish it as the next generation.
+ *
+ * The label, source and location indexes are part of a snapshot from the start, and incremental
+ * syncs update them package by package. The completion and symbol indexes take too long to build
+ * for a sync to hold back the labels until they're done, so a sync publishes first and then calls
+ * {@link #buildIndexes()} on its own thread. Until then the snapshot serves the previous
+ * generation's indexes, so requests never build them themselves.
+ */
+public final class WorkspaceSnapshot {
+    private final long generation;
+    private final WorkspaceTree tree;
+    private final LabelIndex labels;
+    private final SourceIndex sources;
+    private final LocationIndex locations;
+    private final Supplier<DependencyGraph> dependencies;
+    private final CompletionIndex previousCompletions;
+    private volatile CompletionIndex completions;
+    private final SymbolIndex previousSymbols;
+    private volatile SymbolIndex symbols;
+
+    private WorkspaceSnapshot(long generation, WorkspaceTree tree, LabelIndex labels, SourceIndex sources,
+                              LocationIndex locations, WorkspaceSnapshot previous) {
+        this.generation = generation;
+        this.tree = tree;
+        this.labels = labels;
+        this.sources = sources;
+        this.locations = locations;
+        this.dependencies = Suppliers.memoize(() -> DependencyGraph.of(tree));
+        this.previousCompletions = previous != null ? previous.getCompletions() : CompletionIndex.empty();
+        this.completions = null;
+        this.previousSymbols = previous != null ? previous.getSymbols() : SymbolIndex.empty();
+        this.symbols = null;
+    }
+
+    /**
+     * @param tree The tree of the first generation.
+     * @return The first snapshot of a workspace.
+     */
+    public static WorkspaceSnapshot initial(WorkspaceTree tree) {
+        Preconditions.checkNotNull(tree);
+        final WorkspaceSnapshot snapshot = new WorkspaceSnapshot(0, tree, LabelIndex.of(tree), SourceIndex.of(tree),
+                LocationIndex.of(tree), null);
+        snapshot.buildIndexes();
+        return snapshot;
+    }
+
+    /**
+     * @param tree The tree of the next generation. It must not be modified after this call.
+     * @return A snapshot one generation newer than this one. Its completion and symbol indexes are
+     * this snapshot's until {@link #buildIndexes()} is called.
+     */
+    public WorkspaceSnapshot next(WorkspaceTree tree) {
+        Preconditions.checkNotNull(tree);
+        return new WorkspaceSnapshot(generation + 1, tree, LabelIndex.of(tree), SourceIndex.of(tree),
+                LocationIndex.of(tree), this);
+    }
+
+    /**
+     * @param tree      The tree of the next generation. It must not be modified after this call.
+     * @param labels    The label index of the tree, when the caller already has one.
+     * @param sources   The source index of the tree, when the caller already has one.
+     * @param locations The location index of the tree, when the caller already has one.
+     * @return A snapshot one generation newer than this one. Its completion and symbol indexes are
+     * this snapshot's until {@link #buildIndexes()} is called.
+     */
+    public WorkspaceSnapshot next(WorkspaceTree tree, LabelIndex labels, SourceIndex sources, LocationIndex locations) {
+        Preconditions.checkNotNull(tree);
+        Preconditions.checkNotNull(labels);
+        Preconditions.checkNotNull(sources);
+        Preconditions.checkNotNull(locations);
+        return new WorkspaceSnapshot(generation + 1, tree, labels, sources, locations, this);
+    }
+
+    /**
+     * Builds the completion and symbol indexes of the tree. Syncs call this on their own thread
+     * once the snapshot is published. Calling it again has no effect.
+     */
+    public void buildIndexes() {
+        if (completions == null) {
+            completions = CompletionIndex.of(tree);
+        }
+        if (symbols == null) {
+            symbols = SymbolIndex.of(tree);
+        }
+    }
+
+    /**
+     * @return A number which increases by one every time a new snapshot is published.
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    public WorkspaceTree getTree() {
+        return tree;
+    }
+
+    /**
+     * @return The index of every build target in the tree.
+     */
+    public LabelIndex getLabels() {
+        return labels;
+    }
+
+    /**
+     * @return The index of every source file in the tree.
+     */
+    public SourceIndex getSources() {
+        return sources;
+    }
+
+    /**
+     * Most requests never look at edges, so the graph is only built the first time it's needed.
+     *
+     * @return The dependency graph of the tree.
+     */
+    public DependencyGraph getDependencies() {
+        return dependencies.get();
+    }
+
+    /**
+     * @return The completion index of every package and build target in the tree, or the previous
+     * generation's until {@link #buildIndexes()} has built this one.
+     */
+    public CompletionIndex getCompletions() {
+        final CompletionIndex built = completions;
+        return built != null ? built : previousCompletions;
+    }
+
+    /**
+     * @return The index of every build target in the tree by name, or the previous generation's
+     * until {@link #buildIndexes()} has built this one.
+     */
+    public SymbolIndex getSymbols() {
+        final SymbolIndex built = symbols;
+        return built != null ? built : previousSymbols;
+    }
+
+    /**
+     * @return The index of every build target in the tree by the BUILD file declaring it.
+     */
+    public LocationIndex getLocations() {
+        return locations;
+    }
+
+    @Override
+    public String toString() {
+        return "WorkspaceSnapshot{" +
+                "generation=" + generation +
+                ", labels=" + labels +
+                ", sources=" + sources +
+                '}';
+    }
+}
@@ -3,24 +3,72 @@ package server.bazel.tree;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.lang.reflect.Array;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 
 public class WorkspaceTree {
     private static final Logger logger = LogManager.getLogger(WorkspaceTree.class);
     private Node root;
 
+    // The nodes this tree may modify, or null if it owns all of them. A tree derived with
+    // spliceCopy() shares the rest with the tree it was derived from.
+    private final Set<Node> ownedNodes;
+
     public WorkspaceTree(Package rootPackage) {
         this.root = new Node(rootPackage, null);
+        this.ownedNodes = null;
+    }
+
+    private WorkspaceTree(Node root, Set<Node> ownedNodes) {
+        this.root = root;
+        this.ownedNodes = ownedNodes;
     }
 
     public Node getRoot() {
         return this.root;
     }
 
+    /**
+     * Creates a structural copy of this tree. Nodes and packages are copied so the copy may be
+     * modified freely, while the build targets and source files themselves are shared.
+     *
+     * @return A copy of this tree.
+     */
+    public WorkspaceTree copy() {
+        WorkspaceTree copy = new WorkspaceTree(root.value.copy());
+        copyChildren(root, copy.root);
+        return copy;
+    }
+
+    private static void copyChildren(Node from, Node to) {
+        for (int i = 0; i < from.childCount; i++) {
+            final Node child = from.children[i];
+            copyChildren(child, to.addChild(child.value.copy()));
+        }
+    }
+
+    /**
+     * Creates a copy of this tree for splicing in a few packages. The copy shares every node with
+     * this tree, and {@link #getOrCreateNode(String)} copies the nodes on the path to the package
+     * it returns, so splicing costs the depth and fan out of the spliced packages rather than the
+     * size of the tree. Only nodes returned by getOrCreateNode may be modified, the rest are
+     * shared with this tree.
+     *
+     * @return A copy of this tree.
+     */
+    public WorkspaceTree spliceCopy() {
+        final Set<Node> ownedNodes = Collections.newSetFromMap(new IdentityHashMap<>());
+        final Node rootCopy = root.shallowCopy();
+        ownedNodes.add(rootCopy);
+        return new WorkspaceTree(rootCopy, ownedNodes);
+    }
+
     @Override
     public String toString() {
         return "WorkspaceTree{" +
@@ -28,6 +76,61 @@ public class WorkspaceTree {
                 '}';
     }
 
+    /**
+     * Finds the node of a package.
+     *
+     * @param path The path from the workspace root to the package, e.g. "main/java". Leading,
+     *             trailing and repeated slashes are ignored.
+     * @return The node of the package, or empty if there is none.
+     */
+    public Optional<Node> findNode(String path) {
+        Node node = root;
+        for (int start = 0, end; start < path.length(); start = end + 1) {
+            end = segmentEnd(path, start);
+            if (end > start) {
+                node = node.findChild(path, start, end);
+                if (node == null) {
+                    return Optional.empty();
+                }
+            }
+        }
+        return Optional.of(node);
+    }
+
+    /**
+     * Finds the node of a package, creating it and any missing parents along the way.
+     *
+     * @param path The path from the workspace root to the package, e.g. "main/java". Leading,
+     *             trailing and repeated slashes are ignored.
+     * @return The node of the package.
+     */
+    public Node getOrCreateNode(String path) {
+        Node node = root;
+        for (int start = 0, end; start < path.length(); start = end + 1) {
+            end = segmentEnd(path, start);
+            if (end > start) {
+                final int position = node.findPosition(path, start, end);
+                if (position < 0) {
+                    node = node.addChild(new Package(path.substring(start, end)));
+                    if (ownedNodes != null) {
+                        ownedNodes.add(node);
+                    }
+                } else if (ownedNodes != null && !ownedNodes.contains(node.children[position])) {
+                    node = node.replaceChild(position, node.children[position].shallowCopy());
+                    ownedNodes.add(node);
+                } else {
+                    node = node.children[position];
+                }
+            }
+        }
+        return node;
+    }
+
+    private static int segmentEnd(String path, int start) {
+        final int slash = path.indexOf('/', start);
+        return slash < 0 ? path.length() : slash;
+    }
+
     /**
      * Given a path to a package, the children of that package will be removed. Does not clear the BuildTargets and SourceFiles of the Package specified by the path.
      *
@@ -35,7 +138,7 @@ public class WorkspaceTree {
      */
     public void clearBelowPath(String path) {
         if(path.length() == 1 && path.charAt(0) == '/') {
-            root.children = new ArrayList<>();
+            root.clearChildren();
             return;
         }
         String[] parts = path.split("/");
@@ -48,20 +151,34 @@ public class WorkspaceTree {
                 throw new IllegalStateException("Package does not exist");
             }
             if(i == parts.length - 1 && parts[parts.length - 1].equals(node.getValue().getPackageName())) {
-                node.children = new ArrayList<>();
+                node.clearChildren();
             }
         }
     }
 
+    /**
+     * A package in the tree. Children are kept in insertion order in a plain array. Once a node
+     * has more than a handful of children, an open addressing table of positions into that array
+     * is kept alongside it so that lookups by name don't scan every child.
+     */
     public static class Node {
+        private static final int LINEAR_SCAN_LIMIT = 8;
+        private static final Node[] NO_CHILDREN = new Node[0];
+
         private Node parent;
         private Package value;
-        private List<Node> children;
+        private Node[] children;
+        private int childCount;
+
+        // Each slot holds a position in children plus one, zero marks an empty slot.
+        private int[] childIndex;
 
         public Node(Package value, Node parent) {
             this.parent = parent;
             this.value = value;
-            this.children = new ArrayList<>();
+            this.children = NO_CHILDREN;
+            this.childCount = 0;
+            this.childIndex = null;
         }
 
         public Package getValue() {
@@ -70,25 +187,127 @@ public class WorkspaceTree {
 
         public Node addChild(Package value) {
             Node child = new Node(value, this);
-            this.children.add(child);
+            if (childCount == children.length) {
+                children = Arrays.copyOf(children, Math.max(4, childCount * 2));
+            }
+            children[childCount++] = child;
+
+            if (childCount > LINEAR_SCAN_LIMIT) {
+                if (childIndex == null || childCount * 2 > childIndex.length) {
+                    rebuildIndex();
+                } else {
+                    insertIntoIndex(childCount - 1);
+                }
+            }
             return child;
         }
-        
+
         public List<Package> getAllPackagesOfChildren(){
-            ArrayList<Package> childPackages = new ArrayList<>();
-            for(Node node : children){
-                childPackages.add(node.getValue());
+            ArrayList<Package> childPackages = new ArrayList<>(childCount);
+            for (int i = 0; i < childCount; i++) {
+                childPackages.add(children[i].getValue());
             }
             return childPackages;
         }
 
         public Optional<Node> getChild(String childPath) {
-            for(Node node : children) {
-                if(node.value.getPackageName().equals(childPath)) {
-                    return Optional.of(node);
+            return Optional.ofNullable(findChild(childPath, 0, childPath.length()));
+        }
+
+        /**
+         * Looks up a child by the name held in path[start, end), without allocating a substring.
+         */
+        Node findChild(String path, int start, int end) {
+            final int position = findPosition(path, start, end);
+            return position >= 0 ? children[position] : null;
+        }
+
+        /**
+         * @return The position in children of the child named path[start, end), or -1.
+         */
+        private int findPosition(String path, int start, int end) {
+            final int length = end - start;
+            if (childIndex == null) {
+                for (int i = 0; i < childCount; i++) {
+                    if (nameMatches(children[i], path, start, length)) {
+                        return i;
+                    }
                 }
+                return -1;
             }
-            return Optional.empty();
+
+            final int mask = childIndex.length - 1;
+            for (int slot = spread(hash(path, start, end)) & mask; childIndex[slot] != 0; slot = (slot + 1) & mask) {
+                final int position = childIndex[slot] - 1;
+                if (nameMatches(children[position], path, start, length)) {
+                    return position;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return A node with a copy of the package and the same children. The children are
+         * shared, so they still name this node as their parent.
+         */
+        private Node shallowCopy() {
+            final Node copy = new Node(value.copy(), parent);
+            copy.children = childCount == 0 ? NO_CHILDREN : Arrays.copyOf(children, children.length);
+            copy.childCount = childCount;
+            copy.childIndex = childIndex != null ? childIndex.clone() : null;
+            return copy;
+        }
+
+        /**
+         * Replaces a child with a copy of it. The copy has the same name, so the index of the
+         * children stays valid.
+         */
+        private Node replaceChild(int position, Node copy) {
+            copy.parent = this;
+            children[position] = copy;
+            return copy;
+        }
+
+        void clearChildren() {
+            children = NO_CHILDREN;
+            childCount = 0;
+            childIndex = null;
+        }
+
+        private void rebuildIndex() {
+            childIndex = new int[Integer.highestOneBit(childCount * 4 - 1)];
+            for (int i = 0; i < childCount; i++) {
+                insertIntoIndex(i);
+            }
+        }
+
+        private void insertIntoIndex(int position) {
+            final int mask = childIndex.length - 1;
+            int slot = spread(children[position].value.getPackageName().hashCode()) & mask;
+            while (childIndex[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            childIndex[slot] = position + 1;
+        }
+
+        private static boolean nameMatches(Node child, String path, int start, int length) {
+            final String name = child.value.getPackageName();
+            return name.length() == length && path.regionMatches(start, name, 0, length);
+        }
+
+        /**
+         * Computes the same hash as String.hashCode() would for path.substring(start, end).
+         */
+        private static int hash(String path, int start, int end) {
+            int h = 0;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + path.charAt(i);
+            }
+            return h;
+        }
+
+        private static int spread(int h) {
+            return h ^ (h >>> 16);
         }
 
         public boolean isRoot() {
@@ -96,7 +315,7 @@ public class WorkspaceTree {
         }
 
         public boolean isLeaf() {
-            return this.children.isEmpty();
+            return this.childCount == 0;
         }
 
         @Override
@@ -109,19 +328,19 @@ public class WorkspaceTree {
 
         @Override
         public int hashCode() {
-            return Objects.hash(parent, value, children);
+            return Objects.hashCode(value);
         }
 
         @Override
         public String toString() {
             return "Node{" +
                     "value=" + value +
-                    ", children=" + children +
+                    ", children=" + getChildren() +
                     '}';
         }
 
         public List<Node> getChildren() {
-            return children;
+            return Collections.unmodifiableList(Arrays.asList(children).subList(0, childCount));
         }
     }
 }
@@ -1,10 +1,13 @@
 package server.codelens;
 
-import java.io.File;
 import java.net.URI;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.StringJoiner;
 import java.util.concurrent.CompletableFuture;
 import java.util.List;
 
@@ -17,12 +20,16 @@ import org.eclipse.lsp4j.Position;
 import org.eclipse.lsp4j.Range;
 
 import server.commands.AllCommands;
+import server.utils.DocumentSnapshot;
 import server.utils.DocumentTracker;
+import server.utils.Logging;
+import server.utils.StarlarkWizard;
+import server.workspace.ProjectFolder;
 import server.workspace.Workspace;
 import server.bazel.bazelWorkspaceAPI.WorkspaceAPI;
-import server.bazel.bazelWorkspaceAPI.WorkspaceAPIException;
 import server.bazel.tree.BuildTarget;
-import server.bazel.tree.WorkspaceTree;
+import server.bazel.tree.DependencyGraph;
+import server.bazel.tree.SourceLocation;
 
 /**
  * This class is delegated the CodeLens functionality of the BazelServices class
@@ -31,150 +38,143 @@ public class CodeLensProvider {
 
     private static final Logger logger = LogManager.getLogger(CodeLensProvider.class);
 
-    private DocumentTracker documentTracker;
+    private final StarlarkWizard wizard = new StarlarkWizard();
 
     /**
-     * Public constructor for CodeLensProvider
-     * 
-     * @param documentTracker DocumentTracker used to extract the contents of a text document
-     */
-    public CodeLensProvider(DocumentTracker documentTracker) {
-        this.documentTracker = documentTracker;
-    }
-
-    /**
-     * Parses a document for actionable BUILD targets and creates codelens objects corresponding to them
-     * 
+     * Finds actionable BUILD targets declared in a document and creates codelens objects corresponding to them.
+     * Targets are found in the parse of the document as the user sees it, so lenses follow unsaved edits and work
+     * whichever backend synced the workspace. The index only supplies the kinds of the targets it knows. Targets
+     * the parse can't see, e.g. ones declared by macros, are placed at the location recorded when they were synced.
+     *
      * @param params the information passed to the server from the client containing the document to retrieve codelens for
      * @return a list of CodeLens objects representing the CodeLens options to be displayed to the user
      */
     public CompletableFuture<List<? extends CodeLens>> getCodeLens(CodeLensParams params) {
         logger.info("CodeLens Provider invoked");
 
-        URI uri = null;
+        List<CodeLens> results = new ArrayList<>();
+
+        URI uri;
+        Path file;
         try {
             uri = new URI(params.getTextDocument().getUri());
+            file = Paths.get(uri);
         }
         catch(Exception e) {
             logger.error("Unable to get URI: " + e);
+            return CompletableFuture.completedFuture(results);
         }
-        
-        String path = buildPath(uri);
-        List<BuildTarget> targets = findTargets(path);
-        String contents = documentTracker.getContents(uri);
 
-        List<CodeLens> results = new ArrayList<>();
+        final WorkspaceAPI api = getWorkspaceAPI();
+        final Optional<String> pkg = toPackageLabel(file);
+        final Set<String> parsedNames = new HashSet<>();
+        final DocumentSnapshot document = getDocumentTracker().getSnapshot(uri);
+        if (document != null && pkg.isPresent()) {
+            List<StarlarkWizard.TargetMeta> targets;
+            try {
+                targets = document.getParsedDocument().getTargets();
+            } catch (Error | RuntimeException e) {
+                logger.error("Parsing failed for an unknown reason!");
+                logger.error(Logging.stackTraceToString(e));
+                targets = new ArrayList<>();
+            }
+
+            for (StarlarkWizard.TargetMeta meta : targets) {
+                final String name = meta.name().getValue();
+                parsedNames.add(name);
+                final String label = pkg.get() + ":" + name;
+                final String kind = api.findTarget(label).map(BuildTarget::getKind).orElse(meta.kind());
+                if (isActionable(kind)) {
+                    results.add(createCodeLens(wizard.rangeFromExpression(meta.name()), kind, name, label));
+                }
+            }
+        }
 
-        for (BuildTarget target : targets) {
-            if(target.getKind().contains("_binary") || target.getKind().contains("_test")) {
-                CodeLens result = new CodeLens();
-                Range range = findRangeForTarget(target, contents);
-                if(range == null) continue;
-                result.setRange(range);
-                result.setCommand(findCommandForTarget(target, path));
-                results.add(result);
+        for (BuildTarget target : api.findTargetsDeclaredIn(file)) {
+            if (!parsedNames.contains(target.getLabel()) && isActionable(target.getKind())) {
+                results.add(createCodeLens(findRangeForTarget(target), target.getKind(), target.getLabel(),
+                        DependencyGraph.toLabel(target)));
             }
         }
         return CompletableFuture.completedFuture(results);
     }
 
-    /**
-     * Uses the workspace tree to parse the document for BUILD targets
-     * 
-     * @param path the path to the directory of the BUILD file
-     * @return a list of BUILD targets
-     */
-    private List<BuildTarget> findTargets(String path) {
-
-        final WorkspaceTree tree = Workspace.getInstance().getWorkspaceTree();
-        final WorkspaceAPI api = new WorkspaceAPI(tree);
-
-        List<BuildTarget> targets = null;
-        try {
-            targets = api.findPossibleTargetsForPath(Paths.get(path));
-        }
-        catch(WorkspaceAPIException e) {
-            logger.error(e + " in: " + path);
-        }
+    private static boolean isActionable(String kind) {
+        return kind != null && (kind.contains("_binary") || kind.contains("_test"));
+    }
 
-        return targets;
+    private static CodeLens createCodeLens(Range range, String kind, String name, String label) {
+        CodeLens result = new CodeLens();
+        result.setRange(range);
+        result.setCommand(findCommandForTarget(kind, name, label));
+        return result;
     }
 
     /**
-     * Locates the declaration of a BUILD target within a BUILD file
-     * 
-     * @param target the BUILD target to find
-     * @param contents a String of the document's contents
-     * @return a Range spanning the declaration of the BUILD target
+     * Finds the label of the package a BUILD file declares
+     *
+     * @param file the path to the BUILD file
+     * @return the label of the package, e.g. "//main/java", or empty if the file is outside of the workspace
      */
-    private Range findRangeForTarget(BuildTarget target, String contents) {
-
-        String nameDeclaration = "name = \"" + target.getLabel() + "\"";
-        int nameIndex = contents.indexOf(nameDeclaration);
-        if(nameIndex == -1) return null;
-        int kindIndex = contents.substring(0, nameIndex).lastIndexOf(target.getKind());
-        int kindEndIndex = kindIndex + target.getKind().length();
-        int lineNumber = 0;
-        for (int i = 0; i < kindIndex; i++) {
-            if (contents.charAt(i) == '\n') {
-                lineNumber++;
-            }
+    private static Optional<String> toPackageLabel(Path file) {
+        final ProjectFolder rootFolder = Workspace.getInstance().getRootFolder();
+        if (rootFolder == null || file.getParent() == null || !file.getParent().startsWith(rootFolder.getPath())) {
+            return Optional.empty();
         }
 
-        return new Range(new Position(lineNumber, 0), new Position(lineNumber, kindEndIndex - kindIndex));
+        final StringJoiner joiner = new StringJoiner("/", "//", "");
+        for (Path part : rootFolder.getPath().relativize(file.getParent())) {
+            if (!part.toString().isEmpty()) {
+                joiner.add(part.toString());
+            }
+        }
+        return Optional.of(joiner.toString());
+    }
 
+    /**
+     * Converts the recorded declaration of a BUILD target to a range
+     *
+     * @param target the BUILD target, which must have a location
+     * @return an empty Range at the declaration of the BUILD target
+     */
+    private static Range findRangeForTarget(BuildTarget target) {
+        // Locations are 1-based, positions are 0-based.
+        final SourceLocation location = target.getLocation().get();
+        final Position position = new Position(Math.max(0, location.getLine() - 1), Math.max(0, location.getColumn() - 1));
+        return new Range(position, position);
     }
 
     /**
      * Generates command parameters that the client can return to the server if the user selects the relevant codelens
-     * 
-     * @param target the BUILD target that the command should act on
-     * @param path the path to the directory containing the BUILD file
+     *
+     * @param kind the kind of the BUILD target, which must be a binary or a test
+     * @param name the name of the BUILD target
+     * @param label the label of the BUILD target that the command should act on
      * @return a Command that the server can interpret to act on an actionable BUILD target
      */
-    private Command findCommandForTarget(BuildTarget target, String path) {
+    private static Command findCommandForTarget(String kind, String name, String label) {
         Command command = new Command();
         List<Object> args = new ArrayList<Object>();
-        if(target.getKind().contains("_binary")) {
-            command.setTitle("Build " + target.getLabel());
+        if(kind.contains("_binary")) {
+            command.setTitle("Build " + name);
             command.setCommand(AllCommands.build);
-            logger.info("Setting command " + AllCommands.build + " with path arg of " + path + ":" + target.getLabel());
-        } else if (target.getKind().contains("_test")) {
-            command.setTitle("Test " + target.getLabel());
+            logger.info("Setting command " + AllCommands.build + " with path arg of " + label);
+        } else if (kind.contains("_test")) {
+            command.setTitle("Test " + name);
             command.setCommand(AllCommands.test);
-            logger.info("Setting command " + AllCommands.test + " with a path arg of " + path + ":" + target.getLabel());
+            logger.info("Setting command " + AllCommands.test + " with a path arg of " + label);
         }
-        args.add(path + ":" + target.getLabel());
+        args.add(label);
         command.setArguments(args);
-        
+
         return command;
     }
 
-    /**
-     * Generates the path from the WORKSPACE root to the directory containing the BUILD file
-     * @param uri the URI of the BUILD file
-     * @return the path from the WORKSPACE root to the directory containing the BUILD file
-     */
-    private String buildPath(URI uri) {
-        File file = new File(uri);
-        StringBuilder pathBuilder = new StringBuilder();
-        boolean rootPath = true;
-        while(file != null) {
-            if(file.isDirectory()) {
-                if(Arrays.asList(file.list()).contains("WORKSPACE") || Arrays.asList(file.list()).contains("WORKSPACE.bzl")) {
-                    if (rootPath) {
-                        pathBuilder.insert(0, "/");
-                    }
-                    break;
-                }
-                else {
-                    pathBuilder.insert(0, "/" + file.getName());
-                    rootPath = false;
-                }
-            }
-            file = new File(file.getParent());
-        }
-        pathBuilder.insert(0, "/");
-        return pathBuilder.toString();
+    public DocumentTracker getDocumentTracker() {
+        return DocumentTracker.getInstance();
+    }
+
+    public WorkspaceAPI getWorkspaceAPI() {
+        return new WorkspaceAPI(Workspace.getInstance().getSnapshot());
     }
 }
@@ -15,8 +15,9 @@ public class AllCommands {
     public static final String test = "bazel.test";
     public static final String none = "bazel.none";
     public static final String syncServer = "bazel.syncServer";
+    public static final String syncStatus = "bazel.syncStatus";
 
     public static List<String> allCommands() {
-        return Arrays.asList(build, test, none, syncServer);
+        return Arrays.asList(build, test, none, syncServer, syncStatus);
     }
 }
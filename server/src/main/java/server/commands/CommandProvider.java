@@ -11,12 +11,16 @@ import server.dispatcher.CommandDispatcher;
 import server.dispatcher.CommandOutput;
 import server.utils.Nullability;
 import server.workspace.ExtensionConfig;
+import server.workspace.SyncScheduler;
 import server.workspace.Workspace;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.concurrent.CompletableFuture;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * This class is delegated the task of handling Commands sent by the client
@@ -26,10 +30,41 @@ public class CommandProvider {
     private static final CommandDispatcher fallbackDispatcher = CommandDispatcher.create("commandprovider");
 
     private CommandDispatcher dispatcher;
+    private SyncScheduler syncScheduler;
+    private final AtomicBoolean syncPopupShowing;
 
     public CommandProvider() {
+        this(SyncScheduler.getInstance());
+    }
+
+    public CommandProvider(SyncScheduler syncScheduler) {
         super();
         dispatcher = null;
+        this.syncScheduler = syncScheduler;
+        syncPopupShowing = new AtomicBoolean(false);
+    }
+
+    /**
+     * Reports sync failures to the given client. Syncs run in the background on the sync
+     * scheduler, so failures can't be reported to whoever requested them.
+     *
+     * @param languageClient an interface with which to return output and feedback to the client.
+     */
+    public void connect(LanguageClient languageClient) {
+        syncScheduler.addListener(new SyncScheduler.Listener() {
+            @Override
+            public void onSyncFailed(boolean fullSync, BazelServerException e) {
+                MessageParams msg = new MessageParams();
+                msg.setType(MessageType.Warning);
+                msg.setMessage(String.format(
+                        "Unable to sync the %s because issues were found in the codebase... Try fixing " +
+                                "all syntax errors and ensuring that all targets are valid. Bazel error output:\n\n%s",
+                        fullSync ? "server" : "changed packages",
+                        e.getMessage()
+                ));
+                languageClient.showMessage(msg);
+            }
+        });
     }
 
     /**
@@ -51,6 +86,11 @@ public class CommandProvider {
                     String.format("Executing command %s with args %s", params.getCommand(), params.getArguments())));
         }
 
+        // The sync status is answered directly so the client receives it as the command's result.
+        if (params.getCommand().equals(AllCommands.syncStatus)) {
+            return CompletableFuture.completedFuture(syncScheduler.getStatus());
+        }
+
         new Thread(() -> {
             switch (params.getCommand()) {
                 case AllCommands.build:
@@ -63,7 +103,7 @@ public class CommandProvider {
                     logger.info(params.getCommand() + " was invoked, nothing should happen");
                     break;
                 case AllCommands.syncServer:
-                    executeSyncServerCommand(languageClient);
+                    executeSyncServerCommand();
                     break;
                 default:
                     logger.error("Unsupported command: " + params.getCommand());
@@ -74,14 +114,15 @@ public class CommandProvider {
 
     /**
      * Requests a server sync to the client. If the client responds with yes, then the
-     * sync server command will be executed.
+     * sync server command will be executed. Only one popup is shown at a time, so a burst of saves
+     * produces a single prompt.
      *
      * @param client an interface with which to return output and feedback to the client.
      */
     public void tryRequestSyncServerCommand(LanguageClient client) {
         ExtensionConfig.SyncMode syncMode = Nullability.nullableOr(ExtensionConfig.SyncMode.commandOnly,
                 () -> Workspace.getInstance().getExtensionConfig().getBazel().getSyncMode());
-        if (syncMode.equals(ExtensionConfig.SyncMode.showSyncPopup)) {
+        if (syncMode.equals(ExtensionConfig.SyncMode.showSyncPopup) && syncPopupShowing.compareAndSet(false, true)) {
             ShowMessageRequestParams p = new ShowMessageRequestParams();
             p.setMessage("A file has changed. Would you like to sync the server?");
             p.setType(MessageType.Info);
@@ -92,35 +133,42 @@ public class CommandProvider {
             p.setActions(actionItems);
 
             CompletableFuture<MessageActionItem> result = client.showMessageRequest(p);
+            result.whenComplete((s, e) -> syncPopupShowing.set(false));
             result.thenAccept(s -> {
+                if (s == null) {
+                    return;
+                }
+
                 logger.info("MessageActionItem completed with value: " + s.getTitle());
                 if (s.getTitle().equals("Yes")) {
-                    executeSyncServerCommand(client);
+                    executeSyncServerCommand();
                 }
             });
         }
     }
 
     /**
-     * Syncs the state of the language server with the contents in memory.
+     * Incrementally syncs the packages affected by the given files. This only happens when the
+     * incremental sync mode is enabled. Changes made in quick succession are synced together.
      *
-     * @param languageClient an interface with which to return output and feedback to the client.
+     * @param changedFiles the files which have changed on disk.
      */
-    public void executeSyncServerCommand(LanguageClient languageClient) {
-        try {
-            Workspace.getInstance().syncWorkspace();
-        } catch (BazelServerException e) {
-            MessageParams msg = new MessageParams();
-            msg.setType(MessageType.Warning);
-            msg.setMessage(String.format(
-                    "Unable to sync the server because issues were found in the codebase... Try fixing " +
-                            "all syntax errors and ensuring that all targets are valid. Bazel error output:\n\n%s",
-                    e.getMessage()
-            ));
-            languageClient.showMessage(msg);
+    public void tryIncrementalSync(Collection<Path> changedFiles) {
+        ExtensionConfig.SyncMode syncMode = Nullability.nullableOr(ExtensionConfig.SyncMode.commandOnly,
+                () -> Workspace.getInstance().getExtensionConfig().getBazel().getSyncMode());
+        if (syncMode.equals(ExtensionConfig.SyncMode.incremental) && !changedFiles.isEmpty()) {
+            syncScheduler.requestIncrementalSync(changedFiles);
         }
     }
 
+    /**
+     * Syncs the state of the language server with the contents on disk. The sync is scheduled
+     * rather than run directly, so that concurrent requests result in a single sync.
+     */
+    public void executeSyncServerCommand() {
+        syncScheduler.requestFullSync();
+    }
+
     /**
      * Executes a command to build a _binary BUILD target
      *
@@ -7,8 +7,11 @@ import org.eclipse.lsp4j.jsonrpc.messages.Either;
 import server.bazel.bazelWorkspaceAPI.WorkspaceAPI;
 import server.bazel.bazelWorkspaceAPI.WorkspaceAPIException;
 import server.bazel.tree.BuildTarget;
+import server.bazel.tree.CompletionIndex;
 import server.bazel.tree.SourceFile;
+import server.utils.DocumentSnapshot;
 import server.utils.DocumentTracker;
+import server.utils.LineIndex;
 import server.utils.Logging;
 import server.workspace.Workspace;
 
@@ -24,6 +27,7 @@ import java.util.concurrent.CompletableFuture;
 
 public class CompletionProvider {
     private static final Logger logger = LogManager.getLogger(CompletionProvider.class);
+    private static final int MAX_LABEL_ITEMS = 100;
 
     public CompletionProvider() {}
 
@@ -49,30 +53,37 @@ public class CompletionProvider {
             CompletionParams completionParams) {
 
         List<CompletionItem> completionItems = new ArrayList<>();
+        boolean truncated = false;
         try {
-            List<String> lines = Arrays.asList(getDocumentTracker().getContents(URI.create(completionParams.getTextDocument().getUri())).split("\n"));
-            String line = lines.get(completionParams.getPosition().getLine());
-
-            String triggerCharacter = completionParams.getContext().getTriggerCharacter();
-            Character characterBefore = line.charAt(completionParams.getPosition().getCharacter() - 2);
-            if (triggerCharacter.equals("/")) {
+            DocumentSnapshot document = getDocumentTracker().getSnapshot(URI.create(completionParams.getTextDocument().getUri()));
+            LineIndex lines = document.getLineIndex();
+            int lineNumber = completionParams.getPosition().getLine();
+            String line = document.getText().substring(lines.lineStart(lineNumber), lines.lineEnd(lineNumber));
+
+            String triggerCharacter = completionParams.getContext() != null ? completionParams.getContext().getTriggerCharacter() : null;
+            if ("/".equals(triggerCharacter)) {
+                Character characterBefore = line.charAt(completionParams.getPosition().getCharacter() - 2);
                 if(characterBefore.equals('/') || Character.isLetterOrDigit(characterBefore)) {
-                    getPathItems(line, completionParams, completionItems);
+                    truncated = getPathItems(line, completionParams, completionItems);
                 }
-            } else if (triggerCharacter.equals(":")) {
-                getBuildTargets(line, completionParams, completionItems);
-            } else if (triggerCharacter.equals("\"")) {
+            } else if (":".equals(triggerCharacter)) {
+                truncated = getBuildTargets(line, completionParams, completionItems);
+            } else if ("\"".equals(triggerCharacter)) {
                 if(!isName(line)) {
                     String relativePath = getRelativePath(completionParams);
                     getSourceFiles( relativePath.length() > 1 ? relativePath : "", completionItems, completionParams);
                 }
+            } else {
+                // Invoked by hand, or re-requested while typing because the last list was incomplete.
+                truncated = getLabelItems(line, completionParams, completionItems);
             }
 
         } catch (Exception e) {
             logger.error(Logging.stackTraceToString(e));
         }
 
-        return CompletableFuture.completedFuture(Either.forRight(new CompletionList(completionItems)));
+        return CompletableFuture.completedFuture(Either.forRight(
+                new CompletionList(truncated || !Workspace.getInstance().isIndexed(), completionItems)));
 
     }
 
@@ -85,7 +96,7 @@ public class CompletionProvider {
         return DocumentTracker.getInstance();
     }
 
-    private void getBuildTargets(String line, CompletionParams completionParams, List<CompletionItem> completionItems) throws WorkspaceAPIException {
+    private boolean getBuildTargets(String line, CompletionParams completionParams, List<CompletionItem> completionItems) throws WorkspaceAPIException {
         String newPath = getPath(line, completionParams.getPosition());
         if(newPath.trim().equals(":")) {
             newPath = getRelativePath(completionParams);
@@ -93,14 +104,21 @@ public class CompletionProvider {
             newPath = newPath.substring(0, newPath.length() - 1);
         }
         WorkspaceAPI workspaceAPI = getWorkspaceAPI();
-        List<BuildTarget> paths = workspaceAPI.findPossibleTargetsForPath(Paths.get(newPath));
-        paths.parallelStream().forEach(item -> {
+        List<BuildTarget> paths;
+        try {
+            paths = workspaceAPI.findPossibleTargetsForPath(Paths.get(newPath));
+        } catch (WorkspaceAPIException e) {
+            // Not a package, so complete it as a partial label instead, e.g. "//serv/ap:".
+            return getLabelItems(line, completionParams, completionItems);
+        }
+        paths.forEach(item -> {
             CompletionItem completionItem = new CompletionItem(item.getLabel());
             completionItem.setKind(CompletionItemKind.Value);
             completionItem.setInsertText(item.getLabel());
             completionItem.setTextEdit(new TextEdit(new Range(completionParams.getPosition(), new Position(completionParams.getPosition().getLine(), completionParams.getPosition().getCharacter())), item.getLabel()));
             completionItems.add(completionItem);
         });
+        return false;
     }
 
     private String getRelativePath(CompletionParams completionParams) {
@@ -116,12 +134,13 @@ public class CompletionProvider {
         return temp.toString();
     }
 
-    private void getPathItems(String line, CompletionParams completionParams, List<CompletionItem> completionItems) {
+    private boolean getPathItems(String line, CompletionParams completionParams, List<CompletionItem> completionItems) {
         String newPath = getPath(line, completionParams.getPosition());
+        boolean truncated = false;
         try {
             WorkspaceAPI workspaceAPI = getWorkspaceAPI();
             List<Path> paths = workspaceAPI.findPossibleCompletionsForPath(Paths.get(newPath));
-            paths.parallelStream().forEach(item -> {
+            paths.forEach(item -> {
                 CompletionItem completionItem = new CompletionItem(item.toString());
                 completionItem.setKind(CompletionItemKind.Folder);
                 completionItem.setInsertText(item.toString());
@@ -129,9 +148,50 @@ public class CompletionProvider {
                 completionItems.add(completionItem);
             });
         } catch (WorkspaceAPIException e) {
-            logger.warn("Could not get path items.");
+            // Not a package, so complete it as a partial label instead, e.g. "//serv/ap/".
+            truncated = getLabelItems(line, completionParams, completionItems);
         }
         getSourceFiles(newPath.substring(2), completionItems, completionParams);
+        return truncated;
+    }
+
+    /**
+     * Completes the label before the cursor against every package and build target in the
+     * workspace, replacing what has been typed so far with the whole label.
+     *
+     * @return true if there were more matches than items added.
+     */
+    private boolean getLabelItems(String line, CompletionParams completionParams, List<CompletionItem> completionItems) {
+        String partialLabel = getPath(line, completionParams.getPosition());
+        if (!partialLabel.startsWith("//")) {
+            return false;
+        }
+
+        List<CompletionIndex.Match> matches;
+        try {
+            matches = getWorkspaceAPI().findCompletions(partialLabel, MAX_LABEL_ITEMS + 1);
+        } catch (WorkspaceAPIException e) {
+            logger.warn("Could not get label items.");
+            return false;
+        }
+
+        Position position = completionParams.getPosition();
+        Range range = new Range(new Position(position.getLine(), position.getCharacter() - partialLabel.length()), position);
+        for (int i = 0; i < matches.size() && i < MAX_LABEL_ITEMS; i++) {
+            CompletionIndex.Match match = matches.get(i);
+            CompletionItem completionItem = new CompletionItem(match.getLabel());
+            completionItem.setKind(match.isPackage() ? CompletionItemKind.Folder : CompletionItemKind.Value);
+            if (!match.isPackage()) {
+                completionItem.setDetail(match.getKind());
+            }
+            // Keep the ranking of the index rather than letting the client sort alphabetically.
+            completionItem.setSortText(String.format("%04d", i));
+            completionItem.setFilterText(match.getLabel());
+            completionItem.setInsertText(match.getLabel());
+            completionItem.setTextEdit(new TextEdit(range, match.getLabel()));
+            completionItems.add(completionItem);
+        }
+        return matches.size() > MAX_LABEL_ITEMS;
     }
 
     private void getSourceFiles(String newPath, List<CompletionItem> completionItems, CompletionParams completionParams) {
@@ -180,7 +240,7 @@ public class CompletionProvider {
     }
 
     public WorkspaceAPI getWorkspaceAPI() throws WorkspaceAPIException {
-        return new WorkspaceAPI(Workspace.getInstance().getWorkspaceTree());
+        return new WorkspaceAPI(Workspace.getInstance().getSnapshot());
     }
 
 }
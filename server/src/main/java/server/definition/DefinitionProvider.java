@@ -0,0 +1,159 @@
+package server.definition;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.lsp4j.DefinitionParams;
+import org.eclipse.lsp4j.Location;
+import org.eclipse.lsp4j.LocationLink;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.jsonrpc.messages.Either;
+import server.bazel.bazelWorkspaceAPI.WorkspaceAPI;
+import server.bazel.interp.Label;
+import server.bazel.interp.LabelSyntaxException;
+import server.bazel.tree.SourceLocation;
+import server.utils.DocumentSnapshot;
+import server.utils.DocumentTracker;
+import server.utils.LineIndex;
+import server.workspace.ProjectFolder;
+import server.workspace.Workspace;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * This class is delegated the go-to-definition functionality of the BazelServices class. The label
+ * under the cursor is resolved against the index of the latest sync, so neither the filesystem nor
+ * bazel is consulted while handling a request.
+ */
+public class DefinitionProvider {
+    private static final Logger logger = LogManager.getLogger(DefinitionProvider.class);
+
+    public DefinitionProvider() {}
+
+    /**
+     * Finds where the label under the cursor is declared
+     *
+     * @param params the information passed to the server from the client containing the document and cursor position
+     * @return the declaration of the label, or an empty list if the cursor isn't on a label in the workspace
+     */
+    public CompletableFuture<Either<List<? extends Location>, List<? extends LocationLink>>> getDefinition(DefinitionParams params) {
+        final List<Location> locations = new ArrayList<>();
+        final URI uri = URI.create(params.getTextDocument().getUri());
+        final DocumentSnapshot document = getDocumentTracker().getSnapshot(uri);
+        if (document == null) {
+            return CompletableFuture.completedFuture(Either.forLeft(locations));
+        }
+
+        findStringAt(document.getText(), document.getLineIndex(), params.getPosition())
+                .flatMap(value -> toAbsoluteLabel(value, Paths.get(uri)))
+                .flatMap(label -> {
+                    logger.info(String.format("Finding the definition of %s", label));
+                    return getWorkspaceAPI().findDeclaration(label);
+                })
+                .ifPresent(location -> locations.add(toLocation(location)));
+        return CompletableFuture.completedFuture(Either.forLeft(locations));
+    }
+
+    /**
+     * Finds the string literal containing the position, quotes included. Labels never span lines,
+     * so only the line of the position is read.
+     */
+    static Optional<String> findStringAt(String contents, LineIndex lines, Position position) {
+        if (position.getLine() < 0 || position.getLine() >= lines.lineCount()) {
+            return Optional.empty();
+        }
+        final int lineStart = lines.lineStart(position.getLine());
+        final int lineEnd = lines.lineEnd(position.getLine());
+
+        final int cursor = lineStart + position.getCharacter();
+        for (int i = lineStart; i < lineEnd && i <= cursor; i++) {
+            final char c = contents.charAt(i);
+            if (c == '#') {
+                return Optional.empty();
+            }
+            if (c != '"' && c != '\'') {
+                continue;
+            }
+
+            int end = i + 1;
+            while (end < lineEnd && contents.charAt(end) != c) {
+                end += contents.charAt(end) == '\\' ? 2 : 1;
+            }
+            if (end >= lineEnd) {
+                return Optional.empty();
+            }
+            if (cursor <= end) {
+                return Optional.of(contents.substring(i + 1, end));
+            }
+            i = end;
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Converts a label as written in a BUILD file to an absolute one, e.g. ":lib" in
+     * "main/java/BUILD" becomes "//main/java:lib", and "//main/java" becomes "//main/java:java".
+     */
+    private static Optional<String> toAbsoluteLabel(String value, Path document) {
+        final Label label;
+        try {
+            label = Label.parse(value);
+        } catch (LabelSyntaxException e) {
+            return Optional.empty();
+        }
+
+        // We're not supporting external workspaces right now.
+        if (label.hasWorkspace()) {
+            return Optional.empty();
+        }
+
+        final String pkg;
+        if (label.hasPkg()) {
+            pkg = label.pkg();
+        } else {
+            final ProjectFolder rootFolder = Workspace.getInstance().getRootFolder();
+            if (rootFolder == null || document.getParent() == null || !document.getParent().startsWith(rootFolder.getPath())) {
+                return Optional.empty();
+            }
+
+            final StringJoiner joiner = new StringJoiner("/");
+            for (Path part : rootFolder.getPath().relativize(document.getParent())) {
+                if (!part.toString().isEmpty()) {
+                    joiner.add(part.toString());
+                }
+            }
+            pkg = joiner.toString();
+        }
+
+        final String target;
+        if (label.hasTarget()) {
+            target = label.target();
+        } else if (!pkg.isEmpty()) {
+            target = pkg.substring(pkg.lastIndexOf('/') + 1);
+        } else {
+            return Optional.empty();
+        }
+        return Optional.of(String.format("//%s:%s", pkg, target));
+    }
+
+    private static Location toLocation(SourceLocation location) {
+        // Locations are 1-based, positions are 0-based.
+        final Position position = new Position(Math.max(0, location.getLine() - 1), Math.max(0, location.getColumn() - 1));
+        return new Location(location.getFile().toUri().toString(), new Range(position, position));
+    }
+
+    public DocumentTracker getDocumentTracker() {
+        return DocumentTracker.getInstance();
+    }
+
+    public WorkspaceAPI getWorkspaceAPI() {
+        return new WorkspaceAPI(Workspace.getInstance().getSnapshot());
+    }
+}
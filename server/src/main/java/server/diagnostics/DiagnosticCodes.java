@@ -4,6 +4,7 @@ public class DiagnosticCodes {
     public static final String SYNTAX_ERROR = "syntax_error";
     public static final String INVALID_TARGET = "invalid_target";
     public static final String DUPLICATE_TARGET = "duplicate_target";
+    public static final String QUERY_ERROR = "query_error";
 
     private DiagnosticCodes() {
     }
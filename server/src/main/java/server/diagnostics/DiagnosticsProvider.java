@@ -6,13 +6,17 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.eclipse.lsp4j.*;
 import server.bazel.bazelWorkspaceAPI.WorkspaceAPI;
+import server.bazel.cli.QueryError;
 import server.bazel.interp.CompatabilityUtility;
 import server.bazel.interp.Label;
 import server.bazel.interp.LabelSyntaxException;
 import server.bazel.tree.BuildTarget;
-import server.bazel.tree.WorkspaceTree;
+import server.bazel.tree.WorkspaceSnapshot;
+import server.utils.DocumentSnapshot;
 import server.utils.DocumentTracker;
+import server.utils.LineIndex;
 import server.utils.Logging;
+import server.utils.ParsedDocument;
 import server.utils.StarlarkWizard;
 import server.workspace.Workspace;
 
@@ -21,29 +25,33 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.stream.Collectors;
 
 // TODO: This should be the analysis stuff.
 
 /**
  * Provides diagnostics for a given bazel file. Note, this class is purely a prototype.
  * This class will be overruled when we figure out how to do generic Bazel interpretting.
+ *
+ * The provider keeps no state between calls, so documents may be diagnosed concurrently, e.g.
+ * the open document on the message loop while a sync refreshes the others in the background.
  */
 public class DiagnosticsProvider {
     private static final Logger logger = LogManager.getLogger(DiagnosticsProvider.class);
 
-    private Path textDocPath;
-    private StarlarkWizard wizard;
-
     public DiagnosticsProvider() {
         super();
     }
 
-    private List<Diagnostic> getDiagnosticsForLabelList(Iterable<Expression> expressions) {
-        final WorkspaceTree tree = Workspace.getInstance().getWorkspaceTree();
-        final WorkspaceAPI api = new WorkspaceAPI(tree);
-
+    /**
+     * @param api     The index the labels are checked against.
+     * @param indexed Whether the index has been published. Until then the tree is empty, so every
+     *                label would be reported as missing, and those checks are skipped.
+     */
+    private List<Diagnostic> getDiagnosticsForLabelList(Iterable<Expression> expressions, Path textDocPath,
+                                                        StarlarkWizard wizard, WorkspaceAPI api, boolean indexed) {
         final List<Diagnostic> diagnostics = new ArrayList<>();
-        final Set<String> labelsInList = new HashSet<>();
+        final List<LabelCheck> checks = new ArrayList<>();
 
         for (final Expression expr : expressions) {
             final Range range = wizard.rangeFromExpression(expr);
@@ -82,56 +90,95 @@ public class DiagnosticsProvider {
                 continue;
             }
 
-            // Convert the label to a target and ensure it exists. Use the parent of the
-            // text doc because we don't want the BUILD file.
-            {
-                final BuildTarget target = CompatabilityUtility.labelToBuildTarget(label, textDocPath.getParent());
-
-                boolean fileExists = false;
-                Path rootPath = Workspace.getInstance().getRootFolder().getPath();
-                if (label.hasPkg() && label.hasTarget()) {
-                    Path pkgPath = Paths.get(label.pkg());
-                    Path targetPath = Paths.get(label.target());
-                    Path absPath = rootPath.resolve(pkgPath).resolve(targetPath);
-                    fileExists = Files.exists(absPath);
-                } else if (!label.hasPkg() && label.hasTarget()) {
-                    Path pkgPath = textDocPath.getParent();
-                    Path targetPath = Paths.get(label.target());
-                    Path absPath = rootPath.resolve(pkgPath).resolve(targetPath);
-                    fileExists = Files.exists(absPath);
-                }
+            // Convert the label to a target. Use the parent of the text doc because we don't
+            // want the BUILD file.
+            final BuildTarget target = CompatabilityUtility.labelToBuildTarget(label, textDocPath.getParent());
+
+            boolean fileExists = false;
+            Path rootPath = Workspace.getInstance().getRootFolder().getPath();
+            if (label.hasPkg() && label.hasTarget()) {
+                Path pkgPath = Paths.get(label.pkg());
+                Path targetPath = Paths.get(label.target());
+                Path absPath = rootPath.resolve(pkgPath).resolve(targetPath);
+                fileExists = Files.exists(absPath);
+            } else if (!label.hasPkg() && label.hasTarget()) {
+                Path pkgPath = textDocPath.getParent();
+                Path targetPath = Paths.get(label.target());
+                Path absPath = rootPath.resolve(pkgPath).resolve(targetPath);
+                fileExists = Files.exists(absPath);
+            }
 
-                boolean targetExists = api.isValidTarget(target);
-                if (!fileExists && !targetExists) {
-                    Diagnostic diag = new Diagnostic();
-                    diag.setSeverity(DiagnosticSeverity.Error);
-                    diag.setCode(DiagnosticCodes.INVALID_TARGET);
-                    diag.setMessage(String.format("Target '%s' does not exist.", labelStr));
-                    diag.setRange(range);
-                    diagnostics.add(diag);
-                    continue;
-                }
+            checks.add(new LabelCheck(labelStr, range, target, fileExists));
+        }
+
+        // Look up every label of the list at once. Targets converted from labels have no kind,
+        // so they are matched by identity.
+        final Set<BuildTarget> missingTargets = Collections.newSetFromMap(new IdentityHashMap<>());
+        if (indexed) {
+            missingTargets.addAll(api.findInvalidTargets(checks.stream()
+                    .filter(check -> !check.fileExists)
+                    .map(check -> check.target)
+                    .collect(Collectors.toList())));
+        }
+
+        final Set<String> labelsInList = new HashSet<>();
+        for (final LabelCheck check : checks) {
+            // Ensure the target exists.
+            if (!check.fileExists && missingTargets.contains(check.target)) {
+                Diagnostic diag = new Diagnostic();
+                diag.setSeverity(DiagnosticSeverity.Error);
+                diag.setCode(DiagnosticCodes.INVALID_TARGET);
+                diag.setMessage(String.format("Target '%s' does not exist.", check.labelStr));
+                diag.setRange(check.range);
+                diagnostics.add(diag);
+                continue;
             }
 
             // Notify the user about duplicate labels.
-            {
-                if (labelsInList.contains(labelStr)) {
-                    Diagnostic diag = new Diagnostic();
-                    diag.setSeverity(DiagnosticSeverity.Warning);
-                    diag.setCode(DiagnosticCodes.DUPLICATE_TARGET);
-                    diag.setMessage(String.format("Duplicate label '%s' found in label list.", labelStr));
-                    diag.setRange(range);
-                    diagnostics.add(diag);
-                    continue;
-                }
-
-                labelsInList.add(labelStr);
+            if (labelsInList.contains(check.labelStr)) {
+                Diagnostic diag = new Diagnostic();
+                diag.setSeverity(DiagnosticSeverity.Warning);
+                diag.setCode(DiagnosticCodes.DUPLICATE_TARGET);
+                diag.setMessage(String.format("Duplicate label '%s' found in label list.", check.labelStr));
+                diag.setRange(check.range);
+                diagnostics.add(diag);
+                continue;
             }
+
+            labelsInList.add(check.labelStr);
         }
 
         return diagnostics;
     }
 
+    /**
+     * Converts the errors bazel reported for a file during the last sync into diagnostics. These
+     * are available even for files which aren't open.
+     *
+     * @param file The absolute path of the file.
+     * @return The diagnostics for the file.
+     */
+    public static List<Diagnostic> getQueryErrorDiagnostics(Path file) {
+        final List<Diagnostic> diagnostics = new ArrayList<>();
+        for (final QueryError error : Workspace.getInstance().getQueryErrors()) {
+            if (!error.getLocation().isPresent() || !error.getLocation().get().getFile().equals(file)) {
+                continue;
+            }
+
+            // Bazel only reports where the error starts. Highlight to the end of the line.
+            final int line = Math.max(0, error.getLocation().get().getLine() - 1);
+            final int column = Math.max(0, error.getLocation().get().getColumn() - 1);
+            final Diagnostic diag = new Diagnostic();
+            diag.setSeverity(DiagnosticSeverity.Error);
+            diag.setCode(DiagnosticCodes.QUERY_ERROR);
+            diag.setSource("bazel");
+            diag.setMessage(error.getMessage());
+            diag.setRange(new Range(new Position(line, column), new Position(line, 9999)));
+            diagnostics.add(diag);
+        }
+        return diagnostics;
+    }
+
     public void handleDiagnostics(DiagnosticParams params) {
         Preconditions.checkNotNull(params);
         Preconditions.checkNotNull(params.getClient());
@@ -139,20 +186,30 @@ public class DiagnosticsProvider {
         Preconditions.checkNotNull(params.getUri());
 
         final URI textDocURI = params.getUri();
-        textDocPath = Paths.get(textDocURI);
-        wizard = params.getWizard();
-        final String textDocContent = DocumentTracker.getInstance().getContents(textDocURI);
+        final Path textDocPath = Paths.get(textDocURI);
+        final StarlarkWizard wizard = params.getWizard();
+        final DocumentSnapshot textDoc = DocumentTracker.getInstance().getSnapshot(textDocURI);
+        if (textDoc == null) {
+            logger.error("Could not read " + textDocURI);
+            return;
+        }
+        final LineIndex textDocLines = textDoc.getLineIndex();
 
-        // Parse the starlark file.
-        final StarlarkFile file;
+        // Parse the starlark file, or reuse the parse of this version of the document.
+        final ParsedDocument parsed;
         try {
-            final ParserInput input = ParserInput.fromString(textDocContent, textDocURI.toString());
-            file = StarlarkFile.parse(input);
+            parsed = textDoc.getParsedDocument();
         } catch (Error | RuntimeException e) {
             logger.error("Parsing failed for an unknown reason!");
             logger.error(Logging.stackTraceToString(e));
             return;
         }
+        final StarlarkFile file = parsed.getFile();
+
+        // Check every label of the document against the same version of the index.
+        final WorkspaceSnapshot snapshot = Workspace.getInstance().getSnapshot();
+        final WorkspaceAPI api = new WorkspaceAPI(snapshot);
+        final boolean indexed = snapshot.getGeneration() > 0;
 
         // Keep track of all diagnostics to handle/display to the user.
         final List<Diagnostic> diagnostics = new ArrayList<>();
@@ -165,27 +222,32 @@ public class DiagnosticsProvider {
             diagnostic.setMessage(err.message());
 
             // There's no apparent way to know where the error ends. Highlight to the end of the line.
+            final int line = err.location().line() - 1;
+            int lineLength = 9999;
+            if (line >= 0 && line < textDocLines.lineCount()) {
+                lineLength = textDocLines.lineEnd(line) - textDocLines.lineStart(line);
+            }
             final Range range = new Range();
-            range.setStart(new Position(err.location().line() - 1, err.location().column()));
-            range.setEnd(new Position(err.location().line() - 1, 9999));
+            range.setStart(new Position(line, err.location().column()));
+            range.setEnd(new Position(line, Math.max(err.location().column(), lineLength)));
 
             diagnostic.setRange(range);
             diagnostics.add(diagnostic);
         }
 
         // Interpret all targets and gather information for diagnostics.
-        final List<StarlarkWizard.TargetMeta> targetMetaData = wizard.locateTargets(file);
+        final List<StarlarkWizard.TargetMeta> targetMetaData = parsed.getTargets();
         final Map<String, StringLiteral> allTargetNames = new HashMap<>();
         for (final StarlarkWizard.TargetMeta data : targetMetaData) {
             // Add all diagnostics for srcs attributes.
             {
-                final List<Diagnostic> srcDiagnostics = getDiagnosticsForLabelList(data.srcs());
+                final List<Diagnostic> srcDiagnostics = getDiagnosticsForLabelList(data.srcs(), textDocPath, wizard, api, indexed);
                 diagnostics.addAll(srcDiagnostics);
             }
 
             // Add all diagnostics for deps attributes.
             {
-                final List<Diagnostic> srcDiagnostics = getDiagnosticsForLabelList(data.deps());
+                final List<Diagnostic> srcDiagnostics = getDiagnosticsForLabelList(data.deps(), textDocPath, wizard, api, indexed);
                 diagnostics.addAll(srcDiagnostics);
             }
 
@@ -207,10 +269,30 @@ public class DiagnosticsProvider {
             }
         }
 
+        // Include the errors bazel reported for this file during the last sync.
+        diagnostics.addAll(getQueryErrorDiagnostics(textDocPath));
+
         // Publish all diagnostics.
         final PublishDiagnosticsParams diagnosticsParams = new PublishDiagnosticsParams();
         diagnosticsParams.setUri(params.getUri().toString());
         diagnosticsParams.setDiagnostics(diagnostics);
         params.getClient().publishDiagnostics(diagnosticsParams);
     }
+
+    /**
+     * A syntactically valid label of a label list, waiting to be checked against the index.
+     */
+    private static class LabelCheck {
+        final String labelStr;
+        final Range range;
+        final BuildTarget target;
+        final boolean fileExists;
+
+        LabelCheck(String labelStr, Range range, BuildTarget target, boolean fileExists) {
+            this.labelStr = labelStr;
+            this.range = range;
+            this.target = target;
+            this.fileExists = fileExists;
+        }
+    }
 }
@@ -3,11 +3,15 @@ package server.dispatcher;
 import com.google.common.base.Preconditions;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import server.utils.Callbacks;
 import server.utils.Logging;
 
+import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.Optional;
 
 /**
@@ -49,14 +53,12 @@ public class CommandDispatcher {
             Executable executable = command.getExecutable();
             Process process = Runtime.getRuntime().exec(executable.getCmds());
 
-            new Thread(new SyncPipe(process.getErrorStream(), errorOutput)).start();
-            new Thread(new SyncPipe(process.getInputStream(), standardOutput)).start();
+            Thread errorPipe = new Thread(new SyncPipe(process.getErrorStream(), errorOutput));
+            Thread standardPipe = new Thread(new SyncPipe(process.getInputStream(), standardOutput));
+            errorPipe.start();
+            standardPipe.start();
 
-            PrintWriter stdin = new PrintWriter(process.getOutputStream());
-            command.dispatch(stdin);
-            stdin.close();
-
-            int returnCode = process.waitFor();
+            int returnCode = runToCompletion(command, process, errorPipe, standardPipe);
             return Optional.of(new CommandOutput(standardOutput, errorOutput, returnCode));
         } catch (IOException e) {
             logger.error(e.getMessage(), Logging.stackTraceToString(e));
@@ -68,6 +70,97 @@ public class CommandDispatcher {
         return Optional.empty();
     }
 
+    /**
+     * Executes any command given on the command line, handing each line of standard output to the
+     * consumer as the process produces it. Standard output is never buffered, so this should be
+     * preferred for commands with large outputs. The consumer is invoked from a separate thread.
+     *
+     * @param command      The command to be executed
+     * @param lineConsumer Receives each line of standard output, without its line terminator
+     * @return An Optional that will contain a CommandOutput unless there was an error in thread
+     * execution. The CommandOutput's standard output will be empty.
+     * @throws InterruptedException Thrown when a thread is interrupted
+     */
+    public Optional<CommandOutput> dispatch(ICommand command, Callbacks.Consumer<String> lineConsumer)
+            throws InterruptedException {
+        Preconditions.checkNotNull(lineConsumer);
+        return dispatchStream(command, stream -> {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                lineConsumer.invoke(line);
+            }
+        });
+    }
+
+    /**
+     * Executes any command given on the command line, handing its raw standard output to the
+     * handler as the process produces it. This is meant for commands with binary outputs. The
+     * handler is invoked from a separate thread.
+     *
+     * @param command The command to be executed
+     * @param handler Reads the standard output of the command
+     * @return An Optional that will contain a CommandOutput unless there was an error in thread
+     * execution or in the handler. The CommandOutput's standard output will be empty.
+     * @throws InterruptedException Thrown when a thread is interrupted
+     */
+    public Optional<CommandOutput> dispatchStream(ICommand command, StreamHandler handler) throws InterruptedException {
+        Preconditions.checkNotNull(command);
+        Preconditions.checkNotNull(command.getExecutable());
+        Preconditions.checkNotNull(handler);
+
+        ByteArrayOutputStream errorOutput = new ByteArrayOutputStream();
+
+        try {
+            Executable executable = command.getExecutable();
+            Process process = Runtime.getRuntime().exec(executable.getCmds());
+
+            StreamPipe streamPipe = new StreamPipe(process.getInputStream(), handler);
+            Thread errorPipe = new Thread(new SyncPipe(process.getErrorStream(), errorOutput));
+            Thread standardPipe = new Thread(streamPipe);
+            errorPipe.start();
+            standardPipe.start();
+
+            int returnCode = runToCompletion(command, process, errorPipe, standardPipe);
+            if (streamPipe.getFailure() != null) {
+                Exception failure = streamPipe.getFailure();
+                logger.error(String.format("Failed to handle the output of the command: %s", failure),
+                        Logging.stackTraceToString(failure));
+                return Optional.empty();
+            }
+
+            return Optional.of(new CommandOutput(new ByteArrayOutputStream(), errorOutput, returnCode));
+        } catch (IOException e) {
+            logger.error(e.getMessage(), Logging.stackTraceToString(e));
+        } catch (InterruptedException e) {
+            logger.error(e.getMessage(), Logging.stackTraceToString(e));
+            throw e;
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * Writes the command to the process and waits for both the process and its output pipes to
+     * finish. The pipes must be joined, otherwise the tail of the output may not have been read
+     * by the time the process exits.
+     */
+    private static int runToCompletion(ICommand command, Process process, Thread... pipes) throws InterruptedException {
+        PrintWriter stdin = new PrintWriter(process.getOutputStream());
+        command.dispatch(stdin);
+        stdin.close();
+
+        try {
+            int returnCode = process.waitFor();
+            for (Thread pipe : pipes) {
+                pipe.join();
+            }
+            return returnCode;
+        } catch (InterruptedException e) {
+            process.destroy();
+            throw e;
+        }
+    }
+
     /**
      * @return Get the unique identifier for this CommandDispatcher
      */
@@ -0,0 +1,17 @@
+package server.dispatcher;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Consumes the standard output of a dispatched command directly from the process.
+ */
+public interface StreamHandler {
+    /**
+     * Reads the output of a command. Anything left unread once this returns is discarded.
+     *
+     * @param stream The standard output of the command.
+     * @throws IOException If the output could not be read or understood.
+     */
+    void handle(InputStream stream) throws IOException;
+}
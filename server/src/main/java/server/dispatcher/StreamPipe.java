@@ -0,0 +1,48 @@
+package server.dispatcher;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Runnable that hands an input stream to a handler as the process produces it, rather than
+ * buffering the whole stream in memory.
+ */
+class StreamPipe implements Runnable {
+    private final InputStream inputStream;
+    private final StreamHandler handler;
+    private Exception failure;
+
+    public StreamPipe(InputStream inputStream, StreamHandler handler) {
+        this.inputStream = inputStream;
+        this.handler = handler;
+        this.failure = null;
+    }
+
+    @Override
+    public void run() {
+        try (InputStream stream = inputStream) {
+            try {
+                handler.handle(stream);
+            } catch (IOException | RuntimeException e) {
+                failure = e;
+            }
+
+            // Drain whatever the handler did not read so the process never blocks on a full pipe,
+            // even if the handler failed part way through.
+            final byte[] buffer = new byte[1024];
+            while (stream.read(buffer) != -1) {
+            }
+        } catch (IOException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+    }
+
+    /**
+     * @return The exception thrown while handling the stream, or null if it was handled successfully.
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+}
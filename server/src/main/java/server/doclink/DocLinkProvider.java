@@ -3,8 +3,6 @@ package server.doclink;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import net.starlark.java.syntax.Expression;
-import net.starlark.java.syntax.ParserInput;
-import net.starlark.java.syntax.StarlarkFile;
 import net.starlark.java.syntax.StringLiteral;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -14,6 +12,7 @@ import server.bazel.interp.*;
 import server.utils.DocumentTracker;
 import server.utils.FileRepository;
 import server.utils.Logging;
+import server.utils.ParsedDocument;
 import server.utils.StarlarkWizard;
 import server.workspace.Workspace;
 
@@ -56,24 +55,26 @@ public class DocLinkProvider {
         final URI fileURI = URI.create(params.getTextDocument().getUri());
         final Path filePath = Paths.get(fileURI).toAbsolutePath();
         final DocumentTracker tracker = getTracker();
-        final String content = tracker.getContents(filePath.toUri());
 
         // Keep references for context when running this provider.
         currentDocPath = filePath;
 
-        // Parse the starlark file.
-        final StarlarkFile file;
+        // Parse the starlark file, or reuse the parse of this version of the document.
+        final ParsedDocument parsed;
         try {
-            final ParserInput input = ParserInput.fromString(content, params.getTextDocument().getUri());
-            file = StarlarkFile.parse(input);
+            parsed = tracker.getParsedDocument(filePath.toUri());
         } catch (Error | RuntimeException e) {
             logger.error("Parsing failed for an unknown reason!");
             logger.error(Logging.stackTraceToString(e));
             return CompletableFuture.completedFuture(result);
         }
+        if (parsed == null) {
+            logger.error("Could not read " + filePath);
+            return CompletableFuture.completedFuture(result);
+        }
 
         // Locate all linkable content and create document links.
-        final ImmutableList<StarlarkWizard.TargetMeta> targets = getWizard().locateTargets(file);
+        final ImmutableList<StarlarkWizard.TargetMeta> targets = parsed.getTargets();
         for (final StarlarkWizard.TargetMeta target : targets) {
             result.addAll(convertLabelExprs2DocLinks(target.srcs()));
             result.addAll(convertLabelExprs2DocLinks(target.deps()));
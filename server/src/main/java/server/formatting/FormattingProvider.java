@@ -20,6 +20,7 @@ import server.buildifier.BuildifierFileType;
 import server.buildifier.FormatInput;
 import server.buildifier.FormatOutput;
 import server.utils.DocumentTracker;
+import server.utils.LineIndex;
 
 public class FormattingProvider {
 
@@ -99,17 +100,6 @@ public class FormattingProvider {
     }
 
     private Position getLastPosition(String contents) {
-        // Assuming a UNIX based operating system
-        int numLines = 0;
-        for(char c : contents.toCharArray()) {
-            if(c == '\n') numLines++;
-        }
-        int lastLineLength = 0;
-        for(int i = contents.length() - 1; i != 0; i--) {
-            if(contents.charAt(i) == '\n') break;
-            lastLineLength++;
-        }
-
-        return new Position(numLines, lastLineLength);
+        return LineIndex.of(contents).positionAt(contents.length());
     }
-}
\ No newline at end of file
+}
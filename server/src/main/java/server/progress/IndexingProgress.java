@@ -0,0 +1,58 @@
+package server.progress;
+
+import com.google.common.base.Stopwatch;
+import server.bazel.tree.WorkspaceSnapshot;
+import server.workspace.SyncListener;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports the progress of workspace indexing to the client. Reports are throttled so that large
+ * workspaces do not flood the client with notifications.
+ *
+ * An instance reports a single initial load, see
+ * {@link server.workspace.SyncScheduler#requestInitialLoad}. It isn't thread safe. It is begun
+ * before the load is submitted, notified from the sync thread while the load runs, and ended once
+ * the load completes, so its calls never overlap.
+ */
+public class IndexingProgress implements SyncListener {
+    private static final String TITLE = "Indexing Bazel workspace";
+    private static final long REPORT_INTERVAL_MILLIS = 250;
+
+    private final WorkDoneProgress progress;
+    private final Stopwatch stopwatch;
+    private long lastReportMillis;
+
+    public IndexingProgress(WorkDoneProgress progress) {
+        this.progress = progress;
+        this.stopwatch = Stopwatch.createUnstarted();
+        this.lastReportMillis = 0;
+    }
+
+    public void begin() {
+        stopwatch.start();
+        progress.begin(TITLE, "Querying targets");
+    }
+
+    @Override
+    public void onSyncProgress(int packages, int buildTargets, int sourceFiles) {
+        final long elapsed = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+        if (elapsed - lastReportMillis < REPORT_INTERVAL_MILLIS) {
+            return;
+        }
+        lastReportMillis = elapsed;
+
+        final long rate = elapsed == 0 ? 0 : (buildTargets + sourceFiles) * 1000L / elapsed;
+        progress.report(String.format("%d packages, %d targets indexed (%d targets/sec)",
+                packages, buildTargets, rate));
+    }
+
+    @Override
+    public void onSnapshotPublished(WorkspaceSnapshot snapshot) {
+        progress.report("Workspace index updated");
+    }
+
+    public void end(String message) {
+        progress.end(message);
+    }
+}
@@ -0,0 +1,52 @@
+package server.progress;
+
+import org.eclipse.lsp4j.services.LanguageClient;
+import server.bazel.cli.BazelServerException;
+import server.workspace.SyncScheduler;
+
+/**
+ * Shows a progress notification on the client for each sync run by the sync scheduler.
+ */
+public class SyncProgress implements SyncScheduler.Listener {
+    private static final String TITLE = "Syncing Bazel workspace";
+
+    private final LanguageClient client;
+    private final boolean enabled;
+    private WorkDoneProgress progress;
+
+    public SyncProgress(LanguageClient client, boolean enabled) {
+        this.client = client;
+        this.enabled = enabled;
+        this.progress = null;
+    }
+
+    @Override
+    public void onSyncStarted(boolean fullSync) {
+        // A sync whose end was never reported must not leave its notification on the client.
+        end("Sync interrupted");
+        progress = new WorkDoneProgress(client, enabled);
+        progress.begin(TITLE, fullSync ? "Querying all targets" : "Querying changed packages");
+    }
+
+    @Override
+    public void onSyncCompleted(boolean fullSync) {
+        end("Sync complete");
+    }
+
+    @Override
+    public void onSyncFailed(boolean fullSync, BazelServerException e) {
+        end("Sync failed");
+    }
+
+    @Override
+    public void onSyncCancelled(boolean fullSync) {
+        end("Sync superseded by a newer request");
+    }
+
+    private void end(String message) {
+        if (progress != null) {
+            progress.end(message);
+            progress = null;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package server.progress;
+
+import com.google.common.base.Preconditions;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.lsp4j.ProgressParams;
+import org.eclipse.lsp4j.WorkDoneProgressBegin;
+import org.eclipse.lsp4j.WorkDoneProgressCreateParams;
+import org.eclipse.lsp4j.WorkDoneProgressEnd;
+import org.eclipse.lsp4j.WorkDoneProgressNotification;
+import org.eclipse.lsp4j.WorkDoneProgressReport;
+import org.eclipse.lsp4j.jsonrpc.messages.Either;
+import org.eclipse.lsp4j.services.LanguageClient;
+
+import java.util.UUID;
+
+/**
+ * A single server initiated work done progress (window/workDoneProgress). If the client did not
+ * declare support for work done progress, every method is a no-op.
+ */
+public class WorkDoneProgress {
+    private static final Logger logger = LogManager.getLogger(WorkDoneProgress.class);
+
+    private final LanguageClient client;
+    private final Either<String, Number> token;
+    private final boolean enabled;
+    private boolean begun;
+    private boolean ended;
+
+    public WorkDoneProgress(LanguageClient client, boolean enabled) {
+        Preconditions.checkNotNull(client);
+        this.client = client;
+        this.token = Either.forLeft(UUID.randomUUID().toString());
+        this.enabled = enabled;
+        this.begun = false;
+        this.ended = false;
+    }
+
+    /**
+     * Asks the client to create the progress and shows it with the given title.
+     *
+     * @param title   The title of the progress, shown for its whole lifetime.
+     * @param message An optional initial message.
+     */
+    public synchronized void begin(String title, String message) {
+        if (!enabled || begun) {
+            return;
+        }
+        begun = true;
+
+        try {
+            client.createProgress(new WorkDoneProgressCreateParams(token)).join();
+        } catch (RuntimeException e) {
+            logger.warn("Client refused to create a work done progress", e);
+            ended = true;
+            return;
+        }
+
+        final WorkDoneProgressBegin begin = new WorkDoneProgressBegin();
+        begin.setTitle(title);
+        begin.setMessage(message);
+        begin.setCancellable(false);
+        notify(begin);
+    }
+
+    public synchronized void report(String message) {
+        if (!begun || ended) {
+            return;
+        }
+
+        final WorkDoneProgressReport report = new WorkDoneProgressReport();
+        report.setMessage(message);
+        notify(report);
+    }
+
+    public synchronized void end(String message) {
+        if (!begun || ended) {
+            return;
+        }
+        ended = true;
+
+        final WorkDoneProgressEnd end = new WorkDoneProgressEnd();
+        end.setMessage(message);
+        notify(end);
+    }
+
+    private void notify(WorkDoneProgressNotification notification) {
+        client.notifyProgress(new ProgressParams(token, notification));
+    }
+}
@@ -0,0 +1,84 @@
+package server.symbols;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.lsp4j.Location;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.SymbolInformation;
+import org.eclipse.lsp4j.SymbolKind;
+import org.eclipse.lsp4j.WorkspaceSymbolParams;
+import server.bazel.bazelWorkspaceAPI.WorkspaceAPI;
+import server.bazel.tree.BuildTarget;
+import server.bazel.tree.DependencyGraph;
+import server.bazel.tree.SourceLocation;
+import server.workspace.Workspace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * This class is delegated the workspace symbol functionality of the BazelServices class. Every
+ * build target in the workspace is a symbol, found by name from the index of the latest sync, so
+ * bazel is never run while the user types.
+ */
+public class WorkspaceSymbolProvider {
+    private static final Logger logger = LogManager.getLogger(WorkspaceSymbolProvider.class);
+
+    // Clients re-query as the user types, so a short list of the best matches is all they show.
+    private static final int MAX_SYMBOLS = 200;
+
+    /**
+     * Finds the build targets whose names match the query
+     *
+     * @param params the information passed to the server from the client containing the query
+     * @return the matching build targets, best first, located in their BUILD files
+     */
+    public CompletableFuture<List<? extends SymbolInformation>> getWorkspaceSymbols(WorkspaceSymbolParams params) {
+        logger.info(String.format("Workspace symbol provider invoked for \"%s\"", params.getQuery()));
+
+        final WorkspaceAPI api = getWorkspaceAPI();
+        final List<SymbolInformation> symbols = new ArrayList<>();
+        for (BuildTarget target : api.findSymbols(params.getQuery(), MAX_SYMBOLS)) {
+            final String label = DependencyGraph.toLabel(target);
+            final Optional<Location> location = api.findDeclaration(label).map(WorkspaceSymbolProvider::toLocation);
+            if (!location.isPresent()) {
+                logger.warn(String.format("Could not locate the BUILD file of %s", target));
+                continue;
+            }
+
+            final String pkg = label.substring(0, label.lastIndexOf(':'));
+            symbols.add(new SymbolInformation(target.getLabel(), getSymbolKind(target), location.get(), pkg));
+        }
+        return CompletableFuture.completedFuture(symbols);
+    }
+
+    /**
+     * Rules have no symbol kind of their own. Binaries and tests can be run, so they show as
+     * functions, and everything else shows as a module.
+     */
+    private static SymbolKind getSymbolKind(BuildTarget target) {
+        final String kind = target.getKind();
+        if (kind != null && (kind.endsWith("_binary") || kind.endsWith("_test"))) {
+            return SymbolKind.Function;
+        }
+        return SymbolKind.Module;
+    }
+
+    /**
+     * Declarations come from the index, so this never touches the filesystem. A target found by
+     * scanning BUILD files rather than by querying bazel has no location of its own and is placed
+     * at the top of its package's BUILD file.
+     */
+    private static Location toLocation(SourceLocation location) {
+        // Locations are 1-based, positions are 0-based.
+        final Position position = new Position(Math.max(0, location.getLine() - 1), Math.max(0, location.getColumn() - 1));
+        return new Location(location.getFile().toUri().toString(), new Range(position, position));
+    }
+
+    public WorkspaceAPI getWorkspaceAPI() {
+        return new WorkspaceAPI(Workspace.getInstance().getSnapshot());
+    }
+}
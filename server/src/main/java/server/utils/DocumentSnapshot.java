@@ -0,0 +1,84 @@
+package server.utils;
+
+import com.google.common.base.Preconditions;
+import org.eclipse.lsp4j.Range;
+
+import java.net.URI;
+import java.util.Objects;
+
+/**
+ * One version of a document. A snapshot never changes, so a provider reading the text, lines and
+ * parse of a snapshot sees the same version of each, however many edits arrive in the meantime.
+ * Edits produce a new snapshot sharing everything the edit didn't touch.
+ */
+public final class DocumentSnapshot {
+    private final URI uri;
+    private final TextBuffer buffer;
+    private final LineIndex lines;
+    private final Integer version;
+    // Parsed on first use. Racing threads may both parse, but they produce the same result.
+    private volatile ParsedDocument parsed;
+
+    private DocumentSnapshot(URI uri, TextBuffer buffer, LineIndex lines, Integer version) {
+        this.uri = uri;
+        this.buffer = buffer;
+        this.lines = lines;
+        this.version = version;
+    }
+
+    /**
+     * @param uri     The document.
+     * @param text    The text of the document.
+     * @param version The version of an open document, or null for a file read from disk.
+     * @return A snapshot of the text.
+     */
+    static DocumentSnapshot of(URI uri, String text, Integer version) {
+        Preconditions.checkNotNull(uri);
+        return new DocumentSnapshot(uri, TextBuffer.of(text), LineIndex.of(text), version);
+    }
+
+    /**
+     * @return A snapshot with the range replaced and the same version. This snapshot is left as it
+     * was.
+     */
+    DocumentSnapshot replace(Range range, String text) {
+        final int start = lines.offsetAt(range.getStart());
+        final int end = Math.max(start, lines.offsetAt(range.getEnd()));
+        return new DocumentSnapshot(uri, buffer.replace(start, end, text), lines.withEdit(start, end, text), version);
+    }
+
+    DocumentSnapshot withVersion(Integer version) {
+        return Objects.equals(version, this.version) ? this : new DocumentSnapshot(uri, buffer, lines, version);
+    }
+
+    public URI getUri() {
+        return uri;
+    }
+
+    /**
+     * @return The version sent by the client, or null if the document isn't open.
+     */
+    public Integer getVersion() {
+        return version;
+    }
+
+    public String getText() {
+        return buffer.toString();
+    }
+
+    public LineIndex getLineIndex() {
+        return lines;
+    }
+
+    /**
+     * @return The text parsed as starlark. Syntax errors are reported by the parsed file.
+     */
+    public ParsedDocument getParsedDocument() {
+        ParsedDocument result = parsed;
+        if (result == null) {
+            result = ParsedDocument.parse(getText(), uri.toString());
+            parsed = result;
+        }
+        return result;
+    }
+}
@@ -4,19 +4,24 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.eclipse.lsp4j.*;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.net.URI;
-import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
+import java.util.Collections;
 import java.util.Set;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps the documents open in the editor. Each open document is an immutable
+ * {@link DocumentSnapshot}, and edits replace the snapshot of their document atomically. Reads
+ * never lock, so providers and background work on other threads can read documents while the
+ * message loop applies edits, and a snapshot they hold stays consistent.
+ */
 public class DocumentTracker {
-    private Map<URI, String> openFiles = new HashMap<>();
-    private Set<URI> changedFiles = new HashSet<>();
+    private final ConcurrentMap<URI, DocumentSnapshot> openFiles = new ConcurrentHashMap<>();
+    private final Set<URI> changedFiles = ConcurrentHashMap.newKeySet();
+    private final FileContentCache closedFiles = new FileContentCache();
 
     private static final Logger logger = LogManager.getLogger(DocumentTracker.class);
     private static final DocumentTracker instance = new DocumentTracker();
@@ -35,15 +40,15 @@ public class DocumentTracker {
     }
 
     public Set<URI> getOpenURIs() {
-        return openFiles.keySet();
+        return Collections.unmodifiableSet(openFiles.keySet());
     }
 
     public Set<URI> getChangedURIs() {
-        return changedFiles;
+        return Collections.unmodifiableSet(changedFiles);
     }
 
     public void resetChangedFiles() {
-        changedFiles = new HashSet<>();
+        changedFiles.clear();
     }
 
     public void forceChanged(URI uri) {
@@ -56,33 +61,43 @@ public class DocumentTracker {
 
     public void didOpen(DidOpenTextDocumentParams params) {
         URI uri = URI.create(params.getTextDocument().getUri());
-        openFiles.put(uri, params.getTextDocument().getText());
+        openFiles.put(uri, DocumentSnapshot.of(uri, params.getTextDocument().getText(), params.getTextDocument().getVersion()));
         changedFiles.add(uri);
+
+        // The editor has the contents now, so the copy read from disk is only taking up budget.
+        if ("file".equals(uri.getScheme())) {
+            closedFiles.invalidate(Paths.get(uri));
+        }
     }
 
+    /**
+     * Applies every change in order. Each change is relative to the text left by the one before
+     * it, and one without a range replaces the whole document. The document takes the version
+     * sent with the changes, or the next version if the client didn't send one. Readers see
+     * either the document before all of the changes or after all of them.
+     *
+     * @param params The changes sent by the client.
+     */
     public void didChange(DidChangeTextDocumentParams params) {
         URI uri = URI.create(params.getTextDocument().getUri());
-        if (!isOpen(uri)) {
+        DocumentSnapshot updated = openFiles.computeIfPresent(uri, (key, document) -> {
+            DocumentSnapshot result = document;
+            for (TextDocumentContentChangeEvent change : params.getContentChanges()) {
+                Range range = change.getRange();
+                if (range == null) {
+                    result = DocumentSnapshot.of(uri, change.getText(), document.getVersion());
+                } else {
+                    result = result.replace(range, change.getText());
+                }
+            }
+            Integer version = params.getTextDocument().getVersion();
+            return result.withVersion(version != null ? version : nextVersion(document));
+        });
+        if (updated == null) {
             logger.error("Attempted to change unopened document: " + uri);
             return;
         }
 
-        String oldText = openFiles.get(uri);
-        TextDocumentContentChangeEvent change = params.getContentChanges().get(0);
-        Range range = change.getRange();
-
-        if (range == null) {
-            openFiles.put(uri, change.getText());
-        } else {
-            int offsetStart = Positions.getOffset(oldText, change.getRange().getStart());
-            int offsetEnd = Positions.getOffset(oldText, change.getRange().getEnd());
-            StringBuilder builder = new StringBuilder();
-            builder.append(oldText.substring(0, offsetStart));
-            builder.append(change.getText());
-            builder.append(oldText.substring(offsetEnd));
-            openFiles.put(uri, builder.toString());
-        }
-
         changedFiles.add(uri);
     }
 
@@ -92,37 +107,85 @@ public class DocumentTracker {
         changedFiles.add(uri);
     }
 
-    public String getContents(URI uri) {
-        if (!openFiles.containsKey(uri)) {
-            BufferedReader reader = null;
+    /**
+     * @param uri The document to read.
+     * @return The current version of an open document, or a snapshot of a closed one read from
+     * disk. Null if a closed file can't be read.
+     */
+    public DocumentSnapshot getSnapshot(URI uri) {
+        DocumentSnapshot document = openFiles.get(uri);
+        if (document != null) {
+            return document;
+        }
 
-            try {
-                reader = Files.newBufferedReader(Paths.get(uri));
-                StringBuilder builder = new StringBuilder();
+        String contents = getContents(uri);
+        return contents == null ? null : DocumentSnapshot.of(uri, contents, null);
+    }
 
-                int next = -1;
-                while ((next = reader.read()) != -1) {
-                    builder.append((char) next);
-                }
+    /**
+     * @param uri The document to read.
+     * @return The text of an open document, or the contents of a closed one on disk. Null if a
+     * closed file can't be read.
+     */
+    public String getContents(URI uri) {
+        DocumentSnapshot document = openFiles.get(uri);
+        if (document != null) {
+            return document.getText();
+        }
 
-                return builder.toString();
-            } catch (IOException e) {
-                return null;
-            } finally {
-                if (reader != null) {
-                    try {
-                        reader.close();
-                    } catch (IOException e) {
-                        logger.error(e);
-                    }
-                }
-            }
+        try {
+            return closedFiles.read(Paths.get(uri));
+        } catch (IOException e) {
+            return null;
         }
+    }
+
+    /**
+     * @return The cache of the contents of closed files, e.g. to configure its byte budget.
+     */
+    public FileContentCache getClosedFileCache() {
+        return closedFiles;
+    }
 
-        return openFiles.get(uri);
+    /**
+     * @param uri The document whose lines to index.
+     * @return The line index kept up to date with an open document, or an index of the contents of
+     * a closed one. Null if the contents can't be read.
+     */
+    public LineIndex getLineIndex(URI uri) {
+        DocumentSnapshot document = getSnapshot(uri);
+        return document == null ? null : document.getLineIndex();
+    }
+
+    /**
+     * @param uri The document.
+     * @return The version of an open document, as last sent by the client, or null if the
+     * document isn't open.
+     */
+    public Integer getVersion(URI uri) {
+        DocumentSnapshot document = openFiles.get(uri);
+        return document == null ? null : document.getVersion();
+    }
+
+    /**
+     * Parses a document as starlark. The parse of an open document is kept until the document
+     * changes or is closed, so every provider handling the same version shares it. A closed file
+     * is parsed from disk each time.
+     *
+     * @param uri The document to parse.
+     * @return The parsed document, or null if its contents can't be read.
+     */
+    public ParsedDocument getParsedDocument(URI uri) {
+        DocumentSnapshot document = getSnapshot(uri);
+        return document == null ? null : document.getParsedDocument();
     }
 
     public void setContents(URI uri, String contents) {
-        openFiles.put(uri, contents);
+        openFiles.compute(uri, (key, document) ->
+                DocumentSnapshot.of(uri, contents, document == null ? 0 : nextVersion(document)));
+    }
+
+    private static int nextVersion(DocumentSnapshot document) {
+        return document.getVersion() == null ? 0 : document.getVersion() + 1;
     }
 }
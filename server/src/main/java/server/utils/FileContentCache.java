@@ -0,0 +1,156 @@
+package server.utils;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The contents of files which aren't open in the editor. Files are read in bulk, and files larger
+ * than a megabyte are memory mapped rather than copied into the heap first. The contents are kept
+ * for as long as the file's modification time and size stay the same, so features touching every
+ * BUILD file in the workspace only read each one once.
+ *
+ * The cache holds at most its byte budget of contents, counting two bytes per character, and
+ * evicts the least recently read files first. A file larger than the budget is read but not kept.
+ */
+public final class FileContentCache {
+    public static final long DEFAULT_BYTE_BUDGET = 64L * 1024 * 1024;
+    private static final long DEFAULT_MAP_THRESHOLD = 1024 * 1024;
+
+    private final long mapThreshold;
+    private final Map<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long byteBudget;
+    private long bytes = 0;
+
+    public FileContentCache() {
+        this(DEFAULT_BYTE_BUDGET, DEFAULT_MAP_THRESHOLD);
+    }
+
+    /**
+     * @param byteBudget   The most contents to keep, in bytes.
+     * @param mapThreshold The size from which files are memory mapped.
+     */
+    FileContentCache(long byteBudget, long mapThreshold) {
+        Preconditions.checkArgument(byteBudget >= 0);
+        Preconditions.checkArgument(mapThreshold >= 0);
+        this.byteBudget = byteBudget;
+        this.mapThreshold = mapThreshold;
+    }
+
+    /**
+     * Reads a file as UTF-8, or returns the contents read before if the file hasn't changed since.
+     *
+     * @param path The file to read.
+     * @return The contents of the file.
+     * @throws IOException If the file can't be read.
+     */
+    public String read(Path path) throws IOException {
+        Preconditions.checkNotNull(path);
+        final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        final FileTime modified = attributes.lastModifiedTime();
+        final long size = attributes.size();
+
+        synchronized (this) {
+            final Entry entry = entries.get(path);
+            if (entry != null && entry.size == size && entry.modified.equals(modified)) {
+                return entry.contents;
+            }
+        }
+
+        // Read outside of the lock, so one large file doesn't hold up every other read.
+        final String contents = readFile(path, size);
+        final Entry entry = new Entry(modified, size, contents);
+        synchronized (this) {
+            final Entry replaced = entries.remove(path);
+            if (replaced != null) {
+                bytes -= replaced.weight();
+            }
+            if (entry.weight() <= byteBudget) {
+                entries.put(path, entry);
+                bytes += entry.weight();
+                evict();
+            }
+        }
+        return contents;
+    }
+
+    private String readFile(Path path, long size) throws IOException {
+        if (size < mapThreshold) {
+            return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return StandardCharsets.UTF_8.decode(buffer).toString();
+        }
+    }
+
+    /**
+     * Sets how much content to keep, evicting files until the cache fits.
+     *
+     * @param byteBudget The most contents to keep, in bytes.
+     */
+    public synchronized void setByteBudget(long byteBudget) {
+        Preconditions.checkArgument(byteBudget >= 0);
+        this.byteBudget = byteBudget;
+        evict();
+    }
+
+    public synchronized long getByteBudget() {
+        return byteBudget;
+    }
+
+    /**
+     * @return The bytes of content currently kept.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Forgets a file, e.g. because it was opened and the editor now has its contents.
+     *
+     * @param path The file to forget.
+     */
+    public synchronized void invalidate(Path path) {
+        final Entry entry = entries.remove(path);
+        if (entry != null) {
+            bytes -= entry.weight();
+        }
+    }
+
+    private void evict() {
+        final Iterator<Entry> iterator = entries.values().iterator();
+        while (bytes > byteBudget && iterator.hasNext()) {
+            bytes -= iterator.next().weight();
+            iterator.remove();
+        }
+    }
+
+    private static final class Entry {
+        final FileTime modified;
+        final long size;
+        final String contents;
+
+        Entry(FileTime modified, long size, String contents) {
+            this.modified = modified;
+            this.size = size;
+            this.contents = contents;
+        }
+
+        long weight() {
+            return 2L * contents.length();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package server.utils;
+
+import com.google.common.base.Preconditions;
+import org.eclipse.lsp4j.Position;
+
+import java.util.Arrays;
+
+/**
+ * The offset at which every line of a document starts, for converting between LSP positions and
+ * offsets into the document's text. A line ends at "\n", which belongs to the line it ends, so a
+ * "\r" before it counts as the last character of the line.
+ *
+ * Characters are UTF-16 code units, both in LSP positions and in Java strings, so a column is the
+ * number of chars between the start of the line and the offset. A character outside of the basic
+ * multilingual plane is two columns wide, as clients expect.
+ *
+ * An index is immutable. Editing the document derives the next index with
+ * {@link #withEdit(int, int, String)} rather than scanning the whole text again. The line starts
+ * are a flat array, so an edit still costs O(lines): the array is copied and the starts after the
+ * edit are shifted. That is an int per line rather than a char per character, which is cheap for
+ * BUILD files, and lookups stay a binary search.
+ */
+public final class LineIndex {
+    private final int[] lineStarts;
+    private final int length;
+
+    private LineIndex(int[] lineStarts, int length) {
+        this.lineStarts = lineStarts;
+        this.length = length;
+    }
+
+    /**
+     * @param text The text to index.
+     * @return An index of the lines of the text.
+     */
+    public static LineIndex of(String text) {
+        Preconditions.checkNotNull(text);
+        int[] lineStarts = new int[16];
+        int count = 1;
+        for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1)) {
+            if (count == lineStarts.length) {
+                lineStarts = Arrays.copyOf(lineStarts, count * 2);
+            }
+            lineStarts[count++] = i + 1;
+        }
+        return new LineIndex(Arrays.copyOf(lineStarts, count), text.length());
+    }
+
+    /**
+     * @return The number of lines, which is one more than the number of line breaks.
+     */
+    public int lineCount() {
+        return lineStarts.length;
+    }
+
+    /**
+     * @return The number of characters in the indexed text.
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @param line A zero based line, which must exist.
+     * @return The offset of the first character of the line.
+     */
+    public int lineStart(int line) {
+        Preconditions.checkElementIndex(line, lineStarts.length);
+        return lineStarts[line];
+    }
+
+    /**
+     * @param line A zero based line, which must exist.
+     * @return The offset of the line break ending the line, or the length of the text for the last
+     * line.
+     */
+    public int lineEnd(int line) {
+        Preconditions.checkElementIndex(line, lineStarts.length);
+        return line + 1 < lineStarts.length ? lineStarts[line + 1] - 1 : length;
+    }
+
+    /**
+     * Converts a position to an offset. A character past the end of its line means the end of the
+     * line, and a line past the end of the text means the end of the text.
+     *
+     * @param position A zero based line and character.
+     * @return The offset of the position.
+     */
+    public int offsetAt(Position position) {
+        Preconditions.checkNotNull(position);
+        final int line = Math.max(0, position.getLine());
+        if (line >= lineStarts.length) {
+            return length;
+        }
+
+        final int lineStart = lineStarts[line];
+        return lineStart + Math.min(Math.max(0, position.getCharacter()), lineEnd(line) - lineStart);
+    }
+
+    /**
+     * @param offset An offset into the text, clamped to the text.
+     * @return The position of the offset.
+     */
+    public Position positionAt(int offset) {
+        final int clamped = Math.min(Math.max(0, offset), length);
+        int line = Arrays.binarySearch(lineStarts, clamped);
+        if (line < 0) {
+            line = -line - 2;
+        }
+        return new Position(line, clamped - lineStarts[line]);
+    }
+
+    /**
+     * Derives the index of the text after an edit. Lines before the edit are kept, lines after it
+     * are shifted, and only the inserted text is scanned for line breaks. Copying and shifting the
+     * line starts makes this O(lines + inserted text).
+     *
+     * @param start The offset of the first character replaced.
+     * @param end   The offset after the last character replaced.
+     * @param text  The text replacing the characters.
+     * @return The index of the edited text. This index is left as it was.
+     */
+    public LineIndex withEdit(int start, int end, String text) {
+        Preconditions.checkNotNull(text);
+        Preconditions.checkPositionIndexes(start, end, length);
+
+        // Lines starting within the replaced characters started after a replaced line break.
+        final int kept = upperBound(start);
+        final int shifted = upperBound(end);
+        final int delta = text.length() - (end - start);
+
+        int inserted = 0;
+        for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1)) {
+            inserted++;
+        }
+
+        final int[] updated = new int[kept + inserted + lineStarts.length - shifted];
+        System.arraycopy(lineStarts, 0, updated, 0, kept);
+        int count = kept;
+        for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1)) {
+            updated[count++] = start + i + 1;
+        }
+        for (int i = shifted; i < lineStarts.length; i++) {
+            updated[count++] = lineStarts[i] + delta;
+        }
+        return new LineIndex(updated, length + delta);
+    }
+
+    /**
+     * @return The number of lines starting at or before the offset.
+     */
+    private int upperBound(int offset) {
+        int line = Arrays.binarySearch(lineStarts, offset);
+        return line >= 0 ? line + 1 : -line - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "LineIndex{" +
+                "lines=" + lineStarts.length +
+                ", length=" + length +
+                '}';
+    }
+}
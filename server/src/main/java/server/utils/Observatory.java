@@ -1,10 +1,10 @@
 package server.utils;
 
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 public class Observatory<L> {
-    private Set<L> listeners = new HashSet<>();
+    private Set<L> listeners = new CopyOnWriteArraySet<>();
 
     public void notifyListeners(Callbacks.Consumer<L> callback) {
         for (L listener : listeners) {
@@ -0,0 +1,44 @@
+package server.utils;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import net.starlark.java.syntax.ParserInput;
+import net.starlark.java.syntax.StarlarkFile;
+
+/**
+ * A starlark file parsed from one version of a document, together with the targets it declares.
+ * Open documents keep theirs until the next edit, so providers handling the same version share a
+ * single parse rather than parsing the text again.
+ */
+public final class ParsedDocument {
+    private final StarlarkFile file;
+    private final ImmutableList<StarlarkWizard.TargetMeta> targets;
+
+    private ParsedDocument(StarlarkFile file, ImmutableList<StarlarkWizard.TargetMeta> targets) {
+        this.file = file;
+        this.targets = targets;
+    }
+
+    /**
+     * @param contents The text to parse.
+     * @param name     The name of the file, used in syntax errors.
+     * @return The parsed file. Syntax errors are reported by the file rather than thrown.
+     */
+    public static ParsedDocument parse(String contents, String name) {
+        Preconditions.checkNotNull(contents);
+        Preconditions.checkNotNull(name);
+        final StarlarkFile file = StarlarkFile.parse(ParserInput.fromString(contents, name));
+        return new ParsedDocument(file, new StarlarkWizard().locateTargets(file));
+    }
+
+    /**
+     * @return The syntax tree. It is shared, so it must not be modified.
+     */
+    public StarlarkFile getFile() {
+        return file;
+    }
+
+    public ImmutableList<StarlarkWizard.TargetMeta> getTargets() {
+        return targets;
+    }
+}
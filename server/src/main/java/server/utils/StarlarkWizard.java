@@ -45,6 +45,11 @@ public class StarlarkWizard {
                         continue;
                     }
 
+                    // The rule kind is the name of the called function, e.g. "java_library".
+                    if (call.getFunction().kind() == Expression.Kind.IDENTIFIER) {
+                        data.kind = ((Identifier) call.getFunction()).getName();
+                    }
+
                     // Locate all srcs that are lists. Treat each element as a label.
                     if (callArgs.containsKey("srcs") && callArgs.get("srcs").kind() == Expression.Kind.LIST_EXPR) {
                         final ListExpression listExpr = (ListExpression) callArgs.get("srcs");
@@ -83,6 +88,7 @@ public class StarlarkWizard {
 
     public static class TargetMeta {
         private StringLiteral name = null;
+        private String kind = null;
         private List<Expression> srcs = new ArrayList<>();
         private List<Expression> deps = new ArrayList<>();
 
@@ -90,6 +96,14 @@ public class StarlarkWizard {
             return name;
         }
 
+        /**
+         * @return The name of the rule the target was declared with, or null if the rule isn't a
+         * plain function call, e.g. a macro loaded through a struct.
+         */
+        public String kind() {
+            return kind;
+        }
+
         public Iterable<Expression> srcs() {
             return srcs;
         }
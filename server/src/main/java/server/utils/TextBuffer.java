@@ -0,0 +1,198 @@
+package server.utils;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The text of an open document, kept as a rope so that applying an edit takes O(log n) time rather
+ * than copying the whole document. The rope is a balanced binary tree of short chunks, where every
+ * node knows how many characters it holds. Positions are converted to offsets by the document's
+ * {@link LineIndex}.
+ *
+ * A buffer is immutable; an edit returns a new buffer sharing every chunk the edit didn't touch.
+ * Offsets count UTF-16 code units, like Java strings.
+ */
+public final class TextBuffer {
+    // Chunks are split at this size, and neighbors are merged while they stay under it.
+    private static final int MAX_CHUNK = 1024;
+
+    private static final TextBuffer EMPTY = new TextBuffer(new Leaf(""));
+
+    private final Node root;
+    // The text is only put back together when asked for, and then remembered.
+    private volatile String text;
+
+    private TextBuffer(Node root) {
+        this.root = root;
+    }
+
+    public static TextBuffer of(String text) {
+        Preconditions.checkNotNull(text);
+        return text.isEmpty() ? EMPTY : new TextBuffer(build(text, 0, text.length()));
+    }
+
+    private static Node build(String text, int start, int end) {
+        if (end - start <= MAX_CHUNK) {
+            return new Leaf(text.substring(start, end));
+        }
+
+        final int middle = start + (end - start) / 2;
+        return new Branch(build(text, start, middle), build(text, middle, end));
+    }
+
+    /**
+     * @return The number of characters in the buffer.
+     */
+    public int length() {
+        return root.length;
+    }
+
+    /**
+     * @param start The offset of the first character to replace.
+     * @param end   The offset after the last character to replace.
+     * @param text  The text replacing the characters.
+     * @return A buffer in which the characters are replaced. This buffer is left as it was.
+     */
+    public TextBuffer replace(int start, int end, String text) {
+        Preconditions.checkNotNull(text);
+        Preconditions.checkPositionIndexes(start, end, root.length);
+        if (start == end && text.isEmpty()) {
+            return this;
+        }
+
+        final Node[] before = split(root, start);
+        final Node[] after = split(before[1], end - start);
+        Node updated = before[0];
+        if (!text.isEmpty()) {
+            updated = join(updated, build(text, 0, text.length()));
+        }
+        updated = join(updated, after[1]);
+        return updated.length == 0 ? EMPTY : new TextBuffer(updated);
+    }
+
+    @Override
+    public String toString() {
+        String result = text;
+        if (result == null) {
+            final StringBuilder builder = new StringBuilder(root.length);
+            append(root, builder);
+            result = builder.toString();
+            text = result;
+        }
+        return result;
+    }
+
+    private static void append(Node node, StringBuilder builder) {
+        while (node instanceof Branch) {
+            append(((Branch) node).left, builder);
+            node = ((Branch) node).right;
+        }
+        builder.append(((Leaf) node).text);
+    }
+
+    /**
+     * @return The characters before the offset and the characters from the offset on. Either may
+     * be an empty leaf.
+     */
+    private static Node[] split(Node node, int offset) {
+        if (offset == 0) {
+            return new Node[]{Leaf.EMPTY, node};
+        }
+        if (offset == node.length) {
+            return new Node[]{node, Leaf.EMPTY};
+        }
+        if (node instanceof Leaf) {
+            final String chunk = ((Leaf) node).text;
+            return new Node[]{new Leaf(chunk.substring(0, offset)), new Leaf(chunk.substring(offset))};
+        }
+
+        final Branch branch = (Branch) node;
+        if (offset < branch.left.length) {
+            final Node[] parts = split(branch.left, offset);
+            return new Node[]{parts[0], join(parts[1], branch.right)};
+        }
+        final Node[] parts = split(branch.right, offset - branch.left.length);
+        return new Node[]{join(branch.left, parts[0]), parts[1]};
+    }
+
+    /**
+     * Concatenates two balanced trees into one, in time proportional to the difference of their
+     * heights. This is the join of an AVL tree, with chunks in the leaves rather than the branches.
+     */
+    private static Node join(Node left, Node right) {
+        if (left.length == 0) {
+            return right;
+        }
+        if (right.length == 0) {
+            return left;
+        }
+        if (left.length + right.length <= MAX_CHUNK && left instanceof Leaf && right instanceof Leaf) {
+            return new Leaf(((Leaf) left).text + ((Leaf) right).text);
+        }
+
+        if (left.height > right.height + 1) {
+            final Branch branch = (Branch) left;
+            return balance(branch.left, join(branch.right, right));
+        }
+        if (right.height > left.height + 1) {
+            final Branch branch = (Branch) right;
+            return balance(join(left, branch.left), branch.right);
+        }
+        return new Branch(left, right);
+    }
+
+    /**
+     * Joins two trees whose heights differ by at most two, rotating once or twice if they differ
+     * by two.
+     */
+    private static Node balance(Node left, Node right) {
+        if (left.height > right.height + 1) {
+            final Branch branch = (Branch) left;
+            if (branch.left.height >= branch.right.height) {
+                return new Branch(branch.left, new Branch(branch.right, right));
+            }
+            final Branch inner = (Branch) branch.right;
+            return new Branch(new Branch(branch.left, inner.left), new Branch(inner.right, right));
+        }
+        if (right.height > left.height + 1) {
+            final Branch branch = (Branch) right;
+            if (branch.right.height >= branch.left.height) {
+                return new Branch(new Branch(left, branch.left), branch.right);
+            }
+            final Branch inner = (Branch) branch.left;
+            return new Branch(new Branch(left, inner.left), new Branch(inner.right, branch.right));
+        }
+        return new Branch(left, right);
+    }
+
+    private abstract static class Node {
+        final int length;
+        final int height;
+
+        Node(int length, int height) {
+            this.length = length;
+            this.height = height;
+        }
+    }
+
+    private static final class Leaf extends Node {
+        static final Leaf EMPTY = new Leaf("");
+
+        final String text;
+
+        Leaf(String text) {
+            super(text.length(), 0);
+            this.text = text;
+        }
+    }
+
+    private static final class Branch extends Node {
+        final Node left;
+        final Node right;
+
+        Branch(Node left, Node right) {
+            super(left.length + right.length, Math.max(left.height, right.height) + 1);
+            this.left = left;
+            this.right = right;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package server.workspace;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import net.starlark.java.syntax.Expression;
+import net.starlark.java.syntax.ParserInput;
+import net.starlark.java.syntax.StarlarkFile;
+import net.starlark.java.syntax.StringLiteral;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import server.bazel.cli.TargetListener;
+import server.bazel.tree.BuildTarget;
+import server.bazel.tree.SourceFile;
+import server.bazel.tree.SourceLocation;
+import server.utils.StarlarkWizard;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Stream;
+
+/**
+ * Builds an approximate index of the workspace without invoking bazel, by parsing every BUILD file
+ * with the Starlark parser. BUILD files are parsed in parallel on a fork-join pool.
+ *
+ * Only targets declared by plain rule calls with a literal name are found. Targets created by
+ * macros, and sources matched by glob() or computed expressions, are missed. In exchange the index
+ * is available in a fraction of the time a query takes, even while the build graph is broken.
+ */
+final class BuildFileScanner {
+    private static final Logger logger = LogManager.getLogger(BuildFileScanner.class);
+    private static final int FILES_PER_TASK = 16;
+    private static final String UNKNOWN_KIND = "unknown";
+    private static final List<String> LABEL_ATTRIBUTES = ImmutableList.of("srcs", "deps");
+    private static final ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    private BuildFileScanner() {
+    }
+
+    /**
+     * Parses every BUILD file in the workspace.
+     *
+     * @param root     The root of the workspace.
+     * @param listener Receives each build target and source file, in package order.
+     * @throws IOException If the workspace could not be walked.
+     */
+    static void scan(Path root, TargetListener listener) throws IOException {
+        final Stopwatch stopwatch = Stopwatch.createStarted();
+        final Map<Path, Path> buildFiles = new TreeMap<>();
+        new WorkspaceWalker(root) {
+            @Override
+            void visit(Path file, BasicFileAttributes attrs) {
+                addBuildFile(buildFiles, file);
+            }
+        }.walk();
+
+        final int count = scanFiles(root, new ArrayList<>(buildFiles.values()), listener);
+        logger.info(String.format("Scanned %d BUILD files with %d targets in %s.",
+                buildFiles.size(), count, stopwatch.stop()));
+    }
+
+    /**
+     * Parses the BUILD file of a single package, if it has one.
+     *
+     * @param root        The root of the workspace.
+     * @param packagePath The workspace relative path to the package, e.g. "path/to/pkg".
+     * @param listener    Receives each build target and source file.
+     * @throws IOException If the package directory could not be listed.
+     */
+    static void scanPackage(Path root, String packagePath, TargetListener listener) throws IOException {
+        final Path directory = root.resolve(packagePath);
+        final Map<Path, Path> buildFiles = new TreeMap<>();
+        if (Files.isDirectory(directory)) {
+            try (Stream<Path> files = Files.list(directory)) {
+                files.forEach(file -> addBuildFile(buildFiles, file));
+            }
+        }
+        scanFiles(root, new ArrayList<>(buildFiles.values()), listener);
+    }
+
+    /**
+     * Bazel prefers BUILD.bazel over BUILD when a package has both.
+     */
+    private static void addBuildFile(Map<Path, Path> buildFiles, Path file) {
+        if (!Workspace.isBuildFile(file)) {
+            return;
+        }
+
+        buildFiles.merge(file.getParent(), file, (existing, added) ->
+                added.getFileName().toString().equals("BUILD.bazel") ? added : existing);
+    }
+
+    /**
+     * Parses the given BUILD files in parallel, then hands their contents to the listener from the
+     * calling thread so it never needs to be thread safe.
+     *
+     * @return The number of build targets found.
+     */
+    private static int scanFiles(Path root, List<Path> buildFiles, TargetListener listener) {
+        if (buildFiles.isEmpty()) {
+            return 0;
+        }
+
+        int count = 0;
+        for (PackageScan scan : pool.invoke(new ScanTask(root, buildFiles, 0, buildFiles.size()))) {
+            scan.buildTargets.forEach(listener::onBuildTarget);
+            scan.sourceFiles.forEach(listener::onSourceFile);
+            count += scan.buildTargets.size();
+        }
+        return count;
+    }
+
+    /**
+     * Parses a single BUILD file. A file which can't be read or parsed produces an empty package
+     * rather than failing the whole scan.
+     */
+    static PackageScan scanFile(Path root, Path buildFile) {
+        final PackageScan scan = new PackageScan();
+        final String packagePath = Workspace.toPackagePath(root, buildFile.getParent());
+        final Path treePath = Paths.get("/" + packagePath);
+
+        final StarlarkFile file;
+        try {
+            final String content = new String(Files.readAllBytes(buildFile), StandardCharsets.UTF_8);
+            file = StarlarkFile.parse(ParserInput.fromString(content, buildFile.toString()));
+        } catch (IOException | Error | RuntimeException e) {
+            logger.warn(String.format("Unable to parse \"%s\": %s", buildFile, e));
+            return scan;
+        }
+
+        final Set<String> targetNames = new LinkedHashSet<>();
+        final Set<String> sourceNames = new LinkedHashSet<>();
+        for (StarlarkWizard.TargetMeta meta : new StarlarkWizard().locateTargets(file)) {
+            final String name = meta.name().getValue();
+            targetNames.add(name);
+
+            final ImmutableMap.Builder<String, List<String>> attributes = ImmutableMap.builder();
+            final List<String> ruleInputs = new ArrayList<>();
+            for (String attribute : LABEL_ATTRIBUTES) {
+                final List<String> values = stringValues(
+                        attribute.equals("srcs") ? meta.srcs() : meta.deps());
+                if (values.isEmpty()) {
+                    continue;
+                }
+
+                attributes.put(attribute, values);
+                for (String value : values) {
+                    ruleInputs.add(toAbsoluteLabel(packagePath, value));
+                    if (attribute.equals("srcs")) {
+                        toLocalFileName(value).ifPresent(sourceNames::add);
+                    }
+                }
+            }
+
+            final SourceLocation location = new SourceLocation(buildFile,
+                    meta.name().getStartLocation().line(), meta.name().getStartLocation().column());
+            scan.buildTargets.add(new BuildTarget(treePath, name,
+                    meta.kind() != null ? meta.kind() : UNKNOWN_KIND,
+                    location, attributes.build(), Collections.unmodifiableList(ruleInputs)));
+        }
+
+        // Bazel only reports source files which exist, and names which refer to targets aren't files.
+        final Path directory = buildFile.getParent();
+        for (String sourceName : sourceNames) {
+            if (!targetNames.contains(sourceName) && Files.isRegularFile(directory.resolve(sourceName))) {
+                scan.sourceFiles.add(new SourceFile(sourceName, treePath));
+            }
+        }
+        return scan;
+    }
+
+    private static List<String> stringValues(Iterable<Expression> expressions) {
+        final List<String> values = new ArrayList<>();
+        for (Expression expression : expressions) {
+            if (expression.kind() == Expression.Kind.STRING_LITERAL) {
+                values.add(((StringLiteral) expression).getValue());
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Resolves a label relative to the package it was written in, e.g. ":lib" in "main" becomes
+     * "//main:lib" and "//tools" becomes "//tools:tools". External labels are kept as written.
+     */
+    static String toAbsoluteLabel(String packagePath, String label) {
+        if (label.startsWith("@")) {
+            return label;
+        } else if (label.startsWith("//")) {
+            if (label.indexOf(':') >= 0) {
+                return label;
+            }
+
+            final String pkg = label.substring(2);
+            return String.format("%s:%s", label, pkg.substring(pkg.lastIndexOf('/') + 1));
+        } else if (label.startsWith(":")) {
+            return String.format("//%s%s", packagePath, label);
+        }
+        return String.format("//%s:%s", packagePath, label);
+    }
+
+    /**
+     * @return The file name a label refers to within the current package, if it refers to one.
+     */
+    private static Optional<String> toLocalFileName(String label) {
+        if (label.startsWith("@") || label.startsWith("//")) {
+            return Optional.empty();
+        }
+
+        final String name = label.startsWith(":") ? label.substring(1) : label;
+        return name.isEmpty() ? Optional.empty() : Optional.of(name);
+    }
+
+    /**
+     * The targets and source files declared by a single BUILD file.
+     */
+    static class PackageScan {
+        final List<BuildTarget> buildTargets = new ArrayList<>();
+        final List<SourceFile> sourceFiles = new ArrayList<>();
+    }
+
+    /**
+     * Splits a range of BUILD files in half until it is small enough to parse directly. Results
+     * are concatenated in the order of the files.
+     */
+    private static class ScanTask extends RecursiveTask<List<PackageScan>> {
+        private static final long serialVersionUID = 1L;
+
+        private final Path root;
+        private final List<Path> files;
+        private final int start;
+        private final int end;
+
+        ScanTask(Path root, List<Path> files, int start, int end) {
+            this.root = root;
+            this.files = files;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected List<PackageScan> compute() {
+            if (end - start <= FILES_PER_TASK) {
+                final List<PackageScan> scans = new ArrayList<>(end - start);
+                for (int i = start; i < end; i++) {
+                    scans.add(scanFile(root, files.get(i)));
+                }
+                return scans;
+            }
+
+            final int middle = (start + end) >>> 1;
+            final ScanTask left = new ScanTask(root, files, start, middle);
+            left.fork();
+            final List<PackageScan> scans = new ScanTask(root, files, middle, end).compute();
+            final List<PackageScan> leftScans = left.join();
+            leftScans.addAll(scans);
+            return leftScans;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package server.workspace;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A cheap fingerprint of the files that determine the contents of the workspace tree. Every BUILD
+ * file is stamped with its modification time and size, while WORKSPACE and .bzl files are folded
+ * into a single digest since a change to any of them may affect every package.
+ */
+final class BuildFileStamps {
+    private final long workspaceDigest;
+    private final Map<String, Long> packageStamps;
+
+    BuildFileStamps(long workspaceDigest, Map<String, Long> packageStamps) {
+        this.workspaceDigest = workspaceDigest;
+        this.packageStamps = packageStamps;
+    }
+
+    /**
+     * Walks the workspace and stamps every BUILD, WORKSPACE and .bzl file. Hidden directories, the
+     * bazel-* convenience symlinks and anything listed in .bazelignore are skipped.
+     *
+     * @param root The root of the workspace.
+     * @return The stamps of the workspace as it is on disk.
+     * @throws IOException If the workspace could not be walked.
+     */
+    static BuildFileStamps scan(Path root) throws IOException {
+        final Map<String, Long> packageStamps = new TreeMap<>();
+        final Map<String, Long> workspaceStamps = new TreeMap<>();
+
+        new WorkspaceWalker(root) {
+            @Override
+            void visit(Path file, BasicFileAttributes attrs) {
+                final long stamp = 31 * attrs.lastModifiedTime().toMillis() + attrs.size();
+                if (Workspace.isBuildFile(file)) {
+                    // A package may hold both a BUILD and a BUILD.bazel file, either changing counts.
+                    packageStamps.merge(Workspace.toPackagePath(root, file.getParent()), stamp, (a, b) -> 31 * a + b);
+                } else if (Workspace.requiresFullSync(file)) {
+                    workspaceStamps.put(root.relativize(file).toString(), stamp);
+                }
+            }
+        }.walk();
+
+        final Hasher hasher = Hashing.murmur3_128().newHasher();
+        workspaceStamps.forEach((path, stamp) -> hasher.putString(path, StandardCharsets.UTF_8).putLong(stamp));
+        return new BuildFileStamps(hasher.hash().asLong(), ImmutableMap.copyOf(packageStamps));
+    }
+
+    /**
+     * @param other The stamps to compare against.
+     * @return Whether the WORKSPACE and .bzl files are unchanged between the two stamps.
+     */
+    boolean hasSameWorkspaceFiles(BuildFileStamps other) {
+        return workspaceDigest == other.workspaceDigest;
+    }
+
+    /**
+     * @param other The older stamps to compare against.
+     * @return The packages whose BUILD files were added, removed or modified since the other stamps.
+     */
+    Set<String> changedPackagesSince(BuildFileStamps other) {
+        final Set<String> changed = new HashSet<>(addedOrRemovedPackagesSince(other));
+        for (Map.Entry<String, Long> entry : packageStamps.entrySet()) {
+            final Long previous = other.packageStamps.get(entry.getKey());
+            if (previous != null && !previous.equals(entry.getValue())) {
+                changed.add(entry.getKey());
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @param other The older stamps to compare against.
+     * @return The packages whose BUILD files were added or removed since the other stamps.
+     */
+    Set<String> addedOrRemovedPackagesSince(BuildFileStamps other) {
+        return Sets.symmetricDifference(packageStamps.keySet(), other.packageStamps.keySet()).immutableCopy();
+    }
+
+    long getWorkspaceDigest() {
+        return workspaceDigest;
+    }
+
+    Map<String, Long> getPackageStamps() {
+        return packageStamps;
+    }
+}
@@ -27,15 +27,21 @@ public class ExtensionConfig {
         private Buildifier buildifier;
         private Java java;
         private SyncMode syncMode;
+        private SyncBackend syncBackend;
+        private boolean shardedSync;
         private boolean useCodelense;
         private boolean showCommandPopups;
+        private Integer fileCacheMegabytes;
 
         public Bazel() {
             buildifier = null;
             java = null;
             syncMode = null;
+            syncBackend = null;
+            shardedSync = false;
             useCodelense = false;
             showCommandPopups = false;
+            fileCacheMegabytes = null;
         }
 
         public Buildifier getBuildifier() {
@@ -62,6 +68,22 @@ public class ExtensionConfig {
             this.syncMode = syncMode;
         }
 
+        public SyncBackend getSyncBackend() {
+            return syncBackend;
+        }
+
+        public void setSyncBackend(SyncBackend syncBackend) {
+            this.syncBackend = syncBackend;
+        }
+
+        public boolean shardedSync() {
+            return shardedSync;
+        }
+
+        public void setShardedSync(boolean shardedSync) {
+            this.shardedSync = shardedSync;
+        }
+
         public boolean useCodelense() {
             return useCodelense;
         }
@@ -77,6 +99,17 @@ public class ExtensionConfig {
         public void setShowCommandPopups(boolean showCommandPopups) {
             this.showCommandPopups = showCommandPopups;
         }
+
+        /**
+         * @return How many megabytes of closed files to keep in memory, or null if not configured.
+         */
+        public Integer getFileCacheMegabytes() {
+            return fileCacheMegabytes;
+        }
+
+        public void setFileCacheMegabytes(Integer fileCacheMegabytes) {
+            this.fileCacheMegabytes = fileCacheMegabytes;
+        }
     }
 
     /**
@@ -85,6 +118,16 @@ public class ExtensionConfig {
     public enum SyncMode {
         showSyncPopup,
         commandOnly,
+        incremental,
+    }
+
+    /**
+     * Controls how the server should read the workspace from bazel during a sync.
+     */
+    public enum SyncBackend {
+        labelKind,
+        streamedProto,
+        buildFileScanner,
     }
 
     /**
@@ -0,0 +1,307 @@
+package server.workspace;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import server.bazel.cli.TargetListener;
+import server.bazel.tree.BuildTarget;
+import server.bazel.tree.SourceFile;
+import server.bazel.tree.SourceLocation;
+import server.bazel.tree.WorkspaceTree;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Persists the workspace tree to a compact binary snapshot so the server can start from the
+ * previous session's index instead of waiting on a full sync. Every string is written once to a
+ * string table and referenced by index, which keeps the snapshot small and lets the loaded targets
+ * share string instances.
+ *
+ * The snapshot records the sync backend it was built with. Backends differ in what they capture,
+ * e.g. only streamed_proto records locations and rule inputs, so a snapshot from another backend is
+ * treated as missing rather than loaded.
+ */
+final class IndexCache {
+    private static final Logger logger = LogManager.getLogger(IndexCache.class);
+    private static final int MAGIC = 0x425A4C53;
+    private static final int VERSION = 2;
+    private static final int NONE = -1;
+
+    private final Path cacheFile;
+
+    IndexCache(Path cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * Creates a cache for the given workspace. Snapshots are kept in the user's cache directory
+     * under a name derived from the workspace's path, so that every workspace has its own.
+     *
+     * @param workspaceRoot The root of the workspace.
+     * @return The cache of the workspace.
+     */
+    static IndexCache forWorkspace(Path workspaceRoot) {
+        final String cacheHome = Optional.ofNullable(System.getenv("XDG_CACHE_HOME"))
+                .orElse(Paths.get(System.getProperty("user.home"), ".cache").toString());
+        final String name = Hashing.sha256()
+                .hashString(workspaceRoot.toAbsolutePath().toString(), StandardCharsets.UTF_8)
+                .toString();
+        return new IndexCache(Paths.get(cacheHome, "bazel-ls", name + ".index"));
+    }
+
+    Path getCacheFile() {
+        return cacheFile;
+    }
+
+    /**
+     * Writes the tree and the stamps it was synced against to the cache. The snapshot is written
+     * to a temporary file first so a crash never leaves a partial snapshot behind.
+     *
+     * @param tree    The tree to persist.
+     * @param stamps  The stamps of the files the tree was synced against.
+     * @param backend The backend the tree was synced with.
+     * @throws IOException If the snapshot could not be written.
+     */
+    void save(WorkspaceTree tree, BuildFileStamps stamps, ExtensionConfig.SyncBackend backend) throws IOException {
+        final Encoder encoder = new Encoder(backend);
+        encoder.writeStamps(stamps);
+        encoder.writeTree(tree);
+
+        Files.createDirectories(cacheFile.getParent());
+        final Path tempFile = Files.createTempFile(cacheFile.getParent(), cacheFile.getFileName().toString(), ".tmp");
+        try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(tempFile))) {
+            encoder.writeTo(stream);
+        }
+        Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info(String.format("Saved workspace index to \"%s\".", cacheFile));
+    }
+
+    /**
+     * Loads the snapshot from the cache. The file is memory mapped and decoded in a single pass.
+     *
+     * @param backend  The backend the workspace is synced with.
+     * @param listener Receives each cached build target and source file.
+     * @return The stamps of the files the snapshot was synced against, or empty if there is no
+     * usable snapshot.
+     */
+    Optional<BuildFileStamps> load(ExtensionConfig.SyncBackend backend, TargetListener listener) {
+        if (!Files.isRegularFile(cacheFile)) {
+            return Optional.empty();
+        }
+
+        try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                logger.info("Ignoring workspace index written by a different version of the server.");
+                return Optional.empty();
+            }
+
+            final byte[] encodedBackend = new byte[buffer.getInt()];
+            buffer.get(encodedBackend);
+            final String cachedBackend = new String(encodedBackend, StandardCharsets.UTF_8);
+            if (!cachedBackend.equals(backend.name())) {
+                logger.info(String.format("Ignoring workspace index synced with the %s backend.", cachedBackend));
+                return Optional.empty();
+            }
+
+            final Decoder decoder = new Decoder(buffer);
+            final BuildFileStamps stamps = decoder.readStamps();
+            decoder.readTargets(listener);
+            return Optional.of(stamps);
+        } catch (IOException | RuntimeException e) {
+            logger.warn(String.format("Unable to load workspace index from \"%s\": %s", cacheFile, e));
+            return Optional.empty();
+        }
+    }
+
+    private static class Encoder {
+        private final ExtensionConfig.SyncBackend backend;
+        private final Map<String, Integer> strings = new LinkedHashMap<>();
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream body = new DataOutputStream(bytes);
+
+        Encoder(ExtensionConfig.SyncBackend backend) {
+            this.backend = backend;
+        }
+
+        void writeStamps(BuildFileStamps stamps) throws IOException {
+            body.writeLong(stamps.getWorkspaceDigest());
+            body.writeInt(stamps.getPackageStamps().size());
+            for (Map.Entry<String, Long> entry : stamps.getPackageStamps().entrySet()) {
+                writeString(entry.getKey());
+                body.writeLong(entry.getValue());
+            }
+        }
+
+        void writeTree(WorkspaceTree tree) throws IOException {
+            final List<BuildTarget> buildTargets = new ArrayList<>();
+            final List<SourceFile> sourceFiles = new ArrayList<>();
+            collect(tree.getRoot(), buildTargets, sourceFiles);
+
+            body.writeInt(buildTargets.size());
+            for (BuildTarget target : buildTargets) {
+                writeString(target.getPath().toString());
+                writeString(target.getLabel());
+                writeString(target.getKind());
+
+                final Optional<SourceLocation> location = target.getLocation();
+                if (location.isPresent()) {
+                    writeString(location.get().getFile().toString());
+                    body.writeInt(location.get().getLine());
+                    body.writeInt(location.get().getColumn());
+                } else {
+                    body.writeInt(NONE);
+                }
+
+                body.writeInt(target.getAttributes().size());
+                for (Map.Entry<String, List<String>> attribute : target.getAttributes().entrySet()) {
+                    writeString(attribute.getKey());
+                    writeStrings(attribute.getValue());
+                }
+                writeStrings(target.getRuleInputs());
+            }
+
+            body.writeInt(sourceFiles.size());
+            for (SourceFile sourceFile : sourceFiles) {
+                writeString(sourceFile.getFileNameWithExtension());
+                writeString(sourceFile.getPath().toString());
+            }
+        }
+
+        void writeTo(OutputStream stream) throws IOException {
+            final DataOutputStream output = new DataOutputStream(stream);
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            final byte[] encodedBackend = backend.name().getBytes(StandardCharsets.UTF_8);
+            output.writeInt(encodedBackend.length);
+            output.write(encodedBackend);
+            output.writeInt(strings.size());
+            for (String string : strings.keySet()) {
+                final byte[] encoded = string.getBytes(StandardCharsets.UTF_8);
+                output.writeInt(encoded.length);
+                output.write(encoded);
+            }
+            body.flush();
+            bytes.writeTo(output);
+            output.flush();
+        }
+
+        private void writeStrings(List<String> values) throws IOException {
+            body.writeInt(values.size());
+            for (String value : values) {
+                writeString(value);
+            }
+        }
+
+        private void writeString(String string) throws IOException {
+            Integer index = strings.get(string);
+            if (index == null) {
+                index = strings.size();
+                strings.put(string, index);
+            }
+            body.writeInt(index);
+        }
+
+        private static void collect(WorkspaceTree.Node node, List<BuildTarget> buildTargets, List<SourceFile> sourceFiles) {
+            buildTargets.addAll(node.getValue().getBuildTargets());
+            sourceFiles.addAll(node.getValue().getSourceFiles());
+            for (WorkspaceTree.Node child : node.getChildren()) {
+                collect(child, buildTargets, sourceFiles);
+            }
+        }
+    }
+
+    private static class Decoder {
+        private final ByteBuffer buffer;
+        private final String[] strings;
+
+        Decoder(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.strings = new String[buffer.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                final byte[] encoded = new byte[buffer.getInt()];
+                buffer.get(encoded);
+                strings[i] = new String(encoded, StandardCharsets.UTF_8);
+            }
+        }
+
+        BuildFileStamps readStamps() {
+            final long workspaceDigest = buffer.getLong();
+            final int count = buffer.getInt();
+            final Map<String, Long> packageStamps = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                packageStamps.put(readString(), buffer.getLong());
+            }
+            return new BuildFileStamps(workspaceDigest, packageStamps);
+        }
+
+        void readTargets(TargetListener listener) {
+            final int targetCount = buffer.getInt();
+            for (int i = 0; i < targetCount; i++) {
+                final Path path = Paths.get(readString());
+                final String label = readString();
+                final String kind = readString();
+
+                SourceLocation location = null;
+                final int locationFile = buffer.getInt();
+                if (locationFile != NONE) {
+                    location = new SourceLocation(Paths.get(stringAt(locationFile)), buffer.getInt(), buffer.getInt());
+                }
+
+                final int attributeCount = buffer.getInt();
+                final ImmutableMap.Builder<String, List<String>> attributes = ImmutableMap.builder();
+                for (int j = 0; j < attributeCount; j++) {
+                    attributes.put(readString(), readStrings());
+                }
+
+                listener.onBuildTarget(new BuildTarget(path, label, kind, location, attributes.build(), readStrings()));
+            }
+
+            final int sourceCount = buffer.getInt();
+            for (int i = 0; i < sourceCount; i++) {
+                final String fileName = readString();
+                listener.onSourceFile(new SourceFile(fileName, Paths.get(readString())));
+            }
+        }
+
+        private List<String> readStrings() {
+            final int count = buffer.getInt();
+            final ImmutableList.Builder<String> values = ImmutableList.builder();
+            for (int i = 0; i < count; i++) {
+                values.add(readString());
+            }
+            return values.build();
+        }
+
+        private String readString() {
+            return stringAt(buffer.getInt());
+        }
+
+        private String stringAt(int index) {
+            if (index < 0 || index >= strings.length) {
+                throw new IllegalArgumentException("Corrupt string reference " + index);
+            }
+            return strings[index];
+        }
+    }
+}
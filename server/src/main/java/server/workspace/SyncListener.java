@@ -0,0 +1,27 @@
+package server.workspace;
+
+import server.bazel.tree.WorkspaceSnapshot;
+
+/**
+ * Listens to the progress of workspace syncs. Callbacks are invoked from whichever thread is
+ * running the sync, so implementations should return quickly.
+ */
+public interface SyncListener {
+    /**
+     * Invoked periodically while a tree is being built.
+     *
+     * @param packages     The number of packages that have received build targets so far.
+     * @param buildTargets The number of build targets indexed so far.
+     * @param sourceFiles  The number of source files indexed so far.
+     */
+    default void onSyncProgress(int packages, int buildTargets, int sourceFiles) {
+    }
+
+    /**
+     * Invoked after a new snapshot has been published.
+     *
+     * @param snapshot The snapshot that was published.
+     */
+    default void onSnapshotPublished(WorkspaceSnapshot snapshot) {
+    }
+}
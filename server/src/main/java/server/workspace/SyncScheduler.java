@@ -0,0 +1,349 @@
+package server.workspace;
+
+import com.google.common.base.Preconditions;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import server.bazel.cli.BazelServerException;
+import server.utils.Observatory;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules workspace syncs. Requests which arrive within the debounce window are coalesced into
+ * a single sync, at most one sync runs at a time, and a pending full sync cancels any sync that is
+ * still in flight since its results would be replaced anyway. The initial load of the workspace
+ * runs on the same thread, so it never overlaps a sync either.
+ */
+public class SyncScheduler {
+    private static final Logger logger = LogManager.getLogger(SyncScheduler.class);
+    private static final long DEFAULT_DEBOUNCE_MILLIS = 500;
+    private static final long DEFAULT_MAX_DELAY_MILLIS = 5000;
+    private static final SyncScheduler instance = new SyncScheduler(
+            Workspace.getInstance(), DEFAULT_DEBOUNCE_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+
+    public static SyncScheduler getInstance() {
+        return instance;
+    }
+
+    public enum State {
+        idle,
+        pending,
+        syncing,
+    }
+
+    /**
+     * Listens to syncs run by the scheduler. Callbacks are invoked from the sync thread.
+     */
+    public interface Listener {
+        default void onSyncStarted(boolean fullSync) {
+        }
+
+        default void onSyncCompleted(boolean fullSync) {
+        }
+
+        default void onSyncFailed(boolean fullSync, BazelServerException e) {
+        }
+
+        default void onSyncCancelled(boolean fullSync) {
+        }
+    }
+
+    /**
+     * The state of the scheduler as reported to the client.
+     */
+    public static class Status {
+        private final State state;
+        private final long generation;
+        private final int pendingFiles;
+        private final String lastError;
+
+        Status(State state, long generation, int pendingFiles, String lastError) {
+            this.state = state;
+            this.generation = generation;
+            this.pendingFiles = pendingFiles;
+            this.lastError = lastError;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public long getGeneration() {
+            return generation;
+        }
+
+        public int getPendingFiles() {
+            return pendingFiles;
+        }
+
+        public String getLastError() {
+            return lastError;
+        }
+    }
+
+    private final Workspace workspace;
+    private final long debounceMillis;
+    private final long maxDelayMillis;
+    private final ScheduledExecutorService timer;
+    private final ExecutorService worker;
+    private final Observatory<Listener> listeners;
+
+    // The following fields are guarded by this.
+    private boolean pendingFullSync;
+    private final Set<Path> pendingFiles;
+    private ScheduledFuture<?> flushTimer;
+    private long firstRequestNanos;
+    private boolean drainQueued;
+    private Thread syncThread;
+    private String lastError;
+
+    /**
+     * @param workspace      The workspace to sync.
+     * @param debounceMillis How long to wait after the latest request before syncing.
+     * @param maxDelayMillis The longest a request may be held back by later requests.
+     */
+    SyncScheduler(Workspace workspace, long debounceMillis, long maxDelayMillis) {
+        Preconditions.checkNotNull(workspace);
+        Preconditions.checkArgument(debounceMillis >= 0 && maxDelayMillis >= debounceMillis);
+        this.workspace = workspace;
+        this.debounceMillis = debounceMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.timer = Executors.newSingleThreadScheduledExecutor(daemonThreads("sync-debounce"));
+        this.worker = Executors.newSingleThreadExecutor(daemonThreads("workspace-sync"));
+        this.listeners = new Observatory<>();
+        this.pendingFullSync = false;
+        this.pendingFiles = new LinkedHashSet<>();
+        this.flushTimer = null;
+        this.firstRequestNanos = 0;
+        this.drainQueued = false;
+        this.syncThread = null;
+        this.lastError = null;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.addListener(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.removeListener(listener);
+    }
+
+    /**
+     * Requests a full sync of the workspace. Any pending incremental sync is folded into it.
+     */
+    public synchronized void requestFullSync() {
+        pendingFullSync = true;
+        pendingFiles.clear();
+        scheduleFlush();
+    }
+
+    /**
+     * Requests an incremental sync of the packages affected by the given files.
+     *
+     * @param changedFiles The files which have changed on disk.
+     */
+    public synchronized void requestIncrementalSync(Iterable<Path> changedFiles) {
+        Preconditions.checkNotNull(changedFiles);
+        if (!changedFiles.iterator().hasNext()) {
+            return;
+        }
+
+        if (!pendingFullSync) {
+            changedFiles.forEach(pendingFiles::add);
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * Loads the workspace for a freshly started server. The load runs on the sync thread ahead of
+     * any sync requested after it, and a full sync requested in the meantime cancels it like any
+     * other sync in flight. The scheduler's listeners aren't notified, the caller reports the load.
+     *
+     * @param progress Notified of the load's progress, from the sync thread. It is only attached
+     *                 to the workspace while the load runs, so it never hears about later syncs.
+     * @return Completes once the workspace is loaded, or exceptionally with the failure. It is
+     * cancelled if a full sync superseded the load.
+     */
+    public CompletableFuture<Void> requestInitialLoad(SyncListener progress) {
+        Preconditions.checkNotNull(progress);
+        final CompletableFuture<Void> loaded = new CompletableFuture<>();
+        worker.submit(() -> load(progress, loaded));
+        return loaded;
+    }
+
+    public synchronized Status getStatus() {
+        final State state;
+        if (syncThread != null) {
+            state = State.syncing;
+        } else if (flushTimer != null || drainQueued) {
+            state = State.pending;
+        } else {
+            state = State.idle;
+        }
+        return new Status(state, workspace.getSnapshot().getGeneration(), pendingFiles.size(), lastError);
+    }
+
+    /**
+     * Cancels any in flight sync and stops accepting work.
+     */
+    public void shutdown() {
+        timer.shutdownNow();
+        worker.shutdownNow();
+    }
+
+    /**
+     * Restarts the debounce window. The window is never extended past the maximum delay measured
+     * from the first request of the batch, so a steady stream of requests cannot starve the sync.
+     */
+    private void scheduleFlush() {
+        final long now = System.nanoTime();
+        if (flushTimer == null) {
+            firstRequestNanos = now;
+        } else {
+            flushTimer.cancel(false);
+        }
+
+        final long waitedMillis = TimeUnit.NANOSECONDS.toMillis(now - firstRequestNanos);
+        final long delay = Math.max(0, Math.min(debounceMillis, maxDelayMillis - waitedMillis));
+        flushTimer = timer.schedule(this::flush, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void flush() {
+        flushTimer = null;
+
+        if (syncThread != null && pendingFullSync) {
+            logger.info("Cancelling the in flight sync since a full sync supersedes it.");
+            syncThread.interrupt();
+        }
+
+        // At most one drain is ever queued behind the running sync. It picks up every request
+        // made up to the moment it starts.
+        if (!drainQueued) {
+            drainQueued = true;
+            worker.submit(this::drain);
+        }
+    }
+
+    private void drain() {
+        final boolean fullSync;
+        final List<Path> changedFiles;
+        synchronized (this) {
+            drainQueued = false;
+            fullSync = pendingFullSync;
+            changedFiles = new ArrayList<>(pendingFiles);
+            pendingFullSync = false;
+            pendingFiles.clear();
+
+            if (!fullSync && changedFiles.isEmpty()) {
+                return;
+            }
+            syncThread = Thread.currentThread();
+        }
+
+        logger.info(fullSync
+                ? "Starting a full sync."
+                : String.format("Starting an incremental sync of %d changed files.", changedFiles.size()));
+        listeners.notifyListeners(listener -> listener.onSyncStarted(fullSync));
+
+        try {
+            if (fullSync) {
+                workspace.syncWorkspace();
+            } else {
+                workspace.syncChangedFiles(changedFiles);
+            }
+
+            synchronized (this) {
+                lastError = null;
+            }
+            listeners.notifyListeners(listener -> listener.onSyncCompleted(fullSync));
+        } catch (BazelServerException e) {
+            if (Thread.currentThread().isInterrupted()) {
+                logger.info("The sync was cancelled.");
+                listeners.notifyListeners(listener -> listener.onSyncCancelled(fullSync));
+            } else {
+                synchronized (this) {
+                    lastError = e.getMessage();
+                }
+                listeners.notifyListeners(listener -> listener.onSyncFailed(fullSync, e));
+            }
+        } catch (RuntimeException e) {
+            logger.error("Unexpected failure while syncing the workspace", e);
+            // Listeners still need to hear the sync ended, e.g. to close its progress notification.
+            final BazelServerException failure = new BazelServerException(
+                    String.format("Unexpected failure while syncing the workspace: %s", e));
+            synchronized (this) {
+                lastError = failure.getMessage();
+            }
+            listeners.notifyListeners(listener -> listener.onSyncFailed(fullSync, failure));
+        } finally {
+            synchronized (this) {
+                syncThread = null;
+
+                // An interrupt may have arrived after the sync had already finished.
+                Thread.interrupted();
+            }
+        }
+    }
+
+    private void load(SyncListener progress, CompletableFuture<Void> loaded) {
+        synchronized (this) {
+            syncThread = Thread.currentThread();
+        }
+
+        logger.info("Starting the initial load of the workspace.");
+        Throwable failure = null;
+        boolean cancelled = false;
+        // Every sync runs on this thread, so while the listener is attached it only hears the load.
+        workspace.addSyncListener(progress);
+        try {
+            workspace.loadWorkspace();
+        } catch (BazelServerException e) {
+            cancelled = Thread.currentThread().isInterrupted();
+            failure = e;
+        } catch (RuntimeException e) {
+            logger.error("Unexpected failure while loading the workspace", e);
+            failure = e;
+        } finally {
+            workspace.removeSyncListener(progress);
+            synchronized (this) {
+                syncThread = null;
+                if (failure != null && !cancelled) {
+                    lastError = failure.getMessage();
+                }
+
+                // An interrupt may have arrived after the load had already finished.
+                Thread.interrupted();
+            }
+        }
+
+        // Completed once the load no longer counts as in flight, so callbacks run on this thread
+        // can't be interrupted by a full sync.
+        if (cancelled) {
+            logger.info("The initial load was cancelled.");
+            loaded.cancel(false);
+        } else if (failure != null) {
+            loaded.completeExceptionally(failure);
+        } else {
+            loaded.complete(null);
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            final Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -1,39 +1,112 @@
 package server.workspace;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import server.bazel.cli.Bazel;
 import server.bazel.cli.BazelServerException;
+import server.bazel.cli.QueryError;
+import server.bazel.cli.TargetListener;
 import server.bazel.tree.BuildTarget;
+import server.bazel.tree.LabelIndex;
+import server.bazel.tree.LocationIndex;
 import server.bazel.tree.Package;
 import server.bazel.tree.SourceFile;
+import server.bazel.tree.SourceIndex;
+import server.bazel.tree.WorkspaceSnapshot;
 import server.bazel.tree.WorkspaceTree;
+import server.utils.Nullability;
+import server.utils.Observatory;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 
 public class Workspace {
     private static final Logger logger = LogManager.getLogger(Workspace.class);
+    // In the order bazel prefers them when a package has both.
+    private static final List<String> BUILD_FILE_NAMES = Arrays.asList("BUILD.bazel", "BUILD");
+    private static final List<String> WORKSPACE_FILE_NAMES = Arrays.asList("WORKSPACE", "WORKSPACE.bazel");
+    private static final int MAX_STALE_PACKAGES = 50;
+    private static final int PROGRESS_INTERVAL = 1000;
+
+    // The bazel server runs one command at a time, so shard queries mostly queue up behind each
+    // other. A couple in flight is enough to overlap one shard's parsing with the next one's query.
+    private static final int MAX_SHARD_CONCURRENCY = 2;
     private static final Workspace instance = new Workspace();
 
-    private ExtensionConfig extensionConfig;
-    private ProjectFolder rootFolder;
-    private Set<ProjectFolder> workspaceFolders;
-    private WorkspaceTree workspaceTree;
+    // Set from the LSP thread, read from sync and request threads.
+    private volatile ExtensionConfig extensionConfig;
+    private volatile ProjectFolder rootFolder;
+    private final Set<ProjectFolder> workspaceFolders;
+    private final AtomicReference<WorkspaceSnapshot> snapshot;
+    private volatile IndexCache indexCache;
+    private final Observatory<SyncListener> syncListeners;
+    private final AtomicReference<List<QueryError>> queryErrors;
+
+    // One set per running full sync, collecting the packages spliced in by incremental syncs in the
+    // meantime. Publishing the full sync's tree replaces them, so they are synced again afterwards.
+    private final List<Set<String>> splicedDuringFullSyncs;
 
     private Workspace() {
         extensionConfig = null;
         rootFolder = null;
-        workspaceFolders = new HashSet<>();
-        workspaceTree = initialWsTree();
+        workspaceFolders = new CopyOnWriteArraySet<>();
+        snapshot = new AtomicReference<>(WorkspaceSnapshot.initial(initialWsTree()));
+        indexCache = null;
+        syncListeners = new Observatory<>();
+        queryErrors = new AtomicReference<>(Collections.emptyList());
+        splicedDuringFullSyncs = new CopyOnWriteArrayList<>();
     }
 
     public static Workspace getInstance() {
         return instance;
     }
 
+    /**
+     * @return The tree of the most recently published snapshot. It is never modified once
+     * published, so callers should fetch it once per request for a consistent view.
+     */
     public WorkspaceTree getWorkspaceTree() {
-        return workspaceTree;
+        return snapshot.get().getTree();
+    }
+
+    /**
+     * @return The most recently published snapshot of the workspace.
+     */
+    public WorkspaceSnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * @return Whether a snapshot has been published since the server started. Until then the
+     * workspace tree is empty, and providers should avoid reporting missing targets.
+     */
+    public boolean isIndexed() {
+        return snapshot.get().getGeneration() > 0;
+    }
+
+    /**
+     * @return The errors reported by bazel during the most recent sharded sync, minus those in
+     * packages which have since synced successfully.
+     */
+    public List<QueryError> getQueryErrors() {
+        return queryErrors.get();
+    }
+
+    public void addSyncListener(SyncListener listener) {
+        syncListeners.addListener(listener);
+    }
+
+    public void removeSyncListener(SyncListener listener) {
+        syncListeners.removeListener(listener);
     }
 
     public ExtensionConfig getExtensionConfig() {
@@ -71,65 +144,557 @@ public class Workspace {
     }
 
     /**
-     * Syncs the workspace tree with all files in memory.
+     * Loads the workspace tree for a freshly started server. The index persisted by the previous
+     * session is loaded first, then only the packages whose BUILD files changed since are
+     * re-queried. A full sync is performed when there is no usable index, when a WORKSPACE or .bzl
+     * file changed, or when too many packages are stale for re-querying them one by one to pay off.
+     *
+     * @throws BazelServerException If something fails.
+     */
+    public void loadWorkspace() throws BazelServerException {
+        Preconditions.checkNotNull(rootFolder);
+        final Stopwatch stopwatch = Stopwatch.createStarted();
+        if (indexCache == null) {
+            indexCache = IndexCache.forWorkspace(rootFolder.getPath());
+        }
+
+        final TreeBuilder builder = new TreeBuilder(initialWsTree());
+        final Set<String> splicedMeanwhile = beginFullSync();
+        final Optional<BuildFileStamps> cachedStamps;
+        try {
+            cachedStamps = indexCache.load(getSyncBackend(), builder);
+            if (cachedStamps.isPresent()) {
+                publish(builder.tree);
+            }
+        } finally {
+            endFullSync(splicedMeanwhile);
+        }
+        if (!cachedStamps.isPresent()) {
+            logger.info("No workspace index was found, performing a full sync.");
+            syncWorkspace();
+            return;
+        }
+
+        logger.info(String.format("Loaded workspace index with %d targets and %d source files in %s.",
+                builder.buildTargetCount, builder.sourceFileCount, stopwatch));
+
+        final BuildFileStamps stamps = scanStamps();
+        if (stamps == null || !stamps.hasSameWorkspaceFiles(cachedStamps.get())) {
+            logger.info("The workspace index is out of date, performing a full sync.");
+            syncWorkspace();
+            return;
+        }
+
+        // Adding or removing a BUILD file moves source files in or out of the enclosing package.
+        final Set<String> stalePackages = new LinkedHashSet<>(stamps.changedPackagesSince(cachedStamps.get()));
+        stalePackages.addAll(splicedMeanwhile);
+        for (String packagePath : stamps.addedOrRemovedPackagesSince(cachedStamps.get())) {
+            findEnclosingPackagePath(rootFolder.getPath().resolve(packagePath)).ifPresent(stalePackages::add);
+        }
+
+        if (stalePackages.size() > MAX_STALE_PACKAGES) {
+            logger.info(String.format("%d packages are stale, performing a full sync.", stalePackages.size()));
+            syncWorkspace();
+            return;
+        }
+
+        syncPackages(stalePackages);
+        if (!stalePackages.isEmpty()) {
+            saveIndex(getWorkspaceTree(), stamps);
+        }
+
+        logger.info(String.format("Workspace ready with %d stale packages re-queried in %s.",
+                stalePackages.size(), stopwatch.stop()));
+    }
+
+    /**
+     * Syncs the workspace tree with all files in memory. A single query is used for both build
+     * targets and source files, and the tree is built off to the side as its results are parsed.
+     * Readers keep seeing the previous snapshot until the new tree is complete.
      *
      * @throws BazelServerException If something fails.
      */
     public void syncWorkspace() throws BazelServerException {
-        workspaceTree = initialWsTree();
+        final Stopwatch stopwatch = Stopwatch.createStarted();
+
+        // Files are stamped before querying so any edit made during the query is caught next time.
+        final BuildFileStamps stamps = indexCache != null ? scanStamps() : null;
 
-        List<BuildTarget> buildTargets;
-        List<SourceFile> sourceFiles;
+        final TreeBuilder builder = new TreeBuilder(initialWsTree());
+        final Set<String> splicedMeanwhile = beginFullSync();
+        final List<QueryError> errors;
         try {
-            buildTargets = getBuildTargets();
-            sourceFiles = getSourceFiles();
-            buildTargets.forEach(this::addTargetToTree);
-            sourceFiles.forEach(this::addSourceToTree);
+            if (isShardedSync()) {
+                errors = queryAllTargetsSharded(stamps != null ? stamps : scanStamps(), builder);
+            } else {
+                queryAllTargets(builder);
+                errors = Collections.emptyList();
+            }
+            publish(builder.tree);
         } catch (BazelServerException e) {
             logger.info(e.getMessage());
             throw e;
+        } finally {
+            endFullSync(splicedMeanwhile);
+        }
+        queryErrors.set(Collections.unmodifiableList(errors));
+
+        logger.info(String.format("Synced workspace with %d targets and %d source files in %s.",
+                builder.buildTargetCount, builder.sourceFileCount, stopwatch.stop()));
+
+        // The full sync may have queried these packages before they changed. The saved index
+        // doesn't need them, its stamps predate the changes so the next load re-queries them.
+        if (!splicedMeanwhile.isEmpty()) {
+            logger.info(String.format("Re-syncing %d packages which changed during the full sync.",
+                    splicedMeanwhile.size()));
+            syncPackages(splicedMeanwhile);
+        }
+
+        // A query that finds nothing in a workspace with BUILD files most likely failed without
+        // reporting it, and saving would stamp the empty tree as up to date. Likewise the packages
+        // of failed shards are missing from the tree, so the next load must sync again.
+        if (!errors.isEmpty()) {
+            logger.info(String.format("Not saving the workspace index, %d shards failed.", errors.size()));
+        } else if (stamps != null && (builder.buildTargetCount > 0 || stamps.getPackageStamps().isEmpty())) {
+            saveIndex(builder.tree, stamps);
         }
     }
 
-    public List<SourceFile> getSourceFiles() throws BazelServerException {
-        return Bazel.getSourceFiles();
+    /**
+     * Syncs only the parts of the workspace tree affected by the given files. A changed BUILD file
+     * re-queries just its own package, while a changed WORKSPACE or .bzl file falls back to a full
+     * sync since it may affect any package in the workspace.
+     *
+     * @param changedFiles Absolute paths of the files that changed.
+     * @throws BazelServerException If something fails.
+     */
+    public void syncChangedFiles(Collection<Path> changedFiles) throws BazelServerException {
+        Preconditions.checkNotNull(changedFiles);
+        Preconditions.checkNotNull(rootFolder);
+
+        if (changedFiles.stream().anyMatch(Workspace::requiresFullSync)) {
+            logger.info("A WORKSPACE or .bzl file changed, performing a full sync.");
+            syncWorkspace();
+            return;
+        }
+
+        final Set<String> packagePaths = new LinkedHashSet<>();
+        for (Path file : changedFiles) {
+            if (!isBuildFile(file) || !file.startsWith(rootFolder.getPath())) {
+                continue;
+            }
+
+            final String packagePath = toPackagePath(rootFolder.getPath(), file.getParent());
+            packagePaths.add(packagePath);
+
+            // Adding or removing a BUILD file moves source files between this package and the
+            // package that encloses it, so the enclosing package needs to be refreshed too.
+            final boolean wasPackage = findNode(getWorkspaceTree(), packagePath)
+                    .map(node -> node.getValue().hasBuildFile())
+                    .orElse(false);
+            if (wasPackage != hasBuildFile(packagePath)) {
+                findEnclosingPackagePath(file.getParent()).ifPresent(packagePaths::add);
+            }
+        }
+
+        syncPackages(packagePaths);
     }
 
-    public List<BuildTarget> getBuildTargets() throws BazelServerException {
-        return Bazel.getBuildTargets();
+    /**
+     * Re-queries a single package and splices its build targets and source files into a copy of
+     * the current tree, which is then published as the next snapshot. Only the nodes from the root
+     * to the package are copied, the rest of the tree is shared with the current snapshot. If the package no longer
+     * has a BUILD file, its contents are removed from the tree.
+     *
+     * @param packagePath The workspace relative path to the package, e.g. "path/to/pkg".
+     * @throws BazelServerException If something fails.
+     */
+    public void syncPackage(String packagePath) throws BazelServerException {
+        Preconditions.checkNotNull(packagePath);
+        syncPackages(Collections.singletonList(packagePath));
     }
 
-    private void addTargetToTree(BuildTarget target) {
-        String[] pathParts = target.getPath().toString().split("/");
-        WorkspaceTree.Node node = workspaceTree.getRoot();
-        for (String part : pathParts) {
-            if (!part.isEmpty()) {
-                Optional<WorkspaceTree.Node> child = node.getChild(part);
-                if (child.isPresent()) {
-                    node = child.get();
-                } else {
-                    WorkspaceTree.Node childNode = node.addChild(new Package(part));
-                    node = childNode;
+    private void syncPackages(Collection<String> packagePaths) throws BazelServerException {
+        if (packagePaths.isEmpty()) {
+            return;
+        }
+
+        // Every package is queried before touching the tree so a failed query leaves the
+        // published snapshot as it was.
+        final Map<String, PackageContents> results = new LinkedHashMap<>();
+        for (String packagePath : packagePaths) {
+            final PackageContents contents = new PackageContents();
+            if (hasBuildFile(packagePath)) {
+                try {
+                    queryAllTargets(packagePath, contents);
+                } catch (BazelServerException e) {
+                    logger.info(e.getMessage());
+                    throw e;
                 }
             }
+            results.put(packagePath, contents);
         }
-        node.getValue().addBuildTarget(target);
-    }
 
-    private void addSourceToTree(SourceFile source) {
-        String[] pathParts = source.getPath().toString().split("/");
-        WorkspaceTree.Node node = workspaceTree.getRoot();
-        for (String part : pathParts) {
-            if (!part.isEmpty()) {
-                Optional<WorkspaceTree.Node> child = node.getChild(part);
-                if (child.isPresent()) {
-                    node = child.get();
-                } else {
-                    WorkspaceTree.Node childNode = node.addChild(new Package(part));
-                    node = childNode;
+        // A full sync publishing after this splice would replace it, so it syncs these packages
+        // again once it's done.
+        splicedDuringFullSyncs.forEach(spliced -> spliced.addAll(results.keySet()));
+
+        // Another sync may publish while the copy is being spliced, in which case the splice is
+        // redone on top of the newer snapshot rather than overwriting it.
+        WorkspaceSnapshot current;
+        WorkspaceSnapshot next;
+        do {
+            current = snapshot.get();
+            final WorkspaceTree tree = current.getTree().spliceCopy();
+            final Map<String, List<BuildTarget>> replacedTargets = new HashMap<>();
+            final Map<String, List<SourceFile>> replacedSources = new HashMap<>();
+            final Map<String, Path> replacedBuildFiles = new HashMap<>();
+            for (Map.Entry<String, PackageContents> entry : results.entrySet()) {
+                final Package pkg = getOrCreateNode(tree, entry.getKey()).getValue();
+                pkg.clearContents();
+                entry.getValue().buildTargets.forEach(target -> addTargetToTree(tree, target));
+                if (!entry.getValue().buildTargets.isEmpty()) {
+                    final Path buildFile = findBuildFile(entry.getValue().buildTargets.get(0));
+                    pkg.setBuildFile(buildFile);
+                    if (buildFile != null) {
+                        replacedBuildFiles.put(entry.getKey(), buildFile);
+                    }
                 }
+                entry.getValue().sourceFiles.forEach(source -> addSourceToTree(tree, source));
+                replacedTargets.put(entry.getKey(), entry.getValue().buildTargets);
+                replacedSources.put(entry.getKey(), entry.getValue().sourceFiles);
+            }
+            next = current.next(tree,
+                    current.getLabels().withPackages(replacedTargets),
+                    current.getSources().withPackages(replacedTargets, replacedSources, current.getLabels()),
+                    current.getLocations().withPackages(replacedTargets, replacedBuildFiles, current.getLabels()));
+        } while (!snapshot.compareAndSet(current, next));
+
+        // Errors in the BUILD files of packages which just synced have been fixed.
+        queryErrors.getAndUpdate(errors -> errors.stream()
+                .filter(error -> !error.getFile()
+                        .filter(file -> isBuildFile(file) && file.startsWith(rootFolder.getPath()))
+                        .map(file -> results.containsKey(toPackagePath(rootFolder.getPath(), file.getParent())))
+                        .orElse(false))
+                .collect(Collectors.collectingAndThen(Collectors.toList(), Collections::unmodifiableList)));
+
+        final WorkspaceSnapshot published = next;
+        published.buildIndexes();
+        syncListeners.notifyListeners(listener -> listener.onSnapshotPublished(published));
+
+        for (Map.Entry<String, PackageContents> entry : results.entrySet()) {
+            logger.info(String.format("Synced package \"//%s\" with %d targets and %d source files.",
+                    entry.getKey(), entry.getValue().buildTargets.size(), entry.getValue().sourceFiles.size()));
+        }
+    }
+
+    public void queryAllTargets(TargetListener listener) throws BazelServerException {
+        if (getSyncBackend() == ExtensionConfig.SyncBackend.buildFileScanner) {
+            try {
+                BuildFileScanner.scan(rootFolder.getPath(), listener);
+            } catch (IOException e) {
+                throw new BazelServerException(String.format("Unable to scan the workspace: %s", e.getMessage()));
+            }
+        } else if (getSyncBackend() == ExtensionConfig.SyncBackend.streamedProto) {
+            Bazel.getAllTargetsAsProto(listener);
+        } else {
+            Bazel.getAllTargets(listener);
+        }
+    }
+
+    public void queryAllTargets(String packagePath, TargetListener listener) throws BazelServerException {
+        if (getSyncBackend() == ExtensionConfig.SyncBackend.buildFileScanner) {
+            try {
+                BuildFileScanner.scanPackage(rootFolder.getPath(), packagePath, listener);
+            } catch (IOException e) {
+                throw new BazelServerException(String.format("Unable to scan package \"//%s\": %s",
+                        packagePath, e.getMessage()));
+            }
+        } else if (getSyncBackend() == ExtensionConfig.SyncBackend.streamedProto) {
+            Bazel.getAllTargetsInPackageAsProto(packagePath, listener);
+        } else {
+            Bazel.getAllTargetsInPackage(packagePath, listener);
+        }
+    }
+
+    /**
+     * Queries the workspace one top-level directory at a time, so a broken BUILD file only costs
+     * the targets in its own shard rather than the whole sync.
+     *
+     * @param stamps   The BUILD files in the workspace, used to plan the shards. If null, the
+     *                 whole workspace is queried as a single shard.
+     * @param listener Receives each build target and source file.
+     * @return The errors reported by the shards which failed.
+     * @throws BazelServerException If every shard failed.
+     */
+    List<QueryError> queryAllTargetsSharded(BuildFileStamps stamps, TargetListener listener)
+            throws BazelServerException {
+        final List<String> shards = stamps != null
+                ? shardExpressions(stamps.getPackageStamps().keySet())
+                : Collections.singletonList("...:*");
+        final int concurrency = Math.min(MAX_SHARD_CONCURRENCY, Runtime.getRuntime().availableProcessors());
+        return Bazel.getAllTargetsSharded(shards, concurrency,
+                getSyncBackend() == ExtensionConfig.SyncBackend.streamedProto, listener);
+    }
+
+    /**
+     * Splits the workspace into one query per top-level directory containing packages, plus one
+     * for the root package. The largest shards come first so they don't end up running alone.
+     *
+     * @param packagePaths The workspace relative paths of every package.
+     * @return The shard query expressions.
+     */
+    static List<String> shardExpressions(Collection<String> packagePaths) {
+        final Map<String, Integer> packageCounts = new HashMap<>();
+        boolean hasRootPackage = false;
+        for (String packagePath : packagePaths) {
+            if (packagePath.isEmpty()) {
+                hasRootPackage = true;
+                continue;
+            }
+
+            final int slash = packagePath.indexOf('/');
+            final String topLevel = slash < 0 ? packagePath : packagePath.substring(0, slash);
+            packageCounts.merge(topLevel, 1, Integer::sum);
+        }
+
+        final List<String> expressions = packageCounts.entrySet().stream()
+                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed()
+                        .thenComparing(Map.Entry.comparingByKey()))
+                .map(entry -> String.format("//%s/...:*", entry.getKey()))
+                .collect(Collectors.toList());
+        if (hasRootPackage) {
+            expressions.add("//:*");
+        }
+        return expressions;
+    }
+
+    private boolean isShardedSync() {
+        // The BUILD file scanner never fails as a whole, so there is nothing to gain from sharding.
+        return getSyncBackend() != ExtensionConfig.SyncBackend.buildFileScanner
+                && Nullability.nullableOr(false, () -> extensionConfig.getBazel().shardedSync());
+    }
+
+    private ExtensionConfig.SyncBackend getSyncBackend() {
+        return Nullability.nullableOr(ExtensionConfig.SyncBackend.labelKind,
+                () -> extensionConfig.getBazel().getSyncBackend());
+    }
+
+    /**
+     * @param file The file to check.
+     * @return Whether the file is a BUILD or BUILD.bazel file.
+     */
+    public static boolean isBuildFile(Path file) {
+        return file.getFileName() != null && BUILD_FILE_NAMES.contains(file.getFileName().toString());
+    }
+
+    /**
+     * @param file The file to check.
+     * @return Whether a change to the file may affect packages other than the one it resides in.
+     */
+    public static boolean requiresFullSync(Path file) {
+        if (file.getFileName() == null) {
+            return false;
+        }
+
+        final String fileName = file.getFileName().toString();
+        return WORKSPACE_FILE_NAMES.contains(fileName) || fileName.endsWith(".bzl");
+    }
+
+    void setIndexCache(IndexCache indexCache) {
+        this.indexCache = indexCache;
+    }
+
+    private BuildFileStamps scanStamps() {
+        try {
+            return BuildFileStamps.scan(rootFolder.getPath());
+        } catch (IOException e) {
+            logger.warn(String.format("Unable to scan the workspace for BUILD files: %s", e));
+            return null;
+        }
+    }
+
+    private void saveIndex(WorkspaceTree tree, BuildFileStamps stamps) {
+        try {
+            indexCache.save(tree, stamps, getSyncBackend());
+        } catch (IOException e) {
+            logger.warn(String.format("Unable to save the workspace index: %s", e));
+        }
+    }
+
+    /**
+     * Finds the BUILD file declaring a target's package, so it's known whichever backend synced
+     * the target. The reported location is used when there is one, otherwise the file is looked up
+     * on disk.
+     *
+     * @return The BUILD file, or null if it can't be found.
+     */
+    private Path findBuildFile(BuildTarget target) {
+        if (target.getLocation().isPresent() && isBuildFile(target.getLocation().get().getFile())) {
+            return target.getLocation().get().getFile();
+        }
+        if (rootFolder == null) {
+            return null;
+        }
+
+        final Path directory = rootFolder.getPath().resolve(LabelIndex.stripRoot(target.getPath()));
+        for (String name : BUILD_FILE_NAMES) {
+            final Path file = directory.resolve(name);
+            if (Files.isRegularFile(file)) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    private boolean hasBuildFile(String packagePath) {
+        final Path directory = rootFolder.getPath().resolve(packagePath);
+        return BUILD_FILE_NAMES.stream().anyMatch(name -> Files.isRegularFile(directory.resolve(name)));
+    }
+
+    private Optional<String> findEnclosingPackagePath(Path directory) {
+        Path current = directory.getParent();
+        while (current != null && current.startsWith(rootFolder.getPath())) {
+            final String packagePath = toPackagePath(rootFolder.getPath(), current);
+            if (hasBuildFile(packagePath)) {
+                return Optional.of(packagePath);
+            }
+            current = current.getParent();
+        }
+        return Optional.empty();
+    }
+
+    static String toPackagePath(Path root, Path directory) {
+        final Path relative = root.relativize(directory);
+        final StringJoiner joiner = new StringJoiner("/");
+        for (Path part : relative) {
+            if (!part.toString().isEmpty()) {
+                joiner.add(part.toString());
+            }
+        }
+        return joiner.toString();
+    }
+
+    private static Optional<WorkspaceTree.Node> findNode(WorkspaceTree tree, String path) {
+        return tree.findNode(path);
+    }
+
+    private static WorkspaceTree.Node getOrCreateNode(WorkspaceTree tree, String path) {
+        return tree.getOrCreateNode(path);
+    }
+
+    private static void addTargetToTree(WorkspaceTree tree, BuildTarget target) {
+        getOrCreateNode(tree, target.getPath().toString()).getValue().addBuildTarget(target);
+    }
+
+    private static void addSourceToTree(WorkspaceTree tree, SourceFile source) {
+        getOrCreateNode(tree, source.getPath().toString()).getValue().addSourceFile(source);
+    }
+
+    private Set<String> beginFullSync() {
+        final Set<String> spliced = ConcurrentHashMap.newKeySet();
+        splicedDuringFullSyncs.add(spliced);
+        return spliced;
+    }
+
+    private void endFullSync(Set<String> spliced) {
+        // Sets are equal by contents, so an empty set would match any other empty set.
+        splicedDuringFullSyncs.removeIf(other -> other == spliced);
+    }
+
+    /**
+     * Publishes a tree built from scratch, replacing the current one. Packages spliced in by
+     * incremental syncs since the tree was started are lost, the caller syncs them again.
+     */
+    private void publish(WorkspaceTree tree) {
+        // Indexing the whole tree is expensive, so it's done once rather than inside the compare
+        // and set, which may be retried.
+        final LabelIndex labels = LabelIndex.of(tree);
+        final SourceIndex sources = SourceIndex.of(tree);
+        final LocationIndex locations = LocationIndex.of(tree);
+        WorkspaceSnapshot current;
+        WorkspaceSnapshot next;
+        do {
+            current = snapshot.get();
+            next = current.next(tree, labels, sources, locations);
+        } while (!snapshot.compareAndSet(current, next));
+
+        final WorkspaceSnapshot published = next;
+        logger.info(String.format("Published workspace snapshot generation %d.", published.getGeneration()));
+
+        // Requests keep completing against the previous generation while this one is indexed.
+        published.buildIndexes();
+        syncListeners.notifyListeners(listener -> listener.onSnapshotPublished(published));
+    }
+
+    /**
+     * Adds query results to a tree which has not been published yet as they arrive, periodically
+     * notifying the sync listeners of its progress.
+     */
+    private class TreeBuilder implements TargetListener {
+        private final WorkspaceTree tree;
+        private int packageCount = 0;
+        private int buildTargetCount = 0;
+        private int sourceFileCount = 0;
+
+        // Query results arrive grouped by package, so most lookups hit the previous package.
+        private Path lastPath = null;
+        private Package lastPackage = null;
+
+        TreeBuilder(WorkspaceTree tree) {
+            this.tree = tree;
+        }
+
+        private Package getPackage(Path path) {
+            if (!path.equals(lastPath)) {
+                lastPackage = getOrCreateNode(tree, path.toString()).getValue();
+                lastPath = path;
+            }
+            return lastPackage;
+        }
+
+        @Override
+        public void onBuildTarget(BuildTarget target) {
+            final Package pkg = getPackage(target.getPath());
+            if (!pkg.hasBuildFile()) {
+                pkg.setBuildFile(findBuildFile(target));
+                packageCount++;
             }
+            pkg.addBuildTarget(target);
+            buildTargetCount++;
+            maybeNotifyProgress();
+        }
+
+        @Override
+        public void onSourceFile(SourceFile sourceFile) {
+            getPackage(sourceFile.getPath()).addSourceFile(sourceFile);
+            sourceFileCount++;
+            maybeNotifyProgress();
+        }
+
+        private void maybeNotifyProgress() {
+            if ((buildTargetCount + sourceFileCount) % PROGRESS_INTERVAL == 0) {
+                syncListeners.notifyListeners(listener ->
+                        listener.onSyncProgress(packageCount, buildTargetCount, sourceFileCount));
+            }
+        }
+    }
+
+    /**
+     * Holds the query results of a single package until they are spliced into a tree.
+     */
+    private static class PackageContents implements TargetListener {
+        private final List<BuildTarget> buildTargets = new ArrayList<>();
+        private final List<SourceFile> sourceFiles = new ArrayList<>();
+
+        @Override
+        public void onBuildTarget(BuildTarget target) {
+            buildTargets.add(target);
+        }
+
+        @Override
+        public void onSourceFile(SourceFile sourceFile) {
+            sourceFiles.add(sourceFile);
         }
-        node.getValue().addSourceFile(source);
     }
 }
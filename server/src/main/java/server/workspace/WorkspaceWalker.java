@@ -0,0 +1,86 @@
+package server.workspace;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Walks the source files of a workspace the way bazel sees them. Hidden directories, the bazel-*
+ * convenience symlinks and anything listed in .bazelignore are skipped.
+ */
+abstract class WorkspaceWalker extends SimpleFileVisitor<Path> {
+    private static final String BAZEL_IGNORE = ".bazelignore";
+
+    private final Path root;
+    private final Set<Path> ignored;
+
+    WorkspaceWalker(Path root) throws IOException {
+        this.root = root;
+        this.ignored = readBazelIgnore(root);
+    }
+
+    /**
+     * Walks every file beneath the given directory, which must be inside the workspace.
+     */
+    void walk(Path start) throws IOException {
+        Files.walkFileTree(start, this);
+    }
+
+    void walk() throws IOException {
+        walk(root);
+    }
+
+    Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Invoked for every file in the workspace which isn't skipped.
+     */
+    abstract void visit(Path file, BasicFileAttributes attrs) throws IOException;
+
+    @Override
+    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+        if (dir.equals(root)) {
+            return FileVisitResult.CONTINUE;
+        }
+
+        final String name = dir.getFileName().toString();
+        final boolean isOutputSymlink = root.equals(dir.getParent()) && name.startsWith("bazel-");
+        if (name.startsWith(".") || isOutputSymlink || ignored.contains(dir)) {
+            return FileVisitResult.SKIP_SUBTREE;
+        }
+        return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        visit(file, attrs);
+        return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult visitFileFailed(Path file, IOException exc) {
+        return FileVisitResult.CONTINUE;
+    }
+
+    private static Set<Path> readBazelIgnore(Path root) throws IOException {
+        final Set<Path> ignored = new HashSet<>();
+        final Path bazelIgnore = root.resolve(BAZEL_IGNORE);
+        if (Files.isRegularFile(bazelIgnore)) {
+            for (String line : Files.readAllLines(bazelIgnore, StandardCharsets.UTF_8)) {
+                final String entry = line.trim();
+                if (!entry.isEmpty() && !entry.startsWith("#")) {
+                    ignored.add(root.resolve(entry).normalize());
+                }
+            }
+        }
+        return ignored;
+    }
+}
@@ -5,12 +5,32 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 import server.bazel.cli.BazelTest;
+import server.bazel.cli.StreamedProtoParserTest;
 import server.bazel.interp.LabelTest;
+import server.bazel.tree.CompletionIndexTest;
+import server.bazel.tree.DependencyGraphTest;
+import server.bazel.tree.LabelIndexTest;
+import server.bazel.tree.LocationIndexTest;
+import server.bazel.tree.SourceIndexTest;
+import server.bazel.tree.SymbolIndexTest;
+import server.bazel.tree.WorkspaceSnapshotTest;
+import server.bazel.tree.WorkspaceTreeTest;
 import server.buildifier.BuildifierTest;
+import server.codelens.CodeLensProviderTest;
 import server.completion.CompletionProviderTest;
+import server.definition.DefinitionProviderTest;
+import server.dispatcher.StreamPipeTest;
+import server.symbols.WorkspaceSymbolProviderTest;
 import server.utils.DocumentTrackerTest;
+import server.utils.FileContentCacheTest;
+import server.utils.LineIndexTest;
 import server.formatting.FormattingProviderTest;
 import server.utils.NullabilityTest;
+import server.utils.TextBufferTest;
+import server.workspace.BuildFileScannerTest;
+import server.workspace.IndexCacheTest;
+import server.workspace.SyncSchedulerTest;
+import server.workspace.WorkspaceStressTest;
 import server.workspace.WorkspaceTest;
 import server.bazel.bazelWorkspaceAPI.*;
 
@@ -21,12 +41,32 @@ import server.bazel.bazelWorkspaceAPI.*;
 @SuiteClasses({
         BuildifierTest.class,
         DocumentTrackerTest.class,
+        FileContentCacheTest.class,
+        LineIndexTest.class,
         FormattingProviderTest.class,
         NullabilityTest.class,
+        TextBufferTest.class,
         BazelTest.class,
+        StreamedProtoParserTest.class,
         WorkspaceTest.class,
+        IndexCacheTest.class,
+        BuildFileScannerTest.class,
+        SyncSchedulerTest.class,
+        WorkspaceStressTest.class,
         APITests.class,
         CompletionProviderTest.class,
-        LabelTest.class
+        CodeLensProviderTest.class,
+        DefinitionProviderTest.class,
+        WorkspaceSymbolProviderTest.class,
+        StreamPipeTest.class,
+        LabelTest.class,
+        WorkspaceSnapshotTest.class,
+        WorkspaceTreeTest.class,
+        LabelIndexTest.class,
+        SourceIndexTest.class,
+        DependencyGraphTest.class,
+        CompletionIndexTest.class,
+        SymbolIndexTest.class,
+        LocationIndexTest.class
 })
 public class AllServerTests {}
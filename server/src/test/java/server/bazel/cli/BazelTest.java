@@ -1,6 +1,13 @@
 package server.bazel.cli;
 
+import org.junit.Assert;
 import org.junit.Test;
+import server.bazel.tree.BuildTarget;
+import server.bazel.tree.SourceFile;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 public class BazelTest {
 
@@ -12,4 +19,68 @@ public class BazelTest {
             System.out.println(e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void parseTargetHandlesRulesAndSourceFiles() {
+        final CollectingListener listener = new CollectingListener();
+        Bazel.parseTarget("cc_library rule //main/java:lib", listener);
+        Bazel.parseTarget("java_binary rule //:app", listener);
+        Bazel.parseTarget("source file //main/java:sub/Test.java", listener);
+
+        Assert.assertEquals(2, listener.buildTargets.size());
+        Assert.assertEquals("cc_library", listener.buildTargets.get(0).getKind());
+        Assert.assertEquals("lib", listener.buildTargets.get(0).getLabel());
+        Assert.assertEquals(Paths.get("/main/java"), listener.buildTargets.get(0).getPath());
+        Assert.assertEquals(Paths.get("/"), listener.buildTargets.get(1).getPath());
+
+        Assert.assertEquals(1, listener.sourceFiles.size());
+        Assert.assertEquals(Paths.get("//main/java"), listener.sourceFiles.get(0).getPath());
+    }
+
+    @Test
+    public void queryErrorParsesLocatedAndUnlocatedErrors() {
+        final List<String> errorOutput = new ArrayList<>();
+        errorOutput.add("Loading: 0 packages loaded");
+        errorOutput.add("ERROR: /ws/main/java/BUILD:12:5: name 'undefined_rule' is not defined");
+        errorOutput.add("ERROR: no such package 'missing': BUILD file not found in any of the following directories.");
+        errorOutput.add("WARNING: --keep_going specified, ignoring errors.");
+
+        final List<QueryError> errors = QueryError.parse("//main/...:*", errorOutput);
+
+        Assert.assertEquals(2, errors.size());
+        Assert.assertEquals("//main/...:*", errors.get(0).getExpression());
+        Assert.assertEquals(Paths.get("/ws/main/java/BUILD"), errors.get(0).getFile().get());
+        Assert.assertEquals(12, errors.get(0).getLocation().get().getLine());
+        Assert.assertEquals(5, errors.get(0).getLocation().get().getColumn());
+        Assert.assertEquals("name 'undefined_rule' is not defined", errors.get(0).getMessage());
+        Assert.assertFalse(errors.get(1).getLocation().isPresent());
+        Assert.assertTrue(errors.get(1).getMessage().startsWith("no such package 'missing'"));
+    }
+
+    @Test
+    public void parseTargetSkipsOtherKinds() {
+        final CollectingListener listener = new CollectingListener();
+        Bazel.parseTarget("generated file //main:out.txt", listener);
+        Bazel.parseTarget("package group //main:friends", listener);
+        Bazel.parseTarget("", listener);
+        Bazel.parseTarget("Loading: 0 packages loaded", listener);
+
+        Assert.assertTrue(listener.buildTargets.isEmpty());
+        Assert.assertTrue(listener.sourceFiles.isEmpty());
+    }
+
+    private static class CollectingListener implements TargetListener {
+        private final List<BuildTarget> buildTargets = new ArrayList<>();
+        private final List<SourceFile> sourceFiles = new ArrayList<>();
+
+        @Override
+        public void onBuildTarget(BuildTarget target) {
+            buildTargets.add(target);
+        }
+
+        @Override
+        public void onSourceFile(SourceFile sourceFile) {
+            sourceFiles.add(sourceFile);
+        }
+    }
+}
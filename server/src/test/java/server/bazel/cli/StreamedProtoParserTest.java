@@ -0,0 +1,93 @@
+package server.bazel.cli;
+
+import com.google.devtools.build.lib.query2.proto.proto2api.Build;
+import org.junit.Assert;
+import org.junit.Test;
+import server.bazel.tree.BuildTarget;
+import server.bazel.tree.SourceFile;
+import server.bazel.tree.SourceLocation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class StreamedProtoParserTest {
+
+    @Test
+    public void parseDecodesRulesAndSourceFiles() throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Build.Target.newBuilder()
+                .setType(Build.Target.Discriminator.RULE)
+                .setRule(Build.Rule.newBuilder()
+                        .setName("//main/java:lib")
+                        .setRuleClass("java_library")
+                        .setLocation("/ws/main/java/BUILD:3:13")
+                        .addAttribute(Build.Attribute.newBuilder()
+                                .setName("srcs")
+                                .setType(Build.Attribute.Discriminator.LABEL_LIST)
+                                .setExplicitlySpecified(true)
+                                .addStringListValue("//main/java:Lib.java"))
+                        .addAttribute(Build.Attribute.newBuilder()
+                                .setName("testonly")
+                                .setType(Build.Attribute.Discriminator.BOOLEAN)
+                                .setExplicitlySpecified(false)
+                                .setIntValue(0))
+                        .addRuleInput("//main/java:Lib.java"))
+                .build()
+                .writeDelimitedTo(output);
+        Build.Target.newBuilder()
+                .setType(Build.Target.Discriminator.SOURCE_FILE)
+                .setSourceFile(Build.SourceFile.newBuilder()
+                        .setName("//main/java:Lib.java"))
+                .build()
+                .writeDelimitedTo(output);
+        Build.Target.newBuilder()
+                .setType(Build.Target.Discriminator.GENERATED_FILE)
+                .setGeneratedFile(Build.GeneratedFile.newBuilder()
+                        .setName("//main/java:liblib.jar")
+                        .setGeneratingRule("//main/java:lib"))
+                .build()
+                .writeDelimitedTo(output);
+
+        final List<BuildTarget> buildTargets = new ArrayList<>();
+        final List<SourceFile> sourceFiles = new ArrayList<>();
+        StreamedProtoParser.parse(new ByteArrayInputStream(output.toByteArray()), new TargetListener() {
+            @Override
+            public void onBuildTarget(BuildTarget target) {
+                buildTargets.add(target);
+            }
+
+            @Override
+            public void onSourceFile(SourceFile sourceFile) {
+                sourceFiles.add(sourceFile);
+            }
+        });
+
+        Assert.assertEquals(1, buildTargets.size());
+        final BuildTarget target = buildTargets.get(0);
+        Assert.assertEquals(Paths.get("/main/java"), target.getPath());
+        Assert.assertEquals("lib", target.getLabel());
+        Assert.assertEquals("java_library", target.getKind());
+        Assert.assertEquals(new SourceLocation(Paths.get("/ws/main/java/BUILD"), 3, 13), target.getLocation().get());
+        Assert.assertEquals(Arrays.asList("//main/java:Lib.java"), target.getAttributes().get("srcs"));
+        Assert.assertFalse(target.getAttributes().containsKey("testonly"));
+        Assert.assertEquals(Arrays.asList("//main/java:Lib.java"), target.getRuleInputs());
+
+        Assert.assertEquals(1, sourceFiles.size());
+        Assert.assertEquals("Lib", sourceFiles.get(0).getFileName());
+        Assert.assertEquals(Paths.get("//main/java"), sourceFiles.get(0).getPath());
+    }
+
+    @Test
+    public void parseLocationWithoutColumn() {
+        final SourceLocation location = SourceLocation.parse("C:/ws/BUILD:7").get();
+        Assert.assertEquals(Paths.get("C:/ws/BUILD"), location.getFile());
+        Assert.assertEquals(7, location.getLine());
+        Assert.assertEquals(1, location.getColumn());
+        Assert.assertFalse(SourceLocation.parse("BUILD").isPresent());
+    }
+}
@@ -0,0 +1,94 @@
+package server.bazel.tree;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class CompletionIndexTest {
+    private CompletionIndex index;
+
+    @Before
+    public void setup() {
+        final WorkspaceTree tree = new WorkspaceTree(new Package("/"));
+        addTarget(tree, "server", "server", "java_binary");
+        addTarget(tree, "server/api", "api", "java_library");
+        addTarget(tree, "server/api/v2", "Handlers", "java_library");
+        addTarget(tree, "server/impl/api", "impl", "java_library");
+        addTarget(tree, "service/apps", "apps", "java_library");
+        addTarget(tree, "tools/server/api", "stub", "java_library");
+        addTarget(tree, "", "root", "filegroup");
+        index = CompletionIndex.of(tree);
+    }
+
+    private void addTarget(WorkspaceTree tree, String packagePath, String name, String kind) {
+        tree.getOrCreateNode(packagePath).getValue().addBuildTarget(new BuildTarget(Paths.get("//" + packagePath), name, kind));
+    }
+
+    private static List<String> labels(List<CompletionIndex.Match> matches) {
+        final List<String> labels = new ArrayList<>();
+        matches.forEach(match -> labels.add(match.getLabel()));
+        return labels;
+    }
+
+    @Test
+    public void indexesPackagesAndTargets() {
+        // 10 packages, including the directories between them, and 7 targets.
+        Assert.assertEquals(17, index.size());
+        final CompletionIndex.Match target = index.complete("//server:", 1).get(0);
+        Assert.assertEquals("//server:server", target.getLabel());
+        Assert.assertEquals("java_binary", target.getKind());
+        Assert.assertFalse(target.isPackage());
+        Assert.assertTrue(index.complete("//server", 1).get(0).isPackage());
+    }
+
+    @Test
+    public void prefixMatchesComeFirstInSortedOrder() {
+        Assert.assertEquals(Arrays.asList("//server/api", "//server/api/v2", "//server/api/v2:Handlers", "//server/api:api"),
+                labels(index.complete("//server/api", 4)));
+        Assert.assertEquals(Arrays.asList("//:root"), labels(index.complete("//:", 10)));
+    }
+
+    @Test
+    public void partialSegmentsMatchAnywhere() {
+        Assert.assertEquals(Arrays.asList(
+                // Shallowest first, then anchored at the first segment, then contiguous, then
+                // skipping a segment.
+                "//server/api", "//service/apps",
+                "//server/api/v2", "//server/api:api", "//service/apps:apps", "//tools/server/api", "//server/impl/api",
+                "//server/api/v2:Handlers", "//tools/server/api:stub", "//server/impl/api:impl"),
+                labels(index.complete("//serv/ap", 20)));
+    }
+
+    @Test
+    public void matchingIgnoresCase() {
+        Assert.assertEquals(Arrays.asList("//server/api/v2:Handlers"), labels(index.complete("//SERV/v2/hand", 20)));
+    }
+
+    @Test
+    public void limitsTheNumberOfMatches() {
+        Assert.assertEquals(Arrays.asList("//server/api", "//service/apps"), labels(index.complete("//serv/ap", 2)));
+        Assert.assertEquals(3, index.complete("//", 3).size());
+        Assert.assertTrue(index.complete("//serv", 0).isEmpty());
+    }
+
+    @Test
+    public void unknownSegmentsMatchNothing() {
+        Assert.assertTrue(index.complete("//serv/missing", 20).isEmpty());
+        Assert.assertTrue(index.complete("//api/server", 20).isEmpty());
+        Assert.assertTrue(CompletionIndex.empty().complete("//serv", 20).isEmpty());
+    }
+
+    @Test
+    public void everyPartNeedsASegmentOfItsOwn() {
+        // Every label under //server has a segment starting with "se" and "serv", but only one
+        // repeats it.
+        Assert.assertEquals(Arrays.asList("//server:server"), labels(index.complete("//se/serv", 20)));
+        Assert.assertEquals(Arrays.asList("//server/api:api"), labels(index.complete("//api/api", 20)));
+        Assert.assertTrue(index.complete("//se/serv/ser", 20).isEmpty());
+    }
+}
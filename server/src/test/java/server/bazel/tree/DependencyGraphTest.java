@@ -0,0 +1,67 @@
+package server.bazel.tree;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+public class DependencyGraphTest {
+    private DependencyGraph graph;
+
+    @Before
+    public void setup() {
+        final WorkspaceTree tree = new WorkspaceTree(new Package("/"));
+        addTarget(tree, "app", "app", "//app:main.cc", "//lib:lib", "//util:util");
+        addTarget(tree, "lib", "lib", "//lib:lib.cc", "//util:util");
+        addTarget(tree, "util", "util", "//util:util.cc", "@ext//x:y");
+        addTarget(tree, "", "tool", "//util:util");
+        graph = DependencyGraph.of(tree);
+    }
+
+    private void addTarget(WorkspaceTree tree, String packagePath, String name, String... inputs) {
+        tree.getOrCreateNode(packagePath).getValue().addBuildTarget(new BuildTarget(Paths.get("//" + packagePath),
+                name, "cc_library", null, Collections.emptyMap(), Arrays.asList(inputs)));
+    }
+
+    @Test
+    public void countsNodesAndEdges() {
+        // 4 targets, 3 source files and 1 external label.
+        Assert.assertEquals(8, graph.nodeCount());
+        Assert.assertEquals(8, graph.edgeCount());
+        Assert.assertTrue(graph.contains("//:tool"));
+        Assert.assertTrue(graph.contains("@ext//x:y"));
+    }
+
+    @Test
+    public void depsFollowsTheRequestedDepth() {
+        Assert.assertEquals(Arrays.asList("//app:main.cc", "//lib:lib", "//util:util"), graph.deps("//app:app", 1));
+        Assert.assertEquals(
+                new HashSet<>(Arrays.asList("//app:main.cc", "//lib:lib", "//util:util",
+                        "//lib:lib.cc", "//util:util.cc", "@ext//x:y")),
+                new HashSet<>(graph.deps("//app:app", DependencyGraph.UNBOUNDED)));
+        Assert.assertTrue(graph.deps("//app:app", 0).isEmpty());
+        Assert.assertTrue(graph.deps("//missing:missing", 1).isEmpty());
+    }
+
+    @Test
+    public void rdepsFindsEverythingAffected() {
+        Assert.assertEquals(new HashSet<>(Arrays.asList("//app:app", "//lib:lib", "//:tool")),
+                new HashSet<>(graph.rdeps("//util:util", 1)));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("//util:util", "//app:app", "//lib:lib", "//:tool")),
+                new HashSet<>(graph.rdeps("//util:util.cc", DependencyGraph.UNBOUNDED)));
+        Assert.assertEquals(Collections.singletonList("//app:app"), graph.rdeps("//lib:lib", DependencyGraph.UNBOUNDED));
+    }
+
+    @Test
+    public void somePathFindsAShortestChain() {
+        Assert.assertEquals(Arrays.asList("//app:app", "//util:util", "@ext//x:y"),
+                graph.somePath("//app:app", "@ext//x:y").get());
+        Assert.assertEquals(Collections.singletonList("//lib:lib"), graph.somePath("//lib:lib", "//lib:lib").get());
+        Assert.assertFalse(graph.somePath("//util:util", "//app:app").isPresent());
+        Assert.assertFalse(graph.somePath("//app:app", "//missing:missing").isPresent());
+    }
+}
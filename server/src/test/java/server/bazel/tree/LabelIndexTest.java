@@ -0,0 +1,85 @@
+package server.bazel.tree;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class LabelIndexTest {
+    private WorkspaceTree tree;
+
+    @Before
+    public void setup() {
+        tree = new WorkspaceTree(new Package("/"));
+        addTarget("", "root_lib", "java_library");
+        addTarget("main/java", "lib", "java_library");
+        addTarget("main/java", "bin", "java_binary");
+        addTarget("main/cpp", "lib", "cc_library");
+    }
+
+    private BuildTarget addTarget(String packagePath, String name, String kind) {
+        final BuildTarget target = new BuildTarget(Paths.get("//" + packagePath), name, kind);
+        tree.getOrCreateNode(packagePath).getValue().addBuildTarget(target);
+        return target;
+    }
+
+    @Test
+    public void findsTargetsByLabelAndPath() {
+        final LabelIndex index = LabelIndex.of(tree);
+
+        Assert.assertEquals(4, index.size());
+        Assert.assertEquals("java_binary", index.find("//main/java:bin").get().getKind());
+        Assert.assertEquals("cc_library", index.find(Paths.get("//main/cpp"), "lib").get().getKind());
+        Assert.assertEquals("cc_library", index.find(Paths.get("main/cpp"), "lib").get().getKind());
+        Assert.assertEquals("root_lib", index.find("//:root_lib").get().getLabel());
+        Assert.assertEquals("root_lib", index.find(Paths.get("//"), "root_lib").get().getLabel());
+        Assert.assertFalse(index.find("//main/java:missing").isPresent());
+        Assert.assertFalse(index.find("//main:lib").isPresent());
+    }
+
+    @Test
+    public void shorthandAndRelativeLabelsNeverMatch() {
+        final LabelIndex index = LabelIndex.of(tree);
+
+        Assert.assertFalse(index.find(":root_lib").isPresent());
+        Assert.assertFalse(index.find("//main/java").isPresent());
+        Assert.assertFalse(index.find("@repo//main/java:lib").isPresent());
+    }
+
+    @Test
+    public void findMissingKeepsTheGivenOrder() {
+        final LabelIndex index = LabelIndex.of(tree);
+        final BuildTarget missingA = new BuildTarget(Paths.get("//main"), "a", null);
+        final BuildTarget present = new BuildTarget(Paths.get("//main/java"), "lib", null);
+        final BuildTarget missingB = new BuildTarget(Paths.get("//main/cpp"), "b", null);
+
+        Assert.assertEquals(Arrays.asList(missingA, missingB),
+                index.findMissing(Arrays.asList(missingA, present, missingB)));
+    }
+
+    @Test
+    public void withPackagesReplacesOnlyTheGivenPackages() {
+        final LabelIndex index = LabelIndex.of(tree);
+        final List<BuildTarget> replacement = Collections.singletonList(
+                new BuildTarget(Paths.get("//main/java"), "other", "java_library"));
+
+        final LabelIndex updated = index.withPackages(Collections.singletonMap("main/java", replacement));
+        Assert.assertEquals(3, updated.size());
+        Assert.assertTrue(updated.find("//main/java:other").isPresent());
+        Assert.assertFalse(updated.find("//main/java:lib").isPresent());
+        Assert.assertTrue(updated.find("//main/cpp:lib").isPresent());
+
+        // The previous index is left as it was.
+        Assert.assertEquals(4, index.size());
+        Assert.assertTrue(index.find("//main/java:lib").isPresent());
+
+        final LabelIndex removed = updated.withPackages(
+                Collections.singletonMap("main/cpp", Collections.emptyList()));
+        Assert.assertEquals(2, removed.size());
+        Assert.assertFalse(removed.find("//main/cpp:lib").isPresent());
+    }
+}
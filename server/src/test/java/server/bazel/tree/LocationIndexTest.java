@@ -0,0 +1,125 @@
+package server.bazel.tree;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class LocationIndexTest {
+    private WorkspaceTree tree;
+
+    @Before
+    public void setup() {
+        tree = new WorkspaceTree(new Package("/"));
+        addTarget("main/java", "bin", new SourceLocation(Paths.get("/ws/main/java/BUILD"), 12, 1));
+        addTarget("main/java", "lib", new SourceLocation(Paths.get("/ws/main/java/BUILD"), 3, 1));
+        addTarget("main/java", "gen", new SourceLocation(Paths.get("/ws/main/java/BUILD"), 3, 20));
+        addTarget("main/cpp", "lib", new SourceLocation(Paths.get("/ws/main/cpp/BUILD.bazel"), 1, 1));
+        addTarget("main/cpp", "unknown", null);
+    }
+
+    private void addTarget(String packagePath, String name, SourceLocation location) {
+        tree.getOrCreateNode(packagePath).getValue().addBuildTarget(new BuildTarget(Paths.get("//" + packagePath), name,
+                "java_library", location, Collections.emptyMap(), Collections.emptyList()));
+    }
+
+    private static List<String> names(List<BuildTarget> targets) {
+        final List<String> names = new ArrayList<>();
+        targets.forEach(target -> names.add(target.getLabel()));
+        return names;
+    }
+
+    @Test
+    public void findsTargetsInDeclarationOrder() {
+        final LocationIndex index = LocationIndex.of(tree);
+
+        Assert.assertEquals(4, index.size());
+        Assert.assertEquals(Arrays.asList("lib", "gen", "bin"), names(index.findDeclaredIn(Paths.get("/ws/main/java/BUILD"))));
+        Assert.assertEquals(Collections.singletonList("lib"), names(index.findDeclaredIn(Paths.get("/ws/main/cpp/BUILD.bazel"))));
+    }
+
+    @Test
+    public void findsBuildFilesOfPackages() {
+        final LocationIndex index = LocationIndex.of(tree);
+
+        Assert.assertEquals(Paths.get("/ws/main/cpp/BUILD.bazel").toAbsolutePath(), index.findBuildFile("main/cpp").get());
+        Assert.assertFalse(index.findBuildFile("main").isPresent());
+    }
+
+    @Test
+    public void findsRecordedBuildFilesOfPackagesWithoutLocations() {
+        addTarget("main", "bin", null);
+        tree.getOrCreateNode("main").getValue().setBuildFile(Paths.get("/ws/main/BUILD"));
+        final LocationIndex index = LocationIndex.of(tree);
+
+        Assert.assertEquals(Paths.get("/ws/main/BUILD").toAbsolutePath(), index.findBuildFile("main").get());
+        Assert.assertEquals(Collections.emptyList(), index.findDeclaredIn(Paths.get("/ws/main/BUILD")));
+    }
+
+    @Test
+    public void normalizesPaths() {
+        final LocationIndex index = LocationIndex.of(tree);
+
+        Assert.assertEquals(3, index.findDeclaredIn(Paths.get("/ws/main/cpp/../java/./BUILD")).size());
+    }
+
+    @Test
+    public void findsNothingInOtherFiles() {
+        final LocationIndex index = LocationIndex.of(tree);
+
+        Assert.assertEquals(Collections.emptyList(), index.findDeclaredIn(Paths.get("/ws/main/cpp/BUILD")));
+        Assert.assertEquals(Collections.emptyList(), index.findDeclaredIn(Paths.get("/ws/main/java/Main.java")));
+        Assert.assertEquals(0, LocationIndex.of(new WorkspaceTree(new Package("/"))).size());
+    }
+
+    @Test
+    public void withPackagesKeepsTargetsOfOtherPackages() {
+        // A macro in main/java declares a target of main/cpp.
+        addTarget("main/cpp", "shared", new SourceLocation(Paths.get("/ws/main/java/BUILD"), 20, 1));
+        final LocationIndex index = LocationIndex.of(tree);
+        final LabelIndex labels = LabelIndex.of(tree);
+
+        final List<BuildTarget> javaTargets = Collections.singletonList(new BuildTarget(Paths.get("//main/java"), "bin",
+                "java_binary", new SourceLocation(Paths.get("/ws/main/java/BUILD"), 5, 1),
+                Collections.emptyMap(), Collections.emptyList()));
+        final Map<String, List<BuildTarget>> replaced = Collections.singletonMap("main/java", javaTargets);
+        final LocationIndex updated = index.withPackages(replaced, Collections.emptyMap(), labels);
+
+        Assert.assertEquals(3, updated.size());
+        Assert.assertEquals(Arrays.asList("bin", "shared"), names(updated.findDeclaredIn(Paths.get("/ws/main/java/BUILD"))));
+        Assert.assertEquals(Paths.get("/ws/main/java/BUILD").toAbsolutePath(), updated.findBuildFile("main/java").get());
+
+        // Removing main/cpp drops its build file and its targets in both files.
+        final LocationIndex withoutCpp = updated.withPackages(
+                Collections.singletonMap("main/cpp", Collections.emptyList()),
+                Collections.emptyMap(),
+                labels.withPackages(replaced));
+        Assert.assertEquals(1, withoutCpp.size());
+        Assert.assertEquals(Collections.singletonList("bin"), names(withoutCpp.findDeclaredIn(Paths.get("/ws/main/java/BUILD"))));
+        Assert.assertEquals(Collections.emptyList(), withoutCpp.findDeclaredIn(Paths.get("/ws/main/cpp/BUILD.bazel")));
+        Assert.assertFalse(withoutCpp.findBuildFile("main/cpp").isPresent());
+
+        // The previous index is left as it was.
+        Assert.assertEquals(5, index.size());
+        Assert.assertEquals(Arrays.asList("lib", "gen", "bin", "shared"), names(index.findDeclaredIn(Paths.get("/ws/main/java/BUILD"))));
+    }
+
+    @Test
+    public void withPackagesPrefersRecordedBuildFiles() {
+        final LocationIndex index = LocationIndex.of(tree);
+        final LocationIndex updated = index.withPackages(
+                Collections.singletonMap("main", Collections.singletonList(new BuildTarget(Paths.get("//main"), "bin",
+                        "java_binary", null, Collections.emptyMap(), Collections.emptyList()))),
+                Collections.singletonMap("main", Paths.get("/ws/main/BUILD.bazel")),
+                LabelIndex.of(tree));
+
+        Assert.assertEquals(Paths.get("/ws/main/BUILD.bazel").toAbsolutePath(), updated.findBuildFile("main").get());
+        Assert.assertEquals(4, updated.size());
+    }
+}
@@ -0,0 +1,92 @@
+package server.bazel.tree;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+public class SourceIndexTest {
+    private WorkspaceTree tree;
+    private BuildTarget lib;
+    private BuildTarget test;
+    private BuildTarget app;
+
+    @Before
+    public void setup() {
+        tree = new WorkspaceTree(new Package("/"));
+        addSource("main", "util.pb.cc");
+        addSource("main", "util.h");
+        addSource("main/app", "main.cc");
+        lib = addTarget("main", "lib", "//main:util.pb.cc", "//main:util.h");
+        test = addTarget("main", "lib_test", "//main:util.pb.cc", "//main:lib");
+        app = addTarget("main/app", "app", "//main/app:main.cc", "//main:util.h", "@repo//x:y");
+    }
+
+    private void addSource(String packagePath, String name) {
+        tree.getOrCreateNode(packagePath).getValue().addSourceFile(new SourceFile(name, Paths.get("//" + packagePath)));
+    }
+
+    private BuildTarget addTarget(String packagePath, String name, String... inputs) {
+        final BuildTarget target = new BuildTarget(Paths.get("//" + packagePath), name, "cc_library",
+                null, Collections.emptyMap(), Arrays.asList(inputs));
+        tree.getOrCreateNode(packagePath).getValue().addBuildTarget(target);
+        return target;
+    }
+
+    @Test
+    public void findsOwningPackageAndConsumers() {
+        final SourceIndex index = SourceIndex.of(tree);
+
+        Assert.assertEquals(3, index.size());
+        Assert.assertEquals(Paths.get("//main"), index.findSourceFile(Paths.get("//main/util.pb.cc")).get().getPath());
+        Assert.assertEquals(Paths.get("//main/app"), index.findSourceFile(Paths.get("//main/app/main.cc")).get().getPath());
+        Assert.assertEquals(Arrays.asList(lib, test), index.findConsumers(Paths.get("//main/util.pb.cc")));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(lib, app)),
+                new HashSet<>(index.findConsumers(Paths.get("//main/util.h"))));
+    }
+
+    @Test
+    public void unknownFilesHaveNoOwner() {
+        final SourceIndex index = SourceIndex.of(tree);
+
+        Assert.assertFalse(index.findSourceFile(Paths.get("//main/missing.cc")).isPresent());
+        Assert.assertFalse(index.findSourceFile(Paths.get("//other/util.h")).isPresent());
+        Assert.assertTrue(index.findConsumers(Paths.get("//main/app/util.h")).isEmpty());
+    }
+
+    @Test
+    public void withPackagesKeepsConsumersFromOtherPackages() {
+        final SourceIndex index = SourceIndex.of(tree);
+        final LabelIndex labels = LabelIndex.of(tree);
+
+        // Re-syncing main drops lib_test and util.pb.cc, but app still consumes util.h.
+        final List<BuildTarget> mainTargets = Collections.singletonList(new BuildTarget(Paths.get("//main"), "lib",
+                "cc_library", null, Collections.emptyMap(), Collections.singletonList("//main:util.h")));
+        final Map<String, List<SourceFile>> mainSources = Collections.singletonMap("main",
+                Collections.singletonList(new SourceFile("util.h", Paths.get("//main"))));
+        final SourceIndex updated = index.withPackages(
+                Collections.singletonMap("main", mainTargets), mainSources, labels);
+
+        Assert.assertEquals(2, updated.size());
+        Assert.assertFalse(updated.findSourceFile(Paths.get("//main/util.pb.cc")).isPresent());
+        Assert.assertEquals(Arrays.asList(app, mainTargets.get(0)), updated.findConsumers(Paths.get("//main/util.h")));
+
+        // Re-syncing app removes it from the consumers of a file in main.
+        final SourceIndex withoutApp = updated.withPackages(
+                Collections.singletonMap("main/app", Collections.emptyList()),
+                Collections.emptyMap(),
+                labels);
+        Assert.assertEquals(Collections.singletonList(mainTargets.get(0)),
+                withoutApp.findConsumers(Paths.get("//main/util.h")));
+        Assert.assertFalse(withoutApp.findSourceFile(Paths.get("//main/app/main.cc")).isPresent());
+
+        // The previous indexes are left as they were.
+        Assert.assertEquals(Arrays.asList(lib, test), index.findConsumers(Paths.get("//main/util.pb.cc")));
+    }
+}
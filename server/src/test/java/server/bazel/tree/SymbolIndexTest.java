@@ -0,0 +1,111 @@
+package server.bazel.tree;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class SymbolIndexTest {
+    private SymbolIndex index;
+
+    @Before
+    public void setup() {
+        final WorkspaceTree tree = new WorkspaceTree(new Package("/"));
+        addTarget(tree, "lang/json", "json_parser_test");
+        addTarget(tree, "lang/json", "json_parser");
+        addTarget(tree, "lang/yaml", "parser_test");
+        addTarget(tree, "lang/yaml", "yamlparser_test");
+        addTarget(tree, "lang/xml", "parser_test");
+        addTarget(tree, "lang/xml", "Parser_Testdata");
+        addTarget(tree, "tools", "lexer_test");
+        addTarget(tree, "", "pa");
+        index = SymbolIndex.of(tree);
+    }
+
+    private void addTarget(WorkspaceTree tree, String packagePath, String name) {
+        tree.getOrCreateNode(packagePath).getValue().addBuildTarget(new BuildTarget(Paths.get("//" + packagePath), name, "java_test"));
+    }
+
+    private static List<String> labels(List<BuildTarget> targets) {
+        final List<String> labels = new ArrayList<>();
+        targets.forEach(target -> labels.add(DependencyGraph.toLabel(target)));
+        return labels;
+    }
+
+    @Test
+    public void indexesEveryTarget() {
+        Assert.assertEquals(8, index.size());
+        Assert.assertEquals(0, SymbolIndex.empty().size());
+        Assert.assertEquals(Collections.emptyList(), SymbolIndex.empty().find("parser", 10));
+    }
+
+    @Test
+    public void substringMatchesRankByWhereTheyMatch() {
+        Assert.assertEquals(Arrays.asList(
+                // Exact, ordered by label.
+                "//lang/xml:parser_test",
+                "//lang/yaml:parser_test",
+                // Prefix, ignoring case.
+                "//lang/xml:Parser_Testdata",
+                // After a separator.
+                "//lang/json:json_parser_test",
+                // Anywhere.
+                "//lang/yaml:yamlparser_test"
+        ), labels(index.find("parser_test", 10)));
+    }
+
+    @Test
+    public void limitsTheNumberOfTargets() {
+        Assert.assertEquals(Arrays.asList("//lang/xml:parser_test", "//lang/yaml:parser_test", "//lang/xml:Parser_Testdata"),
+                labels(index.find("PARSER_TEST", 3)));
+        Assert.assertEquals(Collections.singletonList("//lang/xml:parser_test"), labels(index.find("parser_test", 1)));
+    }
+
+    @Test
+    public void shortQueriesMatchPrefixes() {
+        Assert.assertEquals(Arrays.asList("//:pa", "//lang/xml:parser_test", "//lang/yaml:parser_test", "//lang/xml:Parser_Testdata"),
+                labels(index.find("pa", 10)));
+        Assert.assertEquals(Collections.singletonList("//tools:lexer_test"), labels(index.find(" l ", 10)));
+    }
+
+    @Test
+    public void misspelledQueriesMatchFuzzily() {
+        // "parser_tset" shares 6 of its 9 trigrams with the targets containing "parser_t", but only
+        // 4 with "json_parser" and 2 with "lexer_test".
+        final List<String> labels = labels(index.find("parser_tset", 10));
+        Assert.assertEquals(5, labels.size());
+        Assert.assertEquals(Arrays.asList("//lang/xml:parser_test", "//lang/yaml:parser_test"), labels.subList(0, 2));
+        Assert.assertFalse(labels.contains("//lang/json:json_parser"));
+        Assert.assertFalse(labels.contains("//tools:lexer_test"));
+    }
+
+    @Test
+    public void fuzzyMatchesRankBelowSubstrings() {
+        final List<String> labels = labels(index.find("json_parser_tst", 10));
+        Assert.assertEquals(Collections.emptyList(), labels(index.find("json_parser_tst", 0)));
+        Assert.assertEquals("//lang/json:json_parser_test", labels.get(0));
+
+        Assert.assertEquals(Arrays.asList("//lang/json:json_parser", "//lang/json:json_parser_test"),
+                labels(index.find("json_parser", 2)));
+    }
+
+    @Test
+    public void unknownQueriesMatchNothing() {
+        Assert.assertEquals(Collections.emptyList(), index.find("", 10));
+        Assert.assertEquals(Collections.emptyList(), index.find("zzzzzz", 10));
+    }
+
+    @Test
+    public void duplicateLabelsAreIndexedOnce() {
+        final WorkspaceTree tree = new WorkspaceTree(new Package("/"));
+        addTarget(tree, "lang", "parser");
+        addTarget(tree, "lang", "parser");
+        Assert.assertEquals(1, SymbolIndex.of(tree).size());
+        Assert.assertEquals(1, SymbolIndex.of(tree).find("parser", 10).size());
+    }
+}
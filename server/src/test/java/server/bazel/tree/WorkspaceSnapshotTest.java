@@ -0,0 +1,40 @@
+package server.bazel.tree;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Paths;
+
+public class WorkspaceSnapshotTest {
+    private static WorkspaceTree treeWith(String... names) {
+        final WorkspaceTree tree = new WorkspaceTree(new Package("/"));
+        for (String name : names) {
+            tree.getOrCreateNode("main").getValue().addBuildTarget(
+                    new BuildTarget(Paths.get("//main"), name, "java_library"));
+        }
+        return tree;
+    }
+
+    @Test
+    public void initialSnapshotsAreFullyIndexed() {
+        final WorkspaceSnapshot snapshot = WorkspaceSnapshot.initial(treeWith("lib"));
+
+        Assert.assertEquals(1, snapshot.getCompletions().complete("//main:lib", 10).size());
+        Assert.assertEquals(1, snapshot.getSymbols().find("lib", 10).size());
+    }
+
+    @Test
+    public void nextSnapshotServesThePreviousIndexesUntilBuilt() {
+        final WorkspaceSnapshot first = WorkspaceSnapshot.initial(treeWith("lib"));
+        final WorkspaceSnapshot second = first.next(treeWith("lib", "other"));
+
+        // The labels are current right away, the derived indexes lag behind.
+        Assert.assertTrue(second.getLabels().find("//main:other").isPresent());
+        Assert.assertSame(first.getCompletions(), second.getCompletions());
+        Assert.assertSame(first.getSymbols(), second.getSymbols());
+
+        second.buildIndexes();
+        Assert.assertEquals(1, second.getCompletions().complete("//main:other", 10).size());
+        Assert.assertEquals(1, second.getSymbols().find("other", 10).size());
+    }
+}
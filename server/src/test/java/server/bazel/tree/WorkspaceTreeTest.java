@@ -0,0 +1,110 @@
+package server.bazel.tree;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class WorkspaceTreeTest {
+    @Test
+    public void findNodeLocatesChildrenPastTheIndexThreshold() {
+        final WorkspaceTree tree = new WorkspaceTree(new Package("/"));
+        for (int i = 0; i < 1000; i++) {
+            tree.getOrCreateNode("main/pkg" + i);
+        }
+
+        final WorkspaceTree.Node main = tree.findNode("main").get();
+        Assert.assertEquals(1000, main.getChildren().size());
+        for (int i = 0; i < 1000; i++) {
+            final Optional<WorkspaceTree.Node> node = tree.findNode("/main/pkg" + i);
+            Assert.assertTrue(node.isPresent());
+            Assert.assertEquals("pkg" + i, node.get().getValue().getPackageName());
+            Assert.assertSame(node.get(), main.getChild("pkg" + i).get());
+        }
+        Assert.assertFalse(tree.findNode("main/pkg1000").isPresent());
+        Assert.assertFalse(main.getChild("pkg").isPresent());
+    }
+
+    @Test
+    public void childrenKeepInsertionOrder() {
+        final WorkspaceTree tree = new WorkspaceTree(new Package("/"));
+        IntStream.range(0, 20).forEach(i -> tree.getOrCreateNode(String.valueOf(19 - i)));
+
+        Assert.assertEquals(
+                IntStream.range(0, 20).mapToObj(i -> String.valueOf(19 - i)).collect(Collectors.toList()),
+                tree.getRoot().getAllPackagesOfChildren().stream()
+                        .map(Package::getPackageName)
+                        .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void getOrCreateNodeIgnoresRedundantSlashes() {
+        final WorkspaceTree tree = new WorkspaceTree(new Package("/"));
+        final WorkspaceTree.Node node = tree.getOrCreateNode("/a//b/");
+
+        Assert.assertSame(node, tree.getOrCreateNode("a/b"));
+        Assert.assertSame(tree.getRoot(), tree.getOrCreateNode("/"));
+        Assert.assertEquals(1, tree.getRoot().getChildren().size());
+    }
+
+    @Test
+    public void clearBelowPathDropsTheChildIndex() {
+        final WorkspaceTree tree = new WorkspaceTree(new Package("/"));
+        for (int i = 0; i < 50; i++) {
+            tree.getOrCreateNode("a/child" + i);
+        }
+
+        tree.clearBelowPath("a");
+        Assert.assertTrue(tree.findNode("a").get().isLeaf());
+        Assert.assertFalse(tree.findNode("a/child7").isPresent());
+
+        tree.getOrCreateNode("a/child7");
+        Assert.assertTrue(tree.findNode("a/child7").isPresent());
+    }
+
+    @Test
+    public void copyRebuildsLookups() {
+        final WorkspaceTree tree = new WorkspaceTree(new Package("/"));
+        for (int i = 0; i < 50; i++) {
+            tree.getOrCreateNode("a/child" + i).getValue()
+                    .addBuildTarget(new BuildTarget(null, "t" + i, "cc_library"));
+        }
+
+        final WorkspaceTree copy = tree.copy();
+        tree.clearBelowPath("a");
+
+        final WorkspaceTree.Node node = copy.findNode("a/child42").get();
+        Assert.assertFalse(tree.findNode("a/child42").isPresent());
+        Assert.assertEquals("t42", node.getValue().getBuildTargets().get(0).getLabel());
+    }
+
+    @Test
+    public void spliceCopySharesNodesOffThePath() {
+        final WorkspaceTree tree = new WorkspaceTree(new Package("/"));
+        for (int i = 0; i < 20; i++) {
+            tree.getOrCreateNode("main/pkg" + i).getValue().addBuildTarget(
+                    new BuildTarget(Paths.get("/main/pkg" + i), "lib", "java_library"));
+        }
+        tree.getOrCreateNode("other");
+
+        final WorkspaceTree copy = tree.spliceCopy();
+        final WorkspaceTree.Node spliced = copy.getOrCreateNode("main/pkg7");
+        spliced.getValue().clearContents();
+        copy.getOrCreateNode("main/pkg20");
+
+        Assert.assertNotSame(tree.findNode("main/pkg7").get(), spliced);
+        Assert.assertSame(spliced, copy.getOrCreateNode("main/pkg7"));
+        Assert.assertNotSame(tree.findNode("main").get(), copy.findNode("main").get());
+        Assert.assertSame(tree.findNode("main/pkg8").get(), copy.findNode("main/pkg8").get());
+        Assert.assertSame(tree.findNode("other").get(), copy.findNode("other").get());
+
+        Assert.assertEquals(1, tree.findNode("main/pkg7").get().getValue().getBuildTargets().size());
+        Assert.assertFalse(tree.findNode("main/pkg20").isPresent());
+        Assert.assertEquals(20, tree.findNode("main").get().getChildren().size());
+        Assert.assertEquals(21, copy.findNode("main").get().getChildren().size());
+        Assert.assertTrue(copy.findNode("main/pkg19").isPresent());
+    }
+}
@@ -0,0 +1,102 @@
+package server.benchmarks;
+
+import server.bazel.tree.BuildTarget;
+import server.bazel.tree.CompletionIndex;
+import server.bazel.tree.Package;
+import server.bazel.tree.WorkspaceTree;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures how long it takes to build a completion index and to answer partial label queries
+ * against it. The workspace is generated in memory: packages nest up to five directories deep,
+ * with names drawn from a small vocabulary so segments repeat the way they do in real monorepos,
+ * and every package declares three targets.
+ *
+ * Queries are made by abbreviating the segments of random labels, e.g. "//serv/ap" for
+ * "//server/api/v2:handlers", and by typing the first few characters of a label.
+ *
+ * Usage: bazel run //server/src/test/java/server/benchmarks:completion_index_benchmark -- [labels] [queries]
+ */
+public class CompletionIndexBenchmark {
+    private static final String[] WORDS = {
+            "server", "service", "client", "api", "impl", "core", "common", "util", "utils", "proto",
+            "storage", "cache", "index", "query", "search", "auth", "config", "net", "http", "rpc",
+            "model", "view", "ui", "web", "mobile", "android", "ios", "backend", "frontend", "data",
+            "pipeline", "batch", "stream", "metrics", "logging", "tracing", "testing", "tools", "build", "deploy",
+    };
+    private static final String[] TARGET_SUFFIXES = {"", "_test", "_proto"};
+    private static final int LIMIT = 100;
+
+    public static void main(String[] args) {
+        final int labelCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        final int queryCount = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        final Random random = new Random(42);
+
+        final WorkspaceTree tree = new WorkspaceTree(new Package("/"));
+        final List<String> packagePaths = new ArrayList<>();
+        int labels = 0;
+        while (labels < labelCount) {
+            final int depth = 1 + random.nextInt(5);
+            final StringBuilder path = new StringBuilder();
+            for (int i = 0; i < depth; i++) {
+                path.append(i > 0 ? "/" : "").append(WORDS[random.nextInt(WORDS.length)]);
+                if (random.nextInt(3) == 0) {
+                    path.append(random.nextInt(100));
+                }
+            }
+            final String packagePath = path.toString();
+            final Package pkg = tree.getOrCreateNode(packagePath).getValue();
+            if (!pkg.getBuildTargets().isEmpty()) {
+                continue;
+            }
+
+            final String name = packagePath.substring(packagePath.lastIndexOf('/') + 1);
+            for (String suffix : TARGET_SUFFIXES) {
+                pkg.addBuildTarget(new BuildTarget(Paths.get("/" + packagePath), name + suffix, "java_library"));
+            }
+            packagePaths.add(packagePath);
+            labels += 1 + TARGET_SUFFIXES.length;
+        }
+
+        final long buildStart = System.nanoTime();
+        final CompletionIndex index = CompletionIndex.of(tree);
+        System.out.println(String.format("Indexed %d labels in %.1f ms.", index.size(), (System.nanoTime() - buildStart) / 1e6));
+
+        final String[] queries = new String[queryCount];
+        for (int i = 0; i < queryCount; i++) {
+            final String packagePath = packagePaths.get(random.nextInt(packagePaths.size()));
+            if (i % 4 == 0) {
+                queries[i] = "//" + packagePath.substring(0, Math.min(packagePath.length(), 1 + random.nextInt(6)));
+            } else {
+                final StringBuilder query = new StringBuilder("/");
+                for (String segment : packagePath.split("/")) {
+                    if (random.nextBoolean() || query.length() == 1) {
+                        query.append('/').append(segment, 0, Math.min(segment.length(), 2 + random.nextInt(3)));
+                    }
+                }
+                queries[i] = query.toString();
+            }
+        }
+
+        // Warm up, then time every query on its own.
+        for (String query : queries) {
+            index.complete(query, LIMIT);
+        }
+        final long[] nanos = new long[queryCount];
+        long matches = 0;
+        for (int i = 0; i < queryCount; i++) {
+            final long start = System.nanoTime();
+            matches += index.complete(queries[i], LIMIT).size();
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        System.out.println(String.format("%d queries, %.1f matches each: p50 %.3f ms, p99 %.3f ms, max %.3f ms.",
+                queryCount, (double) matches / queryCount,
+                nanos[queryCount / 2] / 1e6, nanos[queryCount * 99 / 100] / 1e6, nanos[queryCount - 1] / 1e6));
+    }
+}
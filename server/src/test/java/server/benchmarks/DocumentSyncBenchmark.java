@@ -0,0 +1,137 @@
+package server.benchmarks;
+
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
+import server.utils.LineIndex;
+import server.utils.TextBuffer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures the cost of a keystroke in a large open BUILD file, comparing the rope and line index
+ * kept by the document tracker with editing the whole document as a string and scanning it for the
+ * edited line, which the tracker did before.
+ * The document is generated: a run of java_library rules, each with a few srcs and deps, like the
+ * generated BUILD files in our larger repos.
+ *
+ * Keystrokes type or delete a single character at a random position within a rule. Each is timed three ways:
+ * rebuilding the string around the edit, editing the rope and line index, and editing them then
+ * reading the whole text back, which is what a provider needing the full document still pays.
+ *
+ * Usage: bazel run //server/src/test/java/server/benchmarks:document_sync_benchmark -- [lines] [keystrokes]
+ */
+public class DocumentSyncBenchmark {
+    public static void main(String[] args) {
+        final int lineCount = args.length > 0 ? Integer.parseInt(args[0]) : 8_000;
+        final int keystrokes = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+
+        final StringBuilder document = new StringBuilder();
+        int lines = 0;
+        for (int rule = 0; lines < lineCount; rule++) {
+            document.append("java_library(\n")
+                    .append(String.format("    name = \"lib_%d\",\n", rule))
+                    .append(String.format("    srcs = [\"Lib%d.java\", \"Util%d.java\"],\n", rule, rule))
+                    .append(String.format("    deps = [\":lib_%d\", \"//third_party/java:guava\"],\n", Math.max(0, rule - 1)))
+                    .append(")\n\n");
+            lines += 6;
+        }
+        final String text = document.toString();
+        System.out.println(String.format("Document of %d lines, %d characters.", lines, text.length()));
+
+        final Random random = new Random(42);
+        final Range[] ranges = new Range[keystrokes];
+        final String[] inserts = new String[keystrokes];
+        for (int i = 0; i < keystrokes; i++) {
+            // Edit within the attributes of a rule, so no keystroke deletes a line break.
+            final int line = 6 * random.nextInt(lines / 6) + 1 + random.nextInt(3);
+            final int character = 4 + random.nextInt(10);
+            final boolean delete = random.nextInt(4) == 0;
+            ranges[i] = new Range(new Position(line, character), new Position(line, character + (delete ? 1 : 0)));
+            inserts[i] = delete ? "" : String.valueOf((char) ('a' + random.nextInt(26)));
+        }
+
+        // Warm up, then time every keystroke on its own.
+        for (int run = 0; run < 2; run++) {
+            timeStrings(text, ranges, inserts);
+            timeRope(text, ranges, inserts, false);
+            timeRope(text, ranges, inserts, true);
+        }
+        print("String rebuild", timeStrings(text, ranges, inserts));
+        print("Rope and line index edit", timeRope(text, ranges, inserts, false));
+        print("Rope and line index edit and read", timeRope(text, ranges, inserts, true));
+    }
+
+    private static long[] timeStrings(String text, Range[] ranges, String[] inserts) {
+        final long[] nanos = new long[ranges.length];
+        String current = text;
+        for (int i = 0; i < ranges.length; i++) {
+            final long start = System.nanoTime();
+            final int offsetStart = getOffset(current, ranges[i].getStart());
+            final int offsetEnd = getOffset(current, ranges[i].getEnd());
+            current = current.substring(0, offsetStart) + inserts[i] + current.substring(offsetEnd);
+            nanos[i] = System.nanoTime() - start;
+        }
+        return nanos;
+    }
+
+    private static long[] timeRope(String text, Range[] ranges, String[] inserts, boolean read) {
+        final long[] nanos = new long[ranges.length];
+        TextBuffer current = TextBuffer.of(text);
+        LineIndex lines = LineIndex.of(text);
+        long characters = 0;
+        for (int i = 0; i < ranges.length; i++) {
+            final long start = System.nanoTime();
+            final int offsetStart = lines.offsetAt(ranges[i].getStart());
+            final int offsetEnd = lines.offsetAt(ranges[i].getEnd());
+            current = current.replace(offsetStart, offsetEnd, inserts[i]);
+            lines = lines.withEdit(offsetStart, offsetEnd, inserts[i]);
+            if (read) {
+                characters += current.toString().length();
+            }
+            nanos[i] = System.nanoTime() - start;
+        }
+        return characters >= 0 ? nanos : null;
+    }
+
+    /**
+     * How positions were converted to offsets before documents kept a line index: reading the text
+     * from the start up to the line of the position.
+     */
+    private static int getOffset(String string, Position position) {
+        int line = position.getLine();
+        int character = position.getCharacter();
+        int currentIndex = 0;
+        if (line > 0) {
+            BufferedReader reader = new BufferedReader(new StringReader(string));
+            try {
+                int readLines = 0;
+                while (true) {
+                    char currentChar = (char) reader.read();
+                    if (currentChar == (char) -1) {
+                        return -1;
+                    }
+                    currentIndex++;
+                    if (currentChar == '\n') {
+                        readLines++;
+                        if (readLines == line) {
+                            break;
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+        return currentIndex + character;
+    }
+
+    private static void print(String name, long[] nanos) {
+        Arrays.sort(nanos);
+        System.out.println(String.format("%s: p50 %.1f us, p99 %.1f us, max %.1f us.", name,
+                nanos[nanos.length / 2] / 1e3, nanos[nanos.length * 99 / 100] / 1e3, nanos[nanos.length - 1] / 1e3));
+    }
+}
@@ -0,0 +1,225 @@
+package server.benchmarks;
+
+import server.bazel.tree.BuildTarget;
+import server.bazel.tree.Package;
+import server.bazel.tree.SourceFile;
+import server.bazel.tree.SourceLocation;
+import server.bazel.tree.WorkspaceSnapshot;
+import server.bazel.tree.WorkspaceTree;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Measures how long it takes to build a workspace snapshot and how much heap the snapshot's tree
+ * and indexes retain, per 100k build targets. Intended to be run against a workspace created by
+ * examples/cpp_lots_o_files/scripts/generator.py, e.g. `generator.py 4 18` for roughly 100k
+ * packages.
+ *
+ * That workspace never puts more than 18 packages in one directory, so it can't show how child
+ * lookups scale with fan-out. Passing --wide instead of a workspace root lays the given number of
+ * packages out side by side in a single directory, the way `generator.py 1 <packages>` would,
+ * without writing them to disk first.
+ *
+ * Every BUILD file is treated as declaring a single target named after its package, with the
+ * other files in the package as its sources and every label in the BUILD file as its deps, which
+ * matches the generated workspace. Targets and source files are recreated from fresh strings and
+ * paths on every run, with the location, attributes and rule inputs the streamed proto backend
+ * would report.
+ *
+ * Usage: bazel run //server/src/test/java/server/benchmarks:workspace_tree_benchmark -- <workspace root> [runs]
+ *        bazel run //server/src/test/java/server/benchmarks:workspace_tree_benchmark -- --wide <packages> [runs]
+ */
+public class WorkspaceTreeBenchmark {
+    private static final double TARGETS_PER_REPORT = 100_000;
+    private static final int WARMUP_RUNS = 2;
+    private static final String WIDE_FLAG = "--wide";
+    private static final Pattern LABEL = Pattern.compile("\"(//[^\"]*:[^\"]*)\"");
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            printUsage();
+        }
+
+        final List<PackageFiles> packages;
+        final int runs;
+        if (WIDE_FLAG.equals(args[0])) {
+            if (args.length < 2) {
+                printUsage();
+            }
+            packages = widePackages(Integer.parseInt(args[1]));
+            runs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+            System.out.println(String.format("Generated %d packages in one directory.", packages.size()));
+        } else {
+            final Path root = Paths.get(args[0]).toAbsolutePath().normalize();
+            packages = readPackages(root);
+            runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+            System.out.println(String.format("Read %d packages from %s.", packages.size(), root));
+        }
+        final int targetCount = packages.size();
+
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            buildTree(packages);
+        }
+
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long totalNanos = 0;
+        long totalRetained = 0;
+        for (int i = 0; i < runs; i++) {
+            final long before = usedHeap(memory);
+            final long start = System.nanoTime();
+            WorkspaceSnapshot snapshot = WorkspaceSnapshot.initial(buildTree(packages));
+            final long nanos = System.nanoTime() - start;
+            final long retained = usedHeap(memory) - before;
+
+            // Keep the snapshot reachable until the heap has been measured.
+            if (snapshot.getLabels().size() != targetCount) {
+                throw new IllegalStateException();
+            }
+            snapshot = null;
+
+            totalNanos += nanos;
+            totalRetained += retained;
+            System.out.println(String.format("Run %d: built in %.1f ms, retained %.1f MB.",
+                    i + 1, nanos / 1e6, retained / 1e6));
+        }
+
+        final double scale = TARGETS_PER_REPORT / targetCount / runs;
+        System.out.println(String.format("Per 100k targets: %.1f ms to build, %.1f MB retained.",
+                totalNanos * scale / 1e6, totalRetained * scale / 1e6));
+    }
+
+    private static WorkspaceTree buildTree(List<PackageFiles> packages) {
+        final WorkspaceTree tree = new WorkspaceTree(new Package("/"));
+        for (PackageFiles files : packages) {
+            final Path path = freshPath(files.packagePath);
+            final Package pkg = tree.getOrCreateNode(path.toString()).getValue();
+            pkg.addBuildTarget(toBuildTarget(files, path));
+            for (String source : files.sources) {
+                pkg.addSourceFile(new SourceFile(new String(source.toCharArray()), freshPath(files.packagePath)));
+            }
+        }
+        return tree;
+    }
+
+    private static BuildTarget toBuildTarget(PackageFiles files, Path path) {
+        final List<String> srcs = new ArrayList<>();
+        final List<String> ruleInputs = new ArrayList<>();
+        for (String source : files.sources) {
+            srcs.add(fresh(source));
+            ruleInputs.add(new StringBuilder("/").append(path).append(':').append(source).toString());
+        }
+        final List<String> deps = new ArrayList<>();
+        for (String dep : files.deps) {
+            deps.add(fresh(dep));
+            ruleInputs.add(fresh(dep));
+        }
+
+        final Map<String, List<String>> attributes = new LinkedHashMap<>();
+        attributes.put(fresh("name"), Collections.singletonList(fresh(files.name)));
+        attributes.put(fresh("srcs"), srcs);
+        attributes.put(fresh("deps"), deps);
+        attributes.put(fresh("visibility"), Collections.singletonList(fresh("//visibility:public")));
+
+        final SourceLocation location = new SourceLocation(
+                Paths.get(new StringBuilder(files.buildFile).toString()), 4, 1);
+        return new BuildTarget(path, fresh(files.name), fresh("cc_library"), location,
+                Collections.unmodifiableMap(attributes), Collections.unmodifiableList(ruleInputs));
+    }
+
+    private static String fresh(String value) {
+        return new String(value.toCharArray());
+    }
+
+    private static Path freshPath(String packagePath) {
+        return Paths.get(new StringBuilder("/").append(packagePath).toString());
+    }
+
+    private static long usedHeap(MemoryMXBean memory) {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: WorkspaceTreeBenchmark <workspace root> [runs]");
+        System.err.println("       WorkspaceTreeBenchmark --wide <packages> [runs]");
+        System.exit(1);
+    }
+
+    private static List<PackageFiles> widePackages(int count) {
+        final List<PackageFiles> packages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final String name = "level0_package" + i;
+            packages.add(new PackageFiles(
+                    name + "/BUILD",
+                    name,
+                    name,
+                    Arrays.asList(name + ".cc", name + ".hh"),
+                    Collections.emptyList()));
+        }
+        return packages;
+    }
+
+    private static List<PackageFiles> readPackages(Path root) throws IOException {
+        final List<PackageFiles> packages = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(root)) {
+            for (Path buildFile : files.filter(file -> file.getFileName().toString().equals("BUILD"))
+                    .collect(Collectors.toList())) {
+                final Path directory = buildFile.getParent();
+                final String packagePath = root.relativize(directory).toString();
+                final List<String> deps = new ArrayList<>();
+                final Matcher matcher = LABEL.matcher(new String(Files.readAllBytes(buildFile), StandardCharsets.UTF_8));
+                while (matcher.find()) {
+                    if (!matcher.group(1).startsWith("//visibility:")) {
+                        deps.add(matcher.group(1));
+                    }
+                }
+                try (Stream<Path> siblings = Files.list(directory)) {
+                    packages.add(new PackageFiles(
+                            buildFile.toString(),
+                            packagePath,
+                            directory.equals(root) ? "root" : directory.getFileName().toString(),
+                            siblings.filter(Files::isRegularFile)
+                                    .map(file -> file.getFileName().toString())
+                                    .filter(name -> !name.equals("BUILD"))
+                                    .collect(Collectors.toList()),
+                            deps));
+                }
+            }
+        }
+        return packages;
+    }
+
+    private static class PackageFiles {
+        final String buildFile;
+        final String packagePath;
+        final String name;
+        final List<String> sources;
+        final List<String> deps;
+
+        PackageFiles(String buildFile, String packagePath, String name, List<String> sources, List<String> deps) {
+            this.buildFile = buildFile;
+            this.packagePath = packagePath;
+            this.name = name;
+            this.sources = sources;
+            this.deps = deps;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package server.codelens;
+
+import org.eclipse.lsp4j.CodeLens;
+import org.eclipse.lsp4j.CodeLensParams;
+import org.eclipse.lsp4j.DidChangeTextDocumentParams;
+import org.eclipse.lsp4j.DidOpenTextDocumentParams;
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
+import org.eclipse.lsp4j.TextDocumentIdentifier;
+import org.eclipse.lsp4j.TextDocumentItem;
+import org.eclipse.lsp4j.VersionedTextDocumentIdentifier;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import server.bazel.bazelWorkspaceAPI.WorkspaceAPI;
+import server.bazel.tree.BuildTarget;
+import server.bazel.tree.Package;
+import server.bazel.tree.SourceLocation;
+import server.bazel.tree.WorkspaceTree;
+import server.commands.AllCommands;
+import server.utils.DocumentTracker;
+import server.workspace.ProjectFolder;
+import server.workspace.Workspace;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+
+public class CodeLensProviderTest {
+    private static final Path ROOT = Paths.get("/ws").toAbsolutePath();
+    private static final Path BUILD_FILE = ROOT.resolve("main/BUILD");
+    private static final String DOCUMENT = String.join("\n",
+            "java_library(name = \"lib\")",
+            "",
+            "java_binary(",
+            "    name = \"bin\",",
+            ")",
+            "",
+            "junit_suite(name = \"suite\")");
+
+    private CodeLensProvider classUnderTest;
+    private DocumentTracker tracker;
+    private WorkspaceTree tree;
+    private ProjectFolder previousRootFolder;
+
+    @Before
+    public void setUp() {
+        tree = new WorkspaceTree(new Package("/"));
+        previousRootFolder = Workspace.getInstance().getRootFolder();
+        Workspace.getInstance().setRootFolder(ProjectFolder.fromURI(ROOT.toUri()));
+
+        tracker = new DocumentTracker();
+        tracker.didOpen(new DidOpenTextDocumentParams(
+                new TextDocumentItem(BUILD_FILE.toUri().toString(), "starlark", 1, DOCUMENT)));
+
+        classUnderTest = Mockito.spy(new CodeLensProvider());
+        Mockito.doReturn(tracker).when(classUnderTest).getDocumentTracker();
+        Mockito.doAnswer(invocation -> new WorkspaceAPI(tree)).when(classUnderTest).getWorkspaceAPI();
+    }
+
+    @After
+    public void tearDown() {
+        Workspace.getInstance().setRootFolder(previousRootFolder);
+    }
+
+    private void addTarget(String name, String kind, SourceLocation location) {
+        tree.getOrCreateNode("main").getValue().addBuildTarget(new BuildTarget(Paths.get("/main"), name, kind,
+                location, Collections.emptyMap(), Collections.emptyList()));
+    }
+
+    private List<? extends CodeLens> codeLens() throws Exception {
+        return classUnderTest.getCodeLens(new CodeLensParams(
+                new TextDocumentIdentifier(BUILD_FILE.toUri().toString()))).get();
+    }
+
+    private static void assertLens(CodeLens lens, int line, String command, String title, String label) {
+        Assert.assertEquals(line, lens.getRange().getStart().getLine());
+        Assert.assertEquals(command, lens.getCommand().getCommand());
+        Assert.assertEquals(title, lens.getCommand().getTitle());
+        Assert.assertEquals(Collections.singletonList(label), lens.getCommand().getArguments());
+    }
+
+    @Test
+    public void findsTargetsSyncedWithoutLocations() throws Exception {
+        // The default backend records no locations, only kinds.
+        addTarget("lib", "java_library", null);
+        addTarget("bin", "java_binary", null);
+        addTarget("suite", "java_test", null);
+
+        final List<? extends CodeLens> lenses = codeLens();
+        Assert.assertEquals(2, lenses.size());
+        assertLens(lenses.get(0), 3, AllCommands.build, "Build bin", "//main:bin");
+        assertLens(lenses.get(1), 6, AllCommands.test, "Test suite", "//main:suite");
+    }
+
+    @Test
+    public void findsTargetsBeforeTheFirstSync() throws Exception {
+        final List<? extends CodeLens> lenses = codeLens();
+        Assert.assertEquals(1, lenses.size());
+        assertLens(lenses.get(0), 3, AllCommands.build, "Build bin", "//main:bin");
+    }
+
+    @Test
+    public void followsUnsavedEdits() throws Exception {
+        addTarget("bin", "java_binary", new SourceLocation(BUILD_FILE, 3, 1));
+        tracker.didChange(new DidChangeTextDocumentParams(new VersionedTextDocumentIdentifier(BUILD_FILE.toUri().toString(), 2),
+                Collections.singletonList(new TextDocumentContentChangeEvent("# A comment\n\n" + DOCUMENT))));
+
+        final List<? extends CodeLens> lenses = codeLens();
+        Assert.assertEquals(1, lenses.size());
+        assertLens(lenses.get(0), 5, AllCommands.build, "Build bin", "//main:bin");
+    }
+
+    @Test
+    public void placesTargetsDeclaredByMacrosAtTheirRecordedLocation() throws Exception {
+        addTarget("suite_unit", "java_test", new SourceLocation(BUILD_FILE, 7, 1));
+
+        final List<? extends CodeLens> lenses = codeLens();
+        Assert.assertEquals(2, lenses.size());
+        assertLens(lenses.get(1), 6, AllCommands.test, "Test suite_unit", "//main:suite_unit");
+    }
+}
@@ -113,6 +113,20 @@ public class CompletionProviderTest {
         Assert.assertTrue(listContainsValue(list.getItems(), "main_1_1_Target"));
     }
 
+    @Test
+    public void getPartialPathCompletion() throws Exception {
+        Mockito.doReturn("\"//ma/main_\"\n").when(tracker).getContents(Mockito.any());
+        CompletionParams params = new CompletionParams(new TextDocumentIdentifier("somedocument"), new Position(0,11), new CompletionContext(CompletionTriggerKind.Invoked));
+        CompletableFuture<Either<List<CompletionItem>, CompletionList>> future = classUnderTest.getCompletion(params);
+        CompletionList list = (CompletionList)future.get().get();
+        Assert.assertEquals(6, list.getItems().size());
+        Assert.assertEquals("//main/main_1", list.getItems().get(0).getInsertText());
+        Assert.assertEquals("//main/main_2", list.getItems().get(1).getInsertText());
+        Assert.assertEquals("//main:main_Target", list.getItems().get(2).getInsertText());
+        Assert.assertTrue(listContainsValue(list.getItems(), "//main/main_1:main_1_1_Target"));
+        Assert.assertEquals(new Range(new Position(0, 1), new Position(0, 11)), list.getItems().get(0).getTextEdit().getRange());
+    }
+
     private boolean listContainsValue(List<CompletionItem> items, String value) {
         for(CompletionItem item : items) {
             if(item.getInsertText().equals(value)) {
@@ -0,0 +1,139 @@
+package server.definition;
+
+import org.eclipse.lsp4j.DefinitionParams;
+import org.eclipse.lsp4j.Location;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.TextDocumentIdentifier;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import server.bazel.bazelWorkspaceAPI.WorkspaceAPI;
+import server.bazel.tree.BuildTarget;
+import server.bazel.tree.Package;
+import server.bazel.tree.SourceFile;
+import server.bazel.tree.SourceLocation;
+import server.bazel.tree.WorkspaceTree;
+import server.utils.DocumentTracker;
+import server.utils.LineIndex;
+import server.workspace.ProjectFolder;
+import server.workspace.Workspace;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+public class DefinitionProviderTest {
+    private static final Path ROOT = Paths.get("/ws").toAbsolutePath();
+    private static final String DOCUMENT = String.join("\n",
+            "java_binary(",
+            "    name = \"bin\",",
+            "    srcs = [\"Main.java\"],",
+            "    deps = [\":lib\", \"//tools\", '//tools:gen', \"@maven//:guava\"],  # \":lib\"",
+            ")");
+
+    private DefinitionProvider classUnderTest;
+    private DocumentTracker tracker;
+    private ProjectFolder previousRootFolder;
+
+    @Before
+    public void setUp() {
+        final WorkspaceTree tree = new WorkspaceTree(new Package("/"));
+        addTarget(tree, "main", "bin", ROOT.resolve("main/BUILD"), 1);
+        addTarget(tree, "main", "lib", ROOT.resolve("main/BUILD"), 7);
+        addTarget(tree, "tools", "tools", ROOT.resolve("tools/BUILD.bazel"), 3);
+        addTarget(tree, "tools", "gen", null, 0);
+        tree.getOrCreateNode("main").getValue().addSourceFile(new SourceFile("Main.java", Paths.get("/main")));
+
+        previousRootFolder = Workspace.getInstance().getRootFolder();
+        Workspace.getInstance().setRootFolder(ProjectFolder.fromURI(ROOT.toUri()));
+        classUnderTest = Mockito.spy(new DefinitionProvider());
+        tracker = Mockito.spy(DocumentTracker.getInstance());
+        Mockito.doReturn(new WorkspaceAPI(tree)).when(classUnderTest).getWorkspaceAPI();
+        Mockito.doReturn(tracker).when(classUnderTest).getDocumentTracker();
+        Mockito.doReturn(DOCUMENT).when(tracker).getContents(Mockito.any());
+    }
+
+    @After
+    public void tearDown() {
+        Workspace.getInstance().setRootFolder(previousRootFolder);
+    }
+
+    private static void addTarget(WorkspaceTree tree, String packagePath, String name, Path buildFile, int line) {
+        final SourceLocation location = buildFile != null ? new SourceLocation(buildFile, line, 1) : null;
+        tree.getOrCreateNode(packagePath).getValue().addBuildTarget(new BuildTarget(Paths.get("/" + packagePath), name,
+                "java_library", location, Collections.emptyMap(), Collections.emptyList()));
+    }
+
+    private List<? extends Location> definition(int line, int character) throws Exception {
+        final DefinitionParams params = new DefinitionParams(
+                new TextDocumentIdentifier(ROOT.resolve("main/BUILD").toUri().toString()), new Position(line, character));
+        return classUnderTest.getDefinition(params).get().getLeft();
+    }
+
+    private static void assertLocation(Path file, int line, List<? extends Location> locations) {
+        Assert.assertEquals(1, locations.size());
+        Assert.assertEquals(file.toUri().toString(), locations.get(0).getUri());
+        Assert.assertEquals(line, locations.get(0).getRange().getStart().getLine());
+    }
+
+    @Test
+    public void resolvesLocalLabelsToTheirDeclaration() throws Exception {
+        assertLocation(ROOT.resolve("main/BUILD"), 6, definition(3, 15));
+        // The cursor may be on either quote.
+        assertLocation(ROOT.resolve("main/BUILD"), 6, definition(3, 12));
+        assertLocation(ROOT.resolve("main/BUILD"), 6, definition(3, 17));
+    }
+
+    @Test
+    public void resolvesAbsoluteAndShorthandLabels() throws Exception {
+        assertLocation(ROOT.resolve("tools/BUILD.bazel"), 2, definition(3, 25));
+    }
+
+    @Test
+    public void fallsBackToFiles() throws Exception {
+        // A source file resolves to itself, and a target without a location to its BUILD file.
+        assertLocation(ROOT.resolve("main/Main.java"), 0, definition(2, 17));
+        assertLocation(ROOT.resolve("tools/BUILD.bazel"), 0, definition(3, 40));
+    }
+
+    @Test
+    public void fallsBackToRecordedBuildFilesWithoutLocations() {
+        // The default backend reports no locations, only the BUILD file recorded at sync time.
+        final WorkspaceTree tree = new WorkspaceTree(new Package("/"));
+        addTarget(tree, "tools", "tools", null, 0);
+        tree.getOrCreateNode("tools").getValue().setBuildFile(ROOT.resolve("tools/BUILD.bazel"));
+        final WorkspaceAPI api = new WorkspaceAPI(tree);
+
+        Assert.assertEquals(Optional.of(new SourceLocation(ROOT.resolve("tools/BUILD.bazel"), 1, 1)),
+                api.findDeclaration("//tools"));
+        Assert.assertEquals(Optional.of(new SourceLocation(ROOT.resolve("tools/BUILD.bazel"), 1, 1)),
+                api.findDeclaration("//tools:tools"));
+        Assert.assertFalse(api.findDeclaration("//other").isPresent());
+        Assert.assertFalse(api.findDeclaration("//").isPresent());
+    }
+
+    @Test
+    public void ignoresAnythingElse() throws Exception {
+        // Outside a string, external labels, unknown names and comments.
+        Assert.assertEquals(0, definition(3, 6).size());
+        Assert.assertEquals(0, definition(3, 58).size());
+        Assert.assertEquals(0, definition(0, 3).size());
+        Assert.assertEquals(0, definition(3, 75).size());
+        Assert.assertEquals(0, definition(9, 0).size());
+    }
+
+    @Test
+    public void findsStringsOnTheCursorLine() {
+        Assert.assertEquals(Optional.of("a b"), findStringAt("x = 'q'\ny = \"a b\"", new Position(1, 6)));
+        Assert.assertEquals(Optional.of("a\\\"b"), findStringAt("\"a\\\"b\"", new Position(0, 4)));
+        Assert.assertEquals(Optional.empty(), findStringAt("\"open", new Position(0, 2)));
+    }
+
+    private static Optional<String> findStringAt(String contents, Position position) {
+        return DefinitionProvider.findStringAt(contents, LineIndex.of(contents), position);
+    }
+}
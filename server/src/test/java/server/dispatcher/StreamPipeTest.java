@@ -0,0 +1,47 @@
+package server.dispatcher;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class StreamPipeTest {
+
+    @Test
+    public void testFailingHandlerStillDrainsTheStream() {
+        final ClosableStream stream = new ClosableStream(new byte[1 << 20]);
+        final StreamPipe pipe = new StreamPipe(stream, s -> {
+            s.read();
+            throw new IllegalStateException("malformed output");
+        });
+
+        pipe.run();
+
+        Assert.assertTrue(pipe.getFailure() instanceof IllegalStateException);
+        Assert.assertEquals(0, stream.available());
+        Assert.assertTrue(stream.closed);
+    }
+
+    @Test
+    public void testSuccessfulHandlerHasNoFailure() {
+        final StreamPipe pipe = new StreamPipe(new ByteArrayInputStream(new byte[16]), InputStream::read);
+        pipe.run();
+        Assert.assertNull(pipe.getFailure());
+    }
+
+    private static class ClosableStream extends ByteArrayInputStream {
+        private boolean closed = false;
+
+        ClosableStream(byte[] bytes) {
+            super(bytes);
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+}
@@ -77,7 +77,7 @@ public class FormattingProviderTest {
 
         output = formattingProvider.getDocumentFormatting(params);
         Range result = output.get().get(0).getRange();
-        Range expected = new Range(new Position(0, 0), new Position(0, 19));
+        Range expected = new Range(new Position(0, 0), new Position(0, 20));
 
         Assert.assertEquals(expected, result);
     }
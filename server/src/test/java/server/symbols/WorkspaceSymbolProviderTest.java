@@ -0,0 +1,76 @@
+package server.symbols;
+
+import org.eclipse.lsp4j.SymbolInformation;
+import org.eclipse.lsp4j.SymbolKind;
+import org.eclipse.lsp4j.WorkspaceSymbolParams;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import server.bazel.bazelWorkspaceAPI.WorkspaceAPI;
+import server.bazel.tree.BuildTarget;
+import server.bazel.tree.Package;
+import server.bazel.tree.SourceLocation;
+import server.bazel.tree.WorkspaceTree;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+
+public class WorkspaceSymbolProviderTest {
+    // Nothing exists on disk, so every location has to come from the index.
+    private static final Path BUILD_FILE = Paths.get("/ws/main/BUILD.bazel").toAbsolutePath();
+
+    private WorkspaceSymbolProvider classUnderTest;
+    private WorkspaceTree tree;
+
+    @Before
+    public void setUp() {
+        tree = new WorkspaceTree(new Package("/"));
+        classUnderTest = Mockito.spy(new WorkspaceSymbolProvider());
+        Mockito.doAnswer(invocation -> new WorkspaceAPI(tree)).when(classUnderTest).getWorkspaceAPI();
+    }
+
+    private void addTarget(String name, String kind, SourceLocation location) {
+        tree.getOrCreateNode("main").getValue().addBuildTarget(new BuildTarget(Paths.get("//main"), name, kind,
+                location, Collections.emptyMap(), Collections.emptyList()));
+    }
+
+    private List<? extends SymbolInformation> symbols(String query) throws Exception {
+        return classUnderTest.getWorkspaceSymbols(new WorkspaceSymbolParams(query)).get();
+    }
+
+    @Test
+    public void locatesTargetsAtTheirDeclaration() throws Exception {
+        addTarget("parser_test", "java_test", new SourceLocation(BUILD_FILE, 12, 5));
+
+        final List<? extends SymbolInformation> symbols = symbols("parser");
+        Assert.assertEquals(1, symbols.size());
+        Assert.assertEquals("parser_test", symbols.get(0).getName());
+        Assert.assertEquals(SymbolKind.Function, symbols.get(0).getKind());
+        Assert.assertEquals("//main", symbols.get(0).getContainerName());
+        Assert.assertEquals(BUILD_FILE.toUri().toString(), symbols.get(0).getLocation().getUri());
+        Assert.assertEquals(11, symbols.get(0).getLocation().getRange().getStart().getLine());
+        Assert.assertEquals(4, symbols.get(0).getLocation().getRange().getStart().getCharacter());
+    }
+
+    @Test
+    public void locatesTargetsWithoutLocationsAtTheRecordedBuildFile() throws Exception {
+        addTarget("parser", "java_library", null);
+        tree.getOrCreateNode("main").getValue().setBuildFile(BUILD_FILE);
+
+        final List<? extends SymbolInformation> symbols = symbols("parser");
+        Assert.assertEquals(1, symbols.size());
+        Assert.assertEquals(SymbolKind.Module, symbols.get(0).getKind());
+        Assert.assertEquals(BUILD_FILE.toUri().toString(), symbols.get(0).getLocation().getUri());
+        Assert.assertEquals(0, symbols.get(0).getLocation().getRange().getStart().getLine());
+    }
+
+    @Test
+    public void skipsTargetsOfPackagesWithoutBuildFiles() throws Exception {
+        addTarget("parser", "java_library", null);
+
+        Assert.assertEquals(Collections.emptyList(), symbols("parser"));
+    }
+}
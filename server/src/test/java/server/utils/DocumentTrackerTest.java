@@ -3,12 +3,25 @@ package server.utils;
 import org.eclipse.lsp4j.*;
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.IOException;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class DocumentTrackerTest {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
 
     @Before
     public void setup() {
@@ -17,6 +30,20 @@ public class DocumentTrackerTest {
         DocumentTracker.getInstance().didOpen(params);
     }
 
+    @Test
+    public void testOpeningAFileForgetsItsContentsOnDisk() throws IOException {
+        final DocumentTracker tracker = new DocumentTracker();
+        final Path file = tempFolder.getRoot().toPath().resolve("BUILD");
+        Files.write(file, "on disk".getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals("on disk", tracker.getContents(file.toUri()));
+        Assert.assertTrue(tracker.getClosedFileCache().getBytes() > 0);
+
+        tracker.didOpen(new DidOpenTextDocumentParams(
+                new TextDocumentItem(file.toUri().toString(), "starlark", 1, "in the editor")));
+        Assert.assertEquals(0, tracker.getClosedFileCache().getBytes());
+        Assert.assertEquals("in the editor", tracker.getContents(file.toUri()));
+    }
+
     @Test
     public void testDidOpen() {
         Assert.assertEquals("arbitrary value", DocumentTracker.getInstance().getContents(URI.create("test.txt")));
@@ -66,4 +93,111 @@ public class DocumentTrackerTest {
         DocumentTracker.getInstance().didChange(changeParams);
         Assert.assertEquals("multiple\nlistening\nears", DocumentTracker.getInstance().getContents(URI.create("multiline.txt")));
     }
+
+    @Test
+    public void testDidChangeAppliesEveryChangeInOrder() {
+        DidChangeTextDocumentParams changeParams = new DidChangeTextDocumentParams();
+        changeParams.setTextDocument(new VersionedTextDocumentIdentifier("test.txt", 2));
+
+        // The second change is relative to the text left by the first.
+        TextDocumentContentChangeEvent first = new TextDocumentContentChangeEvent(
+                new Range(new Position(0, 0), new Position(0, 0)), 0, "an\n");
+        TextDocumentContentChangeEvent second = new TextDocumentContentChangeEvent(
+                new Range(new Position(1, 9), new Position(1, 15)), 6, " data");
+        changeParams.setContentChanges(Arrays.asList(first, second));
+
+        DocumentTracker.getInstance().didChange(changeParams);
+        Assert.assertEquals("an\narbitrary data", DocumentTracker.getInstance().getContents(URI.create("test.txt")));
+    }
+
+    @Test
+    public void testVersionsFollowTheClient() {
+        DocumentTracker tracker = new DocumentTracker();
+        URI uri = URI.create("versions.txt");
+        tracker.didOpen(new DidOpenTextDocumentParams(new TextDocumentItem(uri.toString(), "plaintext", 3, "text")));
+        Assert.assertEquals(Integer.valueOf(3), tracker.getVersion(uri));
+
+        DidChangeTextDocumentParams changeParams = new DidChangeTextDocumentParams();
+        changeParams.setTextDocument(new VersionedTextDocumentIdentifier(uri.toString(), 7));
+        changeParams.setContentChanges(Collections.singletonList(new TextDocumentContentChangeEvent("more text")));
+        tracker.didChange(changeParams);
+        Assert.assertEquals(Integer.valueOf(7), tracker.getVersion(uri));
+
+        tracker.didClose(new DidCloseTextDocumentParams(new TextDocumentIdentifier(uri.toString())));
+        Assert.assertNull(tracker.getVersion(uri));
+    }
+
+    @Test
+    public void testParsedDocumentIsSharedUntilTheDocumentChanges() {
+        DocumentTracker tracker = new DocumentTracker();
+        URI uri = URI.create("BUILD");
+        tracker.didOpen(new DidOpenTextDocumentParams(new TextDocumentItem(uri.toString(), "starlark", 1,
+                "java_library(\n    name = \"lib\",\n    deps = [\":other\"],\n)\n")));
+
+        ParsedDocument parsed = tracker.getParsedDocument(uri);
+        Assert.assertSame(parsed, tracker.getParsedDocument(uri));
+        Assert.assertEquals(1, parsed.getTargets().size());
+        Assert.assertEquals("lib", parsed.getTargets().get(0).name().getValue());
+
+        DidChangeTextDocumentParams changeParams = new DidChangeTextDocumentParams();
+        changeParams.setTextDocument(new VersionedTextDocumentIdentifier(uri.toString(), 2));
+        changeParams.setContentChanges(Collections.singletonList(new TextDocumentContentChangeEvent(
+                new Range(new Position(1, 12), new Position(1, 15)), 3, "library")));
+        tracker.didChange(changeParams);
+
+        ParsedDocument changed = tracker.getParsedDocument(uri);
+        Assert.assertNotSame(parsed, changed);
+        Assert.assertEquals("library", changed.getTargets().get(0).name().getValue());
+    }
+
+    @Test
+    public void testReadersSeeConsistentSnapshotsWhileEditsArrive() throws Exception {
+        DocumentTracker tracker = new DocumentTracker();
+        URI uri = URI.create("concurrent.txt");
+        tracker.didOpen(new DidOpenTextDocumentParams(new TextDocumentItem(uri.toString(), "plaintext", 0, "")));
+
+        // Version n of the document is n lines of "x", so every snapshot can be checked on its own.
+        int edits = 2000;
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicBoolean done = new AtomicBoolean(false);
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Thread reader = new Thread(() -> {
+                try {
+                    int lastVersion = 0;
+                    while (!done.get()) {
+                        DocumentSnapshot snapshot = tracker.getSnapshot(uri);
+                        int version = snapshot.getVersion();
+                        Assert.assertTrue(version >= lastVersion);
+                        Assert.assertEquals(2 * version, snapshot.getText().length());
+                        Assert.assertEquals(version + 1, snapshot.getLineIndex().lineCount());
+                        Assert.assertEquals(2 * version, snapshot.getLineIndex().length());
+                        lastVersion = version;
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+
+        for (int version = 1; version <= edits; version++) {
+            DidChangeTextDocumentParams changeParams = new DidChangeTextDocumentParams();
+            changeParams.setTextDocument(new VersionedTextDocumentIdentifier(uri.toString(), version));
+            changeParams.setContentChanges(Collections.singletonList(new TextDocumentContentChangeEvent(
+                    new Range(new Position(0, 0), new Position(0, 0)), 0, "x\n")));
+            tracker.didChange(changeParams);
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        Assert.assertEquals(Integer.valueOf(edits), tracker.getVersion(uri));
+        Assert.assertEquals(2 * edits, tracker.getContents(uri).length());
+    }
 }
@@ -0,0 +1,80 @@
+package server.utils;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+public class FileContentCacheTest {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testUnchangedFilesAreReadOnce() throws IOException {
+        final FileContentCache cache = new FileContentCache();
+        final Path file = write("BUILD", "java_library(name = \"lib\")\n");
+
+        final String contents = cache.read(file);
+        Assert.assertEquals("java_library(name = \"lib\")\n", contents);
+        Assert.assertSame(contents, cache.read(file));
+    }
+
+    @Test
+    public void testChangedFilesAreReadAgain() throws IOException {
+        final FileContentCache cache = new FileContentCache();
+        final Path file = write("BUILD", "first");
+        Assert.assertEquals("first", cache.read(file));
+
+        // Same size, so only the modification time tells the contents apart.
+        Files.write(file, "other".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 2000));
+        Assert.assertEquals("other", cache.read(file));
+    }
+
+    @Test
+    public void testLeastRecentlyReadFilesAreEvicted() throws IOException {
+        // Room for two files of ten characters.
+        final FileContentCache cache = new FileContentCache(40, Long.MAX_VALUE);
+        final Path a = write("a", "aaaaaaaaaa");
+        final Path b = write("b", "bbbbbbbbbb");
+        final Path c = write("c", "cccccccccc");
+
+        final String first = cache.read(a);
+        cache.read(b);
+        Assert.assertSame(first, cache.read(a));
+        cache.read(c);
+        Assert.assertEquals(40, cache.getBytes());
+        Assert.assertSame(first, cache.read(a));
+
+        cache.setByteBudget(20);
+        Assert.assertEquals(20, cache.getBytes());
+        cache.setByteBudget(0);
+        Assert.assertEquals(0, cache.getBytes());
+        Assert.assertEquals("aaaaaaaaaa", cache.read(a));
+        Assert.assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void testLargeFilesAreMapped() throws IOException {
+        final FileContentCache cache = new FileContentCache(FileContentCache.DEFAULT_BYTE_BUDGET, 0);
+        final Path file = write("BUILD", "name = \"\u00e9t\u00e9\"\n");
+        Assert.assertEquals("name = \"\u00e9t\u00e9\"\n", cache.read(file));
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingFilesThrow() throws IOException {
+        new FileContentCache().read(tempFolder.getRoot().toPath().resolve("missing"));
+    }
+
+    private Path write(String name, String contents) throws IOException {
+        final Path file = tempFolder.getRoot().toPath().resolve(name);
+        Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
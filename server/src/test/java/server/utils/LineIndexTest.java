@@ -0,0 +1,75 @@
+package server.utils;
+
+import org.eclipse.lsp4j.Position;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class LineIndexTest {
+
+    @Test
+    public void testOffsetAt() {
+        final LineIndex lines = LineIndex.of("first\nsecond\n\nlast");
+        Assert.assertEquals(4, lines.lineCount());
+        Assert.assertEquals(0, lines.offsetAt(new Position(0, 0)));
+        Assert.assertEquals(8, lines.offsetAt(new Position(1, 2)));
+        Assert.assertEquals(13, lines.offsetAt(new Position(2, 0)));
+        Assert.assertEquals(16, lines.offsetAt(new Position(3, 2)));
+    }
+
+    @Test
+    public void testOffsetAtClampsToTheLineAndText() {
+        final LineIndex lines = LineIndex.of("first\nsecond");
+        Assert.assertEquals(5, lines.offsetAt(new Position(0, 40)));
+        Assert.assertEquals(12, lines.offsetAt(new Position(1, 40)));
+        Assert.assertEquals(12, lines.offsetAt(new Position(7, 0)));
+        Assert.assertEquals(1, LineIndex.of("").lineCount());
+    }
+
+    @Test
+    public void testPositionAt() {
+        final LineIndex lines = LineIndex.of("first\nsecond\n\nlast");
+        Assert.assertEquals(new Position(0, 0), lines.positionAt(0));
+        Assert.assertEquals(new Position(0, 5), lines.positionAt(5));
+        Assert.assertEquals(new Position(1, 0), lines.positionAt(6));
+        Assert.assertEquals(new Position(2, 0), lines.positionAt(13));
+        Assert.assertEquals(new Position(3, 4), lines.positionAt(18));
+        Assert.assertEquals(new Position(3, 4), lines.positionAt(100));
+    }
+
+    @Test
+    public void testColumnsCountUtf16CodeUnits() {
+        // The emoji is outside of the basic multilingual plane, so it takes two columns.
+        final LineIndex lines = LineIndex.of("x\n\uD83D\uDE00 = 1");
+        Assert.assertEquals(5, lines.offsetAt(new Position(1, 3)));
+        Assert.assertEquals(new Position(1, 3), lines.positionAt(5));
+    }
+
+    @Test
+    public void testRandomEditsMatchAFreshIndex() {
+        final Random random = new Random(42);
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            builder.append(random.nextInt(10) == 0 ? '\n' : (char) ('a' + random.nextInt(26)));
+        }
+
+        String text = builder.toString();
+        LineIndex lines = LineIndex.of(text);
+        for (int edit = 0; edit < 2000; edit++) {
+            final int start = random.nextInt(text.length() + 1);
+            final int end = Math.min(text.length(), start + random.nextInt(random.nextInt(4) == 0 ? 200 : 3));
+            final int from = random.nextInt(text.length() + 1);
+            final String inserted = random.nextInt(3) == 0 ? "" : text.substring(from, Math.min(text.length(), from + random.nextInt(50)));
+            text = text.substring(0, start) + inserted + text.substring(end);
+            lines = lines.withEdit(start, end, inserted);
+
+            final LineIndex expected = LineIndex.of(text);
+            Assert.assertEquals(expected.length(), lines.length());
+            Assert.assertEquals(expected.lineCount(), lines.lineCount());
+            for (int line = 0; line < expected.lineCount(); line++) {
+                Assert.assertEquals(expected.lineStart(line), lines.lineStart(line));
+            }
+        }
+    }
+}
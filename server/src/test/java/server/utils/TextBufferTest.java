@@ -0,0 +1,44 @@
+package server.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class TextBufferTest {
+
+    @Test
+    public void testReplaceLeavesTheOriginal() {
+        final TextBuffer buffer = TextBuffer.of("arbitrary value");
+        final TextBuffer replaced = buffer.replace(9, 15, " data");
+        Assert.assertEquals("arbitrary data", replaced.toString());
+        Assert.assertEquals("arbitrary value", buffer.toString());
+        Assert.assertEquals("", buffer.replace(0, buffer.length(), "").toString());
+        Assert.assertEquals(0, TextBuffer.of("").length());
+    }
+
+    @Test
+    public void testRandomEditsMatchStrings() {
+        final Random random = new Random(42);
+        final StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            line.append(random.nextInt(20) == 0 ? '\n' : (char) ('a' + random.nextInt(26)));
+        }
+
+        String expected = line.toString();
+        TextBuffer buffer = TextBuffer.of(expected);
+        for (int edit = 0; edit < 3000; edit++) {
+            final int start = random.nextInt(expected.length() + 1);
+            final int end = Math.min(expected.length(), start + (random.nextInt(4) == 0 ? random.nextInt(3000) : random.nextInt(3)));
+            final String text = random.nextInt(3) == 0 ? "" : expected.substring(0, random.nextInt(Math.min(expected.length(), 2000) + 1));
+            expected = expected.substring(0, start) + text + expected.substring(end);
+            buffer = buffer.replace(start, end, text);
+
+            Assert.assertEquals(expected.length(), buffer.length());
+            if (edit % 100 == 0) {
+                Assert.assertEquals(expected, buffer.toString());
+            }
+        }
+        Assert.assertEquals(expected, buffer.toString());
+    }
+}
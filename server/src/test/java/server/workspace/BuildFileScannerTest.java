@@ -0,0 +1,124 @@
+package server.workspace;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import server.bazel.cli.TargetListener;
+import server.bazel.tree.BuildTarget;
+import server.bazel.tree.SourceFile;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class BuildFileScannerTest {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testScanExtractsTargetsAndExistingSources() throws IOException {
+        final Path root = tempFolder.getRoot().toPath();
+        write(root.resolve("main/BUILD"),
+                "java_library(",
+                "    name = \"lib\",",
+                "    srcs = [\"Lib.java\", \"Missing.java\", \":gen\"],",
+                "    deps = [\":util\", \"//tools\", \"@maven//:guava\"],",
+                ")",
+                "genrule(name = \"gen\", srcs = [])");
+        write(root.resolve("main/Lib.java"), "class Lib {}");
+
+        final List<BuildTarget> targets = new ArrayList<>();
+        final List<SourceFile> sources = new ArrayList<>();
+        BuildFileScanner.scan(root, collectInto(targets, sources));
+
+        Assert.assertEquals(2, targets.size());
+        final BuildTarget lib = targets.get(0);
+        Assert.assertEquals(Paths.get("/main"), lib.getPath());
+        Assert.assertEquals("lib", lib.getLabel());
+        Assert.assertEquals("java_library", lib.getKind());
+        Assert.assertEquals(2, lib.getLocation().get().getLine());
+        Assert.assertEquals(Arrays.asList("Lib.java", "Missing.java", ":gen"), lib.getAttributes().get("srcs"));
+        Assert.assertEquals(Arrays.asList(
+                "//main:Lib.java", "//main:Missing.java", "//main:gen",
+                "//main:util", "//tools:tools", "@maven//:guava"), lib.getRuleInputs());
+        Assert.assertEquals("genrule", targets.get(1).getKind());
+
+        // Only sources which exist on disk and aren't targets are reported.
+        Assert.assertEquals(Collections.singletonList("Lib.java"),
+                sources.stream().map(SourceFile::getFileNameWithExtension).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testScanSkipsIgnoredDirectoriesAndPrefersBuildBazel() throws IOException {
+        final Path root = tempFolder.getRoot().toPath();
+        write(root.resolve(".bazelignore"), "vendor");
+        write(root.resolve("BUILD"), "filegroup(name = \"root\")");
+        write(root.resolve("app/BUILD"), "filegroup(name = \"old\")");
+        write(root.resolve("app/BUILD.bazel"), "filegroup(name = \"new\")");
+        write(root.resolve("vendor/BUILD"), "filegroup(name = \"vendored\")");
+        write(root.resolve("bazel-out/BUILD"), "filegroup(name = \"output\")");
+        write(root.resolve(".git/BUILD"), "filegroup(name = \"hidden\")");
+
+        final List<BuildTarget> targets = new ArrayList<>();
+        BuildFileScanner.scan(root, collectInto(targets, new ArrayList<>()));
+
+        Assert.assertEquals(Arrays.asList("new", "root"),
+                targets.stream().map(BuildTarget::getLabel).sorted().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testScanPackageOnlyReadsThatPackage() throws IOException {
+        final Path root = tempFolder.getRoot().toPath();
+        write(root.resolve("a/BUILD"), "filegroup(name = \"a\")");
+        write(root.resolve("a/b/BUILD"), "filegroup(name = \"b\")");
+
+        final List<BuildTarget> targets = new ArrayList<>();
+        BuildFileScanner.scanPackage(root, "a", collectInto(targets, new ArrayList<>()));
+
+        Assert.assertEquals(1, targets.size());
+        Assert.assertEquals("a", targets.get(0).getLabel());
+    }
+
+    @Test
+    public void testScanManyFilesKeepsPackageOrder() throws IOException {
+        final Path root = tempFolder.getRoot().toPath();
+        final List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            final String name = String.format("pkg%03d", i);
+            write(root.resolve(name + "/BUILD"), String.format("filegroup(name = \"%s\")", name));
+            expected.add(name);
+        }
+
+        final List<BuildTarget> targets = new ArrayList<>();
+        BuildFileScanner.scan(root, collectInto(targets, new ArrayList<>()));
+
+        Assert.assertEquals(expected, targets.stream().map(BuildTarget::getLabel).collect(Collectors.toList()));
+    }
+
+    private static void write(Path file, String... lines) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, Arrays.asList(lines), StandardCharsets.UTF_8);
+    }
+
+    private static TargetListener collectInto(List<BuildTarget> buildTargets, List<SourceFile> sourceFiles) {
+        return new TargetListener() {
+            @Override
+            public void onBuildTarget(BuildTarget target) {
+                buildTargets.add(target);
+            }
+
+            @Override
+            public void onSourceFile(SourceFile sourceFile) {
+                sourceFiles.add(sourceFile);
+            }
+        };
+    }
+}
@@ -0,0 +1,107 @@
+package server.workspace;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import server.bazel.cli.TargetListener;
+import server.bazel.tree.BuildTarget;
+import server.bazel.tree.Package;
+import server.bazel.tree.SourceFile;
+import server.bazel.tree.SourceLocation;
+import server.bazel.tree.WorkspaceTree;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+public class IndexCacheTest {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testSnapshotRoundTrip() throws IOException {
+        final IndexCache cache = new IndexCache(tempFolder.getRoot().toPath().resolve("ws.index"));
+        final WorkspaceTree tree = new WorkspaceTree(new Package("/"));
+        final WorkspaceTree.Node main = tree.getRoot().addChild(new Package("main"));
+        main.getValue().addBuildTarget(new BuildTarget(Paths.get("/main"), "lib", "java_library",
+                new SourceLocation(Paths.get("/ws/main/BUILD"), 4, 1),
+                ImmutableMap.of("srcs", Arrays.asList("Lib.java")),
+                Arrays.asList("//main:Lib.java")));
+        main.getValue().addSourceFile(new SourceFile("Lib.java", Paths.get("//main")));
+
+        cache.save(tree, new BuildFileStamps(42L, ImmutableMap.of("main", 7L)), ExtensionConfig.SyncBackend.streamedProto);
+
+        final List<BuildTarget> buildTargets = new ArrayList<>();
+        final List<SourceFile> sourceFiles = new ArrayList<>();
+        final Optional<BuildFileStamps> stamps = cache.load(ExtensionConfig.SyncBackend.streamedProto, collectInto(buildTargets, sourceFiles));
+
+        Assert.assertTrue(stamps.isPresent());
+        Assert.assertEquals(42L, stamps.get().getWorkspaceDigest());
+        Assert.assertEquals(Long.valueOf(7L), stamps.get().getPackageStamps().get("main"));
+
+        Assert.assertEquals(1, buildTargets.size());
+        final BuildTarget target = buildTargets.get(0);
+        Assert.assertEquals(main.getValue().getBuildTargets().get(0), target);
+        Assert.assertEquals(new SourceLocation(Paths.get("/ws/main/BUILD"), 4, 1), target.getLocation().get());
+        Assert.assertEquals(Arrays.asList("Lib.java"), target.getAttributes().get("srcs"));
+        Assert.assertEquals(Arrays.asList("//main:Lib.java"), target.getRuleInputs());
+
+        Assert.assertEquals(1, sourceFiles.size());
+        Assert.assertEquals("Lib.java", sourceFiles.get(0).getFileNameWithExtension());
+        Assert.assertEquals(Paths.get("//main"), sourceFiles.get(0).getPath());
+    }
+
+    @Test
+    public void testSnapshotFromAnotherBackendIsIgnored() throws IOException {
+        final IndexCache cache = new IndexCache(tempFolder.getRoot().toPath().resolve("ws.index"));
+        final WorkspaceTree tree = new WorkspaceTree(new Package("/"));
+        tree.getRoot().addChild(new Package("main")).getValue()
+                .addBuildTarget(new BuildTarget(Paths.get("/main"), "lib", "java_library"));
+        cache.save(tree, new BuildFileStamps(42L, ImmutableMap.of("main", 7L)), ExtensionConfig.SyncBackend.labelKind);
+
+        final List<BuildTarget> buildTargets = new ArrayList<>();
+        Assert.assertFalse(cache.load(ExtensionConfig.SyncBackend.streamedProto,
+                collectInto(buildTargets, new ArrayList<>())).isPresent());
+        Assert.assertTrue(buildTargets.isEmpty());
+        Assert.assertTrue(cache.load(ExtensionConfig.SyncBackend.labelKind,
+                collectInto(buildTargets, new ArrayList<>())).isPresent());
+        Assert.assertEquals(1, buildTargets.size());
+    }
+
+    @Test
+    public void testCorruptSnapshotIsIgnored() throws IOException {
+        final Path cacheFile = tempFolder.getRoot().toPath().resolve("ws.index");
+        Files.write(cacheFile, new byte[]{0x42, 0x5A, 0x4C, 0x53, 0, 0, 0, 2, 0x7F});
+
+        final IndexCache cache = new IndexCache(cacheFile);
+        Assert.assertFalse(cache.load(ExtensionConfig.SyncBackend.labelKind, collectInto(new ArrayList<>(), new ArrayList<>())).isPresent());
+    }
+
+    @Test
+    public void testMissingSnapshotIsIgnored() {
+        final IndexCache cache = new IndexCache(tempFolder.getRoot().toPath().resolve("missing.index"));
+        Assert.assertFalse(cache.load(ExtensionConfig.SyncBackend.labelKind, collectInto(Collections.emptyList(), Collections.emptyList())).isPresent());
+    }
+
+    private static TargetListener collectInto(List<BuildTarget> buildTargets, List<SourceFile> sourceFiles) {
+        return new TargetListener() {
+            @Override
+            public void onBuildTarget(BuildTarget target) {
+                buildTargets.add(target);
+            }
+
+            @Override
+            public void onSourceFile(SourceFile sourceFile) {
+                sourceFiles.add(sourceFile);
+            }
+        };
+    }
+}
@@ -0,0 +1,220 @@
+package server.workspace;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+import server.bazel.cli.BazelServerException;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SyncSchedulerTest {
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private Workspace workspace;
+    private SyncScheduler classUnderTest;
+    private CountDownLatch finished;
+    private AtomicInteger cancelled;
+    private SyncListener progress;
+
+    @Before
+    public void setup() {
+        workspace = Mockito.mock(Workspace.class);
+        Mockito.when(workspace.getSnapshot()).thenReturn(Workspace.getInstance().getSnapshot());
+        classUnderTest = new SyncScheduler(workspace, 50, 2000);
+        finished = new CountDownLatch(1);
+        cancelled = new AtomicInteger(0);
+        progress = new SyncListener() {
+        };
+        classUnderTest.addListener(new SyncScheduler.Listener() {
+            @Override
+            public void onSyncCompleted(boolean fullSync) {
+                finished.countDown();
+            }
+
+            @Override
+            public void onSyncCancelled(boolean fullSync) {
+                cancelled.incrementAndGet();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        classUnderTest.shutdown();
+    }
+
+    @Test
+    public void testBurstOfChangesProducesSingleSync() throws Exception {
+        final List<Path> changed = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            final Path file = Paths.get("/workspace/pkg" + i + "/BUILD");
+            changed.add(file);
+            classUnderTest.requestIncrementalSync(Collections.singletonList(file));
+        }
+
+        Assert.assertTrue(finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        @SuppressWarnings("unchecked")
+        final ArgumentCaptor<Collection<Path>> captor =
+                ArgumentCaptor.forClass(Collection.class);
+        Mockito.verify(workspace, Mockito.times(1)).syncChangedFiles(captor.capture());
+        Assert.assertEquals(changed, new ArrayList<>(captor.getValue()));
+        Mockito.verify(workspace, Mockito.never()).syncWorkspace();
+    }
+
+    @Test
+    public void testFullSyncAbsorbsPendingIncrementalSync() throws Exception {
+        classUnderTest.requestIncrementalSync(Collections.singletonList(Paths.get("/workspace/BUILD")));
+        classUnderTest.requestFullSync();
+
+        Assert.assertTrue(finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        Mockito.verify(workspace, Mockito.times(1)).syncWorkspace();
+        Mockito.verify(workspace, Mockito.never()).syncChangedFiles(Mockito.any());
+    }
+
+    @Test
+    public void testFullSyncSupersedesInFlightSync() throws Exception {
+        final CountDownLatch firstSyncStarted = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger(0);
+        Mockito.doAnswer(invocation -> {
+            if (calls.incrementAndGet() == 1) {
+                // Block like a long running query until the scheduler cancels it.
+                firstSyncStarted.countDown();
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new BazelServerException("cancelled");
+                }
+            }
+            return null;
+        }).when(workspace).syncWorkspace();
+
+        classUnderTest.requestFullSync();
+        Assert.assertTrue(firstSyncStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        Assert.assertEquals(SyncScheduler.State.syncing, classUnderTest.getStatus().getState());
+
+        classUnderTest.requestFullSync();
+        Assert.assertTrue(finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        Assert.assertEquals(1, cancelled.get());
+        Assert.assertEquals(2, calls.get());
+        Assert.assertNull(classUnderTest.getStatus().getLastError());
+    }
+
+    @Test
+    public void testFailedSyncIsReportedInStatus() throws Exception {
+        final CountDownLatch failed = new CountDownLatch(1);
+        classUnderTest.addListener(new SyncScheduler.Listener() {
+            @Override
+            public void onSyncFailed(boolean fullSync, BazelServerException e) {
+                failed.countDown();
+            }
+        });
+        Mockito.doThrow(new BazelServerException("no such package")).when(workspace).syncWorkspace();
+
+        classUnderTest.requestFullSync();
+
+        Assert.assertTrue(failed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        Assert.assertEquals(0, cancelled.get());
+        Assert.assertEquals("no such package", classUnderTest.getStatus().getLastError());
+    }
+
+    @Test
+    public void testUnexpectedFailureIsReportedToListeners() throws Exception {
+        final CountDownLatch failed = new CountDownLatch(1);
+        classUnderTest.addListener(new SyncScheduler.Listener() {
+            @Override
+            public void onSyncFailed(boolean fullSync, BazelServerException e) {
+                failed.countDown();
+            }
+        });
+        Mockito.doThrow(new IllegalStateException("broken tree")).when(workspace).syncWorkspace();
+
+        classUnderTest.requestFullSync();
+
+        Assert.assertTrue(failed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        Assert.assertTrue(classUnderTest.getStatus().getLastError().contains("broken tree"));
+    }
+
+    @Test
+    public void testSyncsRequestedDuringTheInitialLoadRunAfterIt() throws Exception {
+        final CountDownLatch loadStarted = new CountDownLatch(1);
+        final CountDownLatch releaseLoad = new CountDownLatch(1);
+        Mockito.doAnswer(invocation -> {
+            loadStarted.countDown();
+            releaseLoad.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            return null;
+        }).when(workspace).loadWorkspace();
+
+        final CompletableFuture<Void> loaded = classUnderTest.requestInitialLoad(progress);
+        Assert.assertTrue(loadStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        Assert.assertEquals(SyncScheduler.State.syncing, classUnderTest.getStatus().getState());
+
+        classUnderTest.requestIncrementalSync(Collections.singletonList(Paths.get("/workspace/BUILD")));
+        Thread.sleep(200);
+        Mockito.verify(workspace, Mockito.never()).syncChangedFiles(Mockito.any());
+
+        releaseLoad.countDown();
+        loaded.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        Assert.assertTrue(finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // The load's progress is only attached while the load runs.
+        final InOrder inOrder = Mockito.inOrder(workspace);
+        inOrder.verify(workspace).addSyncListener(progress);
+        inOrder.verify(workspace).loadWorkspace();
+        inOrder.verify(workspace).removeSyncListener(progress);
+        inOrder.verify(workspace).syncChangedFiles(Mockito.any());
+    }
+
+    @Test
+    public void testFullSyncCancelsTheInitialLoad() throws Exception {
+        final CountDownLatch loadStarted = new CountDownLatch(1);
+        Mockito.doAnswer(invocation -> {
+            loadStarted.countDown();
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new BazelServerException("cancelled");
+            }
+            return null;
+        }).when(workspace).loadWorkspace();
+
+        final CompletableFuture<Void> loaded = classUnderTest.requestInitialLoad(progress);
+        Assert.assertTrue(loadStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        classUnderTest.requestFullSync();
+
+        Assert.assertTrue(finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        Assert.assertTrue(loaded.isCancelled());
+        Mockito.verify(workspace, Mockito.times(1)).syncWorkspace();
+        Assert.assertNull(classUnderTest.getStatus().getLastError());
+    }
+
+    @Test
+    public void testFailedInitialLoadCompletesExceptionally() throws Exception {
+        Mockito.doThrow(new BazelServerException("no such package")).when(workspace).loadWorkspace();
+
+        try {
+            classUnderTest.requestInitialLoad(progress).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            Assert.fail("The load should have failed");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof BazelServerException);
+        }
+        Assert.assertEquals("no such package", classUnderTest.getStatus().getLastError());
+    }
+}
@@ -0,0 +1,182 @@
+package server.workspace;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import server.bazel.bazelWorkspaceAPI.WorkspaceAPI;
+import server.bazel.cli.TargetListener;
+import server.bazel.tree.BuildTarget;
+import server.bazel.tree.CompletionIndex;
+import server.bazel.tree.SourceFile;
+import server.bazel.tree.WorkspaceSnapshot;
+import server.bazel.tree.WorkspaceTree;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Syncs the workspace over and over while other threads read every index of whichever snapshot is
+ * published at the time. Each sync replaces all targets of a package with targets of a new kind,
+ * so a reader seeing a mix of kinds, or indexes disagreeing with the tree, has read a snapshot
+ * which was modified after it was published.
+ */
+public class WorkspaceStressTest {
+    private static final int TARGETS_PER_SYNC = 20;
+    private static final int SYNCS_PER_WRITER = 150;
+    private static final int PACKAGE_WRITERS = 2;
+    private static final int READERS = 4;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Workspace classUnderTest;
+    private AtomicInteger syncCount;
+
+    @Before
+    public void setup() throws Exception {
+        final Path root = tempFolder.getRoot().toPath();
+        Files.createDirectories(root.resolve("main"));
+        Files.createFile(root.resolve("main/BUILD"));
+
+        classUnderTest = Mockito.spy(Workspace.getInstance());
+        classUnderTest.setRootFolder(ProjectFolder.fromURI(root.toUri()));
+        syncCount = new AtomicInteger();
+        Mockito.doAnswer(invocation -> {
+            replaySync(invocation.getArgument(0));
+            return null;
+        }).when(classUnderTest).queryAllTargets(Mockito.any());
+        Mockito.doAnswer(invocation -> {
+            replaySync(invocation.getArgument(1));
+            return null;
+        }).when(classUnderTest).queryAllTargets(Mockito.eq("main"), Mockito.any());
+
+        // Start from a snapshot indexed from scratch, whatever earlier tests left behind.
+        classUnderTest.syncWorkspace();
+    }
+
+    @After
+    public void tearDown() {
+        classUnderTest.getWorkspaceTree().clearBelowPath("/");
+    }
+
+    private void replaySync(TargetListener listener) {
+        final int sync = syncCount.incrementAndGet();
+        final String source = String.format("v%d.txt", sync);
+        for (int i = 0; i < TARGETS_PER_SYNC; i++) {
+            listener.onBuildTarget(new BuildTarget(Paths.get("/main"), "t" + i, "kind_" + sync, null,
+                    Collections.emptyMap(), Collections.singletonList("//main:" + source)));
+        }
+        listener.onSourceFile(new SourceFile(source, Paths.get("/main")));
+    }
+
+    @Test
+    public void readersNeverSeeTornSnapshots() throws Exception {
+        final Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean syncing = new AtomicBoolean(true);
+        final AtomicInteger snapshotsRead = new AtomicInteger();
+
+        final List<Thread> writers = new ArrayList<>();
+        for (int i = 0; i < PACKAGE_WRITERS; i++) {
+            writers.add(new Thread(() -> {
+                try {
+                    for (int sync = 0; sync < SYNCS_PER_WRITER; sync++) {
+                        classUnderTest.syncPackage("main");
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }));
+        }
+        writers.add(new Thread(() -> {
+            try {
+                for (int sync = 0; sync < SYNCS_PER_WRITER / 10; sync++) {
+                    classUnderTest.syncWorkspace();
+                }
+            } catch (Throwable e) {
+                failures.add(e);
+            }
+        }));
+
+        final List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            readers.add(new Thread(() -> {
+                long lastGeneration = -1;
+                try {
+                    while (syncing.get() && failures.isEmpty()) {
+                        final WorkspaceSnapshot snapshot = classUnderTest.getSnapshot();
+                        Assert.assertTrue(snapshot.getGeneration() >= lastGeneration);
+                        lastGeneration = snapshot.getGeneration();
+                        checkSnapshot(snapshot, false);
+                        snapshotsRead.incrementAndGet();
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }));
+        }
+
+        readers.forEach(Thread::start);
+        writers.forEach(Thread::start);
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        syncing.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        if (!failures.isEmpty()) {
+            throw new AssertionError("A reader or writer failed", failures.peek());
+        }
+        Assert.assertTrue(snapshotsRead.get() > 0);
+        checkSnapshot(classUnderTest.getSnapshot(), true);
+    }
+
+    /**
+     * @param indexed Whether the snapshot's own completion index must have been built. While syncs
+     *                are running, a snapshot may still serve the previous generation's.
+     */
+    private static void checkSnapshot(WorkspaceSnapshot snapshot, boolean indexed) throws Exception {
+        final Optional<WorkspaceTree.Node> main = snapshot.getTree().getRoot().getChild("main");
+        Assert.assertTrue(main.isPresent());
+        final List<BuildTarget> targets = main.get().getValue().getBuildTargets();
+        final String kind = targets.get(0).getKind();
+        final String source = String.format("v%s.txt", kind.substring("kind_".length()));
+        Assert.assertEquals(TARGETS_PER_SYNC, targets.size());
+        for (BuildTarget target : targets) {
+            Assert.assertEquals(kind, target.getKind());
+            Assert.assertSame(target, snapshot.getLabels().find("//main:" + target.getLabel()).get());
+        }
+        Assert.assertEquals(TARGETS_PER_SYNC, snapshot.getLabels().size());
+
+        Assert.assertEquals(1, main.get().getValue().getSourceFiles().size());
+        Assert.assertTrue(snapshot.getSources().findSourceFile(Paths.get("/main/" + source)).isPresent());
+        Assert.assertEquals(TARGETS_PER_SYNC, snapshot.getSources().findConsumers(Paths.get("/main/" + source)).size());
+
+        // The targets match as typed, then the package itself matches the "main" part.
+        final List<CompletionIndex.Match> matches = snapshot.getCompletions().complete("//main:", TARGETS_PER_SYNC + 2);
+        Assert.assertEquals(TARGETS_PER_SYNC + 1, matches.size());
+        final String completedKind = indexed ? kind : matches.get(0).getKind();
+        for (CompletionIndex.Match match : matches.subList(0, TARGETS_PER_SYNC)) {
+            Assert.assertEquals(completedKind, match.getKind());
+        }
+        Assert.assertTrue(matches.get(TARGETS_PER_SYNC).isPackage());
+
+        final WorkspaceAPI api = new WorkspaceAPI(snapshot);
+        Assert.assertEquals(TARGETS_PER_SYNC, api.findPossibleTargetsForPath(Paths.get("/main")).size());
+        Assert.assertEquals(TARGETS_PER_SYNC, api.findReverseDependencies("//main:" + source, 1).size());
+    }
+}
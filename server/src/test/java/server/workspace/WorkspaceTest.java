@@ -3,19 +3,33 @@ package server.workspace;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mockito;
 import server.bazel.cli.BazelServerException;
+import server.bazel.cli.QueryError;
+import server.bazel.cli.TargetListener;
 import server.bazel.tree.BuildTarget;
 import server.bazel.tree.SourceFile;
+import server.bazel.tree.SourceLocation;
+import server.bazel.tree.WorkspaceSnapshot;
 import server.bazel.tree.WorkspaceTree;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
 public class WorkspaceTest {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     private Workspace classUnderTest;
     private List<BuildTarget> mockBuildTargetList;
     private List<SourceFile> mockSourceFileList;
@@ -26,8 +40,10 @@ public class WorkspaceTest {
         mockBuildTargetList = new ArrayList<>();
         mockSourceFileList = new ArrayList<>();
 
-        Mockito.doReturn(mockBuildTargetList).when(classUnderTest).getBuildTargets();
-        Mockito.doReturn(mockSourceFileList).when(classUnderTest).getSourceFiles();
+        Mockito.doAnswer(invocation -> {
+            replay(invocation.getArgument(0), mockBuildTargetList, mockSourceFileList);
+            return null;
+        }).when(classUnderTest).queryAllTargets(Mockito.any());
     }
 
     @After
@@ -96,6 +112,345 @@ public class WorkspaceTest {
         Assert.assertEquals(3, node.get().getValue().getBuildTargets().size());
     }
 
+    @Test
+    public void testSyncPackageOnlyReplacesThatPackage() throws BazelServerException, IOException {
+        final Path root = tempFolder.getRoot().toPath();
+        Files.createDirectories(root.resolve("main/java"));
+        Files.createFile(root.resolve("main/java/BUILD"));
+        classUnderTest.setRootFolder(ProjectFolder.fromURI(root.toUri()));
+
+        mockBuildTargetList.add(new BuildTarget(Paths.get("main"), "test_1", "test"));
+        mockBuildTargetList.add(new BuildTarget(Paths.get("main/java"), "test_2", "test"));
+        classUnderTest.syncWorkspace();
+
+        final List<BuildTarget> packageTargets = new ArrayList<>();
+        packageTargets.add(new BuildTarget(Paths.get("main/java"), "test_3", "test"));
+        packageTargets.add(new BuildTarget(Paths.get("main/java"), "test_4", "test"));
+        final List<SourceFile> packageSources = new ArrayList<>();
+        packageSources.add(new SourceFile("TestFile1.java", Paths.get("main/java")));
+        Mockito.doAnswer(invocation -> {
+            replay(invocation.getArgument(1), packageTargets, packageSources);
+            return null;
+        }).when(classUnderTest).queryAllTargets(Mockito.eq("main/java"), Mockito.any());
+
+        classUnderTest.syncChangedFiles(Collections.singletonList(root.resolve("main/java/BUILD")));
+
+        WorkspaceTree.Node main = classUnderTest.getWorkspaceTree().getRoot().getChild("main").get();
+        WorkspaceTree.Node java = main.getChild("java").get();
+        Assert.assertEquals(1, main.getValue().getBuildTargets().size());
+        Assert.assertEquals(2, java.getValue().getBuildTargets().size());
+        Assert.assertEquals(1, java.getValue().getSourceFiles().size());
+        Mockito.verify(classUnderTest, Mockito.times(1)).queryAllTargets(Mockito.any());
+    }
+
+    @Test
+    public void testSyncChangedFilesClearsDeletedPackage() throws BazelServerException, IOException {
+        final Path root = tempFolder.getRoot().toPath();
+        Files.createDirectories(root.resolve("main/java"));
+        Files.createFile(root.resolve("main/BUILD"));
+        classUnderTest.setRootFolder(ProjectFolder.fromURI(root.toUri()));
+
+        mockBuildTargetList.add(new BuildTarget(Paths.get("main"), "test_1", "test"));
+        mockBuildTargetList.add(new BuildTarget(Paths.get("main/java"), "test_2", "test"));
+        classUnderTest.syncWorkspace();
+
+        final List<BuildTarget> parentTargets = new ArrayList<>();
+        parentTargets.add(new BuildTarget(Paths.get("main"), "test_1", "test"));
+        Mockito.doAnswer(invocation -> {
+            replay(invocation.getArgument(1), parentTargets, new ArrayList<>());
+            return null;
+        }).when(classUnderTest).queryAllTargets(Mockito.eq("main"), Mockito.any());
+
+        classUnderTest.syncChangedFiles(Collections.singletonList(root.resolve("main/java/BUILD")));
+
+        WorkspaceTree.Node main = classUnderTest.getWorkspaceTree().getRoot().getChild("main").get();
+        Assert.assertTrue(main.getChild("java").get().getValue().getBuildTargets().isEmpty());
+        Mockito.verify(classUnderTest, Mockito.times(1)).queryAllTargets(Mockito.eq("main"), Mockito.any());
+        Mockito.verify(classUnderTest, Mockito.never()).queryAllTargets(Mockito.eq("main/java"), Mockito.any());
+    }
+
+    @Test
+    public void testSyncRecordsBuildFilesOfPackages() throws BazelServerException, IOException {
+        final Path root = tempFolder.getRoot().toPath();
+        Files.createDirectories(root.resolve("main"));
+        Files.createDirectories(root.resolve("tools"));
+        Files.createFile(root.resolve("main/BUILD"));
+        Files.createFile(root.resolve("tools/BUILD"));
+        Files.createFile(root.resolve("tools/BUILD.bazel"));
+        classUnderTest.setRootFolder(ProjectFolder.fromURI(root.toUri()));
+
+        mockBuildTargetList.add(new BuildTarget(Paths.get("/main"), "test_1", "test"));
+        mockBuildTargetList.add(new BuildTarget(Paths.get("/tools"), "test_2", "test"));
+        classUnderTest.syncWorkspace();
+
+        WorkspaceTree.Node rootNode = classUnderTest.getWorkspaceTree().getRoot();
+        Assert.assertEquals(Optional.of(root.resolve("main/BUILD")),
+                rootNode.getChild("main").get().getValue().getBuildFile());
+        Assert.assertEquals(Optional.of(root.resolve("tools/BUILD.bazel")),
+                rootNode.getChild("tools").get().getValue().getBuildFile());
+        Assert.assertEquals(Optional.of(root.resolve("main/BUILD").toAbsolutePath()),
+                classUnderTest.getSnapshot().getLocations().findBuildFile("main"));
+    }
+
+    @Test
+    public void testFullSyncResyncsPackagesSplicedDuringIt() throws BazelServerException, IOException {
+        final Path root = tempFolder.getRoot().toPath();
+        Files.createDirectories(root.resolve("main"));
+        Files.createFile(root.resolve("main/BUILD"));
+        classUnderTest.setRootFolder(ProjectFolder.fromURI(root.toUri()));
+
+        final List<BuildTarget> packageTargets = new ArrayList<>();
+        packageTargets.add(new BuildTarget(Paths.get("/main"), "test_2", "test"));
+        Mockito.doAnswer(invocation -> {
+            replay(invocation.getArgument(1), packageTargets, new ArrayList<>());
+            return null;
+        }).when(classUnderTest).queryAllTargets(Mockito.eq("main"), Mockito.any());
+
+        // The BUILD file is saved while the full query runs, and the incremental sync of it
+        // publishes before the full sync does.
+        Mockito.doAnswer(invocation -> {
+            replay(invocation.getArgument(0), Collections.singletonList(
+                    new BuildTarget(Paths.get("/main"), "test_1", "test")), new ArrayList<>());
+            classUnderTest.syncPackage("main");
+            return null;
+        }).when(classUnderTest).queryAllTargets(Mockito.any());
+
+        classUnderTest.syncWorkspace();
+
+        WorkspaceTree.Node main = classUnderTest.getWorkspaceTree().getRoot().getChild("main").get();
+        Assert.assertEquals(packageTargets, main.getValue().getBuildTargets());
+        Assert.assertTrue(classUnderTest.getSnapshot().getLabels().find("//main:test_2").isPresent());
+        Mockito.verify(classUnderTest, Mockito.times(2)).queryAllTargets(Mockito.eq("main"), Mockito.any());
+    }
+
+    @Test
+    public void testSyncChangedFilesFallsBackToFullSync()throws BazelServerException, IOException {
+        final Path root = tempFolder.getRoot().toPath();
+        classUnderTest.setRootFolder(ProjectFolder.fromURI(root.toUri()));
+
+        classUnderTest.syncChangedFiles(Collections.singletonList(root.resolve("tools/defs.bzl")));
+
+        Mockito.verify(classUnderTest, Mockito.times(1)).syncWorkspace();
+    }
+
+    @Test
+    public void testLoadWorkspaceUsesIndexFromPreviousSync() throws BazelServerException, IOException {
+        final Path root = tempFolder.newFolder("ws").toPath();
+        Files.createDirectories(root.resolve("main"));
+        Files.createFile(root.resolve("main/BUILD"));
+        classUnderTest.setRootFolder(ProjectFolder.fromURI(root.toUri()));
+        classUnderTest.setIndexCache(new IndexCache(tempFolder.getRoot().toPath().resolve("cache/ws.index")));
+
+        mockSourceFileList.add(new SourceFile("TestFile1.java", Paths.get("//main")));
+        mockBuildTargetList.add(new BuildTarget(Paths.get("/main"), "test_1", "test"));
+        classUnderTest.syncWorkspace();
+        classUnderTest.loadWorkspace();
+
+        WorkspaceTree.Node main = classUnderTest.getWorkspaceTree().getRoot().getChild("main").get();
+        Assert.assertEquals(1, main.getValue().getBuildTargets().size());
+        Assert.assertEquals(1, main.getValue().getSourceFiles().size());
+        Mockito.verify(classUnderTest, Mockito.times(1)).queryAllTargets(Mockito.any());
+        Mockito.verify(classUnderTest, Mockito.never()).queryAllTargets(Mockito.anyString(), Mockito.any());
+    }
+
+    @Test
+    public void testFailedOrEmptySyncIsNotSaved() throws IOException {
+        final Path root = tempFolder.newFolder("ws").toPath();
+        Files.createDirectories(root.resolve("main"));
+        Files.createFile(root.resolve("main/BUILD"));
+        classUnderTest.setRootFolder(ProjectFolder.fromURI(root.toUri()));
+        final IndexCache cache = new IndexCache(tempFolder.getRoot().toPath().resolve("cache/ws.index"));
+        classUnderTest.setIndexCache(cache);
+
+        try {
+            classUnderTest.syncWorkspace();
+        } catch (BazelServerException e) {
+            Assert.fail(e.getMessage());
+        }
+        Assert.assertFalse(Files.exists(cache.getCacheFile()));
+
+        try {
+            Mockito.doThrow(new BazelServerException("query failed")).when(classUnderTest).queryAllTargets(Mockito.any());
+            classUnderTest.syncWorkspace();
+            Assert.fail("Expected the sync to fail.");
+        } catch (BazelServerException e) {
+            Assert.assertFalse(Files.exists(cache.getCacheFile()));
+        }
+    }
+
+    @Test
+    public void testLoadWorkspaceRequeriesStalePackages()throws BazelServerException, IOException {
+        final Path root = tempFolder.newFolder("ws").toPath();
+        Files.createDirectories(root.resolve("main"));
+        Files.createDirectories(root.resolve("other"));
+        Files.createFile(root.resolve("main/BUILD"));
+        Files.createFile(root.resolve("other/BUILD"));
+        classUnderTest.setRootFolder(ProjectFolder.fromURI(root.toUri()));
+        classUnderTest.setIndexCache(new IndexCache(tempFolder.getRoot().toPath().resolve("cache/ws.index")));
+
+        mockBuildTargetList.add(new BuildTarget(Paths.get("/main"), "test_1", "test"));
+        mockBuildTargetList.add(new BuildTarget(Paths.get("/other"), "test_2", "test"));
+        classUnderTest.syncWorkspace();
+
+        final List<BuildTarget> packageTargets = new ArrayList<>();
+        packageTargets.add(new BuildTarget(Paths.get("/main"), "test_3", "test"));
+        packageTargets.add(new BuildTarget(Paths.get("/main"), "test_4", "test"));
+        Mockito.doAnswer(invocation -> {
+            replay(invocation.getArgument(1), packageTargets, new ArrayList<>());
+            return null;
+        }).when(classUnderTest).queryAllTargets(Mockito.eq("main"), Mockito.any());
+        Files.write(root.resolve("main/BUILD"), "java_library(name = \"test_3\")".getBytes());
+
+        classUnderTest.loadWorkspace();
+
+        WorkspaceTree.Node rootNode = classUnderTest.getWorkspaceTree().getRoot();
+        Assert.assertEquals(2, rootNode.getChild("main").get().getValue().getBuildTargets().size());
+        Assert.assertEquals(1, rootNode.getChild("other").get().getValue().getBuildTargets().size());
+        Mockito.verify(classUnderTest, Mockito.times(1)).queryAllTargets(Mockito.any());
+        Mockito.verify(classUnderTest, Mockito.never()).queryAllTargets(Mockito.eq("other"), Mockito.any());
+    }
+
+    @Test
+    public void testSyncWorkspaceBuildsTreeFromSingleQuery() throws BazelServerException {
+        mockSourceFileList.add(new SourceFile("TestFile1.java", Paths.get("main")));
+        mockBuildTargetList.add(new BuildTarget(Paths.get("main"), "test_1", "test"));
+
+        classUnderTest.syncWorkspace();
+
+        WorkspaceTree.Node main = classUnderTest.getWorkspaceTree().getRoot().getChild("main").get();
+        Assert.assertEquals(1, main.getValue().getBuildTargets().size());
+        Assert.assertEquals(1, main.getValue().getSourceFiles().size());
+        Mockito.verify(classUnderTest, Mockito.times(1)).queryAllTargets(Mockito.any());
+    }
+
+    @Test
+    public void testSyncPublishesNewSnapshotWithoutTouchingPrevious() throws BazelServerException, IOException {
+        final Path root = tempFolder.getRoot().toPath();
+        Files.createDirectories(root.resolve("main"));
+        Files.createFile(root.resolve("main/BUILD"));
+        classUnderTest.setRootFolder(ProjectFolder.fromURI(root.toUri()));
+
+        mockBuildTargetList.add(new BuildTarget(Paths.get("main"), "test_1", "test"));
+        final WorkspaceSnapshot before = classUnderTest.getSnapshot();
+        classUnderTest.syncWorkspace();
+        final WorkspaceSnapshot synced = classUnderTest.getSnapshot();
+
+        Assert.assertEquals(before.getGeneration() + 1, synced.getGeneration());
+        Assert.assertFalse(before.getTree().getRoot().getChild("main").isPresent());
+
+        final List<BuildTarget> packageTargets = new ArrayList<>();
+        packageTargets.add(new BuildTarget(Paths.get("main"), "test_2", "test"));
+        packageTargets.add(new BuildTarget(Paths.get("main"), "test_3", "test"));
+        Mockito.doAnswer(invocation -> {
+            replay(invocation.getArgument(1), packageTargets, new ArrayList<>());
+            return null;
+        }).when(classUnderTest).queryAllTargets(Mockito.eq("main"), Mockito.any());
+        classUnderTest.syncPackage("main");
+
+        Assert.assertEquals(synced.getGeneration() + 1, classUnderTest.getSnapshot().getGeneration());
+        Assert.assertEquals(1, synced.getTree().getRoot().getChild("main").get().getValue().getBuildTargets().size());
+        Assert.assertEquals(2, classUnderTest.getWorkspaceTree().getRoot().getChild("main").get()
+                .getValue().getBuildTargets().size());
+
+        Assert.assertTrue(synced.getLabels().find("//main:test_1").isPresent());
+        Assert.assertFalse(classUnderTest.getSnapshot().getLabels().find("//main:test_1").isPresent());
+        Assert.assertTrue(classUnderTest.getSnapshot().getLabels().find("//main:test_3").isPresent());
+    }
+
+    @Test
+    public void testSyncNotifiesListenersOfProgressAndPublication() throws BazelServerException {
+        for (int i = 0; i < 1000; i++) {
+            mockBuildTargetList.add(new BuildTarget(Paths.get("pkg" + (i % 10)), "test_" + i, "test"));
+        }
+
+        final List<Integer> reportedPackages = new ArrayList<>();
+        final List<WorkspaceSnapshot> published = new ArrayList<>();
+        final SyncListener listener = new SyncListener() {
+            @Override
+            public void onSyncProgress(int packages, int buildTargets, int sourceFiles) {
+                reportedPackages.add(packages);
+            }
+
+            @Override
+            public void onSnapshotPublished(WorkspaceSnapshot snapshot) {
+                published.add(snapshot);
+            }
+        };
+
+        classUnderTest.addSyncListener(listener);
+        try {
+            classUnderTest.syncWorkspace();
+        } finally {
+            classUnderTest.removeSyncListener(listener);
+        }
+
+        Assert.assertEquals(Collections.singletonList(10), reportedPackages);
+        Assert.assertEquals(1, published.size());
+        Assert.assertSame(classUnderTest.getSnapshot(), published.get(0));
+        Assert.assertTrue(classUnderTest.isIndexed());
+    }
+
+    @Test
+    public void testShardExpressionsGroupByTopLevelDirectory() {
+        final List<String> shards = Workspace.shardExpressions(
+                Arrays.asList("", "tools", "main/java", "main/cc", "main", "third_party/guava"));
+
+        Assert.assertEquals(Arrays.asList(
+                "//main/...:*", "//third_party/...:*", "//tools/...:*", "//:*"), shards);
+    }
+
+    @Test
+    public void testShardedSyncKeepsPartialResultsAndErrors() throws BazelServerException, IOException {
+        final Path root = tempFolder.getRoot().toPath();
+        Files.createDirectories(root.resolve("main"));
+        Files.createFile(root.resolve("main/BUILD"));
+        classUnderTest.setRootFolder(ProjectFolder.fromURI(root.toUri()));
+        classUnderTest.setExtensionConfig(shardedConfig());
+        final IndexCache cache = new IndexCache(tempFolder.getRoot().toPath().resolve("cache/ws.index"));
+        classUnderTest.setIndexCache(cache);
+
+        final QueryError error = new QueryError("//broken/...:*", "syntax error",
+                new SourceLocation(root.resolve("broken/BUILD"), 3, 1));
+        Mockito.doAnswer(invocation -> {
+            replay(invocation.getArgument(1), Collections.singletonList(
+                    new BuildTarget(Paths.get("main"), "test_1", "test")), new ArrayList<>());
+            return Collections.singletonList(error);
+        }).when(classUnderTest).queryAllTargetsSharded(Mockito.any(), Mockito.any());
+
+        try {
+            classUnderTest.syncWorkspace();
+        } finally {
+            classUnderTest.setExtensionConfig(null);
+        }
+
+        WorkspaceTree.Node main = classUnderTest.getWorkspaceTree().getRoot().getChild("main").get();
+        Assert.assertEquals(1, main.getValue().getBuildTargets().size());
+        Assert.assertEquals(Collections.singletonList(error), classUnderTest.getQueryErrors());
+        Assert.assertFalse(Files.exists(cache.getCacheFile()));
+        Mockito.verify(classUnderTest, Mockito.never()).queryAllTargets(Mockito.any());
+
+        // Once the broken package syncs successfully its errors are dropped.
+        Files.createDirectories(root.resolve("broken"));
+        Files.createFile(root.resolve("broken/BUILD"));
+        Mockito.doAnswer(invocation -> null)
+                .when(classUnderTest).queryAllTargets(Mockito.eq("broken"), Mockito.any());
+        classUnderTest.syncPackage("broken");
+        Assert.assertTrue(classUnderTest.getQueryErrors().isEmpty());
+    }
+
+    private static ExtensionConfig shardedConfig() {
+        final ExtensionConfig.Bazel bazel = new ExtensionConfig.Bazel();
+        bazel.setShardedSync(true);
+        final ExtensionConfig config = new ExtensionConfig();
+        config.setBazel(bazel);
+        return config;
+    }
+
+    private static void replay(TargetListener listener, List<BuildTarget> buildTargets, List<SourceFile> sourceFiles) {
+        buildTargets.forEach(listener::onBuildTarget);
+        sourceFiles.forEach(listener::onSourceFile);
+    }
+
     private void checkChildrenCount(WorkspaceTree.Node node, int expectedCount) {
         if(!node.isLeaf()) {
             Assert.assertEquals(expectedCount, node.getChildren().size());